@@ -0,0 +1,95 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import connections.Ipv4Address;
+
+/**
+ * Asignaciones en el tratamiento de direcciones de cada marco, para comparar con la versión anterior
+ * a Ipv4Address. Se lanza con el perfilador de memoria de JMH, que da los bytes asignados por operación
+ * (gc.alloc.rate.norm):
+ * java -jar bench/target/benchmarks.jar AddressBenchmark -prof gc
+ * "regex" valida como la antigua MyP2P.isValidIp, compilando el patrón en cada llamada, y "validate"
+ * como Ipv4Address.isValid. "compareStrings" compara las IPs del remitente y el destino en texto, como
+ * hacía handleFrame con cada marco, y "compareInts" las compara empaquetadas. "format" es lo que cuesta
+ * volver al texto, que ahora solo se hace al entregar un mensaje.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AddressBenchmark {
+
+	private static final String IPV4_PATTERN =
+			"^(([0-9]|[1-9][0-9]|1[0-9][0-9]|2[0-4][0-9]|25[0-5])(\\.(?!$)|$)){4}$";
+
+	private static final int ADDRESSES = 256;
+
+	private final String[] texts = new String[ADDRESSES];
+	private final String[] copies = new String[ADDRESSES];
+	private final int[] packed = new int[ADDRESSES];
+	private final int[] packedCopies = new int[ADDRESSES];
+	private int next;
+
+	@Setup
+	public void setup() {
+		for(int i = 0; i < ADDRESSES; ++i) {
+			texts[i] = "10." + (i % 7) + "." + (i / 7) + "." + (i * 37 % 256);
+			// Una cadena distinta con el mismo texto, como la que llega en cada marco
+			copies[i] = new String(texts[i].toCharArray());
+			packed[i] = Ipv4Address.parse(texts[i]);
+			packedCopies[i] = Ipv4Address.parse(copies[i]);
+		}
+	}
+
+	private int next() {
+		next = (next + 1) & (ADDRESSES - 1);
+		return next;
+	}
+
+	@Benchmark
+	public boolean regex() {
+		return Pattern.compile(IPV4_PATTERN).matcher(texts[next()]).matches();
+	}
+
+	@Benchmark
+	public boolean validate() {
+		return Ipv4Address.isValid(texts[next()]);
+	}
+
+	@Benchmark
+	public int parse() {
+		return Ipv4Address.parse(texts[next()]);
+	}
+
+	@Benchmark
+	public boolean compareStrings() {
+		int i = next();
+		return texts[i].equals(copies[i]);
+	}
+
+	@Benchmark
+	public boolean compareInts() {
+		int i = next();
+		return packed[i] == packedCopies[i];
+	}
+
+	@Benchmark
+	public String format() {
+		return Ipv4Address.toString(packed[next()]);
+	}
+}
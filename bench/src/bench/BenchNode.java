@@ -0,0 +1,58 @@
+package bench;
+
+import java.util.ArrayList;
+
+import connections.HealthPolicy;
+import connections.TransportMode;
+import controller.MyP2P;
+import controller.NodeConfig;
+
+/**
+ * Nodo de las pruebas de rendimiento: escucha en un puerto efímero, sin registro en disco ni vista,
+ * y no tiene peers reales: todos sus vecinos son NullLink.
+ */
+public final class BenchNode {
+
+	/**
+	 * IP con la que los NullLink se presentan al nodo como extremo local.
+	 */
+	public static final String LOCAL_IP = "10.255.255.254";
+
+	private BenchNode() {}
+
+	public static NodeConfig config() {
+		return new NodeConfig()
+				.setTransportMode(TransportMode.THREAD)
+				.setServerPort(0)
+				.setStoreDirectory(null)
+				// Todos los vecinos en la vista activa: que Membership no cierre ninguno durante la prueba
+				.setActiveViewSize(4096)
+				// Los NullLink no contestan a los pings: que el chequeo de salud no los cierre
+				.setHealthPolicy(new HealthPolicy(3_600_000, 3_600_000, 1));
+	}
+
+	public static MyP2P start() {
+		return new MyP2P(new ArrayList<>(), config());
+	}
+
+	/**
+	 * Añade un vecino con un enlace sin red.
+	 */
+	public static NullLink attach(MyP2P node, String ip) {
+		NullLink link = new NullLink(ip, LOCAL_IP);
+		node.addPeer(ip);
+		node.getPeers().get(ip).attach(link);
+		return link;
+	}
+
+	/**
+	 * Texto de chat de un tamaño dado, repetitivo como el de verdad para que la compresión tenga efecto.
+	 */
+	public static String payload(int size) {
+		StringBuilder text = new StringBuilder(size);
+		while(text.length() < size) {
+			text.append("hola, ¿qué tal va la prueba de rendimiento? ").append(text.length() % 97).append(' ');
+		}
+		return text.substring(0, size);
+	}
+}
@@ -0,0 +1,66 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import connections.Connection;
+import connections.Ipv4Address;
+import controller.MyP2P;
+import view.Frame;
+
+/**
+ * Reparto de un marco a muchos vecinos: MyP2P.resend de un marco sin ruta (se inunda a todos)
+ * y MyP2P.sendMessage a "*" (el árbol de difusión: eager a unos y IHAVE al resto).
+ * Los vecinos son NullLink, así que se mide solo el coste del nodo, no el del socket.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanOutBenchmark {
+
+	@Param({"10", "100", "1000"})
+	public int peers;
+
+	private MyP2P node;
+	private Frame frame;
+
+	@Setup
+	public void setup() {
+		node = BenchNode.start();
+		for(int i = 0; i < peers; i++) {
+			BenchNode.attach(node, "10.1." + (i >> 8) + "." + (i & 0xFF));
+		}
+		// Destino sin ruta: se reenvía a todos los vecinos menos al que lo envió (ninguno)
+		frame = new Frame();
+		frame.setFrameType(Frame.FrameType.MESSAGE);
+		frame.setHeader(Connection.MESSAGE_TTL, Ipv4Address.parse("10.2.0.1"), Ipv4Address.parse("10.3.0.1"));
+		frame.setPayload("fan-out benchmark payload");
+		frame.setMessageId(1);
+	}
+
+	@TearDown
+	public void tearDown() {
+		node.stop();
+	}
+
+	@Benchmark
+	public void resend() {
+		node.resend(Ipv4Address.ANY, frame);
+	}
+
+	@Benchmark
+	public void sendMessageBroadcast() {
+		node.sendMessage("*", "fan-out benchmark payload");
+	}
+}
@@ -0,0 +1,94 @@
+package bench;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import connections.FrameCodec;
+import connections.Ipv4Address;
+import connections.LinkStats;
+import controller.NodeConfig;
+import view.Frame;
+
+/**
+ * Latencia de ida y vuelta de un marco por loopback con el codec binario: el cliente escribe un PING,
+ * el eco lo devuelve como PING_ACK y se cronometra hasta leerlo. Incluye la codificación, la compresión
+ * de los payloads grandes, el socket y la decodificación en ambos extremos.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoopbackRttBenchmark {
+
+	@Param({"16", "1024", "16384"})
+	public int payloadBytes;
+
+	private ServerSocket server;
+	private Socket socket;
+	private FrameCodec codec;
+	private Frame ping;
+
+	@Setup
+	public void setup() throws IOException {
+		int compressionThreshold = new NodeConfig().getCompressionThreshold();
+		server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+		Thread echo = new Thread(() -> echo(server, compressionThreshold), "rtt-echo");
+		echo.setDaemon(true);
+		echo.start();
+		socket = new Socket();
+		socket.setTcpNoDelay(true);
+		socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort()));
+		codec = FrameCodec.negotiate(socket, false, compressionThreshold, new LinkStats());
+		ping = new Frame();
+		ping.setFrameType(Frame.FrameType.PING);
+		ping.setHeader(1, Ipv4Address.parse("127.0.0.1"), Ipv4Address.parse("127.0.0.1"));
+		ping.setPayload("x".repeat(payloadBytes));
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		socket.close();
+		server.close();
+	}
+
+	@Benchmark
+	public Frame roundTrip() throws IOException {
+		codec.writeFrame(ping);
+		codec.flush();
+		return codec.readFrame();
+	}
+
+	private static void echo(ServerSocket server, int compressionThreshold) {
+		try (Socket socket = server.accept()) {
+			socket.setTcpNoDelay(true);
+			FrameCodec codec = FrameCodec.negotiate(socket, false, compressionThreshold, new LinkStats());
+			while(true) {
+				Frame frame = codec.readFrame();
+				frame.setFrameType(Frame.FrameType.PING_ACK);
+				codec.writeFrame(frame);
+				codec.flush();
+			}
+		} catch (IOException e) {
+			// El cliente ha cerrado: fin de la prueba
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package bench;
+
+import connections.BackpressurePolicy;
+import connections.BinaryFrameCodec;
+import connections.Connection;
+import connections.Ipv4Address;
+import connections.Link;
+import connections.LinkStats;
+import connections.OutboundQueue;
+import view.Frame;
+
+/**
+ * Enlace sin red para las pruebas: cuenta los marcos que se le envían y los descarta.
+ * Sirve para medir el reparto de MyP2P y Connection sin el coste del socket.
+ */
+public final class NullLink implements Link {
+
+	private final String remoteIp;
+	private final String localIp;
+	private final int localAddress;
+	private final OutboundQueue queue;
+	private final LinkStats stats;
+	private volatile boolean open;
+	private long sent;
+
+	public NullLink(String remoteIp, String localIp) {
+		this.remoteIp = remoteIp;
+		this.localIp = localIp;
+		this.localAddress = Ipv4Address.parse(localIp);
+		this.queue = new OutboundQueue(16, BackpressurePolicy.DROP_OLDEST);
+		this.stats = new LinkStats();
+		this.open = true;
+	}
+
+	@Override
+	public void start(Connection connection) {}
+
+	@Override
+	public void send(Frame frame) {
+		++sent;
+	}
+
+	/**
+	 * Marcos enviados por el enlace. No es atómico: solo para comprobar el reparto al acabar.
+	 */
+	public long getSent() {
+		return sent;
+	}
+
+	@Override
+	public OutboundQueue getOutboundQueue() {
+		return queue;
+	}
+
+	@Override
+	public LinkStats getStats() {
+		return stats;
+	}
+
+	@Override
+	public void close() {
+		open = false;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public int getVersion() {
+		return BinaryFrameCodec.VERSION;
+	}
+
+	@Override
+	public String getLocalIp() {
+		return localIp;
+	}
+
+	@Override
+	public int getLocalAddress() {
+		return localAddress;
+	}
+
+	@Override
+	public String getRemoteIp() {
+		return remoteIp;
+	}
+}
@@ -0,0 +1,344 @@
+package bench;
+
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+import connections.MemoryNetwork;
+import connections.TransportMode;
+import controller.BroadcastMode;
+import controller.BroadcastTree;
+import controller.MyP2P;
+import controller.NodeConfig;
+import metrics.Histogram;
+
+/**
+ * Simulación de una malla de N nodos MyP2P sin vista en una sola JVM, unidos por una MemoryNetwork.
+ * Cada nodo arranca con una topología de peers de arranque; a partir de ahí el gossip, las rutas y el
+ * árbol de difusión funcionan como en una red real. Tras un tiempo de convergencia se envían mensajes
+ * desde nodos al azar, a "*", a un canal al azar o a un nodo al azar, a un ritmo fijo, y se mide en cada
+ * receptor: entregas frente a las esperadas (N - 1 por difusión, los suscriptores por canal, 1 por unicast),
+ * duplicados entregados, entregas por segundo y la latencia extremo a extremo.
+ * Opciones:
+ * -n nodos, -topology ring|line|star|random|full, -degree peers de arranque por nodo en random,
+ * -latency y -jitter en microsegundos, -loss probabilidad de pérdida por marco,
+ * -messages mensajes a enviar, -rate mensajes por segundo, -unicast fracción de mensajes unicast,
+ * -channels canales entre los que se reparten las difusiones (0 para difundir a "*"),
+ * -interest canales a los que se suscribe cada nodo,
+ * -settle ms de convergencia antes de enviar, -drain ms de espera tras el último envío,
+ * -active tamaño de la vista activa, -seed semilla,
+ * -mode tree|flood|both modo de difusión (both, el valor por defecto, repite la simulación con cada uno
+ * sobre la misma topología y los mismos mensajes), -o fichero JSON con un resultado por modo.
+ * Además de las entregas y la latencia se mide el coste: marcos por entrega (todos los de la red durante
+ * la carga y solo los de difusión) y copias redundantes descartadas.
+ */
+public final class Simulation {
+
+	private static final String PREFIX = "sim ";
+
+	private Simulation() {}
+
+	/**
+	 * Dirección virtual del nodo i, dentro de 10.0.0.0/16.
+	 */
+	static String address(int node) {
+		return "10.0." + (node / 250) + "." + (node % 250 + 1);
+	}
+
+	/**
+	 * Opciones de la simulación, comunes a todos los modos de difusión.
+	 */
+	private static final class Options {
+		int nodes = 50;
+		String topology = "random";
+		int degree = 3;
+		long latencyMicros = 500;
+		long jitterMicros = 200;
+		double loss = 0;
+		int messages = 1000;
+		int rate = 200;
+		double unicast = 0;
+		int channels = 0;
+		int interest = 1;
+		long settleMillis = 5000;
+		long drainMillis = 5000;
+		int activeViewSize = new NodeConfig().getActiveViewSize();
+		long seed = 1;
+	}
+
+	public static void main(String[] args) throws Exception {
+		Options options = new Options();
+		List<BroadcastMode> modes = List.of(BroadcastMode.TREE, BroadcastMode.FLOOD);
+		Path output = null;
+		for(int i = 0; i + 1 < args.length; i += 2) {
+			String value = args[i + 1];
+			switch (args[i]) {
+				case "-n" -> options.nodes = Integer.parseInt(value);
+				case "-topology" -> options.topology = value;
+				case "-degree" -> options.degree = Integer.parseInt(value);
+				case "-latency" -> options.latencyMicros = Long.parseLong(value);
+				case "-jitter" -> options.jitterMicros = Long.parseLong(value);
+				case "-loss" -> options.loss = Double.parseDouble(value);
+				case "-messages" -> options.messages = Integer.parseInt(value);
+				case "-rate" -> options.rate = Integer.parseInt(value);
+				case "-unicast" -> options.unicast = Double.parseDouble(value);
+				case "-channels" -> options.channels = Integer.parseInt(value);
+				case "-interest" -> options.interest = Integer.parseInt(value);
+				case "-settle" -> options.settleMillis = Long.parseLong(value);
+				case "-drain" -> options.drainMillis = Long.parseLong(value);
+				case "-active" -> options.activeViewSize = Integer.parseInt(value);
+				case "-seed" -> options.seed = Long.parseLong(value);
+				case "-mode" -> modes = value.equals("both") ? modes : List.of(BroadcastMode.valueOf(value.toUpperCase(Locale.ROOT)));
+				case "-o" -> output = Path.of(value);
+				default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+		List<String> results = new ArrayList<>();
+		for(BroadcastMode mode: modes) {
+			results.add(run(options, mode));
+		}
+		if(output != null) {
+			try (Writer out = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+				out.write("[" + String.join(",", results) + "]\n");
+			}
+			System.out.println("Simulation: Results written to " + output.toAbsolutePath());
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * Monta la malla con un modo de difusión, envía la carga y la para.
+	 * Con la misma semilla todos los modos tienen la misma topología, suscripciones y mensajes.
+	 * @return El resultado en JSON
+	 */
+	private static String run(Options options, BroadcastMode mode) throws Exception {
+		int nodes = options.nodes;
+		int channels = options.channels;
+		Random random = new Random(options.seed);
+		List<List<String>> seeds = topology(options.topology, nodes, options.degree, random);
+		// Suscripciones: cada nodo elige interest canales distintos al azar
+		List<List<String>> subscriptions = new ArrayList<>(nodes);
+		int[] subscribers = new int[channels];
+		for(int i = 0; i < nodes; i++) {
+			List<String> mine = new ArrayList<>();
+			for(int k = 0; k < Math.min(options.interest, channels); k++) {
+				int channel = random.nextInt(channels);
+				while(mine.contains(channel(channel))) {
+					channel = (channel + 1) % channels;
+				}
+				mine.add(channel(channel));
+				++subscribers[channel];
+			}
+			subscriptions.add(mine);
+		}
+
+		// Arranque de la malla
+		MemoryNetwork network = new MemoryNetwork(options.latencyMicros, options.jitterMicros, options.loss);
+		Histogram latency = new Histogram();
+		LongAdder delivered = new LongAdder();
+		LongAdder duplicates = new LongAdder();
+		long[] lastDelivery = {0};
+		List<MyP2P> peers = new ArrayList<>(nodes);
+		for(int i = 0; i < nodes; i++) {
+			NodeConfig config = new NodeConfig()
+					.setTransportMode(TransportMode.MEMORY)
+					.setMemoryNetwork(network)
+					.setBindAddress(address(i))
+					.setStoreDirectory(null)
+					.setActiveViewSize(options.activeViewSize)
+					.setBroadcastMode(mode)
+					.setChannels(subscriptions.get(i));
+			MyP2P node = new MyP2P(new ArrayList<>(seeds.get(i)), config);
+			Set<Long> seen = ConcurrentHashMap.newKeySet();
+			node.addMessageListener((sourceIp, messageId, message) -> {
+				if(!message.startsWith(PREFIX)) {
+					return;
+				}
+				// "sim <número> <nanoTime del envío>"
+				int space = message.indexOf(' ', PREFIX.length());
+				long number = Long.parseLong(message, PREFIX.length(), space, 10);
+				long sentAt = Long.parseLong(message, space + 1, message.length(), 10);
+				if(!seen.add(number)) {
+					duplicates.increment();
+					return;
+				}
+				long now = System.nanoTime();
+				latency.record(now - sentAt);
+				delivered.increment();
+				synchronized (lastDelivery) {
+					lastDelivery[0] = Math.max(lastDelivery[0], now);
+				}
+			});
+			peers.add(node);
+		}
+		String name = mode.name().toLowerCase(Locale.ROOT);
+		System.out.println("Simulation: " + nodes + " nodes started (" + options.topology + ", " + name + "), settling for " + options.settleMillis + " ms");
+		Thread.sleep(options.settleMillis);
+
+		// Carga. Los marcos se cuentan desde aquí: los de la convergencia no son parte del coste de los mensajes
+		long framesBefore = network.getDelivered();
+		long broadcastFramesBefore = sum(peers, Simulation::broadcastFrames);
+		long redundantBefore = sum(peers, node -> node.getSeenMessages().getHits());
+		long graftsBefore = sum(peers, node -> node.getBroadcastTree().getGrafts());
+		long prunesBefore = sum(peers, node -> node.getBroadcastTree().getPrunes());
+		long expected = 0;
+		long intervalNanos = 1_000_000_000L / Math.max(1, options.rate);
+		long start = System.nanoTime();
+		for(int m = 0; m < options.messages; m++) {
+			long due = start + m * intervalNanos;
+			long wait = due - System.nanoTime();
+			if(wait > 0) {
+				TimeUnit.NANOSECONDS.sleep(wait);
+			}
+			int sender = random.nextInt(nodes);
+			if(random.nextDouble() < options.unicast) {
+				int target = random.nextInt(nodes - 1);
+				target = target >= sender ? target + 1 : target;
+				peers.get(sender).sendMessage(address(target), PREFIX + m + " " + System.nanoTime());
+				expected += 1;
+			} else if(channels > 0) {
+				int channel = random.nextInt(channels);
+				peers.get(sender).sendToChannel(channel(channel), PREFIX + m + " " + System.nanoTime());
+				expected += subscribers[channel] - (subscriptions.get(sender).contains(channel(channel)) ? 1 : 0);
+			} else {
+				peers.get(sender).sendMessage("*", PREFIX + m + " " + System.nanoTime());
+				expected += nodes - 1;
+			}
+		}
+		long sendEnd = System.nanoTime();
+		Thread.sleep(options.drainMillis);
+
+		// Resultados
+		long deliveredCount = delivered.sum();
+		long frames = network.getDelivered() - framesBefore;
+		long broadcastFrames = sum(peers, Simulation::broadcastFrames) - broadcastFramesBefore;
+		long redundant = sum(peers, node -> node.getSeenMessages().getHits()) - redundantBefore;
+		long grafts = sum(peers, node -> node.getBroadcastTree().getGrafts()) - graftsBefore;
+		long prunes = sum(peers, node -> node.getBroadcastTree().getPrunes()) - prunesBefore;
+		long filtered = sum(peers, node -> node.getBroadcastTree().getFiltered());
+		long end;
+		synchronized (lastDelivery) {
+			end = Math.max(lastDelivery[0], sendEnd);
+		}
+		double seconds = (end - start) / 1e9;
+		double ratio = expected == 0 ? 1 : (double) deliveredCount / expected;
+		double throughput = deliveredCount / seconds;
+		double framesPerDelivery = deliveredCount == 0 ? 0 : (double) frames / deliveredCount;
+		double broadcastFramesPerDelivery = deliveredCount == 0 ? 0 : (double) broadcastFrames / deliveredCount;
+		System.out.println(String.format(Locale.ROOT, "Simulation [%s]: %d/%d deliveries (ratio %.4f), %d duplicates, %.0f deliveries/s over %.2f s",
+				name, deliveredCount, expected, ratio, duplicates.sum(), throughput, seconds));
+		System.out.println(String.format(Locale.ROOT, "Simulation [%s]: latency p50 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms",
+				name, latency.quantile(0.5) / 1e6, latency.quantile(0.99) / 1e6, latency.quantile(0.999) / 1e6, latency.getMax() / 1e6));
+		System.out.println(String.format(Locale.ROOT, "Simulation [%s]: %.2f frames per delivery (%.2f broadcast frames, %d redundant copies dropped, %d grafts, %d prunes); "
+				+ "%d frames delivered, %d lost by the network, %d channel sends filtered",
+				name, framesPerDelivery, broadcastFramesPerDelivery, redundant, grafts, prunes, frames, network.getLost(), filtered));
+		String result = String.format(Locale.ROOT, "{\n    \"mode\" : \"%s\",\n    \"nodes\" : %d,\n    \"topology\" : \"%s\",\n    \"degree\" : %d,\n    \"latencyMicros\" : %d,\n"
+				+ "    \"jitterMicros\" : %d,\n    \"loss\" : %s,\n    \"messages\" : %d,\n    \"rate\" : %d,\n    \"unicast\" : %s,\n"
+				+ "    \"channels\" : %d,\n    \"interest\" : %d,\n"
+				+ "    \"expected\" : %d,\n    \"delivered\" : %d,\n    \"duplicates\" : %d,\n    \"deliveryRatio\" : %.6f,\n"
+				+ "    \"deliveriesPerSecond\" : %.3f,\n    \"latencyMillis\" : {\"50.0\" : %.3f, \"99.0\" : %.3f, \"99.9\" : %.3f, \"100.0\" : %.3f},\n"
+				+ "    \"framesPerDelivery\" : %.3f,\n    \"broadcastFramesPerDelivery\" : %.3f,\n    \"redundantCopies\" : %d,\n    \"grafts\" : %d,\n    \"prunes\" : %d,\n"
+				+ "    \"framesDelivered\" : %d,\n    \"framesLost\" : %d,\n    \"channelSendsFiltered\" : %d\n}",
+				name, nodes, options.topology, options.degree, options.latencyMicros, options.jitterMicros, options.loss, options.messages, options.rate,
+				options.unicast, channels, options.interest,
+				expected, deliveredCount, duplicates.sum(), ratio, throughput,
+				latency.quantile(0.5) / 1e6, latency.quantile(0.99) / 1e6, latency.quantile(0.999) / 1e6, latency.getMax() / 1e6,
+				framesPerDelivery, broadcastFramesPerDelivery, redundant, grafts, prunes, frames, network.getLost(), filtered);
+
+		// Parada en paralelo: cada nodo espera a que terminen sus bucles
+		ExecutorService stopper = Executors.newFixedThreadPool(Math.min(nodes, 32));
+		for(MyP2P node: peers) {
+			stopper.execute(node::stop);
+		}
+		stopper.shutdown();
+		stopper.awaitTermination(30, TimeUnit.SECONDS);
+		network.shutdown();
+		return result;
+	}
+
+	/**
+	 * Suma un contador de todos los nodos.
+	 */
+	private static long sum(List<MyP2P> peers, ToLongFunction<MyP2P> counter) {
+		long total = 0;
+		for(MyP2P node: peers) {
+			total += counter.applyAsLong(node);
+		}
+		return total;
+	}
+
+	/**
+	 * Marcos que ha enviado el árbol de difusión de un nodo: copias completas, IHAVE, GRAFT y PRUNE.
+	 */
+	private static long broadcastFrames(MyP2P node) {
+		BroadcastTree tree = node.getBroadcastTree();
+		return tree.getEagerSent() + tree.getLazySent() + tree.getGrafts() + tree.getPrunes();
+	}
+
+	/**
+	 * Nombre del canal número i.
+	 */
+	static String channel(int channel) {
+		return "room-" + channel;
+	}
+
+	/**
+	 * Peers de arranque de cada nodo según la topología.
+	 */
+	private static List<List<String>> topology(String topology, int nodes, int degree, Random random) {
+		List<List<String>> seeds = new ArrayList<>(nodes);
+		for(int i = 0; i < nodes; i++) {
+			seeds.add(new ArrayList<>());
+		}
+		switch (topology) {
+			case "line" -> {
+				for(int i = 1; i < nodes; i++) {
+					seeds.get(i).add(address(i - 1));
+				}
+			}
+			case "ring" -> {
+				for(int i = 0; i < nodes && nodes > 1; i++) {
+					seeds.get(i).add(address((i + 1) % nodes));
+				}
+			}
+			case "star" -> {
+				for(int i = 1; i < nodes; i++) {
+					seeds.get(i).add(address(0));
+				}
+			}
+			case "full" -> {
+				for(int i = 0; i < nodes; i++) {
+					for(int j = i + 1; j < nodes; j++) {
+						seeds.get(i).add(address(j));
+					}
+				}
+			}
+			case "random" -> {
+				// Un anillo para que la malla sea conexa, más degree - 1 peers al azar por nodo
+				for(int i = 0; i < nodes && nodes > 1; i++) {
+					seeds.get(i).add(address((i + 1) % nodes));
+					for(int k = 1; k < degree; k++) {
+						int peer = random.nextInt(nodes);
+						if(peer != i && !seeds.get(i).contains(address(peer))) {
+							seeds.get(i).add(address(peer));
+						}
+					}
+				}
+			}
+			default -> throw new IllegalArgumentException("Unknown topology " + topology);
+		}
+		return seeds;
+	}
+}
@@ -0,0 +1,217 @@
+package bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import connections.FrameCodec;
+import connections.Ipv4Address;
+import connections.LinkStats;
+import connections.TlsContext;
+import controller.NodeConfig;
+import metrics.MetricsRegistry;
+import view.Frame;
+
+/**
+ * Coste de TLS en los enlaces de sockets bloqueantes, por loopback.
+ * "throughput": marcos MESSAGE por segundo que un extremo envía al otro con el codec binario, sin cifrar
+ * y con TLS, con un flush por marco como el peor caso de SocketLink; el otro extremo los lee y descarta.
+ * "handshake": latencia de conectar y completar el handshake, completo (cada vez con una IP de peer
+ * distinta, así que no hay sesión que reanudar) y reanudando la sesión guardada de la misma IP.
+ * El certificado de las pruebas lo genera keytool en un directorio temporal.
+ */
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TlsBenchmark {
+
+	private static final char[] PASSWORD = "benchmark".toCharArray();
+
+	/**
+	 * Contextos de servidor y cliente con el mismo certificado, que también es el de confianza.
+	 */
+	@State(Scope.Benchmark)
+	public static class Certificates {
+
+		private Path keyStore;
+		private TlsContext server;
+		private TlsContext client;
+
+		@Setup
+		public void setup() throws IOException, GeneralSecurityException, InterruptedException {
+			keyStore = keyStore();
+			server = new TlsContext(keyStore.toString(), PASSWORD, null, null, new MetricsRegistry());
+			client = new TlsContext(keyStore.toString(), PASSWORD, null, null, new MetricsRegistry());
+		}
+
+		@TearDown
+		public void tearDown() throws IOException {
+			Files.deleteIfExists(keyStore);
+			Files.deleteIfExists(keyStore.getParent());
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Stream {
+
+		@Param({"1024", "16384"})
+		public int payloadBytes;
+
+		@Param({"false", "true"})
+		public boolean tls;
+
+		private ServerSocket listener;
+		private Socket socket;
+		private FrameCodec codec;
+		private Frame frame;
+
+		@Setup
+		public void setup(Certificates certificates) throws IOException {
+			int compressionThreshold = new NodeConfig().getCompressionThreshold();
+			TlsContext server = tls ? certificates.server : null;
+			listener = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+			Thread sink = new Thread(() -> drain(listener, server, compressionThreshold), "tls-sink");
+			sink.setDaemon(true);
+			sink.start();
+			socket = new Socket();
+			socket.setTcpNoDelay(true);
+			socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), listener.getLocalPort()));
+			if(tls) {
+				socket = certificates.client.connect(socket, "127.0.0.1", listener.getLocalPort());
+			}
+			codec = FrameCodec.negotiate(socket, false, compressionThreshold, new LinkStats());
+			frame = new Frame();
+			frame.setFrameType(Frame.FrameType.MESSAGE);
+			frame.setHeader(1, Ipv4Address.parse("127.0.0.1"), Ipv4Address.BROADCAST);
+			frame.setMessageId(0x1234_5678_0000_0001L);
+			frame.setPayload(BenchNode.payload(payloadBytes));
+		}
+
+		@TearDown
+		public void tearDown() throws IOException {
+			socket.close();
+			listener.close();
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Handshake {
+
+		@Param({"false", "true"})
+		public boolean resumed;
+
+		private ServerSocket listener;
+		private int peers;
+
+		@Setup
+		public void setup(Certificates certificates) throws IOException {
+			listener = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+			Thread acceptor = new Thread(() -> accept(listener, certificates.server), "tls-acceptor");
+			acceptor.setDaemon(true);
+			acceptor.start();
+		}
+
+		/**
+		 * IP con la que se guarda la sesión: todas las conexiones van al mismo servidor, pero sin reanudar
+		 * cada una usa una IP distinta para que no encuentre la sesión anterior.
+		 */
+		String peer() {
+			if(resumed) {
+				return "127.0.0.1";
+			}
+			int peer = ++peers;
+			return "10.255." + (peer >>> 8 & 0xFF) + "." + (peer & 0xFF);
+		}
+
+		@TearDown
+		public void tearDown() throws IOException {
+			listener.close();
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	public void throughput(Stream stream) throws IOException {
+		stream.codec.writeFrame(stream.frame);
+		stream.codec.flush();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public int handshake(Certificates certificates, Handshake handshake) throws IOException {
+		return connect(certificates.client, handshake.listener.getLocalPort(), handshake.peer());
+	}
+
+	private static void drain(ServerSocket listener, TlsContext server, int compressionThreshold) {
+		try (Socket socket = server == null ? listener.accept() : server.accept(listener.accept())) {
+			FrameCodec codec = FrameCodec.negotiate(socket, false, compressionThreshold, new LinkStats());
+			while(true) {
+				codec.readFrame();
+			}
+		} catch (IOException e) {
+			// El emisor ha cerrado: fin de la prueba
+		}
+	}
+
+	/**
+	 * Conecta, completa el handshake y espera el byte del servidor, que llega detrás del ticket
+	 * de sesión: así la sesión queda guardada para la siguiente conexión.
+	 */
+	private static int connect(TlsContext client, int port, String peer) throws IOException {
+		Socket socket = new Socket();
+		socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+		socket.setSoTimeout(5000);
+		try (Socket ssl = client.connect(socket, peer, port)) {
+			return ssl.getInputStream().read();
+		}
+	}
+
+	private static void accept(ServerSocket listener, TlsContext server) {
+		while(!listener.isClosed()) {
+			try (Socket ssl = server.accept(listener.accept())) {
+				ssl.getOutputStream().write(1);
+				ssl.getOutputStream().flush();
+				InputStream in = ssl.getInputStream();
+				// Hasta que el cliente cierre, para no cortar la conexión antes de que lea el byte
+				in.read();
+			} catch (IOException e) {
+				// Conexión de la prueba cerrada o servidor parado
+			}
+		}
+	}
+
+	private static Path keyStore() throws IOException, InterruptedException {
+		Path directory = Files.createTempDirectory("tls-bench");
+		Path keyStore = directory.resolve("bench.p12");
+		Process keytool = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "keytool").toString(),
+				"-genkeypair", "-alias", "bench", "-keyalg", "EC", "-groupname", "secp256r1", "-dname", "CN=bench",
+				"-validity", "1", "-storetype", "PKCS12", "-keystore", keyStore.toString(),
+				"-storepass", new String(PASSWORD), "-keypass", new String(PASSWORD))
+				.redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+		if(keytool.waitFor() != 0) {
+			throw new IOException("keytool could not create the benchmark certificate");
+		}
+		return keyStore;
+	}
+}
@@ -0,0 +1,91 @@
+package connections;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bench.BenchNode;
+import controller.NodeConfig;
+import view.Frame;
+
+/**
+ * Codificación y decodificación de un marco, sin socket, con cada codec:
+ * - binary: el codec binario sin compresión.
+ * - compressed: el codec binario con el umbral por defecto, los payloads de más de 256 bytes salen comprimidos.
+ * - object: el codec legado (ObjectFrameCodec), la línea base de la serialización Java. Cada operación usa
+ *   un stream nuevo, como el primer marco de un enlace: incluye la cabecera y los descriptores de clase,
+ *   que en un enlace largo solo se envían una vez.
+ * Está en el paquete connections para llegar a la variante con compresión, que no es pública.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameCodecBenchmark {
+
+	@Param({"16", "1024", "65536"})
+	public int payloadBytes;
+
+	@Param({"binary", "compressed", "object"})
+	public String codec;
+
+	private LinkStats stats;
+	private PayloadCompression compression;
+	private Frame frame;
+	private byte[] encoded;
+	private byte[] streamHeader;
+	private ByteArrayOutputStream sink;
+
+	@Setup
+	public void setup() throws IOException {
+		stats = new LinkStats();
+		compression = codec.equals("compressed") ? BinaryFrameCodec.newCompression(BinaryFrameCodec.VERSION, new NodeConfig().getCompressionThreshold(), stats) : null;
+		frame = new Frame();
+		frame.setFrameType(Frame.FrameType.MESSAGE);
+		frame.setHeader(Connection.MESSAGE_TTL, Ipv4Address.parse("10.0.0.1"), Ipv4Address.BROADCAST);
+		frame.setMessageId(0x1234_5678_0000_0001L);
+		frame.setPayload(BenchNode.payload(payloadBytes));
+		// ObjectFrameCodec lee la cabecera del otro extremo al crearse
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		new ObjectOutputStream(header).flush();
+		streamHeader = header.toByteArray();
+		sink = new ByteArrayOutputStream(payloadBytes * 2 + 512);
+		encoded = codec.equals("object") ? encodeObject() : BinaryFrameCodec.encode(frame, compression, stats);
+	}
+
+	@Benchmark
+	public byte[] encode() throws IOException {
+		return codec.equals("object") ? encodeObject() : BinaryFrameCodec.encode(frame, compression, stats);
+	}
+
+	@Benchmark
+	public Frame decode() throws IOException {
+		if(codec.equals("object")) {
+			return new ObjectFrameCodec(new ByteArrayInputStream(encoded), OutputStream.nullOutputStream()).readFrame();
+		}
+		return BinaryFrameCodec.decode(ByteBuffer.wrap(encoded, Integer.BYTES, encoded.length - Integer.BYTES), compression, stats);
+	}
+
+	private byte[] encodeObject() throws IOException {
+		sink.reset();
+		ObjectFrameCodec objectCodec = new ObjectFrameCodec(new ByteArrayInputStream(streamHeader), sink);
+		objectCodec.writeFrame(frame);
+		objectCodec.flush();
+		return sink.toByteArray();
+	}
+}
@@ -0,0 +1,89 @@
+package connections;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bench.BenchNode;
+import controller.MyP2P;
+import view.Frame;
+
+/**
+ * Despacho de un marco recibido por Connection.handleFrame, con enlaces sin red (NullLink):
+ * - ping: se contesta con un PING_ACK.
+ * - forward: un mensaje para otro nodo, nuevo cada vez, que se marca como visto y se reenvía.
+ * - duplicate: un mensaje a "*" ya visto, que el árbol descarta.
+ * - deliver: un mensaje para este nodo, que se entrega al controlador (sin vista ni registro).
+ * Está en el paquete connections para llamar a onFrame, la entrada del enlace, que no es pública.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandleFrameBenchmark {
+
+	private static final String PEER_IP = "10.4.0.1";
+	private static final String RELAY_IP = "10.4.0.2";
+
+	@Param({"ping", "forward", "duplicate", "deliver"})
+	public String frame;
+
+	private MyP2P node;
+	private Connection connection;
+	private int peerAddress;
+	private int target;
+	private long nextId = 1L << 40;
+	private Frame fixed;
+
+	@Setup
+	public void setup() {
+		node = BenchNode.start();
+		BenchNode.attach(node, PEER_IP);
+		BenchNode.attach(node, RELAY_IP);
+		connection = node.getPeers().get(PEER_IP);
+		peerAddress = Ipv4Address.parse(PEER_IP);
+		int localAddress = Ipv4Address.parse(BenchNode.LOCAL_IP);
+		switch (frame) {
+			case "ping" -> {
+				fixed = frame(Frame.FrameType.PING, localAddress, 0);
+				fixed.setPayload(Long.toString(System.nanoTime()));
+			}
+			case "duplicate" -> {
+				fixed = frame(Frame.FrameType.MESSAGE, Ipv4Address.BROADCAST, ++nextId);
+				connection.onFrame(fixed);
+			}
+			case "forward" -> target = Ipv4Address.parse("10.5.0.1");
+			case "deliver" -> target = localAddress;
+			default -> throw new IllegalArgumentException("Unknown frame " + frame);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		node.stop();
+	}
+
+	@Benchmark
+	public void dispatch() {
+		// ping y duplicate repiten el mismo marco; forward y deliver necesitan uno nuevo que no se haya visto
+		connection.onFrame(fixed != null ? fixed : frame(Frame.FrameType.MESSAGE, target, ++nextId));
+	}
+
+	private Frame frame(Frame.FrameType type, int target, long messageId) {
+		Frame frame = new Frame();
+		frame.setFrameType(type);
+		frame.setHeader(Connection.MESSAGE_TTL, peerAddress, target);
+		frame.setPayload("handleFrame benchmark");
+		frame.setMessageId(messageId);
+		return frame;
+	}
+}
@@ -0,0 +1,442 @@
+package connections;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StreamCorruptedException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import controller.MyP2P;
+import controller.NodeConfig;
+import metrics.Histogram;
+import view.Frame;
+
+/**
+ * Prueba de resistencia de los transportes de sockets bloqueantes: un nodo con miles de conexiones
+ * por loopback, con hilos de plataforma (THREAD) y con hilos virtuales (VIRTUAL).
+ * El nodo corre en una JVM aparte para medir solo su proceso: hilos del sistema operativo, hilos
+ * portadores de los hilos virtuales (los ForkJoinPool-N-worker) y memoria residente, leídos de /proc.
+ * Cada conexión es un cliente mínimo con su propia IP de 127.0.0.0/8 (el nodo identifica a los peers
+ * por IP) que negocia el codec binario y contesta a los pings del chequeo de salud; todos comparten un
+ * hilo de selector. Durante la medida se envían pings desde conexiones al azar y se mide el RTT hasta
+ * el PING_ACK del nodo. El nodo usa el chequeo de salud por defecto: si se atasca más que el timeout
+ * del ping cierra conexiones, y el resultado las cuenta como no abiertas.
+ * Opciones:
+ * -connections conexiones, -modes transportes separados por comas, -rate pings por segundo,
+ * -settle ms tras abrir las conexiones, -duration ms de medida, -java ejecutable de la JVM del nodo
+ * (VIRTUAL necesita JDK 21), -o fichero JSON con el resultado.
+ * Está en el paquete connections para hablar el codec binario con compresión desde un selector, como NioLink.
+ * java -cp bench/target/benchmarks.jar connections.SoakBenchmark -connections 2000 -java /ruta/jdk-21/bin/java
+ */
+public final class SoakBenchmark {
+
+	private static final String READY = "soak ready";
+
+	private SoakBenchmark() {}
+
+	public static void main(String[] args) throws Exception {
+		if(args.length == 3 && args[0].equals("-serve")) {
+			serve(TransportMode.valueOf(args[1]), Integer.parseInt(args[2]));
+			return;
+		}
+		int connections = 2000;
+		String modes = "THREAD,VIRTUAL";
+		int rate = 500;
+		long settleMillis = 5000;
+		long durationMillis = 20000;
+		String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+		Path output = null;
+		for(int i = 0; i + 1 < args.length; i += 2) {
+			String value = args[i + 1];
+			switch (args[i]) {
+				case "-connections" -> connections = Integer.parseInt(value);
+				case "-modes" -> modes = value;
+				case "-rate" -> rate = Integer.parseInt(value);
+				case "-settle" -> settleMillis = Long.parseLong(value);
+				case "-duration" -> durationMillis = Long.parseLong(value);
+				case "-java" -> java = value;
+				case "-o" -> output = Path.of(value);
+				default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+		List<String> results = new ArrayList<>();
+		for(String mode: modes.split(",")) {
+			String result = soak(TransportMode.valueOf(mode.trim()), connections, rate, settleMillis, durationMillis, java);
+			if(result != null) {
+				results.add(result);
+			}
+		}
+		if(output != null) {
+			try (Writer out = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+				out.write("[\n" + String.join(",\n", results) + "\n]\n");
+			}
+			System.out.println("SoakBenchmark: Results written to " + output.toAbsolutePath());
+		}
+		System.exit(0);
+	}
+
+	//Metodos del cliente
+
+	/**
+	 * Arranca el nodo en otra JVM, le abre las conexiones y mide.
+	 * @return El resultado en JSON, o null si el nodo no ha llegado a arrancar
+	 */
+	private static String soak(TransportMode mode, int connections, int rate, long settleMillis, long durationMillis, String java) throws Exception {
+		int port;
+		try (ServerSocket free = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+			port = free.getLocalPort();
+		}
+		Process node = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), SoakBenchmark.class.getName(),
+				"-serve", mode.name(), Integer.toString(port)).redirectErrorStream(true).start();
+		// La salida del nodo se descarta, pero hay que leerla para que no se bloquee al llenar la tubería
+		CountDownLatch ready = new CountDownLatch(1);
+		AtomicBoolean started = new AtomicBoolean();
+		StringBuilder failure = new StringBuilder();
+		Thread drain = new Thread(() -> {
+			try (BufferedReader in = new BufferedReader(new InputStreamReader(node.getInputStream(), StandardCharsets.UTF_8))) {
+				String line;
+				while((line = in.readLine()) != null) {
+					if(line.equals(READY)) {
+						started.set(true);
+						ready.countDown();
+					} else if(ready.getCount() > 0 && failure.length() < 4096) {
+						failure.append(line).append('\n');
+					}
+				}
+			} catch (IOException ignored) {}
+			ready.countDown();
+		}, "soak-drain");
+		drain.setDaemon(true);
+		drain.start();
+		ready.await();
+		if(!started.get()) {
+			node.waitFor();
+			System.out.println("SoakBenchmark: " + mode + " node did not start:\n" + failure);
+			return null;
+		}
+
+		Histogram latency = new Histogram();
+		List<Client> clients = new ArrayList<>(connections);
+		Clients selector = new Clients(latency);
+		Thread loop = new Thread(selector, "soak-clients");
+		loop.setDaemon(true);
+		loop.start();
+		try {
+			// Se abren en paralelo, como llegarían de verdad: el nodo las acepta y negocia de una en una
+			long opened = System.nanoTime();
+			List<Future<Client>> connecting = new ArrayList<>(connections);
+			ExecutorService connectors = Executors.newFixedThreadPool(32);
+			for(int i = 0; i < connections; i++) {
+				String ip = clientAddress(i);
+				connecting.add(connectors.submit(() -> selector.connect(ip, port)));
+			}
+			connectors.shutdown();
+			for(Future<Client> future: connecting) {
+				clients.add(future.get());
+			}
+			System.out.println(String.format(Locale.ROOT, "SoakBenchmark: %s %d connections opened in %.1f s, settling for %d ms",
+					mode, connections, (System.nanoTime() - opened) / 1e9, settleMillis));
+			Thread.sleep(settleMillis);
+
+			// Medida: pings a ritmo fijo desde conexiones al azar, y el proceso del nodo una vez por segundo
+			Random random = new Random(1);
+			long intervalNanos = 1_000_000_000L / Math.max(1, rate);
+			long start = System.nanoTime();
+			long end = start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+			long nextSample = start;
+			long[] peak = new long[3];
+			for(long due = start; due < end; due += intervalNanos) {
+				long wait = due - System.nanoTime();
+				if(wait > 0) {
+					TimeUnit.NANOSECONDS.sleep(wait);
+				}
+				clients.get(random.nextInt(clients.size())).ping();
+				if(System.nanoTime() >= nextSample) {
+					long[] sample = sample(node.pid());
+					for(int k = 0; k < peak.length; k++) {
+						peak[k] = Math.max(peak[k], sample[k]);
+					}
+					nextSample += 1_000_000_000L;
+				}
+			}
+			long open = clients.stream().filter(Client::isOpen).count();
+			System.out.println(String.format(Locale.ROOT, "SoakBenchmark: %s %d/%d connections open, %d threads (%d carriers), RSS %.1f MiB;"
+					+ " ping RTT p50 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms over %d pings",
+					mode, open, connections, peak[0], peak[1], peak[2] / 1024.0,
+					latency.quantile(0.5) / 1e6, latency.quantile(0.99) / 1e6, latency.quantile(0.999) / 1e6, latency.getMax() / 1e6, latency.getCount()));
+			return String.format(Locale.ROOT, "    {\n        \"mode\" : \"%s\",\n        \"connections\" : %d,\n        \"open\" : %d,\n"
+					+ "        \"threads\" : %d,\n        \"carrierThreads\" : %d,\n        \"rssKiB\" : %d,\n        \"pings\" : %d,\n"
+					+ "        \"rttMillis\" : {\"50.0\" : %.3f, \"99.0\" : %.3f, \"99.9\" : %.3f, \"100.0\" : %.3f}\n    }",
+					mode, connections, open, peak[0], peak[1], peak[2], latency.getCount(),
+					latency.quantile(0.5) / 1e6, latency.quantile(0.99) / 1e6, latency.quantile(0.999) / 1e6, latency.getMax() / 1e6);
+		} finally {
+			for(Client client: clients) {
+				client.close();
+			}
+			selector.close();
+			// Al cerrarle la entrada el nodo se detiene y sale
+			node.getOutputStream().close();
+			if(!node.waitFor(30, TimeUnit.SECONDS)) {
+				node.destroyForcibly();
+			}
+		}
+	}
+
+	/**
+	 * IP local de la conexión i, desde 127.0.0.2. Todo 127.0.0.0/8 llega a loopback.
+	 */
+	private static String clientAddress(int i) {
+		int host = i + 2;
+		return "127." + (host >>> 16 & 0xFF) + "." + (host >>> 8 & 0xFF) + "." + (host & 0xFF);
+	}
+
+	/**
+	 * Hilos del sistema operativo, hilos portadores y memoria residente en KiB de un proceso.
+	 */
+	private static long[] sample(long pid) throws IOException {
+		long threads = 0;
+		long rss = 0;
+		for(String line: Files.readAllLines(Path.of("/proc", Long.toString(pid), "status"))) {
+			if(line.startsWith("Threads:")) {
+				threads = Long.parseLong(line.substring(8).trim());
+			} else if(line.startsWith("VmRSS:")) {
+				rss = Long.parseLong(line.substring(6).replace("kB", "").trim());
+			}
+		}
+		// Linux guarda los primeros 15 caracteres del nombre: "ForkJoinPool-1-worker-3" queda en "ForkJoinPool-1-"
+		long carriers = 0;
+		try (Stream<Path> tasks = Files.list(Path.of("/proc", Long.toString(pid), "task"))) {
+			for(Path task: (Iterable<Path>) tasks::iterator) {
+				try {
+					if(Files.readString(task.resolve("comm")).startsWith("ForkJoinPool-")) {
+						++carriers;
+					}
+				} catch (IOException e) {
+					// El hilo ha terminado mientras se recorría la lista
+				}
+			}
+		}
+		return new long[]{threads, carriers, rss};
+	}
+
+	/**
+	 * Clientes de la prueba, todos en un solo hilo de selector: así no le quitan CPU al nodo por tener
+	 * miles de hilos, y el reparto del sistema operativo no favorece a ninguno de los dos modos.
+	 */
+	private static final class Clients implements Runnable {
+
+		private final Selector selector;
+		private final Queue<Client> registering = new ConcurrentLinkedQueue<>();
+		private final Histogram latency;
+
+		Clients(Histogram latency) throws IOException {
+			this.selector = Selector.open();
+			this.latency = latency;
+		}
+
+		/**
+		 * Conecta y negocia en modo bloqueante; después el cliente pasa al selector.
+		 */
+		Client connect(String ip, int port) throws IOException {
+			SocketChannel channel = SocketChannel.open();
+			try {
+				channel.bind(new InetSocketAddress(ip, 0));
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				channel.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+				channel.write(ByteBuffer.wrap(BinaryFrameCodec.hello()));
+				ByteBuffer hello = ByteBuffer.allocate(BinaryFrameCodec.HELLO_SIZE);
+				while(hello.hasRemaining()) {
+					if(channel.read(hello) < 0) {
+						throw new EOFException("Node closed the connection during the handshake");
+					}
+				}
+				if(!BinaryFrameCodec.isHello(hello.array())) {
+					throw new StreamCorruptedException("Unknown handshake from the node");
+				}
+				int version = Math.min(BinaryFrameCodec.VERSION, hello.get(BinaryFrameCodec.HELLO_SIZE - 1) & 0xFF);
+				channel.configureBlocking(false);
+				Client client = new Client(channel, ip, version);
+				registering.add(client);
+				selector.wakeup();
+				return client;
+			} catch (IOException e) {
+				channel.close();
+				throw e;
+			}
+		}
+
+		@Override
+		public void run() {
+			while(selector.isOpen()) {
+				try {
+					selector.select();
+					Client client;
+					while((client = registering.poll()) != null) {
+						client.channel.register(selector, SelectionKey.OP_READ, client);
+					}
+					for(SelectionKey key: selector.selectedKeys()) {
+						client = (Client) key.attachment();
+						try {
+							client.read(latency);
+						} catch (IOException e) {
+							key.cancel();
+							client.close();
+						}
+					}
+					selector.selectedKeys().clear();
+				} catch (IOException | ClosedSelectorException e) {
+					return;
+				}
+			}
+		}
+
+		void close() throws IOException {
+			selector.close();
+		}
+	}
+
+	/**
+	 * Conexión de la prueba: contesta a los pings del nodo y cronometra los suyos.
+	 */
+	private static final class Client {
+
+		private final SocketChannel channel;
+		private final int address;
+		private final int nodeAddress;
+		private final LinkStats stats = new LinkStats();
+		private final PayloadCompression compression;
+		private ByteBuffer readBuffer = ByteBuffer.allocate(4096);
+
+		Client(SocketChannel channel, String ip, int version) {
+			this.channel = channel;
+			this.address = Ipv4Address.parse(ip);
+			this.nodeAddress = Ipv4Address.parse(InetAddress.getLoopbackAddress().getHostAddress());
+			this.compression = BinaryFrameCodec.newCompression(version, new NodeConfig().getCompressionThreshold(), stats);
+		}
+
+		/**
+		 * Lee lo que haya llegado y atiende los marcos completos, como NioLink.read.
+		 */
+		void read(Histogram latency) throws IOException {
+			if(channel.read(readBuffer) < 0) {
+				throw new EOFException();
+			}
+			readBuffer.flip();
+			int pending = 0;
+			while(readBuffer.remaining() >= Integer.BYTES) {
+				int length = readBuffer.getInt(readBuffer.position());
+				if(length < BinaryFrameCodec.HEADER_SIZE || length > BinaryFrameCodec.MAX_FRAME_SIZE) {
+					throw new StreamCorruptedException("Invalid frame length " + length);
+				}
+				if(readBuffer.remaining() < Integer.BYTES + length) {
+					pending = Integer.BYTES + length;
+					break;
+				}
+				int end = readBuffer.position() + Integer.BYTES + length;
+				ByteBuffer body = readBuffer.duplicate();
+				body.position(readBuffer.position() + Integer.BYTES).limit(end);
+				readBuffer.position(end);
+				Frame frame = BinaryFrameCodec.decode(body, compression, stats);
+				if(frame.getFrameType() == Frame.FrameType.PING) {
+					frame.setFrameType(Frame.FrameType.PING_ACK);
+					frame.setHeader(1, address, nodeAddress);
+					write(frame);
+				} else if(frame.getFrameType() == Frame.FrameType.PING_ACK) {
+					try {
+						latency.record(System.nanoTime() - Long.parseLong(frame.getPayload()));
+					} catch (NumberFormatException ignored) {}
+				}
+			}
+			readBuffer.compact();
+			if(pending > readBuffer.capacity()) {
+				ByteBuffer larger = ByteBuffer.allocate(pending);
+				readBuffer.flip();
+				larger.put(readBuffer);
+				readBuffer = larger;
+			}
+		}
+
+		void ping() {
+			Frame ping = new Frame();
+			ping.setFrameType(Frame.FrameType.PING);
+			ping.setHeader(1, address, nodeAddress);
+			ping.setPayload(Long.toString(System.nanoTime()));
+			try {
+				write(ping);
+			} catch (IOException e) {
+				// Conexión cerrada por el nodo: se cuenta al final como no abierta
+				close();
+			}
+		}
+
+		/**
+		 * Escribe un marco entero. Son marcos pequeños, así que el socket casi nunca los deja a medias.
+		 */
+		private synchronized void write(Frame frame) throws IOException {
+			ByteBuffer bytes = ByteBuffer.wrap(BinaryFrameCodec.encode(frame, compression, stats));
+			while(bytes.hasRemaining()) {
+				channel.write(bytes);
+			}
+		}
+
+		boolean isOpen() {
+			return channel.isOpen();
+		}
+
+		void close() {
+			try {
+				channel.close();
+			} catch (IOException ignored) {}
+		}
+	}
+
+	//Metodos del nodo
+
+	/**
+	 * Proceso del nodo: arranca, avisa por la salida estándar y se detiene cuando se cierra su entrada.
+	 */
+	private static void serve(TransportMode mode, int port) throws IOException {
+		// Chequeo de salud por defecto: los clientes contestan a los pings
+		NodeConfig config = new NodeConfig()
+				.setTransportMode(mode)
+				.setServerPort(port)
+				.setBindAddress("127.0.0.1")
+				.setStoreDirectory(null)
+				// Todas las conexiones en la vista activa: que Membership no cierre ninguna
+				.setActiveViewSize(1 << 20);
+		MyP2P node = new MyP2P(new ArrayList<>(), config);
+		System.out.println(READY);
+		System.out.flush();
+		while(System.in.read() >= 0) {
+			// Hasta que el proceso de la prueba cierre la tubería
+		}
+		node.stop();
+		System.exit(0);
+	}
+}
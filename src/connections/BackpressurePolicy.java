@@ -0,0 +1,16 @@
+package connections;
+
+/**
+ * Qué hacer cuando la cola de salida de una conexión está llena.
+ * Solo se aplica a los mensajes: los marcos de control nunca esperan ni se descartan (ver OutboundQueue).
+ */
+public enum BackpressurePolicy {
+
+	/** El hilo que envía espera a que haya hueco */
+	BLOCK,
+	/** Se descarta el marco más antiguo de la cola */
+	DROP_OLDEST,
+	/** Se desconecta al peer lento */
+	DISCONNECT
+
+}
@@ -0,0 +1,245 @@
+package connections;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import view.Frame;
+
+/**
+ * Codec binario de marcos.
+ * Al conectar cada extremo envía un saludo de 4 bytes: 'P' '2' 'P' y la versión del formato;
+ * se usa la menor de las dos. Desde la versión 2 el payload puede ir comprimido (ver PayloadCompression)
+ * y desde la 3 las difusiones pueden llevar canal. Los marcos de canal y los INTEREST solo se envían
+ * a peers con la versión 3 (ver Connection.supportsChannels).
+ * Después, cada marco viaja con un prefijo de longitud:
+ * <pre>
+ *  int   longitud (bytes que siguen)
+ *  byte  tipo de marco
+ *  byte  flags (bit 0: lleva payload, bit 1: lleva identificador, bit 2: payload comprimido, bit 3: lleva canal)
+ *  byte  ttl
+ *  int   ip de origen (IPv4 empaquetada)
+ *  int   ip de destino (IPv4 empaquetada, 255.255.255.255 para "*")
+ *  long  identificador del mensaje (solo si flags bit 1)
+ *  byte  longitud del canal y el canal en UTF-8 (solo si flags bit 3)
+ *  ...   payload en UTF-8
+ * </pre>
+ */
+public class BinaryFrameCodec implements FrameCodec {
+
+	public static final int VERSION = 3;
+	static final int COMPRESSION_VERSION = 2;
+	static final int CHANNEL_VERSION = 3;
+	/**
+	 * Longitud máxima en bytes UTF-8 del nombre de un canal.
+	 */
+	public static final int MAX_CHANNEL_BYTES = 255;
+	static final int HELLO_SIZE = 4;
+	static final int HEADER_SIZE = 11;
+	static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+	private static final byte[] MAGIC = {'P', '2', 'P'};
+	private static final byte FLAG_PAYLOAD = 0x01;
+	private static final byte FLAG_MESSAGE_ID = 0x02;
+	private static final byte FLAG_COMPRESSED = 0x04;
+	private static final byte FLAG_CHANNEL = 0x08;
+	private static final Frame.FrameType[] FRAME_TYPES = Frame.FrameType.values();
+
+	private final DataInputStream in;
+	private final OutputStream out;
+	private final int version;
+	private final LinkStats stats;
+	private final PayloadCompression compression;
+
+	BinaryFrameCodec(DataInputStream in, OutputStream out, int version, int compressionThreshold, LinkStats stats) {
+		this.in = in;
+		this.out = out;
+		this.version = version;
+		this.stats = stats;
+		this.compression = newCompression(version, compressionThreshold, stats);
+	}
+
+	/**
+	 * Crea el estado de compresión de un enlace, si la versión negociada la admite.
+	 * Aunque este extremo no comprima (umbral negativo) tiene que saber descomprimir lo que reciba.
+	 */
+	static PayloadCompression newCompression(int version, int compressionThreshold, LinkStats stats) {
+		return version >= COMPRESSION_VERSION ? new PayloadCompression(compressionThreshold, stats) : null;
+	}
+
+	/**
+	 * Devuelve la versión del formato negociada con el otro extremo.
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	@Override
+	public void writeFrame(Frame frame) throws IOException {
+		out.write(encode(frame, compression, stats));
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public Frame readFrame() throws IOException {
+		int length = in.readInt();
+		if(length < HEADER_SIZE || length > MAX_FRAME_SIZE) {
+			throw new StreamCorruptedException("Invalid frame length " + length);
+		}
+		byte[] body = new byte[length];
+		in.readFully(body);
+		return decode(ByteBuffer.wrap(body), compression, stats);
+	}
+
+	//Metodos de codificacion
+
+	/**
+	 * Codifica un marco, incluido su prefijo de longitud.
+	 * @param frame Marco a codificar
+	 * @return Los bytes listos para escribir en el socket
+	 */
+	public static byte[] encode(Frame frame) {
+		return encode(frame, null, null);
+	}
+
+	/**
+	 * Codifica un marco, incluido su prefijo de longitud, comprimiendo el payload si toca.
+	 * @param frame Marco a codificar
+	 * @param compression Estado de compresión del enlace, null si no se ha negociado
+	 * @param stats Contadores del enlace, null si no se llevan
+	 * @return Los bytes listos para escribir en el socket
+	 */
+	static byte[] encode(Frame frame, PayloadCompression compression, LinkStats stats) {
+		byte[] payload = frame.getPayload() == null ? null : frame.getPayload().getBytes(StandardCharsets.UTF_8);
+		int payloadBytes = payload == null ? 0 : payload.length;
+		byte flags = 0;
+		if(payload != null && compression != null && compression.shouldCompress(payload.length)) {
+			payload = compression.compress(payload);
+			flags |= FLAG_COMPRESSED;
+		}
+		int length = HEADER_SIZE;
+		if(frame.getMessageId() != 0) {
+			flags |= FLAG_MESSAGE_ID;
+			length += Long.BYTES;
+		}
+		byte[] channel = frame.getChannel() == null ? null : frame.getChannel().getBytes(StandardCharsets.UTF_8);
+		if(channel != null) {
+			if(channel.length > MAX_CHANNEL_BYTES) {
+				throw new IllegalArgumentException("Channel name longer than " + MAX_CHANNEL_BYTES + " bytes");
+			}
+			flags |= FLAG_CHANNEL;
+			length += 1 + channel.length;
+		}
+		if(payload != null) {
+			flags |= FLAG_PAYLOAD;
+			length += payload.length;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + length);
+		buffer.putInt(length);
+		buffer.put((byte) frame.getFrameType().ordinal());
+		buffer.put(flags);
+		buffer.put((byte) frame.getTimeToLive());
+		buffer.putInt(frame.getSourceAddress());
+		buffer.putInt(frame.getTargetAddress());
+		if(frame.getMessageId() != 0) {
+			buffer.putLong(frame.getMessageId());
+		}
+		if(channel != null) {
+			buffer.put((byte) channel.length);
+			buffer.put(channel);
+		}
+		if(payload != null) {
+			buffer.put(payload);
+		}
+		if(stats != null) {
+			stats.sent(buffer.capacity(), payloadBytes);
+		}
+		return buffer.array();
+	}
+
+	/**
+	 * Decodifica el cuerpo de un marco (sin el prefijo de longitud).
+	 * @param body Buffer posicionado al inicio del cuerpo y limitado a su final
+	 * @return El marco decodificado
+	 */
+	public static Frame decode(ByteBuffer body) throws IOException {
+		return decode(body, null, null);
+	}
+
+	/**
+	 * Decodifica el cuerpo de un marco (sin el prefijo de longitud), descomprimiendo el payload si hace falta.
+	 * @param body Buffer posicionado al inicio del cuerpo y limitado a su final
+	 * @param compression Estado de compresión del enlace, null si no se ha negociado
+	 * @param stats Contadores del enlace, null si no se llevan
+	 * @return El marco decodificado
+	 */
+	static Frame decode(ByteBuffer body, PayloadCompression compression, LinkStats stats) throws IOException {
+		int wireBytes = Integer.BYTES + body.remaining();
+		if(body.remaining() < HEADER_SIZE) {
+			throw new StreamCorruptedException("Truncated frame");
+		}
+		int type = body.get() & 0xFF;
+		if(type >= FRAME_TYPES.length) {
+			throw new StreamCorruptedException("Unknown frame type " + type);
+		}
+		byte flags = body.get();
+		int timeToLive = body.get() & 0xFF;
+		int source = body.getInt();
+		int target = body.getInt();
+
+		Frame frame = new Frame();
+		frame.setFrameType(FRAME_TYPES[type]);
+		frame.setHeader(timeToLive, source, target);
+		if((flags & FLAG_MESSAGE_ID) != 0) {
+			if(body.remaining() < Long.BYTES) {
+				throw new StreamCorruptedException("Truncated frame");
+			}
+			frame.setMessageId(body.getLong());
+		}
+		if((flags & FLAG_CHANNEL) != 0) {
+			int channelBytes = body.hasRemaining() ? body.get() & 0xFF : -1;
+			if(channelBytes < 0 || body.remaining() < channelBytes) {
+				throw new StreamCorruptedException("Truncated frame");
+			}
+			frame.setChannel(new String(body.array(), body.arrayOffset() + body.position(), channelBytes, StandardCharsets.UTF_8));
+			body.position(body.position() + channelBytes);
+		}
+		int payloadBytes = 0;
+		if((flags & FLAG_PAYLOAD) != 0) {
+			byte[] payload = new byte[body.remaining()];
+			body.get(payload);
+			if((flags & FLAG_COMPRESSED) != 0) {
+				if(compression == null) {
+					throw new StreamCorruptedException("Compressed frame without negotiated compression");
+				}
+				payload = compression.decompress(payload, 0, payload.length);
+			}
+			payloadBytes = payload.length;
+			frame.setPayload(new String(payload, StandardCharsets.UTF_8));
+		}
+		if(stats != null) {
+			stats.received(wireBytes, payloadBytes);
+		}
+		return frame;
+	}
+
+	/**
+	 * Devuelve el saludo que se envía al abrir una conexión.
+	 */
+	static byte[] hello() {
+		return new byte[]{MAGIC[0], MAGIC[1], MAGIC[2], VERSION};
+	}
+
+	/**
+	 * Informa si los bytes recibidos son un saludo del formato binario.
+	 */
+	static boolean isHello(byte[] hello) {
+		return hello.length == HELLO_SIZE && hello[0] == MAGIC[0] && hello[1] == MAGIC[1] && hello[2] == MAGIC[2];
+	}
+}
@@ -1,27 +1,66 @@
 package connections;
 
-import java.io.IOException;
-import java.net.Socket;
-import java.util.List;
-import java.util.logging.Logger;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
 
 import controller.MyP2P;
+import controller.NodeConfig;
+import metrics.Counter;
+import metrics.EventLog;
+import metrics.Histogram;
 
 
-public class ClientConnector {
+public class ClientConnector implements ConnectionListener {
 
-	private final int serverPort;
+	private static final long TICK_MILLIS = 100;
+
+	/**
+	 * Estado de reconexión de un peer. Se accede con el propio objeto bloqueado.
+	 */
+	private static final class Backoff {
+		private int attempts;
+		private long nextAttempt;
+		private long disconnectedAt;
+		private boolean connecting;
+	}
+
+	private final Transport transport;
 	private final MyP2P myP2P;
-	private boolean runStateClientConnection;
-	private static final Logger LOGGER = Logger.getLogger(ClientConnector.class.getName());
+	private final NodeConfig config;
+	private final ConcurrentHashMap<String, Backoff> backoffs;
+	private final Semaphore connectsInFlight;
+	private volatile boolean runStateClientConnection;
+	private final Future<?> future;
+	private final EventLog eventLog;
+
+	//Metricas
+	private final AtomicLong reconnects = new AtomicLong();
+	private final AtomicLong totalReconnectMillis = new AtomicLong();
+	private final AtomicLong maxReconnectMillis = new AtomicLong();
+	private final AtomicLong failedAttempts = new AtomicLong();
+	private volatile long lastReconnectMillis = -1;
+	private final Counter connectAttempts;
+	private final Histogram reconnectTime;
 
 
 	//Constructor
-	public ClientConnector(MyP2P myP2P, int serverPort) {
+	public ClientConnector(MyP2P myP2P, Transport transport) {
 		this.myP2P = myP2P;
-		this.serverPort = serverPort;
+		this.transport = transport;
+		this.config = myP2P.getConfig();
+		this.backoffs = new ConcurrentHashMap<>();
+		this.connectsInFlight = new Semaphore(config.getMaxConnectsInFlight());
+		this.eventLog = myP2P.getEventLog();
+		this.connectAttempts = myP2P.getMetrics().counter("p2p_connect_attempts_total", "Outgoing connection attempts");
+		this.reconnectTime = myP2P.getMetrics().histogram("p2p_reconnect_seconds", "Time from a disconnection to the next link with the same peer", 1e-3);
+		myP2P.getMetrics().counter("p2p_reconnects_total", "Links re-established after a disconnection", reconnects::get);
+		myP2P.getMetrics().counter("p2p_connect_failures_total", "Outgoing connection attempts that failed", failedAttempts::get);
 		runStateClientConnection = true;
-		new Thread(this::run).start();
+		myP2P.addConnectionListener(this);
+		future = myP2P.submit(this::run);
 	}
 
 
@@ -29,46 +68,163 @@ public class ClientConnector {
 
 	/**
 	 * Método principal de la conexión del cliente.
-	 * Ejecuta un ciclo infinito en el que se intenta reconectar a los peers conocidos
-	 * que están desconectados.
-	 * El método utiliza el método getPeersList() de la clase MyP2P para obtener
-	 * una lista de peers que están desconectados, intenta conectarse a cada peer de la lista
-	 * y agrega la conexión a la lista de conexiones de la clase MyP2P si se establece la conexión.
-	 * El método se ejecuta en un hilo separado para no bloquear el hilo principal de la aplicación.
+	 * Cada TICK_MILLIS recorre los peers conocidos que están desconectados y lanza un intento
+	 * de conexión a los que ya han cumplido su espera. Los intentos no bloquean este bucle:
+	 * el transporte los completa en paralelo, como mucho maxConnectsInFlight a la vez, así que
+	 * un peer que no responde no retrasa la reconexión de los demás.
+	 * Cada intento fallido dobla la espera del peer (con jitter) hasta reconnectMaxMillis.
 	 */
 	private void run() {
-		LOGGER.info("Client: Activated successfully");
-		while(runStateClientConnection) {
-			// Recibe la lista de los antiguos peers que se han desconectado
-			List<Connection> connectionList = myP2P.getPeersList().stream().filter((connection) -> !connection.isOk()).toList();
-			// Intenta conectar a cada peer de la lista
-			for(Connection connection: connectionList) {
-				try {
-					LOGGER.warning("Client: Try of reconnection " + connection.getClientIp());
-					Socket socket = new Socket(connection.getClientIp(), serverPort);
-					LOGGER.info("Client: Success in reconnecting with" + connection.getClientIp());
-					myP2P.addConnection(socket);
-				} catch (IOException e) {
-					LOGGER.severe("Client: Fail to connect with " + connection.getClientIp());
+		eventLog.info("client_started");
+		while(runStateClientConnection && !Thread.currentThread().isInterrupted()) {
+			long now = System.currentTimeMillis();
+			for(Connection connection: myP2P.getPeersList()) {
+				if(!connection.isOk()) {
+					tryConnect(connection.getClientIp(), now);
 				}
 			}
 
-			// Espera para la siguente conexion
+			// Espera para la siguente ronda
 			try {
-				Thread.sleep(500);
-			} catch (InterruptedException ignored) {}
+				Thread.sleep(TICK_MILLIS);
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+		eventLog.info("client_stopped");
+	}
+
+	private void tryConnect(String ip, long now) {
+		Backoff backoff = backoffs.computeIfAbsent(ip, k -> new Backoff());
+		synchronized (backoff) {
+			if(backoff.connecting || now < backoff.nextAttempt || !connectsInFlight.tryAcquire()) {
+				return;
+			}
+			backoff.connecting = true;
+		}
+		connectAttempts.increment();
+		eventLog.fine("connect_attempt", "peer", ip);
+		try {
+			transport.connect(ip, config.getConnectTimeoutMillis()).whenComplete((ignored, e) -> attemptDone(ip, backoff, e));
+		} catch (RuntimeException e) {
+			attemptDone(ip, backoff, e);
+		}
+	}
+
+	/**
+	 * Cierra un intento. Aunque la conexión TCP se haya establecido, la espera crece igual:
+	 * solo se reinicia cuando el enlace queda asociado (connected), así un peer que acepta
+	 * y corta enseguida no recibe intentos en bucle.
+	 */
+	private void attemptDone(String ip, Backoff backoff, Throwable e) {
+		connectsInFlight.release();
+		synchronized (backoff) {
+			backoff.connecting = false;
+			++backoff.attempts;
+			backoff.nextAttempt = System.currentTimeMillis() + nextDelay(backoff.attempts);
+		}
+		if(e != null) {
+			failedAttempts.incrementAndGet();
+			eventLog.warning("connect_failed", "peer", ip, "error", e);
+		}
+	}
+
+	/**
+	 * Espera exponencial con jitter: entre la mitad y el total de base * 2^(intentos - 1), con tope.
+	 */
+	private long nextDelay(int attempts) {
+		long delay = Math.min(config.getReconnectMaxMillis(), config.getReconnectBaseMillis() << Math.min(attempts - 1, 20));
+		return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+	}
+
+	@Override
+	public void connected(Connection connection) {
+		Backoff backoff = backoffs.get(connection.getClientIp());
+		if(backoff == null) {
+			return;
+		}
+		long reconnectMillis = -1;
+		synchronized (backoff) {
+			if(backoff.disconnectedAt > 0) {
+				reconnectMillis = System.currentTimeMillis() - backoff.disconnectedAt;
+			}
+			backoff.attempts = 0;
+			backoff.nextAttempt = 0;
+			backoff.disconnectedAt = 0;
+		}
+		if(reconnectMillis >= 0) {
+			reconnects.incrementAndGet();
+			totalReconnectMillis.addAndGet(reconnectMillis);
+			maxReconnectMillis.accumulateAndGet(reconnectMillis, Math::max);
+			lastReconnectMillis = reconnectMillis;
+			reconnectTime.record(reconnectMillis);
+			eventLog.info("reconnected", "peer", connection.getClientIp(), "after_ms", reconnectMillis);
+		}
+	}
+
+	@Override
+	public void disconnected(Connection connection) {
+		if(!runStateClientConnection) {
+			return;
+		}
+		Backoff backoff = backoffs.computeIfAbsent(connection.getClientIp(), k -> new Backoff());
+		long now = System.currentTimeMillis();
+		synchronized (backoff) {
+			backoff.disconnectedAt = now;
+			backoff.attempts = 0;
+			// Primer intento casi inmediato, repartido para no reconectar a todos los peers a la vez
+			backoff.nextAttempt = now + ThreadLocalRandom.current().nextLong(config.getReconnectBaseMillis() + 1);
 		}
-		LOGGER.severe("Client: Client stopped");
 	}
 
 	/**
-	 * Detiene la ejecución del hilo principal de la conexión del cliente.
+	 * Detiene la ejecución del hilo principal de la conexión del cliente,
+	 * interrumpiéndolo si está esperando o conectando.
 	 */
 	public void stopClientConnection() {
-		LOGGER.warning("Stopping " + this.getClass().getSimpleName());
+		eventLog.fine("client_stopping");
 		runStateClientConnection = false;
+		myP2P.removeConnectionListener(this);
+		future.cancel(true);
+	}
+
+	//Metodos de metricas
+
+	/**
+	 * Número de reconexiones completadas tras una desconexión.
+	 */
+	public long getReconnects() {
+		return reconnects.get();
+	}
+
+	/**
+	 * Tiempo medio entre la desconexión de un peer y su reconexión, en milisegundos.
+	 */
+	public long getAverageReconnectMillis() {
+		long count = reconnects.get();
+		return count == 0 ? -1 : totalReconnectMillis.get() / count;
+	}
+
+	public long getMaxReconnectMillis() {
+		return maxReconnectMillis.get();
 	}
-	
 
+	public long getLastReconnectMillis() {
+		return lastReconnectMillis;
+	}
+
+	/**
+	 * Intentos de conexión fallidos, incluidos los que vencieron por timeout.
+	 */
+	public long getFailedAttempts() {
+		return failedAttempts.get();
+	}
+
+	/**
+	 * Intentos de conexión en curso en este momento.
+	 */
+	public int getConnectsInFlight() {
+		return config.getMaxConnectsInFlight() - connectsInFlight.availablePermits();
+	}
 
 }
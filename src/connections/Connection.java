@@ -1,11 +1,11 @@
 package connections;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
+import java.util.concurrent.Future;
 
 import controller.MyP2P;
+import metrics.EventLog;
 import view.*;
 
 /**
@@ -19,20 +19,31 @@ import view.*;
 
 public class Connection {
 
+	/**
+	 * Saltos con los que sale un mensaje. Igual que el infinito de la tabla de rutas.
+	 */
+	public static final int MESSAGE_TTL = 16;
+
 	private final MyP2P myP2P;
+	private final ConnectionEvents events;
 	private final String clientIp;
-	private Socket socket;
+	private final int clientAddress;
+	private final ConnectionMetrics metrics;
+	private final EventLog eventLog;
+	private volatile Link link;
 	private HealthCareConnection hcc;
-	private ObjectInputStream in;
-	private ObjectOutputStream out;
+	private boolean legacyPeer;
 	private long lastTimeReceivedMessage;
-	private Thread thread;
-	public boolean runState;
+	private volatile long lastRttNanos = -1;
+	private volatile long smoothedRttNanos = -1;
 	
 	public Connection(MyP2P myP2P, String clientIp) {
 		this.myP2P = myP2P;
+		this.events = myP2P.getConnectionEvents();
 		this.clientIp = clientIp;
-		thread = new Thread(this::run);
+		this.clientAddress = Ipv4Address.parse(clientIp);
+		this.eventLog = myP2P.getEventLog();
+		this.metrics = new ConnectionMetrics(myP2P.getMetrics(), this);
 	}
 
 	//Metodos de inicializacion y control
@@ -41,7 +52,6 @@ public class Connection {
 	 * Detiene el hilo secundario de la conexión.
 	 */
 	public void stopConnection() {
-		System.err.println("Connection: Stopping");
 		killSocket();
 	}
 
@@ -50,19 +60,17 @@ public class Connection {
 	 * Borra el puerto adscrito, pero no cambia la targetIp para que este objeto esté vinculado a ella.
 	 */
 	public void killSocket() {
-		try {
-			runState = false;
+		Link link;
+		synchronized (this) {
+			link = this.link;
+			this.link = null;
 			if(hcc!=null)
 				hcc.stopHCC();
-			if(socket != null && !socket.isClosed())
-				socket.close();
-		} catch (IOException e) {
-			e.printStackTrace();
-		} finally {
-			in = null;
-			out = null;
-			socket = null;
-			System.err.println("Connection: Matando el socket de " + clientIp);
+		}
+		if(link != null) {
+			link.close();
+			eventLog.info("link_closed", "peer", clientIp);
+			events.disconnected(this);
 		}
 	}
 
@@ -71,7 +79,8 @@ public class Connection {
 	 * @return True si tiene socket, False en caso contrario
 	 */
 	public boolean isOk() {
-		return socket!=null && !socket.isClosed();
+		Link link = this.link;
+		return link != null && link.isOpen();
 	}
 
 	/**
@@ -82,37 +91,157 @@ public class Connection {
 		return clientIp;
 	}
 
+	/**
+	 * Devuelve la ip del peer empaquetada, calculada una sola vez al crear la conexión.
+	 */
+	public int getClientAddress() {
+		return clientAddress;
+	}
+
+	/**
+	 * Devuelve la ip local con la que este nodo ve al peer, empaquetada.
+	 * @return La dirección, o Ipv4Address.ANY si no hay enlace
+	 */
+	public int getLocalAddress() {
+		Link link = this.link;
+		return link == null ? Ipv4Address.ANY : link.getLocalAddress();
+	}
+
+	/**
+	 * Informa si el peer solo habla serialización Java y no entiende los marcos de control nuevos.
+	 */
+	public boolean isLegacyPeer() {
+		return legacyPeer;
+	}
+
+	/**
+	 * Informa si el peer entiende los marcos con canal y los anuncios INTEREST.
+	 */
+	public boolean supportsChannels() {
+		Link link = this.link;
+		return !legacyPeer && link != null && link.getVersion() >= BinaryFrameCodec.CHANNEL_VERSION;
+	}
+
 	/**
 	 * Añade un socket a la conexión
 	 * @param socket Socket por el que hará la conexión
 	 */
 	public void setSocket(Socket socket) {
 		if(!isOk() && clientIp.equals(socket.getInetAddress().getHostAddress())) {
-			this.socket = socket;
 			try {
-				out = new ObjectOutputStream(socket.getOutputStream());
-				in = new ObjectInputStream(socket.getInputStream());
-				updateTimeReceivedMessage();
-				runState = true;
-				if(!thread.isAlive()) {
-					thread = new Thread(this::run);
-					thread.start();
-				}
-				hcc = new HealthCareConnection(this, 1000);
+				attach(new SocketLink(socket, legacyPeer, myP2P.newOutboundQueue(), myP2P.getConfig().getCompressionThreshold()));
+			} catch (FrameCodec.LegacyPeerException e) {
+				// El peer solo habla serialización Java: la siguiente reconexión se hará en modo legado
+				eventLog.warning("legacy_peer", "peer", clientIp, "error", e.getMessage());
+				legacyPeer = true;
+				closeQuietly(socket);
 			} catch (Exception e) {
-				e.printStackTrace();
+				eventLog.warning("negotiation_failed", "peer", clientIp, "error", e);
+				closeQuietly(socket);
 			}
 		}
 	}
 
-	private void run() {
-		while(runState) {
-			if(isOk()) {
-				receive();
+	/**
+	 * Asocia un enlace ya negociado a la conexión.
+	 * Si la conexión ya tiene un enlace abierto, o el enlace es de otro peer, se descarta.
+	 * @param link Enlace por el que hará la conexión
+	 */
+	public void attach(Link link) {
+		synchronized (this) {
+			if(isOk() || !clientIp.equals(link.getRemoteIp())) {
+				link.close();
+				return;
 			}
+			this.link = link;
+			updateTimeReceivedMessage();
+			hcc = new HealthCareConnection(this, myP2P.getTimer(), myP2P.getConfig().getHealthPolicy(clientIp));
+			metrics.connects.increment();
+			eventLog.info("link_open", "peer", clientIp, "legacy", legacyPeer);
+			// Dentro del bloqueo para que nunca llegue después del disconnected de este mismo enlace,
+			// y antes de arrancar el enlace para que los listeners lo vean antes que su primer marco
+			events.connected(this);
+			link.start(this);
+		}
+		// Fuera del bloqueo, para que los listeners puedan enviar; si el enlace ya se ha cerrado no hay nada que avisar
+		if(this.link == link && link.isOpen()) {
+			events.linkStarted(this);
+		}
+	}
+
+	/**
+	 * Llamado por el enlace cada vez que recibe un marco.
+	 */
+	void onFrame(Frame frame) {
+		updateTimeReceivedMessage();
+		metrics.received(frame);
+		handleFrame(frame);
+	}
+
+	/**
+	 * Llamado por el chequeo de salud cuando cambia su estado.
+	 */
+	void statusChanged(ConnectionStatus status) {
+		events.statusChanged(this, status);
+	}
+
+	/**
+	 * Llamado por el enlace cuando se cierra por un error de lectura o escritura.
+	 */
+	void onClosed(Link closed) {
+		if(link == closed) {
+			killSocket();
 		}
 	}
 
+	ConnectionMetrics getMetrics() {
+		return metrics;
+	}
+
+	EventLog getEventLog() {
+		return eventLog;
+	}
+
+	/**
+	 * Lanza un bucle de la conexión (lectura, chequeo de salud) en el ejecutor del nodo.
+	 */
+	Future<?> submit(Runnable task) {
+		return myP2P.submit(task);
+	}
+
+	private static void closeQuietly(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException ignored) {}
+	}
+
+	/**
+	 * Devuelve el número de marcos pendientes en la cola de salida hacia este peer.
+	 * @return La profundidad de la cola, 0 si no hay enlace abierto
+	 */
+	public int getQueueDepth() {
+		Link link = this.link;
+		return link == null ? 0 : link.getOutboundQueue().size();
+	}
+
+	/**
+	 * Devuelve los marcos descartados por la política de contrapresión en el enlace actual.
+	 * @return Los marcos descartados, 0 si no hay enlace abierto
+	 */
+	public long getQueueDropped() {
+		Link link = this.link;
+		return link == null ? 0 : link.getOutboundQueue().getDropped();
+	}
+
+	/**
+	 * Devuelve los contadores de tráfico y compresión del enlace actual con el peer.
+	 * @return Los contadores, null si no hay enlace abierto
+	 */
+	public LinkStats getLinkStats() {
+		Link link = this.link;
+		return link == null ? null : link.getStats();
+	}
+
 	/**
 	 * Devuelve el tiempo en milisegundos de la última conexión
 	 * @return Un dato tipo long con el tiempo de la última conexión
@@ -125,10 +254,11 @@ public class Connection {
 	/**
 	 * Envía una carga útil a través de la conexión.
 	 * @param packageInfo
+	 * @param messageId Identificador del mensaje, el mismo en todas las copias enviadas
 	 */
-	public void send(String packageInfo) {
+	public void send(String packageInfo, long messageId) {
 		if(isOk()) {
-			send(socket.getInetAddress().getHostAddress(), packageInfo);
+			send(clientAddress, Frame.FrameType.MESSAGE, packageInfo, messageId);
 		}
 	}
 
@@ -136,51 +266,64 @@ public class Connection {
 	 * Envía una carga útil a una ip de cliente de destino a través de la conexión.
 	 * @param destinationIp
 	 * @param packageInfo
+	 * @param messageId Identificador del mensaje, el mismo en todas las copias enviadas
 	 */
-	public void send(String destinationIp, String packageInfo) {
-		if(destinationIp != null && !MyP2P.isValidIp(destinationIp))
+	public void send(String destinationIp, String packageInfo, long messageId) {
+		send(destinationIp, Frame.FrameType.MESSAGE, packageInfo, messageId);
+	}
+
+	/**
+	 * Envía una carga útil de un tipo dado (MESSAGE o CHUNK) a una ip de cliente de destino.
+	 * @param destinationIp
+	 * @param frameType Tipo del marco
+	 * @param packageInfo
+	 * @param messageId Identificador del mensaje, el mismo en todas las copias enviadas
+	 */
+	public void send(String destinationIp, Frame.FrameType frameType, String packageInfo, long messageId) {
+		if(destinationIp != null && !Ipv4Address.isValid(destinationIp))
 			return;
-		if(destinationIp == null) {
-			destinationIp = "*";
-		}
-		if(isOk()) {
+		// null se empaqueta como "*"
+		send(Ipv4Address.parse(destinationIp), frameType, packageInfo, messageId);
+	}
+
+	private void send(int destinationAddress, Frame.FrameType frameType, String packageInfo, long messageId) {
+		Link link = this.link;
+		if(link != null && link.isOpen()) {
 			Frame frame = new Frame();
-			frame.setFrameType(Frame.FrameType.MESSAGE);
-			frame.setHeader(2, socket.getLocalAddress().getHostAddress(), destinationIp);
+			frame.setFrameType(frameType);
+			frame.setHeader(MESSAGE_TTL, link.getLocalAddress(), destinationAddress);
 			frame.setPayload(packageInfo);
+			frame.setMessageId(messageId);
 			sendFrame(frame);
 		}
 	}
 
 	/**
-	 * Envía un marco a través de la conexión.
+	 * Envía un marco de control, que solo viaja hasta el vecino, a través de la conexión.
+	 * A los peers antiguos no se les envía porque no conocen el tipo.
+	 * @param frameType Tipo del marco
+	 * @param payload Contenido del marco
 	 */
-	public void sendFrame(Frame frame) {
-		if(isOk()) {
-			try {
-				out.writeObject(frame);
-			} catch (IOException e) {
-				e.printStackTrace();
-				killSocket();
-			}
+	public void sendControl(Frame.FrameType frameType, String payload) {
+		Link link = this.link;
+		if(link != null && link.isOpen() && !legacyPeer) {
+			Frame frame = new Frame();
+			frame.setFrameType(frameType);
+			frame.setHeader(1, link.getLocalAddress(), clientAddress);
+			frame.setPayload(payload);
+			sendFrame(frame);
 		}
 	}
 
-	//Metodo de recepcion de mensajes
-
 	/**
-	 * Recibe un marco a través de la conexión.
+	 * Envía un marco a través de la conexión.
+	 * A los peers antiguos solo les llegan los tipos que ya conocían (hasta MESSAGE).
 	 */
-	private void receive() {
-		if(isOk()) {
-			try {
-				Frame frame = (Frame)in.readObject();
-				updateTimeReceivedMessage();
-				handleFrame(frame);
-			} catch (Exception e) {
-				System.err.println("Connection: Error in the receive");
-				killSocket();
-			}
+	public void sendFrame(Frame frame) {
+		Link link = this.link;
+		if(link != null && link.isOpen() && !(legacyPeer && frame.getFrameType().compareTo(Frame.FrameType.MESSAGE) > 0)) {
+			metrics.sent(frame);
+			link.send(frame);
 		}
 	}
 
@@ -191,46 +334,119 @@ public class Connection {
 	 * @param frame
 	 */
 	private void handleFrame(Frame frame) {
-		String myIp = socket.getLocalAddress().getHostAddress();
-		System.err.flush();
+		Link link = this.link;
+		if(link == null) return;
+		int myAddress = link.getLocalAddress();
 		switch (frame.getFrameType()) {
-			case MESSAGE -> {
+			case MESSAGE, CHUNK, ACK -> {
+				int targetAddress = frame.getTargetAddress();
+				// Difusión a "*": la reparte el árbol, que también descarta (y poda) los duplicados,
+				// incluidos los ecos de nuestros propios mensajes
+				if (targetAddress == Ipv4Address.BROADCAST && frame.getMessageId() != 0) {
+					if (myP2P.getBroadcastTree().onMessage(this, frame)) {
+						myP2P.deliver(frame);
+					}
+					return;
+				}
 				// El paquete es nuestro. Lo matamos
-				if (frame.getSourceIP().equals(myIp)) return;
+				if (frame.getSourceAddress() == myAddress) return;
+				// Ya visto: ha llegado por otro camino de la malla, o es un reenvío. No se entrega ni se reenvía
+				if (!myP2P.markSeen(frame)) {
+					if (targetAddress == myAddress) {
+						myP2P.deliverDuplicate(frame);
+					}
+					return;
+				}
 				// El paquete va dirigido a todos o a nosotros. Enviar el payload y la ip de origen al controlador para tratarlo.
-				if (frame.getTargetIP().equals(myIp) || frame.getTargetIP().equals("*")) {
-					myP2P.pushMessage(frame.getSourceIP(), frame.getPayload());
+				if (targetAddress == myAddress || targetAddress == Ipv4Address.BROADCAST) {
+					myP2P.deliver(frame);
 				}
-				// Reenviarlo solo en caso de que el paquete no sea para nostros y su ttl no sea 0
-				else if (!frame.getTargetIP().equals(myIp) && !frame.decrementTTL()) {
-					myP2P.resend(clientIp, frame);
+				// Reenviarlo solo (los fragmentos tal cual, sin reensamblar) en caso de que el paquete no sea para nostros y su ttl no sea 0
+				else if (!frame.decrementTTL()) {
+					metrics.forwarded.increment();
+					myP2P.resend(clientAddress, frame);
 				}
 			}
 			case PING -> {
 				// Consideramos viene directamente de este peer
 				Frame response = new Frame();
 				response.setFrameType(Frame.FrameType.PING_ACK);
-				response.setHeader(1, myIp, clientIp);
-				System.out.println("Connection: Enviando PingAck a " + clientIp);
+				response.setHeader(1, myAddress, clientAddress);
+				// Se devuelve la marca de tiempo del ping para que el otro extremo mida el RTT
+				response.setPayload(frame.getPayload());
 				sendFrame(response);
 			}
-			case PING_ACK -> System.out.println("Connection: Recibido PingAck: " + socket.getInetAddress().getHostAddress());
+			case PING_ACK -> {
+				updateRtt(frame.getPayload());
+			}
+			case ROUTE -> myP2P.getRoutingTable().onAdvert(this, frame.getPayload());
+			case GOSSIP -> myP2P.getMembership().onGossip(this, frame.getPayload());
+			case IHAVE -> myP2P.getBroadcastTree().onIHave(this, frame.getPayload());
+			case GRAFT -> myP2P.getBroadcastTree().onGraft(this, frame.getPayload());
+			case PRUNE -> myP2P.getBroadcastTree().onPrune(this);
+			case SYNC -> myP2P.getHistorySync().onSync(this, frame.getPayload());
+			case INTEREST -> myP2P.getChannelTable().onAdvert(this, frame.getPayload());
 		}
 	}
 
 
 	/**
-	 * Lanza un ping al destino de la conexion
+	 * Lanza un ping al destino de la conexion.
+	 * El payload lleva la marca de tiempo de envío, que el PING_ACK devuelve intacta.
 	 */
 	void doPing() {
-		if(isOk()) {
+		Link link = this.link;
+		if(link != null && link.isOpen()) {
 			Frame ping = new Frame();
 			ping.setFrameType(Frame.FrameType.PING);
-			ping.setHeader(1, socket.getLocalAddress().getHostAddress(), clientIp);
+			ping.setHeader(1, link.getLocalAddress(), clientAddress);
+			ping.setPayload(Long.toString(System.nanoTime()));
 			sendFrame(ping);
 		}
 	}
 
+	/**
+	 * Calcula el RTT a partir de la marca de tiempo devuelta en un PING_ACK.
+	 * Los peers antiguos no devuelven marca: en ese caso no se mide nada.
+	 */
+	private void updateRtt(String pingTimestamp) {
+		if(pingTimestamp == null) {
+			return;
+		}
+		try {
+			long rtt = System.nanoTime() - Long.parseLong(pingTimestamp);
+			lastRttNanos = rtt;
+			metrics.pingRtt.record(rtt);
+			// Media móvil como la de TCP (RFC 6298): 7/8 del valor anterior y 1/8 de la muestra
+			smoothedRttNanos = smoothedRttNanos < 0 ? rtt : smoothedRttNanos - (smoothedRttNanos >> 3) + (rtt >> 3);
+		} catch (NumberFormatException ignored) {}
+	}
+
+	/**
+	 * Devuelve el último RTT medido con este peer.
+	 * @return El RTT en nanosegundos, -1 si aún no se ha medido
+	 */
+	public long getLastRttNanos() {
+		return lastRttNanos;
+	}
+
+	/**
+	 * Devuelve el RTT suavizado con este peer.
+	 * @return El RTT en nanosegundos, -1 si aún no se ha medido
+	 */
+	public long getSmoothedRttNanos() {
+		return smoothedRttNanos;
+	}
+
+	/**
+	 * Devuelve el estado del chequeo de salud de la conexión.
+	 * @return OK o AWAITING, null si no hay enlace abierto
+	 */
+	public ConnectionStatus getHealthStatus() {
+		HealthCareConnection hcc = this.hcc;
+		return isOk() && hcc != null ? hcc.getStatus() : null;
+	}
+
 	//Metodo de actualización de estado
 
 	/**
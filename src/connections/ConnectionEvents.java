@@ -0,0 +1,47 @@
+package connections;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Reparte los eventos de todas las conexiones de un nodo entre los listeners registrados.
+ */
+public class ConnectionEvents implements ConnectionListener {
+
+	private final CopyOnWriteArrayList<ConnectionListener> listeners = new CopyOnWriteArrayList<>();
+
+	public void addListener(ConnectionListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(ConnectionListener listener) {
+		listeners.remove(listener);
+	}
+
+	@Override
+	public void connected(Connection connection) {
+		for(ConnectionListener listener: listeners) {
+			listener.connected(connection);
+		}
+	}
+
+	@Override
+	public void linkStarted(Connection connection) {
+		for(ConnectionListener listener: listeners) {
+			listener.linkStarted(connection);
+		}
+	}
+
+	@Override
+	public void disconnected(Connection connection) {
+		for(ConnectionListener listener: listeners) {
+			listener.disconnected(connection);
+		}
+	}
+
+	@Override
+	public void statusChanged(Connection connection, ConnectionStatus status) {
+		for(ConnectionListener listener: listeners) {
+			listener.statusChanged(connection, status);
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package connections;
+
+/**
+ * Recibe los cambios de estado de las conexiones.
+ * Los avisos llegan desde los hilos de red (lectura, salud, transporte),
+ * así que las implementaciones deben volver rápido y no bloquear.
+ */
+public interface ConnectionListener {
+
+	/**
+	 * La conexión acaba de recibir un enlace abierto con su peer.
+	 */
+	default void connected(Connection connection) {}
+
+	/**
+	 * El enlace que acaba de recibir la conexión ya ha arrancado: a partir de aquí
+	 * lo que se envíe sale por él. Llega después de connected, fuera del bloqueo de la conexión.
+	 */
+	default void linkStarted(Connection connection) {}
+
+	/**
+	 * La conexión ha perdido su enlace.
+	 */
+	default void disconnected(Connection connection) {}
+
+	/**
+	 * El chequeo de salud ha cambiado de estado (OK / AWAITING).
+	 */
+	default void statusChanged(Connection connection, ConnectionStatus status) {}
+}
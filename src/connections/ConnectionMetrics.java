@@ -0,0 +1,63 @@
+package connections;
+
+import metrics.Counter;
+import metrics.Histogram;
+import metrics.MetricsRegistry;
+import view.Frame;
+
+/**
+ * Métricas de la conexión con un peer, todas con la etiqueta "peer".
+ * Las series se crean una sola vez con la conexión; los caminos calientes solo incrementan contadores.
+ * Los bytes y los descartes se leen del enlace actual al exportar, así que vuelven a 0 en cada reconexión,
+ * como cualquier contador de Prometheus al reiniciarse.
+ */
+final class ConnectionMetrics {
+
+	private static final Frame.FrameType[] FRAME_TYPES = Frame.FrameType.values();
+
+	private final Counter[] framesIn;
+	private final Counter[] framesOut;
+	final Counter forwarded;
+	final Counter missedPings;
+	final Counter healthTimeouts;
+	final Counter connects;
+	final Histogram pingRtt;
+
+	ConnectionMetrics(MetricsRegistry registry, Connection connection) {
+		String peer = connection.getClientIp();
+		framesIn = new Counter[FRAME_TYPES.length];
+		framesOut = new Counter[FRAME_TYPES.length];
+		for(Frame.FrameType type: FRAME_TYPES) {
+			framesIn[type.ordinal()] = registry.counter("p2p_frames_received_total", "Frames received from the peer", "peer", peer, "type", type.name());
+			framesOut[type.ordinal()] = registry.counter("p2p_frames_sent_total", "Frames queued to the peer", "peer", peer, "type", type.name());
+		}
+		forwarded = registry.counter("p2p_frames_forwarded_total", "Frames received from the peer and forwarded to other peers", "peer", peer);
+		missedPings = registry.counter("p2p_missed_pings_total", "Pings to the peer left unanswered", "peer", peer);
+		healthTimeouts = registry.counter("p2p_health_timeouts_total", "Connections to the peer closed by the health check", "peer", peer);
+		connects = registry.counter("p2p_connects_total", "Links established with the peer", "peer", peer);
+		pingRtt = registry.histogram("p2p_ping_rtt_seconds", "Round trip time of the pings to the peer", 1e-9, "peer", peer);
+		registry.gauge("p2p_up", "1 if the link with the peer is open", () -> connection.isOk() ? 1 : 0, "peer", peer);
+		registry.gauge("p2p_outbound_queue_depth", "Frames waiting in the outbound queue of the peer", connection::getQueueDepth, "peer", peer);
+		registry.counter("p2p_outbound_dropped_total", "Frames dropped by the backpressure policy of the current link", connection::getQueueDropped, "peer", peer);
+		registry.counter("p2p_wire_bytes_sent_total", "Bytes written on the current link, headers included",
+				() -> stat(connection, true), "peer", peer);
+		registry.counter("p2p_wire_bytes_received_total", "Bytes read from the current link, headers included",
+				() -> stat(connection, false), "peer", peer);
+	}
+
+	private static long stat(Connection connection, boolean sent) {
+		LinkStats stats = connection.getLinkStats();
+		if(stats == null) {
+			return 0;
+		}
+		return sent ? stats.getWireBytesSent() : stats.getWireBytesReceived();
+	}
+
+	void received(Frame frame) {
+		framesIn[frame.getFrameType().ordinal()].increment();
+	}
+
+	void sent(Frame frame) {
+		framesOut[frame.getFrameType().ordinal()].increment();
+	}
+}
@@ -0,0 +1,80 @@
+package connections;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.net.Socket;
+
+import view.Frame;
+
+/**
+ * Formato de transmisión de marcos sobre un socket.
+ * Cada conexión negocia su codec al establecerse: los peers actuales usan el
+ * formato binario de BinaryFrameCodec y los peers antiguos, que solo conocen la
+ * serialización Java, se atienden con ObjectFrameCodec.
+ */
+public interface FrameCodec {
+
+	/**
+	 * Escribe un marco en el buffer de salida. No llega al socket hasta el siguiente flush().
+	 * @param frame Marco a enviar
+	 */
+	void writeFrame(Frame frame) throws IOException;
+
+	/**
+	 * Envía al socket todos los marcos escritos desde el último flush().
+	 */
+	void flush() throws IOException;
+
+	/**
+	 * Lee el siguiente marco del flujo de entrada. Bloquea hasta que llega un marco completo.
+	 * @return El marco recibido
+	 */
+	Frame readFrame() throws IOException;
+
+	/**
+	 * Negocia el codec de una conexión recién establecida.
+	 * Ambos extremos envían su saludo (magic + versión) y leen el del otro.
+	 * Si el otro extremo responde con la cabecera de la serialización Java es un peer antiguo:
+	 * se lanza LegacyPeerException para que la conexión se reabra en modo legado.
+	 * @param socket Socket recién conectado
+	 * @param legacyPeer True si ya se sabe que el peer solo habla serialización Java
+	 * @param compressionThreshold Tamaño mínimo de payload que se comprime; negativo para no comprimir
+	 * @param stats Contadores del enlace
+	 * @return El codec a utilizar en la conexión
+	 */
+	static FrameCodec negotiate(Socket socket, boolean legacyPeer, int compressionThreshold, LinkStats stats) throws IOException {
+		if(legacyPeer) {
+			return new ObjectFrameCodec(socket.getInputStream(), new BufferedOutputStream(socket.getOutputStream()));
+		}
+		OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+		out.write(BinaryFrameCodec.hello());
+		out.flush();
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		byte[] hello = new byte[BinaryFrameCodec.HELLO_SIZE];
+		in.readFully(hello);
+		if(ObjectFrameCodec.isStreamHeader(hello)) {
+			throw new LegacyPeerException(socket.getInetAddress().getHostAddress());
+		}
+		if(!BinaryFrameCodec.isHello(hello)) {
+			throw new StreamCorruptedException("Unknown handshake from " + socket.getInetAddress().getHostAddress());
+		}
+		int version = Math.min(BinaryFrameCodec.VERSION, hello[BinaryFrameCodec.HELLO_SIZE - 1] & 0xFF);
+		return new BinaryFrameCodec(in, out, version, compressionThreshold, stats);
+	}
+
+	/**
+	 * Se lanza durante la negociación cuando el otro extremo es un peer que solo habla serialización Java.
+	 */
+	class LegacyPeerException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		public LegacyPeerException(String ip) {
+			super("Peer " + ip + " only speaks Java serialization");
+		}
+	}
+}
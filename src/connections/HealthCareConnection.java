@@ -4,71 +4,105 @@ package connections;
  * Esta clase, llamada HealthCareConnection,
  * es una clase que se encarga de monitorear el estado de una conexión y
  * realizar acciones en caso de que se detecte un problema.
- *
+ * No tiene hilo propio: cada comprobación es un temporizador en la TimerWheel
+ * compartida del nodo, que solo se dispara cuando el peer podría estar inactivo.
  */
 public class HealthCareConnection {
-	
+
 	private final Connection connection;
+	private final TimerWheel timer;
+	private final HealthPolicy policy;
 	private ConnectionStatus status;
-	private final long healthTimeOut;
-	public boolean runStateHCC;
-	
-	public HealthCareConnection(Connection connection, long healthTimeOut) {
+	private int missedPings;
+	private long pingSentAt;
+	private volatile TimerWheel.Timeout timeout;
+	public volatile boolean runStateHCC;
+
+	public HealthCareConnection(Connection connection, TimerWheel timer, HealthPolicy policy) {
 		this.connection = connection;
-		this.healthTimeOut = healthTimeOut;
+		this.timer = timer;
+		this.policy = policy;
 		status = ConnectionStatus.OK;
 		runStateHCC = true;
-		new Thread(this::run).start();
+		schedule(policy.getIdleMillis());
 	}
 
 	/**
-	 * Es un método público que detiene la ejecución del hilo que se encarga del monitoreo.
-	 * Este método simplemente cambia el valor del atributo runState a false.
+	 * Es un método público que detiene el monitoreo.
+	 * Cambia el valor del atributo runState a false y cancela la comprobación pendiente.
 	 */
 	public void stopHCC() {
-		System.out.println("HCC: Stopping");
 		runStateHCC = false;
+		TimerWheel.Timeout timeout = this.timeout;
+		if(timeout != null) {
+			timeout.cancel();
+		}
 	}
 
 	/**
-	 * Es el método privado que se encarga de realizar el monitoreo de la conexión.
-	 * Este método se ejecuta en un hilo independiente y se encarga de verificar el
-	 * estado de la conexión en un ciclo infinito. Si la conexión está funcionando correctamente,
-	 * se espera un tiempo y se vuelve a verificar. Si la conexión no responde después de cierto tiempo,
-	 * se cambia el estado de la conexión a AWAITING y se intenta enviar un ping.
-	 * Si la conexión sigue sin responder después de cierto tiempo,
-	 * se cierra el socket de la conexión y se cambia el estado de la conexión a OK.
+	 * Devuelve el estado actual del chequeo.
 	 */
-	private void run() {
-		System.err.println("HealthCareConnection: activado");
-		while(runStateHCC) {
-			if(connection.isOk()) {
-				try {
-					Thread.sleep(healthTimeOut/3);
-				} catch (InterruptedException e) { }
-				long lastTimeConnection = connection.getTimeReceivedMessage();
-				long currentTime = System.currentTimeMillis();
-				long diffTime = currentTime - lastTimeConnection;
-				if(diffTime > healthTimeOut) {
-					if(status == ConnectionStatus.OK) {
-						status = ConnectionStatus.AWAITING;
-
-						System.out.println("HealthCareConnection: <OK> timeout = " + diffTime + " (max. " + healthTimeOut + "ms)");
-						System.out.println("HealthCareConnection: <OK> sending ping");
+	public ConnectionStatus getStatus() {
+		return status;
+	}
 
-						connection.doPing();
-					} else {  // status == ConnectionStatus.AWAITING_OK
-						System.out.println("HealthCareConnection: <AWAITING_OK> timeout = " + diffTime + " (max. " + healthTimeOut + "ms)");
+	/**
+	 * Comprobación programada en la rueda.
+	 * Si se ha recibido algo recientemente la conexión está bien y se vuelve a programar para
+	 * el momento en que quedaría inactiva. Si no, se envía un ping y se cambia el estado a AWAITING;
+	 * cuando se acumulan maxMissedPings pings sin respuesta se cierra el socket de la conexión.
+	 */
+	private void check() {
+		if(!runStateHCC || !connection.isOk()) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		long lastTimeConnection = connection.getTimeReceivedMessage();
+		long idleTime = now - lastTimeConnection;
 
-						connection.killSocket();
-						status = ConnectionStatus.OK;
-					}
-				} else {
-					status = ConnectionStatus.OK;
-				}
+		if(status == ConnectionStatus.AWAITING && lastTimeConnection >= pingSentAt) {
+			// El peer ha respondido (o enviado cualquier otra cosa) desde el último ping
+			missedPings = 0;
+			setStatus(ConnectionStatus.OK);
+		} else if(status == ConnectionStatus.AWAITING) {
+			++missedPings;
+			connection.getMetrics().missedPings.increment();
+			connection.getEventLog().warning("ping_missed", "peer", connection.getClientIp(), "missed", missedPings, "max", policy.getMaxMissedPings());
+			if(missedPings >= policy.getMaxMissedPings()) {
+				connection.getMetrics().healthTimeouts.increment();
+				connection.getEventLog().warning("health_timeout", "peer", connection.getClientIp(), "idle_ms", idleTime);
+				connection.killSocket();
+				return;
 			}
 		}
-		System.err.println("HeHealthCareConnection: detenido.");
+
+		if(status == ConnectionStatus.OK && idleTime < policy.getIdleMillis()) {
+			schedule(policy.getIdleMillis() - idleTime);
+			return;
+		}
+		if(status == ConnectionStatus.OK) {
+			connection.getEventLog().fine("idle_ping", "peer", connection.getClientIp(), "idle_ms", idleTime, "max_ms", policy.getIdleMillis());
+		}
+		pingSentAt = now;
+		setStatus(ConnectionStatus.AWAITING);
+		connection.doPing();
+		schedule(policy.getPingTimeoutMillis());
+	}
+
+	private void schedule(long delayMillis) {
+		if(runStateHCC) {
+			timeout = timer.schedule(this::check, delayMillis);
+		}
+	}
+
+	/**
+	 * Cambia el estado del chequeo y, si es distinto del anterior, lo notifica a través de la conexión.
+	 */
+	private void setStatus(ConnectionStatus status) {
+		if(this.status != status) {
+			this.status = status;
+			connection.statusChanged(status);
+		}
 	}
 
 }
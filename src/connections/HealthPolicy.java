@@ -0,0 +1,41 @@
+package connections;
+
+/**
+ * Parámetros del chequeo de salud de un peer.
+ * Un peer que lleva idleMillis sin enviar nada recibe un ping; si no contesta
+ * en pingTimeoutMillis se cuenta un ping perdido y, al llegar a maxMissedPings,
+ * se cierra su socket.
+ */
+public class HealthPolicy {
+
+	private final long idleMillis;
+	private final long pingTimeoutMillis;
+	private final int maxMissedPings;
+
+	public HealthPolicy(long idleMillis, long pingTimeoutMillis, int maxMissedPings) {
+		this.idleMillis = idleMillis;
+		this.pingTimeoutMillis = pingTimeoutMillis;
+		this.maxMissedPings = maxMissedPings;
+	}
+
+	/**
+	 * Tiempo sin recibir nada tras el que se envía un ping.
+	 */
+	public long getIdleMillis() {
+		return idleMillis;
+	}
+
+	/**
+	 * Tiempo que se espera la respuesta a cada ping.
+	 */
+	public long getPingTimeoutMillis() {
+		return pingTimeoutMillis;
+	}
+
+	/**
+	 * Pings seguidos sin respuesta tras los que se da el peer por caído.
+	 */
+	public int getMaxMissedPings() {
+		return maxMissedPings;
+	}
+}
@@ -0,0 +1,111 @@
+package connections;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+
+/**
+ * Direcciones IPv4 empaquetadas en un int, para comparar y enrutar marcos sin crear cadenas.
+ * La dirección 255.255.255.255 representa el destino "*" (todos los peers).
+ */
+public final class Ipv4Address {
+
+	/**
+	 * Dirección de broadcast, equivalente a "*".
+	 */
+	public static final int BROADCAST = 0xFFFFFFFF;
+
+	/**
+	 * Dirección sin especificar (0.0.0.0), usada cuando la cadena no es una IPv4 válida.
+	 */
+	public static final int ANY = 0;
+
+	private Ipv4Address() {}
+
+	/**
+	 * Establece si una cadena es una IPv4 válida: cuatro octetos decimales de 0 a 255
+	 * separados por puntos, sin ceros a la izquierda. Equivale a la antigua expresión regular
+	 * de MyP2P.isValidIp, pero sin compilar patrones ni crear objetos.
+	 * @param ip Cadena a comprobar
+	 */
+	public static boolean isValid(String ip) {
+		if(ip == null) {
+			return false;
+		}
+		int length = ip.length();
+		int octets = 0;
+		int i = 0;
+		while(i < length) {
+			int start = i;
+			int octet = 0;
+			while(i < length && i - start < 3) {
+				char c = ip.charAt(i);
+				if(c < '0' || c > '9') {
+					break;
+				}
+				octet = octet * 10 + (c - '0');
+				++i;
+			}
+			int digits = i - start;
+			if(digits == 0 || octet > 255 || (digits > 1 && ip.charAt(start) == '0')) {
+				return false;
+			}
+			++octets;
+			if(i == length) {
+				break;
+			}
+			if(ip.charAt(i) != '.' || octets == 4 || i == length - 1) {
+				return false;
+			}
+			++i;
+		}
+		return octets == 4;
+	}
+
+	/**
+	 * Empaqueta una IPv4. "*" y null se empaquetan como BROADCAST.
+	 * @param ip Cadena con la ip
+	 * @return La dirección empaquetada, o ANY si la cadena no es una IPv4 válida
+	 */
+	public static int parse(String ip) {
+		if(ip == null || ip.equals("*")) {
+			return BROADCAST;
+		}
+		if(!isValid(ip)) {
+			return ANY;
+		}
+		int address = 0;
+		int octet = 0;
+		for(int i = 0; i < ip.length(); ++i) {
+			char c = ip.charAt(i);
+			if(c == '.') {
+				address = (address << 8) | octet;
+				octet = 0;
+			} else {
+				octet = octet * 10 + (c - '0');
+			}
+		}
+		return (address << 8) | octet;
+	}
+
+	/**
+	 * Empaqueta la dirección de un socket sin pasar por su representación en texto.
+	 * @return La dirección empaquetada, o ANY si no es IPv4
+	 */
+	public static int of(InetAddress address) {
+		if(!(address instanceof Inet4Address)) {
+			return ANY;
+		}
+		byte[] bytes = address.getAddress();
+		return (bytes[0] & 0xFF) << 24 | (bytes[1] & 0xFF) << 16 | (bytes[2] & 0xFF) << 8 | (bytes[3] & 0xFF);
+	}
+
+	/**
+	 * Desempaqueta una dirección. BROADCAST se traduce a "*".
+	 */
+	public static String toString(int address) {
+		if(address == BROADCAST) {
+			return "*";
+		}
+		return ((address >>> 24) & 0xFF) + "." + ((address >>> 16) & 0xFF) + "." + ((address >>> 8) & 0xFF) + "." + (address & 0xFF);
+	}
+}
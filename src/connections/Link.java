@@ -0,0 +1,64 @@
+package connections;
+
+import view.Frame;
+
+/**
+ * Enlace físico con un peer. Una Connection mantiene como mucho un enlace abierto
+ * y delega en él el envío y la recepción de marcos, de modo que el enrutado de
+ * Connection.handleFrame no depende del transporte utilizado.
+ */
+public interface Link {
+
+	/**
+	 * Empieza a entregar a la conexión los marcos recibidos por el enlace.
+	 * @param connection Conexión propietaria del enlace
+	 */
+	void start(Connection connection);
+
+	/**
+	 * Encola un marco para enviarlo por el enlace. Si el envío falla, o la cola está llena
+	 * con la política DISCONNECT, el enlace se cierra y se avisa a la conexión propietaria.
+	 * @param frame Marco a enviar
+	 */
+	void send(Frame frame);
+
+	/**
+	 * Devuelve la cola de salida del enlace.
+	 */
+	OutboundQueue getOutboundQueue();
+
+	/**
+	 * Devuelve los contadores de tráfico y compresión del enlace.
+	 */
+	LinkStats getStats();
+
+	/**
+	 * Cierra el enlace.
+	 */
+	void close();
+
+	/**
+	 * Informa si el enlace sigue abierto.
+	 */
+	boolean isOpen();
+
+	/**
+	 * Devuelve la versión del formato binario negociada con el peer, 0 si solo habla serialización Java.
+	 */
+	int getVersion();
+
+	/**
+	 * Devuelve la ip local del enlace.
+	 */
+	String getLocalIp();
+
+	/**
+	 * Devuelve la ip local del enlace empaquetada, para comparaciones por marco.
+	 */
+	int getLocalAddress();
+
+	/**
+	 * Devuelve la ip del peer al otro extremo del enlace.
+	 */
+	String getRemoteIp();
+}
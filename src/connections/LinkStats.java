@@ -0,0 +1,102 @@
+package connections;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Contadores de tráfico de un enlace: bytes en el cable frente a bytes de payload,
+ * y el tiempo de CPU dedicado a comprimir y descomprimir.
+ * Cada contador lo actualiza un solo hilo (el escritor o el lector del enlace) y se puede leer desde cualquiera.
+ */
+public class LinkStats {
+
+	private final AtomicLong framesSent = new AtomicLong();
+	private final AtomicLong framesReceived = new AtomicLong();
+	private final AtomicLong wireBytesSent = new AtomicLong();
+	private final AtomicLong wireBytesReceived = new AtomicLong();
+	private final AtomicLong payloadBytesSent = new AtomicLong();
+	private final AtomicLong payloadBytesReceived = new AtomicLong();
+	private final AtomicLong compressedFrames = new AtomicLong();
+	private final AtomicLong compressNanos = new AtomicLong();
+	private final AtomicLong decompressNanos = new AtomicLong();
+
+	void sent(int wireBytes, int payloadBytes) {
+		framesSent.incrementAndGet();
+		wireBytesSent.addAndGet(wireBytes);
+		payloadBytesSent.addAndGet(payloadBytes);
+	}
+
+	void received(int wireBytes, int payloadBytes) {
+		framesReceived.incrementAndGet();
+		wireBytesReceived.addAndGet(wireBytes);
+		payloadBytesReceived.addAndGet(payloadBytes);
+	}
+
+	void compressed(long nanos) {
+		compressedFrames.incrementAndGet();
+		compressNanos.addAndGet(nanos);
+	}
+
+	void decompressed(long nanos) {
+		decompressNanos.addAndGet(nanos);
+	}
+
+	public long getFramesSent() {
+		return framesSent.get();
+	}
+
+	public long getFramesReceived() {
+		return framesReceived.get();
+	}
+
+	/**
+	 * Bytes enviados por el socket, cabeceras incluidas.
+	 */
+	public long getWireBytesSent() {
+		return wireBytesSent.get();
+	}
+
+	public long getWireBytesReceived() {
+		return wireBytesReceived.get();
+	}
+
+	/**
+	 * Bytes de payload enviados, antes de comprimir.
+	 */
+	public long getPayloadBytesSent() {
+		return payloadBytesSent.get();
+	}
+
+	public long getPayloadBytesReceived() {
+		return payloadBytesReceived.get();
+	}
+
+	/**
+	 * Marcos enviados con el payload comprimido.
+	 */
+	public long getCompressedFrames() {
+		return compressedFrames.get();
+	}
+
+	/**
+	 * Tiempo medio de compresión por marco comprimido, en nanosegundos.
+	 */
+	public long getCompressNanosPerFrame() {
+		long frames = compressedFrames.get();
+		return frames == 0 ? 0 : compressNanos.get() / frames;
+	}
+
+	/**
+	 * Tiempo medio de descompresión por marco recibido, en nanosegundos.
+	 */
+	public long getDecompressNanosPerFrame() {
+		long frames = framesReceived.get();
+		return frames == 0 ? 0 : decompressNanos.get() / frames;
+	}
+
+	@Override
+	public String toString() {
+		return "sent " + getFramesSent() + " frames, " + getWireBytesSent() + " B on wire for " + getPayloadBytesSent() + " B payload ("
+				+ getCompressedFrames() + " compressed, " + getCompressNanosPerFrame() + " ns/frame); received "
+				+ getFramesReceived() + " frames, " + getWireBytesReceived() + " B on wire for " + getPayloadBytesReceived() + " B payload";
+	}
+}
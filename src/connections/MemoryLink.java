@@ -0,0 +1,201 @@
+package connections;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+import view.Frame;
+
+/**
+ * Un extremo de un enlace en memoria. Los dos extremos se crean a la vez y cada uno
+ * entrega lo que envía en la bandeja del otro, con el retardo y la pérdida de la red.
+ * La bandeja se vacía en orden y por un solo hilo a la vez, como la lectura de un socket.
+ */
+class MemoryLink implements Link {
+
+	/**
+	 * Marco en camino, ya codificado.
+	 */
+	private static final class InFlight {
+		private final long arrival;
+		private final byte[] bytes;
+
+		private InFlight(long arrival, byte[] bytes) {
+			this.arrival = arrival;
+			this.bytes = bytes;
+		}
+	}
+
+	private final MemoryNetwork network;
+	private final String localIp;
+	private final String remoteIp;
+	private final int localAddress;
+	private final OutboundQueue outbound;
+	private final LinkStats stats;
+	private final ArrayDeque<InFlight> inbox;
+	private MemoryLink peer;
+	private volatile Connection connection;
+	private volatile boolean open;
+	private boolean draining;
+	private long lastArrival;
+
+	private MemoryLink(MemoryNetwork network, String localIp, String remoteIp, OutboundQueue outbound) {
+		this.network = network;
+		this.localIp = localIp;
+		this.remoteIp = remoteIp;
+		this.localAddress = Ipv4Address.parse(localIp);
+		this.outbound = outbound;
+		this.stats = new LinkStats();
+		this.inbox = new ArrayDeque<>();
+		this.open = true;
+	}
+
+	/**
+	 * Crea los dos extremos de un enlace.
+	 * @return El extremo local en la posición 0 y el remoto en la 1
+	 */
+	static MemoryLink[] pair(MemoryNetwork network, String localIp, OutboundQueue localQueue, String remoteIp, OutboundQueue remoteQueue) {
+		MemoryLink local = new MemoryLink(network, localIp, remoteIp, localQueue);
+		MemoryLink remote = new MemoryLink(network, remoteIp, localIp, remoteQueue);
+		local.peer = remote;
+		remote.peer = local;
+		return new MemoryLink[]{local, remote};
+	}
+
+	@Override
+	public void start(Connection connection) {
+		this.connection = connection;
+		scheduleDrain();
+	}
+
+	@Override
+	public void send(Frame frame) {
+		if(!open) {
+			return;
+		}
+		// Se envía una copia codificada: quien envía puede reutilizar el marco y quien recibe modificarlo
+		byte[] bytes = BinaryFrameCodec.encode(frame, null, stats);
+		long arrival = network.arrivalTime();
+		if(arrival >= 0) {
+			peer.arrive(arrival, bytes);
+		}
+	}
+
+	private void arrive(long arrival, byte[] bytes) {
+		synchronized (inbox) {
+			// Un enlace no reordena: nada llega antes que lo enviado previamente
+			lastArrival = Math.max(arrival, lastArrival);
+			inbox.add(new InFlight(lastArrival, bytes));
+		}
+		scheduleDrain();
+	}
+
+	private void scheduleDrain() {
+		long arrival;
+		synchronized (inbox) {
+			if(draining || connection == null || inbox.isEmpty()) {
+				return;
+			}
+			draining = true;
+			arrival = inbox.peek().arrival;
+		}
+		network.schedule(this::drain, arrival);
+	}
+
+	/**
+	 * Entrega en orden los marcos que ya han llegado y se vuelve a programar para el siguiente.
+	 */
+	private void drain() {
+		while(open) {
+			InFlight next;
+			synchronized (inbox) {
+				next = inbox.peek();
+				if(next == null || next.arrival > System.nanoTime()) {
+					draining = false;
+					break;
+				}
+				inbox.poll();
+			}
+			try {
+				ByteBuffer body = ByteBuffer.wrap(next.bytes, Integer.BYTES, next.bytes.length - Integer.BYTES);
+				Frame frame = BinaryFrameCodec.decode(body, null, stats);
+				network.delivered();
+				connection.onFrame(frame);
+			} catch (IOException | RuntimeException e) {
+				// Un error al procesar un marco no debe dejar la bandeja sin vaciar
+				connection.getEventLog().warning("frame_failed", "peer", remoteIp, "error", e);
+			}
+		}
+		if(!open) {
+			synchronized (inbox) {
+				draining = false;
+				inbox.clear();
+			}
+			return;
+		}
+		scheduleDrain();
+	}
+
+	@Override
+	public OutboundQueue getOutboundQueue() {
+		return outbound;
+	}
+
+	@Override
+	public LinkStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * Cierra los dos extremos. El otro se entera como de un socket cerrado, en otro hilo
+	 * para no cruzar los bloqueos de las dos conexiones.
+	 */
+	@Override
+	public void close() {
+		if(!open) {
+			return;
+		}
+		open = false;
+		outbound.close();
+		MemoryLink peer = this.peer;
+		network.execute(peer::closedByPeer);
+	}
+
+	private void closedByPeer() {
+		if(!open) {
+			return;
+		}
+		open = false;
+		outbound.close();
+		Connection connection = this.connection;
+		if(connection != null) {
+			connection.onClosed(this);
+		}
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public int getVersion() {
+		// Los dos extremos son de la misma JVM
+		return BinaryFrameCodec.VERSION;
+	}
+
+	@Override
+	public String getLocalIp() {
+		return localIp;
+	}
+
+	@Override
+	public int getLocalAddress() {
+		return localAddress;
+	}
+
+	@Override
+	public String getRemoteIp() {
+		return remoteIp;
+	}
+}
@@ -0,0 +1,141 @@
+package connections;
+
+import java.net.ConnectException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Red en memoria que une los nodos con transporte MEMORY de una misma JVM.
+ * Cada nodo se registra con su dirección virtual, que es su identidad en la red: no hay puertos,
+ * así que en una sola JVM caben tantos nodos como direcciones distintas.
+ * Los marcos se codifican y decodifican con el formato binario, como en un socket, y llegan
+ * con un retardo de latencyMicros más un jitter aleatorio de hasta jitterMicros, en orden dentro
+ * de cada enlace. Cada marco se pierde con probabilidad lossRate.
+ * Las entregas corren en un pequeño grupo de hilos propio de la red, no en los de los nodos.
+ */
+public class MemoryNetwork {
+
+	private final ConcurrentHashMap<String, MemoryTransport> nodes;
+	private final ScheduledExecutorService scheduler;
+	private volatile long latencyMicros;
+	private volatile long jitterMicros;
+	private volatile double lossRate;
+
+	//Contadores
+	private final LongAdder delivered = new LongAdder();
+	private final LongAdder lost = new LongAdder();
+
+	/**
+	 * @param latencyMicros Retardo fijo de cada marco
+	 * @param jitterMicros Retardo adicional aleatorio máximo
+	 * @param lossRate Probabilidad de perder cada marco, entre 0 y 1
+	 */
+	public MemoryNetwork(long latencyMicros, long jitterMicros, double lossRate) {
+		this.nodes = new ConcurrentHashMap<>();
+		AtomicInteger threads = new AtomicInteger();
+		this.scheduler = Executors.newScheduledThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), task -> {
+			Thread thread = new Thread(task, "MemoryNetwork-" + threads.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		});
+		setLatency(latencyMicros, jitterMicros);
+		setLossRate(lossRate);
+	}
+
+	public MemoryNetwork() {
+		this(0, 0, 0);
+	}
+
+	/**
+	 * Cambia el retardo de los marcos. Se aplica a los que se envíen a partir de ahora.
+	 */
+	public void setLatency(long latencyMicros, long jitterMicros) {
+		this.latencyMicros = latencyMicros;
+		this.jitterMicros = jitterMicros;
+	}
+
+	/**
+	 * Cambia la probabilidad de pérdida de cada marco.
+	 */
+	public void setLossRate(double lossRate) {
+		this.lossRate = lossRate;
+	}
+
+	//Metodos de registro
+
+	void register(String address, MemoryTransport transport) throws ConnectException {
+		if(nodes.putIfAbsent(address, transport) != null) {
+			throw new ConnectException("Address " + address + " already in use in the memory network");
+		}
+	}
+
+	void unregister(String address, MemoryTransport transport) {
+		nodes.remove(address, transport);
+	}
+
+	MemoryTransport lookup(String address) {
+		return nodes.get(address);
+	}
+
+	/**
+	 * Número de nodos registrados.
+	 */
+	public int size() {
+		return nodes.size();
+	}
+
+	//Metodos de entrega
+
+	/**
+	 * Decide si un marco se pierde y, si no, cuándo debe llegar.
+	 * @return El instante de llegada en nanosegundos de System.nanoTime, o -1 si se pierde
+	 */
+	long arrivalTime() {
+		double lossRate = this.lossRate;
+		if(lossRate > 0 && ThreadLocalRandom.current().nextDouble() < lossRate) {
+			lost.increment();
+			return -1;
+		}
+		long jitterMicros = this.jitterMicros;
+		long delay = latencyMicros + (jitterMicros > 0 ? ThreadLocalRandom.current().nextLong(jitterMicros + 1) : 0);
+		return System.nanoTime() + delay * 1000;
+	}
+
+	void schedule(Runnable task, long atNanos) {
+		scheduler.schedule(task, Math.max(0, atNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+	}
+
+	void execute(Runnable task) {
+		scheduler.execute(task);
+	}
+
+	void delivered() {
+		delivered.increment();
+	}
+
+	/**
+	 * Marcos entregados a su destino.
+	 */
+	public long getDelivered() {
+		return delivered.sum();
+	}
+
+	/**
+	 * Marcos perdidos por la tasa de pérdida configurada.
+	 */
+	public long getLost() {
+		return lost.sum();
+	}
+
+	/**
+	 * Detiene los hilos de entrega. Los marcos pendientes se descartan.
+	 */
+	public void shutdown() {
+		scheduler.shutdownNow();
+	}
+}
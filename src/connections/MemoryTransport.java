@@ -0,0 +1,61 @@
+package connections;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.concurrent.CompletableFuture;
+
+import controller.MyP2P;
+
+/**
+ * Transporte en memoria: el nodo se registra en una MemoryNetwork con su dirección virtual
+ * y conecta con los demás nodos de la misma JVM sin sockets. Sirve para simular mallas grandes
+ * en un solo proceso con la latencia y la pérdida que se configuren en la red.
+ */
+public class MemoryTransport implements Transport {
+
+	private final MyP2P myP2P;
+	private final MemoryNetwork network;
+	private final String address;
+
+	/**
+	 * @param network Red a la que se une el nodo
+	 * @param address Dirección virtual del nodo, su identidad en la red
+	 */
+	public MemoryTransport(MyP2P myP2P, MemoryNetwork network, String address) {
+		this.myP2P = myP2P;
+		this.network = network;
+		this.address = address;
+	}
+
+	@Override
+	public void start() throws IOException {
+		network.register(address, this);
+		myP2P.getEventLog().info("server_listening", "memory_address", address);
+	}
+
+	/**
+	 * Crea los dos extremos del enlace y entrega cada uno a su nodo, el remoto en el ejecutor
+	 * del otro nodo, como si lo hubiera aceptado su servidor.
+	 */
+	@Override
+	public CompletableFuture<Void> connect(String ip, int timeoutMillis) {
+		CompletableFuture<Void> result = new CompletableFuture<>();
+		MemoryTransport remote = network.lookup(ip);
+		if(remote == null) {
+			result.completeExceptionally(new ConnectException("Connection refused by " + ip));
+			return result;
+		}
+		MemoryLink[] links = MemoryLink.pair(network, address, myP2P.newOutboundQueue(), ip, remote.myP2P.newOutboundQueue());
+		remote.myP2P.submit(() -> remote.myP2P.addConnection(links[1]));
+		myP2P.submit(() -> {
+			myP2P.addConnection(links[0]);
+			result.complete(null);
+		});
+		return result;
+	}
+
+	@Override
+	public void stop() {
+		network.unregister(address, this);
+	}
+}
@@ -0,0 +1,268 @@
+package connections;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import view.Frame;
+
+/**
+ * Enlace sobre un SocketChannel no bloqueante atendido por un SelectorLoop.
+ * Solo habla el formato binario: los peers que únicamente conocen la
+ * serialización Java necesitan el transporte THREAD.
+ * Las lecturas, las escrituras y la entrega de marcos a la conexión ocurren en el hilo del bucle;
+ * send() solo encola el marco y despierta al bucle, que codifica por lotes los marcos
+ * pendientes en un único buffer antes de escribirlo.
+ */
+class NioLink implements Link, SelectorLoop.Handler {
+
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+	private static final int MAX_BATCH = 64;
+
+	private final NioTransport transport;
+	private final SelectorLoop loop;
+	private final SocketChannel channel;
+	private final String localIp;
+	private final String remoteIp;
+	private final int localAddress;
+	private final int compressionThreshold;
+	private final LinkStats stats;
+	private PayloadCompression compression;
+	private volatile int version;
+	private final OutboundQueue outbound;
+	private final AtomicBoolean flushScheduled;
+	private final List<Frame> batch;
+	private ByteBuffer pendingWrite;
+	private ByteBuffer readBuffer;
+	private SelectionKey key;
+	private boolean negotiated;
+	private volatile Connection connection;
+	private volatile boolean open;
+
+	NioLink(NioTransport transport, SelectorLoop loop, SocketChannel channel, OutboundQueue outbound, int compressionThreshold) throws IOException {
+		this.transport = transport;
+		this.loop = loop;
+		this.channel = channel;
+		this.localIp = channel.socket().getLocalAddress().getHostAddress();
+		this.remoteIp = channel.socket().getInetAddress().getHostAddress();
+		this.localAddress = Ipv4Address.of(channel.socket().getLocalAddress());
+		this.outbound = outbound;
+		this.compressionThreshold = compressionThreshold;
+		this.stats = new LinkStats();
+		this.flushScheduled = new AtomicBoolean();
+		this.batch = new ArrayList<>(MAX_BATCH);
+		this.readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		this.open = true;
+		// El saludo es lo primero que sale por el canal
+		this.pendingWrite = ByteBuffer.wrap(BinaryFrameCodec.hello());
+	}
+
+	@Override
+	public void start(Connection connection) {
+		this.connection = connection;
+	}
+
+	@Override
+	public void send(Frame frame) {
+		if(!open) {
+			return;
+		}
+		// Un bucle de selector no puede esperar a que se vacíe una cola que quizá atiende él mismo
+		if(!outbound.offer(frame, OutboundQueue.callerMayBlock())) {
+			transport.getEventLog().warning("outbound_full", "peer", remoteIp);
+			fail();
+			return;
+		}
+		if(flushScheduled.compareAndSet(false, true)) {
+			loop.execute(this::scheduledFlush);
+		}
+	}
+
+	@Override
+	public LinkStats getStats() {
+		return stats;
+	}
+
+	@Override
+	public OutboundQueue getOutboundQueue() {
+		return outbound;
+	}
+
+	@Override
+	public void close() {
+		open = false;
+		outbound.close();
+		try {
+			channel.close();
+		} catch (IOException ignored) {}
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open && channel.isOpen();
+	}
+
+	@Override
+	public int getVersion() {
+		return version;
+	}
+
+	@Override
+	public String getLocalIp() {
+		return localIp;
+	}
+
+	@Override
+	public int getLocalAddress() {
+		return localAddress;
+	}
+
+	@Override
+	public String getRemoteIp() {
+		return remoteIp;
+	}
+
+	//Metodos del bucle de eventos
+
+	@Override
+	public void ready(SelectionKey key) throws IOException {
+		this.key = key;
+		if(key.isWritable()) {
+			flush();
+		}
+		if(key.isValid() && key.isReadable()) {
+			read();
+		}
+	}
+
+	@Override
+	public void failed(SelectionKey key, IOException e) {
+		if(open) {
+			transport.getEventLog().warning("link_failed", "peer", remoteIp, "error", e.getMessage());
+		}
+		fail();
+	}
+
+	private void scheduledFlush() {
+		flushScheduled.set(false);
+		if(key == null || !key.isValid()) {
+			// Aún no registrado: el interés inicial en OP_WRITE vaciará la cola
+			return;
+		}
+		try {
+			flush();
+		} catch (IOException e) {
+			failed(key, e);
+		}
+	}
+
+	private void flush() throws IOException {
+		while(true) {
+			if(pendingWrite == null && (pendingWrite = nextBatch()) == null) {
+				break;
+			}
+			channel.write(pendingWrite);
+			if(pendingWrite.hasRemaining()) {
+				// El socket está lleno: se sigue cuando vuelva a admitir escrituras
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				return;
+			}
+			pendingWrite = null;
+		}
+		key.interestOps(SelectionKey.OP_READ);
+	}
+
+	/**
+	 * Codifica en un solo buffer los marcos que haya en la cola de salida.
+	 * @return El buffer a escribir, o null si la cola está vacía
+	 */
+	private ByteBuffer nextBatch() {
+		if(outbound.drainTo(batch, MAX_BATCH) == 0) {
+			return null;
+		}
+		List<byte[]> encoded = new ArrayList<>(batch.size());
+		int size = 0;
+		for(Frame frame: batch) {
+			byte[] bytes = BinaryFrameCodec.encode(frame, compression, stats);
+			encoded.add(bytes);
+			size += bytes.length;
+		}
+		batch.clear();
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		for(byte[] bytes: encoded) {
+			buffer.put(bytes);
+		}
+		return buffer.flip();
+	}
+
+	private void read() throws IOException {
+		if(channel.read(readBuffer) < 0) {
+			fail();
+			return;
+		}
+		readBuffer.flip();
+		if(!negotiated && !negotiate()) {
+			readBuffer.compact();
+			return;
+		}
+		int pending = 0;
+		while(open && readBuffer.remaining() >= Integer.BYTES) {
+			int length = readBuffer.getInt(readBuffer.position());
+			if(length < BinaryFrameCodec.HEADER_SIZE || length > BinaryFrameCodec.MAX_FRAME_SIZE) {
+				throw new StreamCorruptedException("Invalid frame length " + length);
+			}
+			if(readBuffer.remaining() < Integer.BYTES + length) {
+				pending = Integer.BYTES + length;
+				break;
+			}
+			int end = readBuffer.position() + Integer.BYTES + length;
+			ByteBuffer body = readBuffer.duplicate();
+			body.position(readBuffer.position() + Integer.BYTES).limit(end);
+			readBuffer.position(end);
+			connection.onFrame(BinaryFrameCodec.decode(body, compression, stats));
+		}
+		readBuffer.compact();
+		// Un marco mayor que el buffer: se amplía para poder recibirlo entero
+		if(pending > readBuffer.capacity()) {
+			ByteBuffer larger = ByteBuffer.allocate(pending);
+			readBuffer.flip();
+			larger.put(readBuffer);
+			readBuffer = larger;
+		}
+	}
+
+	/**
+	 * Consume el saludo del peer y entrega el enlace al transporte.
+	 * @return True si la negociación ha terminado
+	 */
+	private boolean negotiate() throws IOException {
+		if(readBuffer.remaining() < BinaryFrameCodec.HELLO_SIZE) {
+			return false;
+		}
+		byte[] hello = new byte[BinaryFrameCodec.HELLO_SIZE];
+		readBuffer.get(hello);
+		if(ObjectFrameCodec.isStreamHeader(hello)) {
+			throw new FrameCodec.LegacyPeerException(remoteIp);
+		}
+		if(!BinaryFrameCodec.isHello(hello)) {
+			throw new StreamCorruptedException("Unknown handshake from " + remoteIp);
+		}
+		version = Math.min(BinaryFrameCodec.VERSION, hello[BinaryFrameCodec.HELLO_SIZE - 1] & 0xFF);
+		compression = BinaryFrameCodec.newCompression(version, compressionThreshold, stats);
+		negotiated = true;
+		transport.linkReady(this);
+		return true;
+	}
+
+	private void fail() {
+		close();
+		if(connection != null) {
+			connection.onClosed(this);
+		}
+	}
+}
@@ -0,0 +1,198 @@
+package connections;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import controller.MyP2P;
+import metrics.EventLog;
+
+/**
+ * Transporte no bloqueante. Un pequeño grupo de SelectorLoop, uno por núcleo,
+ * atiende todas las conexiones del nodo: el primero acepta las entrantes y
+ * cada canal nuevo, entrante o saliente, se asigna a un bucle por turnos.
+ */
+public class NioTransport implements Transport {
+
+	private final MyP2P myP2P;
+	private final int serverPort;
+	private final String bindAddress;
+	private final SelectorLoop[] loops;
+	private final AtomicInteger nextLoop;
+	private final ConcurrentHashMap<String, CompletableFuture<Void>> pendingConnects;
+	private ServerSocketChannel serverChannel;
+
+	/**
+	 * @param bindAddress Dirección local del servidor y de las conexiones salientes, o null para cualquiera
+	 */
+	public NioTransport(MyP2P myP2P, int serverPort, String bindAddress) throws IOException {
+		this.myP2P = myP2P;
+		this.serverPort = serverPort;
+		this.bindAddress = bindAddress;
+		this.loops = new SelectorLoop[Math.max(1, Runtime.getRuntime().availableProcessors())];
+		for(int i = 0; i < loops.length; ++i) {
+			loops[i] = new SelectorLoop("SelectorLoop-" + i);
+		}
+		this.nextLoop = new AtomicInteger();
+		this.pendingConnects = new ConcurrentHashMap<>();
+	}
+
+	@Override
+	public void start() throws IOException {
+		for(SelectorLoop loop: loops) {
+			loop.start(myP2P);
+		}
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(bindAddress == null ? new InetSocketAddress(serverPort) : new InetSocketAddress(bindAddress, serverPort));
+		serverChannel.configureBlocking(false);
+		loops[0].register(serverChannel, SelectionKey.OP_ACCEPT, new SelectorLoop.Handler() {
+			@Override
+			public void ready(SelectionKey key) throws IOException {
+				SocketChannel channel;
+				while((channel = serverChannel.accept()) != null) {
+					myP2P.getEventLog().fine("accepted", "peer", channel.getRemoteAddress());
+					accept(channel);
+				}
+			}
+
+			@Override
+			public void failed(SelectionKey key, IOException e) {
+				myP2P.getEventLog().warning("accept_failed", "error", e);
+			}
+		});
+		myP2P.getEventLog().info("server_listening", "port", serverPort, "selector_loops", loops.length);
+	}
+
+	@Override
+	public CompletableFuture<Void> connect(String ip, int timeoutMillis) {
+		CompletableFuture<Void> result = new CompletableFuture<>();
+		// Ya hay un intento en curso para este peer
+		CompletableFuture<Void> pending = pendingConnects.putIfAbsent(ip, result);
+		if(pending != null) {
+			return pending;
+		}
+		result.whenComplete((ignored, e) -> pendingConnects.remove(ip, result));
+		SocketChannel channel = null;
+		try {
+			channel = SocketChannel.open();
+			configure(channel);
+			if(bindAddress != null) {
+				channel.bind(new InetSocketAddress(bindAddress, 0));
+			}
+			SelectorLoop loop = nextLoop();
+			if(channel.connect(new InetSocketAddress(ip, serverPort))) {
+				loop.register(channel, SelectionKey.OP_READ | SelectionKey.OP_WRITE, newLink(loop, channel));
+				result.complete(null);
+			} else {
+				loop.register(channel, SelectionKey.OP_CONNECT, new Connector(loop, channel, ip, result));
+				// El timeout lo vigila la rueda compartida: cerrar el canal cancela su clave en el selector
+				SocketChannel connecting = channel;
+				TimerWheel.Timeout timeout = myP2P.getTimer().schedule(() -> {
+					if(result.completeExceptionally(new SocketTimeoutException("Connect timed out"))) {
+						closeQuietly(connecting);
+					}
+				}, timeoutMillis);
+				result.whenComplete((ignored, e) -> timeout.cancel());
+			}
+		} catch (IOException e) {
+			closeQuietly(channel);
+			result.completeExceptionally(e);
+		}
+		return result;
+	}
+
+	@Override
+	public void stop() {
+		try {
+			if(serverChannel != null) {
+				serverChannel.close();
+			}
+		} catch (IOException ignored) {}
+		for(SelectorLoop loop: loops) {
+			loop.stop();
+		}
+	}
+
+	/**
+	 * Llamado por un NioLink cuando termina la negociación con el peer.
+	 */
+	void linkReady(NioLink link) {
+		myP2P.addConnection(link);
+	}
+
+	EventLog getEventLog() {
+		return myP2P.getEventLog();
+	}
+
+	private void accept(SocketChannel channel) throws IOException {
+		configure(channel);
+		SelectorLoop loop = nextLoop();
+		loop.register(channel, SelectionKey.OP_READ | SelectionKey.OP_WRITE, newLink(loop, channel));
+	}
+
+	private NioLink newLink(SelectorLoop loop, SocketChannel channel) throws IOException {
+		return new NioLink(this, loop, channel, myP2P.newOutboundQueue(), myP2P.getConfig().getCompressionThreshold());
+	}
+
+	private void configure(SocketChannel channel) throws IOException {
+		channel.configureBlocking(false);
+		channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+	}
+
+	private static void closeQuietly(SocketChannel channel) {
+		if(channel != null) {
+			try {
+				channel.close();
+			} catch (IOException ignored) {}
+		}
+	}
+
+	private SelectorLoop nextLoop() {
+		return loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+	}
+
+	/**
+	 * Espera a que termine una conexión saliente y la convierte en un NioLink
+	 * sobre la misma SelectionKey.
+	 */
+	private class Connector implements SelectorLoop.Handler {
+
+		private final SelectorLoop loop;
+		private final SocketChannel channel;
+		private final String ip;
+		private final CompletableFuture<Void> result;
+
+		Connector(SelectorLoop loop, SocketChannel channel, String ip, CompletableFuture<Void> result) {
+			this.loop = loop;
+			this.channel = channel;
+			this.ip = ip;
+			this.result = result;
+		}
+
+		@Override
+		public void ready(SelectionKey key) throws IOException {
+			if(key.isConnectable() && channel.finishConnect()) {
+				// Si ya venció el timeout el canal está cerrado
+				if(!result.complete(null)) {
+					return;
+				}
+				myP2P.getEventLog().fine("connected", "peer", ip);
+				key.attach(newLink(loop, channel));
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			}
+		}
+
+		@Override
+		public void failed(SelectionKey key, IOException e) {
+			result.completeExceptionally(e);
+			closeQuietly(channel);
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package connections;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+
+import view.Frame;
+
+/**
+ * Codec legado: envía cada marco con la serialización Java.
+ * Solo se usa para hablar con peers antiguos que no conocen el formato binario.
+ */
+public class ObjectFrameCodec implements FrameCodec {
+
+	private final ObjectInputStream in;
+	private final ObjectOutputStream out;
+
+	public ObjectFrameCodec(InputStream in, OutputStream out) throws IOException {
+		this.out = new ObjectOutputStream(out);
+		this.out.flush();
+		this.in = new ObjectInputStream(in);
+	}
+
+	@Override
+	public void writeFrame(Frame frame) throws IOException {
+		out.writeObject(frame);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public Frame readFrame() throws IOException {
+		try {
+			return (Frame) in.readObject();
+		} catch (ClassNotFoundException | ClassCastException e) {
+			throw new StreamCorruptedException(e.getMessage());
+		}
+	}
+
+	/**
+	 * Informa si los bytes dados son la cabecera que escribe un ObjectOutputStream.
+	 * @param header Primeros bytes recibidos por el socket
+	 */
+	static boolean isStreamHeader(byte[] header) {
+		return header.length >= 2
+				&& header[0] == (byte) (ObjectOutputStream.STREAM_MAGIC >> 8)
+				&& header[1] == (byte) ObjectOutputStream.STREAM_MAGIC;
+	}
+}
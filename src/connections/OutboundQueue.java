@@ -0,0 +1,266 @@
+package connections;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import view.Frame;
+
+/**
+ * Cola de salida acotada de un enlace.
+ * Los hilos que envían solo encolan; el escritor del enlace la vacía por lotes
+ * y escribe cada lote con un único flush. Cuando la cola se llena se aplica
+ * la política de contrapresión configurada.
+ * Los fragmentos (CHUNK) de las transferencias grandes van en un carril aparte y cada lote
+ * lleva como mucho uno, así que un mensaje de chat nunca espera detrás de más de un fragmento.
+ * Los marcos de control (todos salvo MESSAGE y CHUNK: pings, rutas, gossip, árbol, ACK, SYNC e intereses)
+ * van en otro carril que sale el primero y no sigue la política: descartar uno rompe el protocolo
+ * (una ruta que no se anuncia, un GRAFT que no llega, un ping que cuenta como perdido) y bloquear al
+ * que lo envía no ayuda, porque casi siempre es el temporizador o el lector de otro enlace.
+ */
+public class OutboundQueue {
+
+	/**
+	 * Espera máxima de un fragmento a que haya hueco en su carril antes de descartar el más antiguo.
+	 * Acota el tiempo que un relay puede quedarse bloqueado por un siguiente salto lento.
+	 */
+	private static final long CHUNK_WAIT_MILLIS = 5000;
+
+	private final ArrayDeque<Frame> control;
+	private final ArrayDeque<Frame> queue;
+	private final ArrayDeque<Frame> chunks;
+	private final int capacity;
+	private final int chunkCapacity;
+	private final BackpressurePolicy policy;
+	private final ReentrantLock lock;
+	private final Condition notEmpty;
+	private final Condition notFull;
+	private volatile boolean closed;
+	private long dropped;
+
+	/**
+	 * @param capacity Número máximo de marcos pendientes
+	 * @param policy Política a aplicar cuando la cola está llena
+	 */
+	public OutboundQueue(int capacity, BackpressurePolicy policy) {
+		this(capacity, policy, capacity);
+	}
+
+	/**
+	 * @param capacity Número máximo de marcos pendientes
+	 * @param policy Política a aplicar cuando la cola está llena
+	 * @param chunkCapacity Número máximo de fragmentos pendientes
+	 */
+	public OutboundQueue(int capacity, BackpressurePolicy policy, int chunkCapacity) {
+		this.control = new ArrayDeque<>();
+		this.queue = new ArrayDeque<>();
+		this.chunks = new ArrayDeque<>();
+		this.capacity = capacity;
+		this.chunkCapacity = chunkCapacity;
+		this.policy = policy;
+		this.lock = new ReentrantLock();
+		this.notEmpty = lock.newCondition();
+		this.notFull = lock.newCondition();
+	}
+
+	/**
+	 * Encola un marco aplicando la política de contrapresión.
+	 * Los fragmentos no siguen la política: descartar uno estropea toda la transferencia,
+	 * así que se espera a que haya hueco (como mucho CHUNK_WAIT_MILLIS) y solo entonces se descarta el más antiguo.
+	 * Los de control tampoco: nunca esperan ni se descartan. Si su carril se llena el peer ha dejado de leer.
+	 * @param frame Marco a enviar
+	 * @param mayBlock False si el hilo que envía no puede esperar (ver callerMayBlock);
+	 *                 en ese caso BLOCK se comporta como DROP_OLDEST
+	 * @return False si la cola está llena y la política es DISCONNECT, o si se ha llenado el carril de control
+	 */
+	boolean offer(Frame frame, boolean mayBlock) {
+		lock.lock();
+		try {
+			if(isControl(frame)) {
+				if(control.size() >= capacity) {
+					return false;
+				}
+				add(control, frame);
+				return true;
+			}
+			if(frame.getFrameType() == Frame.FrameType.CHUNK) {
+				offerChunk(frame, mayBlock);
+				return true;
+			}
+			if(queue.size() < capacity) {
+				add(queue, frame);
+				return true;
+			}
+			BackpressurePolicy policy = this.policy == BackpressurePolicy.BLOCK && !mayBlock ? BackpressurePolicy.DROP_OLDEST : this.policy;
+			switch (policy) {
+				case BLOCK -> {
+					try {
+						while(queue.size() >= capacity) {
+							if(closed) {
+								return true;
+							}
+							notFull.await(100, TimeUnit.MILLISECONDS);
+						}
+						add(queue, frame);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				case DROP_OLDEST -> {
+					queue.poll();
+					++dropped;
+					add(queue, frame);
+				}
+				case DISCONNECT -> {
+					return false;
+				}
+			}
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void offerChunk(Frame frame, boolean mayBlock) {
+		if(mayBlock) {
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CHUNK_WAIT_MILLIS);
+			try {
+				long remaining;
+				while(chunks.size() >= chunkCapacity && !closed && (remaining = deadline - System.nanoTime()) > 0) {
+					notFull.awaitNanos(remaining);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if(closed) {
+			return;
+		}
+		if(chunks.size() >= chunkCapacity) {
+			chunks.poll();
+			++dropped;
+		}
+		add(chunks, frame);
+	}
+
+	/**
+	 * Informa si el hilo actual puede esperar hueco en una cola. No pueden los bucles de selector, que quizá
+	 * atienden ellos mismos la cola llena, ni la rueda de temporizadores, que retrasaría los chequeos de salud,
+	 * los anuncios de rutas, el gossip, el árbol y los reintentos de todos los peers por uno lento.
+	 */
+	static boolean callerMayBlock() {
+		return !SelectorLoop.isLoopThread() && !TimerWheel.isWheelThread();
+	}
+
+	private static boolean isControl(Frame frame) {
+		return frame.getFrameType() != Frame.FrameType.MESSAGE && frame.getFrameType() != Frame.FrameType.CHUNK;
+	}
+
+	private void add(ArrayDeque<Frame> lane, Frame frame) {
+		lane.add(frame);
+		notEmpty.signal();
+	}
+
+	/**
+	 * Espera al siguiente marco. Salen primero los de control, luego los normales y por último los fragmentos.
+	 */
+	Frame take() throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while(control.isEmpty() && queue.isEmpty() && chunks.isEmpty()) {
+				notEmpty.await();
+			}
+			Frame frame = !control.isEmpty() ? control.poll() : queue.isEmpty() ? chunks.poll() : queue.poll();
+			notFull.signalAll();
+			return frame;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Mueve a la lista los marcos disponibles sin esperar, hasta un máximo, los de control primero.
+	 * Si hay fragmentos pendientes se deja sitio para uno al final del lote,
+	 * para que una ráfaga de chat no los retrase indefinidamente.
+	 * @return Número de marcos movidos
+	 */
+	int drainTo(List<Frame> batch, int max) {
+		lock.lock();
+		try {
+			int moved = 0;
+			int normal = chunks.isEmpty() ? max : max - 1;
+			while(moved < normal && !control.isEmpty()) {
+				batch.add(control.poll());
+				++moved;
+			}
+			while(moved < normal && !queue.isEmpty()) {
+				batch.add(queue.poll());
+				++moved;
+			}
+			if(moved < max && !chunks.isEmpty()) {
+				batch.add(chunks.poll());
+				++moved;
+			}
+			if(moved > 0) {
+				notFull.signalAll();
+			}
+			return moved;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Libera a los hilos que esperan hueco en la cola. Se llama al cerrar el enlace.
+	 */
+	void close() {
+		lock.lock();
+		try {
+			closed = true;
+			control.clear();
+			queue.clear();
+			chunks.clear();
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Número de marcos pendientes de enviar, de control y fragmentos incluidos.
+	 */
+	public int size() {
+		lock.lock();
+		try {
+			return control.size() + queue.size() + chunks.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Número de fragmentos de transferencias grandes pendientes de enviar.
+	 */
+	public int chunkCount() {
+		lock.lock();
+		try {
+			return chunks.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Número de marcos descartados por la política DROP_OLDEST y de fragmentos descartados por falta de hueco.
+	 */
+	public long getDropped() {
+		lock.lock();
+		try {
+			return dropped;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
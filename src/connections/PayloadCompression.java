@@ -0,0 +1,90 @@
+package connections;
+
+import java.io.StreamCorruptedException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresión DEFLATE de los payloads de un enlace.
+ * El Deflater y el Inflater duran lo mismo que el enlace y cada payload se cierra con SYNC_FLUSH,
+ * así que la ventana de 32 KB de un mensaje sirve de diccionario para los siguientes y la charla
+ * repetitiva comprime mucho mejor que comprimiendo cada mensaje por separado.
+ * Por eso los marcos comprimidos deben descomprimirse en el mismo orden en que se comprimieron:
+ * cada sentido del enlace lo atiende un único hilo.
+ */
+class PayloadCompression {
+
+	private static final int INITIAL_BUFFER = 4096;
+
+	private final int threshold;
+	private final LinkStats stats;
+	private final Deflater deflater;
+	private final Inflater inflater;
+	private byte[] deflateBuffer;
+	private byte[] inflateBuffer;
+
+	/**
+	 * @param threshold Tamaño mínimo de payload que se comprime; negativo para no comprimir nunca
+	 * @param stats Contadores del enlace
+	 */
+	PayloadCompression(int threshold, LinkStats stats) {
+		this.threshold = threshold;
+		this.stats = stats;
+		this.deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		this.inflater = new Inflater(true);
+		this.deflateBuffer = new byte[INITIAL_BUFFER];
+		this.inflateBuffer = new byte[INITIAL_BUFFER];
+	}
+
+	/**
+	 * Informa si un payload de este tamaño se debe comprimir. Los mensajes cortos no compensan.
+	 */
+	boolean shouldCompress(int length) {
+		return threshold >= 0 && length >= threshold;
+	}
+
+	byte[] compress(byte[] payload) {
+		long start = System.nanoTime();
+		deflater.setInput(payload);
+		int length = 0;
+		while(true) {
+			length += deflater.deflate(deflateBuffer, length, deflateBuffer.length - length, Deflater.SYNC_FLUSH);
+			// Si ha llenado el buffer puede quedar salida pendiente
+			if(length < deflateBuffer.length) {
+				break;
+			}
+			deflateBuffer = Arrays.copyOf(deflateBuffer, deflateBuffer.length * 2);
+		}
+		byte[] compressed = Arrays.copyOf(deflateBuffer, length);
+		stats.compressed(System.nanoTime() - start);
+		return compressed;
+	}
+
+	byte[] decompress(byte[] data, int offset, int length) throws StreamCorruptedException {
+		long start = System.nanoTime();
+		inflater.setInput(data, offset, length);
+		int size = 0;
+		try {
+			while(true) {
+				if(size == inflateBuffer.length) {
+					if(size >= BinaryFrameCodec.MAX_FRAME_SIZE) {
+						throw new StreamCorruptedException("Compressed payload too large");
+					}
+					inflateBuffer = Arrays.copyOf(inflateBuffer, inflateBuffer.length * 2);
+				}
+				int inflated = inflater.inflate(inflateBuffer, size, inflateBuffer.length - size);
+				if(inflated == 0) {
+					break;
+				}
+				size += inflated;
+			}
+		} catch (DataFormatException e) {
+			throw new StreamCorruptedException("Invalid compressed payload: " + e.getMessage());
+		}
+		byte[] payload = Arrays.copyOf(inflateBuffer, size);
+		stats.decompressed(System.nanoTime() - start);
+		return payload;
+	}
+}
@@ -0,0 +1,129 @@
+package connections;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+
+import controller.MyP2P;
+import metrics.EventLog;
+
+/**
+ * Bucle de eventos de un Selector. Atiende en un único hilo todos los canales
+ * registrados en él y ejecuta las tareas que otros hilos le encargan
+ * (registros, cambios de interés, escrituras pendientes).
+ */
+class SelectorLoop {
+
+	/**
+	 * Manejador asociado a cada SelectionKey del bucle.
+	 */
+	interface Handler {
+		void ready(SelectionKey key) throws IOException;
+
+		void failed(SelectionKey key, IOException e);
+	}
+
+	private static final ThreadLocal<Boolean> LOOP_THREAD = ThreadLocal.withInitial(() -> false);
+
+	private final String name;
+	private final Selector selector;
+	private final Queue<Runnable> tasks;
+	private volatile boolean runStateLoop;
+	private Future<?> future;
+	private EventLog eventLog;
+
+	SelectorLoop(String name) throws IOException {
+		this.name = name;
+		this.selector = Selector.open();
+		this.tasks = new ConcurrentLinkedQueue<>();
+	}
+
+	void start(MyP2P myP2P) {
+		runStateLoop = true;
+		eventLog = myP2P.getEventLog();
+		future = myP2P.submit(this::run);
+	}
+
+	void stop() {
+		runStateLoop = false;
+		selector.wakeup();
+		if(future != null) {
+			future.cancel(true);
+		}
+	}
+
+	/**
+	 * Informa si el hilo actual es el de algún bucle de selector, que nunca debe bloquearse.
+	 */
+	static boolean isLoopThread() {
+		return LOOP_THREAD.get();
+	}
+
+	/**
+	 * Encarga una tarea al hilo del bucle.
+	 */
+	void execute(Runnable task) {
+		tasks.add(task);
+		selector.wakeup();
+	}
+
+	/**
+	 * Registra un canal en el selector desde cualquier hilo.
+	 */
+	void register(SelectableChannel channel, int ops, Handler handler) {
+		execute(() -> {
+			try {
+				channel.register(selector, ops, handler);
+			} catch (ClosedChannelException e) {
+				handler.failed(null, e);
+			}
+		});
+	}
+
+	private void run() {
+		LOOP_THREAD.set(true);
+		while(runStateLoop && !Thread.currentThread().isInterrupted()) {
+			try {
+				selector.select();
+			} catch (IOException e) {
+				eventLog.warning("selector_failed", "loop", name, "error", e);
+				break;
+			}
+			Runnable task;
+			while((task = tasks.poll()) != null) {
+				task.run();
+			}
+			Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+			while(it.hasNext()) {
+				SelectionKey key = it.next();
+				it.remove();
+				Handler handler = (Handler) key.attachment();
+				try {
+					if(key.isValid()) {
+						handler.ready(key);
+					}
+				} catch (IOException e) {
+					handler.failed(key, e);
+				} catch (RuntimeException e) {
+					handler.failed(key, new IOException(e));
+				}
+			}
+		}
+		for(SelectionKey key: selector.keys()) {
+			try {
+				key.channel().close();
+			} catch (IOException ignored) {}
+		}
+		try {
+			selector.close();
+		} catch (IOException ignored) {}
+		LOOP_THREAD.remove();
+		eventLog.fine("selector_stopped", "loop", name);
+	}
+}
@@ -1,22 +1,38 @@
 package connections;
 
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.concurrent.Future;
 
 import controller.MyP2P;
 
 public class ServerConnector {
 
 	private final int serverPort;
+	private final String bindAddress;
+	private final TlsContext tls;
 	private final MyP2P myP2P;
-	private boolean runStateServerConnection;
+	private volatile boolean runStateServerConnection;
+	private final ServerSocket serverSocket;
+	private final Future<?> future;
 	
-	public ServerConnector(MyP2P myP2P, int serverPort) {
+	/**
+	 * Abre el puerto de escucha y arranca el bucle de accept. El bind se hace aquí y no en el bucle,
+	 * para que un puerto ocupado llegue a quien arranca el nodo.
+	 * @param tls Contexto TLS de los enlaces, o null para enlaces sin cifrar
+	 * @throws IOException Si no se puede escuchar en el puerto
+	 */
+	public ServerConnector(MyP2P myP2P, int serverPort, String bindAddress, TlsContext tls) throws IOException {
 		this.myP2P = myP2P;
 		this.serverPort = serverPort;
+		this.bindAddress = bindAddress;
+		this.tls = tls;
+		this.serverSocket = new ServerSocket(serverPort, 50, bindAddress == null ? null : InetAddress.getByName(bindAddress));
 		this.runStateServerConnection = true;
-		new Thread(this::run).start();
+		myP2P.getEventLog().info("server_listening", "port", serverSocket.getLocalPort());
+		this.future = myP2P.submit(this::run);
 	}
 
 	//Metodos de ejecucion y control
@@ -24,39 +40,63 @@ public class ServerConnector {
 	/**
 	 * Método principal de la conexión del servidor.
 	 * Ejecuta un ciclo infinito en el que se aceptan conexiones entrantes de peers.
-	 * El método utiliza un objeto ServerSocket para escuchar las conexiones entrantes
-	 * y acepta cada conexión entrante con el método accept(). Después de aceptar una conexión,
-	 * el método agrega la conexión a la lista de conexiones de la clase MyP2P mediante
+	 * El método utiliza el ServerSocket abierto en el constructor para escuchar las conexiones
+	 * entrantes y acepta cada conexión entrante con el método accept(). Después de aceptar una conexión,
+	 * una tarea aparte la negocia y la agrega a la lista de conexiones de la clase MyP2P mediante
 	 * el método addConnection(Socket). El método se ejecuta en un hilo separado para no
 	 * bloquear el hilo principal de la aplicación.
 	 */
 	private void run() {
-		try(ServerSocket serverSocket = new ServerSocket(serverPort)){
-			System.out.println("Server: Activating for server port " + serverPort);
-			while(runStateServerConnection) {
+		try(ServerSocket serverSocket = this.serverSocket){
+			while(runStateServerConnection && !Thread.currentThread().isInterrupted()) {
 				if(!serverSocket.isClosed()) {
 					try {
 						Socket socket = serverSocket.accept();
-						System.out.println("Server: Connection established with " + socket.getInetAddress().getHostAddress() + ":" + socket.getPort());
-						myP2P.addConnection(socket);
+						myP2P.getEventLog().fine("accepted", "peer", socket.getInetAddress().getHostAddress(), "port", socket.getPort());
+						myP2P.submit(() -> accept(socket));
 					} catch(IOException e) {
-						System.out.println("Server: outor in server service or connection with client socket");
+						if(runStateServerConnection) {
+							myP2P.getEventLog().warning("accept_failed", "error", e);
+						}
 					}
 				}
 			}
-			System.out.println("ServerConnector: Stopped");
+			myP2P.getEventLog().info("server_stopped", "port", serverPort);
+		} catch (IOException ignored) {
+			// Solo puede fallar el cierre del socket de escucha
+		}
+		runStateServerConnection = false;
+	}
+
+	/**
+	 * Negocia un socket aceptado en su propia tarea (el handshake TLS si lo hay y el saludo del codec),
+	 * para que un peer que no contesta, o que no presenta un certificado de confianza, no retrase los
+	 * demás accept. La negociación tiene el mismo límite que las conexiones salientes; SocketLink quita
+	 * el timeout de lectura cuando termina.
+	 */
+	private void accept(Socket socket) {
+		String ip = socket.getInetAddress().getHostAddress();
+		try {
+			socket.setSoTimeout(myP2P.getConfig().getConnectTimeoutMillis());
+			myP2P.addConnection(tls == null ? socket : tls.accept(socket));
 		} catch (IOException e) {
-			e.printStackTrace();
-			runStateServerConnection = false;
+			myP2P.getEventLog().warning(tls == null ? "accept_failed" : "tls_handshake_failed", "peer", ip, "error", e.getMessage());
+			try {
+				socket.close();
+			} catch (IOException ignored) {}
 		}
 	}
 
 	/**
 	 * Detiene la ejecución del hilo principal de la conexión del servidor.
+	 * Cierra el ServerSocket para desbloquear el accept() e interrumpe el hilo.
 	 */
 	public void stopServerConnection() {
-		System.out.println("Server: Stopping");
 		runStateServerConnection = false;
+		try {
+			serverSocket.close();
+		} catch (IOException ignored) {}
+		future.cancel(true);
 	}
 
 }
@@ -0,0 +1,162 @@
+package connections;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import view.Frame;
+
+/**
+ * Enlace sobre un Socket bloqueante. Un bucle propio en el ejecutor del nodo lee los marcos
+ * y los entrega a la conexión. Los envíos solo encolan: otro bucle, el escritor, vacía la cola
+ * por lotes y hace un único flush por lote, así un peer lento no bloquea a quien envía.
+ */
+public class SocketLink implements Link {
+
+	private static final int MAX_BATCH = 64;
+
+	private final Socket socket;
+	private final FrameCodec codec;
+	private final OutboundQueue outbound;
+	private final String localIp;
+	private final String remoteIp;
+	private final int localAddress;
+	private final LinkStats stats;
+	private Connection connection;
+	private Future<?> reader;
+	private Future<?> writer;
+	private volatile boolean open;
+
+	/**
+	 * Negocia el codec con el peer. Bloquea hasta recibir su saludo.
+	 * @param socket Socket ya conectado
+	 * @param legacyPeer True si el peer solo habla serialización Java
+	 * @param outbound Cola de salida del enlace
+	 */
+	public SocketLink(Socket socket, boolean legacyPeer, OutboundQueue outbound, int compressionThreshold) throws IOException {
+		this.socket = socket;
+		this.outbound = outbound;
+		this.localIp = socket.getLocalAddress().getHostAddress();
+		this.remoteIp = socket.getInetAddress().getHostAddress();
+		this.localAddress = Ipv4Address.of(socket.getLocalAddress());
+		this.stats = new LinkStats();
+		this.codec = FrameCodec.negotiate(socket, legacyPeer, compressionThreshold, stats);
+		// El timeout solo limita la negociación; el bucle de lectura espera sin límite
+		socket.setSoTimeout(0);
+		this.open = true;
+	}
+
+	@Override
+	public void start(Connection connection) {
+		this.connection = connection;
+		this.reader = connection.submit(this::run);
+		this.writer = connection.submit(this::write);
+	}
+
+	private void run() {
+		while(open && !Thread.currentThread().isInterrupted()) {
+			try {
+				connection.onFrame(codec.readFrame());
+			} catch (Exception e) {
+				if(open) {
+					connection.getEventLog().warning("link_failed", "peer", remoteIp, "error", e);
+				}
+				fail();
+			}
+		}
+	}
+
+	/**
+	 * Bucle del escritor: espera al primer marco, recoge los que ya estén encolados
+	 * y los envía todos con un solo flush.
+	 */
+	private void write() {
+		List<Frame> batch = new ArrayList<>(MAX_BATCH);
+		while(open && !Thread.currentThread().isInterrupted()) {
+			try {
+				batch.add(outbound.take());
+				outbound.drainTo(batch, MAX_BATCH - 1);
+				for(Frame frame: batch) {
+					codec.writeFrame(frame);
+				}
+				codec.flush();
+				batch.clear();
+			} catch (InterruptedException e) {
+				break;
+			} catch (IOException e) {
+				if(open) {
+					connection.getEventLog().warning("link_failed", "peer", remoteIp, "error", e);
+				}
+				fail();
+			}
+		}
+	}
+
+	@Override
+	public void send(Frame frame) {
+		if(open && !outbound.offer(frame, OutboundQueue.callerMayBlock())) {
+			// La cola solo se llena con el enlace ya arrancado, así que connection ya está asignada
+			connection.getEventLog().warning("outbound_full", "peer", remoteIp);
+			fail();
+		}
+	}
+
+	@Override
+	public LinkStats getStats() {
+		return stats;
+	}
+
+	@Override
+	public OutboundQueue getOutboundQueue() {
+		return outbound;
+	}
+
+	@Override
+	public void close() {
+		open = false;
+		try {
+			socket.close();
+		} catch (IOException ignored) {}
+		outbound.close();
+		if(reader != null) {
+			reader.cancel(true);
+		}
+		if(writer != null) {
+			writer.cancel(true);
+		}
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open && !socket.isClosed();
+	}
+
+	@Override
+	public int getVersion() {
+		return codec instanceof BinaryFrameCodec binary ? binary.getVersion() : 0;
+	}
+
+	@Override
+	public String getLocalIp() {
+		return localIp;
+	}
+
+	@Override
+	public int getLocalAddress() {
+		return localAddress;
+	}
+
+	@Override
+	public String getRemoteIp() {
+		return remoteIp;
+	}
+
+	private void fail() {
+		close();
+		if(connection != null) {
+			connection.onClosed(this);
+		}
+	}
+}
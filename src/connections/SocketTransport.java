@@ -0,0 +1,77 @@
+package connections;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+
+import controller.MyP2P;
+
+/**
+ * Transporte clásico: ServerConnector acepta en su propio hilo y cada
+ * conexión lee con un hilo dedicado (SocketLink).
+ * Con un TlsContext los sockets se envuelven en TLS antes de negociar el codec.
+ */
+public class SocketTransport implements Transport {
+
+	private final MyP2P myP2P;
+	private final int serverPort;
+	private final String bindAddress;
+	private final TlsContext tls;
+	private ServerConnector serverConnector;
+
+	/**
+	 * @param bindAddress Dirección local del servidor y de las conexiones salientes, o null para cualquiera
+	 * @param tls Contexto TLS de los enlaces, o null para enlaces sin cifrar
+	 */
+	public SocketTransport(MyP2P myP2P, int serverPort, String bindAddress, TlsContext tls) {
+		this.myP2P = myP2P;
+		this.serverPort = serverPort;
+		this.bindAddress = bindAddress;
+		this.tls = tls;
+	}
+
+	/**
+	 * @throws IOException Si el puerto de escucha está ocupado o la dirección no es local
+	 */
+	@Override
+	public void start() throws IOException {
+		serverConnector = new ServerConnector(myP2P, serverPort, bindAddress, tls);
+	}
+
+	/**
+	 * El connect bloqueante corre en su propia tarea del ejecutor, así que un peer que no
+	 * responde solo ocupa esa tarea hasta que vence el timeout.
+	 * El mismo timeout limita el handshake TLS y la espera del saludo del peer.
+	 */
+	@Override
+	public CompletableFuture<Void> connect(String ip, int timeoutMillis) {
+		CompletableFuture<Void> result = new CompletableFuture<>();
+		myP2P.submit(() -> {
+			Socket socket = new Socket();
+			try {
+				if(bindAddress != null) {
+					socket.bind(new InetSocketAddress(bindAddress, 0));
+				}
+				socket.connect(new InetSocketAddress(ip, serverPort), timeoutMillis);
+				socket.setSoTimeout(timeoutMillis);
+				myP2P.getEventLog().fine("connected", "peer", ip);
+				myP2P.addConnection(tls == null ? socket : tls.connect(socket, ip, serverPort));
+				result.complete(null);
+			} catch (IOException e) {
+				try {
+					socket.close();
+				} catch (IOException ignored) {}
+				result.completeExceptionally(e);
+			}
+		});
+		return result;
+	}
+
+	@Override
+	public void stop() {
+		if(serverConnector != null) {
+			serverConnector.stopServerConnection();
+		}
+	}
+}
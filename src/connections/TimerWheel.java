@@ -0,0 +1,168 @@
+package connections;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import controller.MyP2P;
+import metrics.EventLog;
+
+/**
+ * Temporizador de rueda (hashed timer wheel) compartido por todo el nodo.
+ * Un único bucle avanza la rueda cada tickMillis y solo recorre la casilla del tick actual,
+ * así que el coste por tick depende de los temporizadores que vencen y no del número de peers.
+ * Las tareas se ejecutan en el hilo de la rueda: deben ser cortas y no bloquear. Los enlaces lo
+ * tienen en cuenta: lo que se envía desde la rueda nunca espera hueco en la cola de salida.
+ */
+public class TimerWheel {
+
+	private static final ThreadLocal<Boolean> WHEEL_THREAD = ThreadLocal.withInitial(() -> false);
+
+	/**
+	 * Temporizador programado en la rueda.
+	 */
+	public static final class Timeout {
+		private final Runnable task;
+		private final long deadline;
+		private long rounds;
+		private volatile boolean cancelled;
+
+		private Timeout(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Cancela el temporizador si aún no ha vencido.
+		 */
+		public void cancel() {
+			cancelled = true;
+		}
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+	}
+
+	private final long tickMillis;
+	private final List<ArrayDeque<Timeout>> wheel;
+	private final int mask;
+	private final Queue<Timeout> pending;
+	private volatile long startTime;
+	private volatile boolean runStateWheel;
+	private long tick;
+	private Future<?> future;
+	private EventLog eventLog;
+
+	/**
+	 * @param tickMillis Resolución de la rueda en milisegundos
+	 * @param ticksPerWheel Número de casillas; se redondea a la siguiente potencia de dos
+	 */
+	public TimerWheel(long tickMillis, int ticksPerWheel) {
+		int size = Integer.highestOneBit(Math.max(1, ticksPerWheel - 1)) << 1;
+		this.tickMillis = tickMillis;
+		this.wheel = new ArrayList<>(size);
+		for(int i = 0; i < size; ++i) {
+			wheel.add(new ArrayDeque<>());
+		}
+		this.mask = size - 1;
+		this.pending = new ConcurrentLinkedQueue<>();
+		this.startTime = currentMillis();
+	}
+
+	public void start(MyP2P myP2P) {
+		startTime = currentMillis();
+		runStateWheel = true;
+		eventLog = myP2P.getEventLog();
+		future = myP2P.submit(this::run);
+	}
+
+	public void stop() {
+		runStateWheel = false;
+		if(future != null) {
+			future.cancel(true);
+		}
+	}
+
+	/**
+	 * Programa una tarea. Puede llamarse desde cualquier hilo, incluido el de la rueda.
+	 * @param task Tarea a ejecutar en el hilo de la rueda
+	 * @param delayMillis Retardo en milisegundos
+	 * @return El temporizador, para poder cancelarlo
+	 */
+	public Timeout schedule(Runnable task, long delayMillis) {
+		Timeout timeout = new Timeout(task, currentMillis() + Math.max(0, delayMillis));
+		pending.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Informa si el hilo actual es el de alguna rueda, que nunca debe bloquearse.
+	 */
+	static boolean isWheelThread() {
+		return WHEEL_THREAD.get();
+	}
+
+	private void run() {
+		WHEEL_THREAD.set(true);
+		while(runStateWheel && !Thread.currentThread().isInterrupted()) {
+			long deadline = startTime + (tick + 1) * tickMillis;
+			long sleep = deadline - currentMillis();
+			if(sleep > 0) {
+				try {
+					Thread.sleep(sleep);
+				} catch (InterruptedException e) {
+					break;
+				}
+			}
+			transferPending();
+			expire(wheel.get((int) (tick & mask)));
+			++tick;
+		}
+		WHEEL_THREAD.remove();
+	}
+
+	/**
+	 * Coloca en su casilla los temporizadores programados desde el último tick.
+	 */
+	private void transferPending() {
+		Timeout timeout;
+		while((timeout = pending.poll()) != null) {
+			if(timeout.cancelled) {
+				continue;
+			}
+			long calculated = (timeout.deadline - startTime) / tickMillis;
+			timeout.rounds = Math.max(0, (calculated - tick) / wheel.size());
+			long ticks = Math.max(calculated, tick);
+			wheel.get((int) (ticks & mask)).add(timeout);
+		}
+	}
+
+	private void expire(ArrayDeque<Timeout> bucket) {
+		Iterator<Timeout> it = bucket.iterator();
+		while(it.hasNext()) {
+			Timeout timeout = it.next();
+			if(timeout.cancelled) {
+				it.remove();
+			} else if(timeout.rounds > 0) {
+				--timeout.rounds;
+			} else {
+				it.remove();
+				try {
+					timeout.task.run();
+				} catch (RuntimeException e) {
+					eventLog.warning("timer_task_failed", "error", e);
+				}
+			}
+		}
+	}
+
+	private static long currentMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+	}
+}
@@ -0,0 +1,144 @@
+package connections;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+
+import metrics.Counter;
+import metrics.MetricsRegistry;
+
+/**
+ * TLS 1.3 con autenticación mutua para los transportes de sockets bloqueantes (THREAD y VIRTUAL).
+ * El SSLContext se crea una sola vez por nodo a partir del almacén de claves (certificado y clave del nodo)
+ * y del de confianza (la CA de la malla o los certificados de los peers): cada extremo tiene que presentar
+ * un certificado en el que confíe el otro. No se comprueba el nombre del certificado, los peers se
+ * identifican por IP.
+ * El chequeo de salud cierra los enlaces y el cliente reconecta enseguida, así que un handshake completo
+ * en cada reconexión saldría caro. El cliente abre cada sesión con la IP y el puerto del peer, de modo que
+ * la caché de sesiones del contexto reanuda la anterior con un ticket de TLS 1.3 y se ahorra el
+ * intercambio y la verificación de certificados.
+ * Se mide por peer la duración de cada handshake, el tiempo de CPU que gasta el hilo que lo hace
+ * (sobre todo criptografía) y si ha sido una reanudación.
+ */
+public final class TlsContext {
+
+	private static final String[] PROTOCOLS = {"TLSv1.3"};
+
+	private final SSLContext context;
+	private final MetricsRegistry metrics;
+	private final ThreadMXBean threads;
+	private final Counter failures;
+	private final AtomicLong handshakes = new AtomicLong();
+	private final AtomicLong resumed = new AtomicLong();
+
+	/**
+	 * @param keyStore Fichero con el certificado y la clave del nodo (PKCS12 o JKS)
+	 * @param trustStore Fichero con los certificados en los que se confía, o null para usar el de claves
+	 * @param metrics Registro en el que se publican las métricas de los handshakes
+	 * @throws GeneralSecurityException Si algún almacén no es válido o la contraseña no es la suya
+	 */
+	public TlsContext(String keyStore, char[] keyPassword, String trustStore, char[] trustPassword, MetricsRegistry metrics) throws IOException, GeneralSecurityException {
+		KeyStore keys = KeyStore.getInstance(new File(keyStore), keyPassword);
+		KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		keyManagers.init(keys, keyPassword);
+		KeyStore trusted = trustStore == null ? keys : KeyStore.getInstance(new File(trustStore), trustPassword);
+		TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		trustManagers.init(trusted);
+		this.context = SSLContext.getInstance("TLSv1.3");
+		context.init(keyManagers.getKeyManagers(), trustManagers.getTrustManagers(), null);
+		this.metrics = metrics;
+		this.threads = ManagementFactory.getThreadMXBean();
+		this.failures = metrics.counter("p2p_tls_handshake_failures_total", "TLS handshakes that failed or timed out");
+	}
+
+	//Metodos de handshake
+
+	/**
+	 * Abre TLS como cliente sobre un socket ya conectado y completa el handshake.
+	 * El socket debe tener un timeout de lectura, que limita también el handshake.
+	 * @param ip IP del peer, que junto con el puerto identifica la sesión que se puede reanudar
+	 * @throws IOException Si el handshake falla; el socket queda cerrado
+	 */
+	public SSLSocket connect(Socket socket, String ip, int port) throws IOException {
+		SSLSocket ssl = (SSLSocket) context.getSocketFactory().createSocket(socket, ip, port, true);
+		ssl.setUseClientMode(true);
+		return handshake(ssl, ip);
+	}
+
+	/**
+	 * Abre TLS como servidor sobre un socket aceptado y completa el handshake, exigiendo certificado al peer.
+	 * @throws IOException Si el handshake falla; el socket queda cerrado
+	 */
+	public SSLSocket accept(Socket socket) throws IOException {
+		SSLSocket ssl = (SSLSocket) context.getSocketFactory().createSocket(socket, null, true);
+		ssl.setNeedClientAuth(true);
+		return handshake(ssl, socket.getInetAddress().getHostAddress());
+	}
+
+	private SSLSocket handshake(SSLSocket ssl, String ip) throws IOException {
+		ssl.setEnabledProtocols(PROTOCOLS);
+		// Cada vuelta del handshake es un mensaje corto: con Nagle esperaría al ACK retrasado del peer.
+		// Después no cambia nada, SocketLink ya escribe por lotes con un solo flush
+		ssl.setTcpNoDelay(true);
+		boolean cpuTime = threads.isCurrentThreadCpuTimeSupported();
+		long cpuStart = cpuTime ? threads.getCurrentThreadCpuTime() : 0;
+		long startMillis = System.currentTimeMillis();
+		long start = System.nanoTime();
+		try {
+			ssl.startHandshake();
+		} catch (IOException e) {
+			failures.increment();
+			try {
+				ssl.close();
+			} catch (IOException ignored) {}
+			throw e;
+		}
+		long elapsed = System.nanoTime() - start;
+		// Una sesión reanudada conserva la fecha de creación de la original
+		boolean resumption = ssl.getSession().getCreationTime() < startMillis;
+		handshakes.incrementAndGet();
+		if(resumption) {
+			resumed.incrementAndGet();
+		}
+		metrics.histogram("p2p_tls_handshake_seconds", "Duration of the TLS handshakes with the peer", 1e-9, "peer", ip).record(elapsed);
+		if(cpuTime) {
+			metrics.histogram("p2p_tls_handshake_cpu_seconds", "CPU time spent by this node in the TLS handshakes with the peer", 1e-9, "peer", ip)
+					.record(threads.getCurrentThreadCpuTime() - cpuStart);
+		}
+		metrics.counter("p2p_tls_handshakes_total", "TLS handshakes completed with the peer", "peer", ip, "resumed", Boolean.toString(resumption)).increment();
+		return ssl;
+	}
+
+	//Contadores
+
+	/**
+	 * Handshakes completados con cualquier peer, reanudaciones incluidas.
+	 */
+	public long getHandshakes() {
+		return handshakes.get();
+	}
+
+	/**
+	 * Handshakes que reanudaron una sesión de la caché.
+	 */
+	public long getResumed() {
+		return resumed.get();
+	}
+
+	/**
+	 * Handshakes que fallaron, por ejemplo porque el peer no presentó un certificado de confianza.
+	 */
+	public long getFailures() {
+		return failures.get();
+	}
+}
@@ -0,0 +1,29 @@
+package connections;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Transporte de red de un nodo: acepta las conexiones entrantes y abre las salientes.
+ * Los enlaces que se establecen se entregan a MyP2P para asociarlos a su Connection.
+ */
+public interface Transport {
+
+	/**
+	 * Empieza a aceptar conexiones entrantes.
+	 */
+	void start() throws IOException;
+
+	/**
+	 * Intenta conectar con un peer sin bloquear al que llama.
+	 * @param ip IP del peer
+	 * @param timeoutMillis Tiempo máximo para establecer la conexión TCP
+	 * @return Se completa cuando la conexión se establece, o con la excepción que la impidió
+	 */
+	CompletableFuture<Void> connect(String ip, int timeoutMillis);
+
+	/**
+	 * Detiene el transporte y deja de aceptar conexiones.
+	 */
+	void stop();
+}
@@ -0,0 +1,14 @@
+package connections;
+
+public enum TransportMode {
+
+	/** Sockets bloqueantes con un hilo por conexión */
+	THREAD,
+	/** Igual que THREAD, pero cada bucle bloqueante corre en un hilo virtual. Necesita JDK 21 o posterior */
+	VIRTUAL,
+	/** SocketChannels no bloqueantes repartidos entre varios bucles de selector */
+	NIO,
+	/** Sin sockets: enlaces en memoria con los demás nodos de la misma MemoryNetwork, para simulaciones */
+	MEMORY
+
+}
@@ -0,0 +1,129 @@
+package controller;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Filtro de Bloom de tamaño fijo para resumir un conjunto de nombres de canal.
+ * Tiene BITS bits y cada nombre marca HASHES de ellos, elegidos por doble hash a partir del FNV-1a
+ * de 64 bits de su UTF-8, así que dos nodos cualesquiera marcan los mismos bits para el mismo canal.
+ * Con 1024 bits y 4 funciones la tasa de falsos positivos es del 1% con unos 100 canales;
+ * un falso positivo solo cuesta enviar un marco a un vecino que lo descartará.
+ * No es seguro para hilos: se construye, se publica y ya no se modifica.
+ */
+public final class BloomFilter {
+
+	public static final int BITS = 1024;
+	public static final int HASHES = 4;
+
+	private final long[] words;
+
+	public BloomFilter() {
+		this.words = new long[BITS / Long.SIZE];
+	}
+
+	private BloomFilter(long[] words) {
+		this.words = words;
+	}
+
+	//Metodos del conjunto
+
+	public void add(String name) {
+		long hash = hash(name);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32) | 1;
+		for(int i = 0; i < HASHES; ++i) {
+			int bit = Math.floorMod(h1 + i * h2, BITS);
+			words[bit >>> 6] |= 1L << bit;
+		}
+	}
+
+	/**
+	 * @return False si el nombre seguro que no está; True si probablemente está
+	 */
+	public boolean mightContain(String name) {
+		long hash = hash(name);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32) | 1;
+		for(int i = 0; i < HASHES; ++i) {
+			int bit = Math.floorMod(h1 + i * h2, BITS);
+			if((words[bit >>> 6] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Añade a este filtro todos los nombres de otro.
+	 */
+	public void addAll(BloomFilter other) {
+		for(int i = 0; i < words.length; ++i) {
+			words[i] |= other.words[i];
+		}
+	}
+
+	public boolean isEmpty() {
+		for(long word: words) {
+			if(word != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static long hash(String name) {
+		long hash = 0xcbf29ce484222325L;
+		for(byte b: name.getBytes(StandardCharsets.UTF_8)) {
+			hash ^= b & 0xFF;
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	//Metodos de codificacion
+
+	/**
+	 * Codifica el filtro en Base64, o como cadena vacía si no tiene ningún bit.
+	 */
+	public String encode() {
+		if(isEmpty()) {
+			return "";
+		}
+		byte[] bytes = new byte[BITS / Byte.SIZE];
+		for(int i = 0; i < bytes.length; ++i) {
+			bytes[i] = (byte) (words[i >>> 3] >>> ((i & 7) * 8));
+		}
+		return Base64.getEncoder().withoutPadding().encodeToString(bytes);
+	}
+
+	/**
+	 * Decodifica un filtro codificado con encode.
+	 * @throws IllegalArgumentException Si el texto no es un filtro válido
+	 */
+	public static BloomFilter decode(String text) {
+		if(text.isEmpty()) {
+			return new BloomFilter();
+		}
+		byte[] bytes = Base64.getDecoder().decode(text);
+		if(bytes.length != BITS / Byte.SIZE) {
+			throw new IllegalArgumentException("Bloom filter of " + bytes.length + " bytes");
+		}
+		long[] words = new long[BITS / Long.SIZE];
+		for(int i = 0; i < bytes.length; ++i) {
+			words[i >>> 3] |= (bytes[i] & 0xFFL) << ((i & 7) * 8);
+		}
+		return new BloomFilter(words);
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof BloomFilter filter && Arrays.equals(words, filter.words);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(words);
+	}
+}
@@ -0,0 +1,10 @@
+package controller;
+
+public enum BroadcastMode {
+
+	/** Árbol de difusión al estilo Plumtree: una copia completa por enlace del árbol y anuncios IHAVE por el resto */
+	TREE,
+	/** Inundación: cada mensaje nuevo se reenvía completo a todos los vecinos y los duplicados solo se descartan */
+	FLOOD
+
+}
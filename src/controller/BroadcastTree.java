@@ -0,0 +1,400 @@
+package controller;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import connections.Connection;
+import connections.ConnectionListener;
+import connections.TimerWheel;
+import view.Frame;
+
+/**
+ * Difusión de los mensajes a "*" al estilo Plumtree.
+ * Cada nodo separa a sus vecinos en eager y lazy. Un mensaje nuevo se reenvía completo solo
+ * a los eager y a los lazy se les anuncia su identificador en un IHAVE agrupado. Quien recibe
+ * un duplicado contesta PRUNE y el emisor pasa a lazy, así que los enlaces eager acaban formando
+ * un árbol de expansión y cada nodo recibe una sola copia. Si un IHAVE anuncia un mensaje que no
+ * llega por el árbol en graftMillis (un enlace caído), se pide con GRAFT y ese vecino vuelve a eager,
+ * lo que repara el árbol. Un enlace injertado no se poda hasta pasados dos graftMillis: tras un corte los
+ * dos lados injertan a la vez varios enlaces por los mensajes perdidos y, si los duplicados que eso provoca
+ * los podaran en el acto, con muchos mensajes en vuelo el árbol se volvería a partir una y otra vez.
+ * Los peers antiguos no conocen los marcos de control: siempre son eager y no reenvían.
+ * Los mensajes de un canal usan el mismo árbol, pero solo van (completos o anunciados) a los vecinos
+ * a través de los que hay interés por el canal según la ChannelTable, que se recalcula con cada cambio del árbol.
+ * En modo inundación no se poda nunca: todos los vecinos son eager y reciben cada mensaje nuevo completo.
+ */
+public class BroadcastTree implements ConnectionListener {
+
+	/**
+	 * Mensaje anunciado por IHAVE que todavía no ha llegado.
+	 */
+	private static final class Missing {
+		private final List<Connection> announcers = new ArrayList<>();
+		private TimerWheel.Timeout timeout;
+	}
+
+	private final SeenMessageCache seenMessages;
+	private final ChannelTable channels;
+	private final long lazyMillis;
+	private final long graftMillis;
+	private final boolean flood;
+	private final Set<Connection> eager;
+	private final Set<Connection> lazy;
+	private final LinkedHashMap<Long, Frame> recent;
+	private final int maxRecent;
+	private final Map<Long, Missing> missing;
+	private final Map<Connection, List<Long>> pendingIHave;
+	private final Map<Connection, Long> graftedAt;
+	private boolean flushScheduled;
+	private TimerWheel timer;
+
+	//Contadores
+	private long eagerSent;
+	private long lazySent;
+	private long grafts;
+	private long prunes;
+	private long filtered;
+	private long duplicates;
+
+	/**
+	 * @param seenMessages Caché de mensajes vistos del nodo
+	 * @param channels Interés de los vecinos por cada canal
+	 * @param maxRecent Mensajes que se guardan para contestar a los GRAFT
+	 * @param lazyMillis Retardo con el que se agrupan los IHAVE
+	 * @param graftMillis Espera antes de pedir con GRAFT un mensaje anunciado
+	 * @param flood True para inundar en lugar de formar el árbol
+	 */
+	public BroadcastTree(SeenMessageCache seenMessages, ChannelTable channels, int maxRecent, long lazyMillis, long graftMillis, boolean flood) {
+		this.seenMessages = seenMessages;
+		this.channels = channels;
+		this.maxRecent = maxRecent;
+		this.lazyMillis = lazyMillis;
+		this.graftMillis = graftMillis;
+		this.flood = flood;
+		this.eager = new HashSet<>();
+		this.lazy = new HashSet<>();
+		this.recent = new LinkedHashMap<>();
+		this.missing = new HashMap<>();
+		this.pendingIHave = new HashMap<>();
+		this.graftedAt = new HashMap<>();
+	}
+
+	public void start(TimerWheel timer) {
+		this.timer = timer;
+	}
+
+	//Metodos de eventos
+
+	@Override
+	public synchronized void connected(Connection connection) {
+		// Los vecinos nuevos empiezan en eager: el árbol se poda solo con los duplicados
+		lazy.remove(connection);
+		eager.add(connection);
+		channels.treeChanged();
+	}
+
+	@Override
+	public synchronized void disconnected(Connection connection) {
+		if(eager.remove(connection)) {
+			channels.treeChanged();
+		}
+		lazy.remove(connection);
+		pendingIHave.remove(connection);
+		graftedAt.remove(connection);
+	}
+
+	//Metodos de difusion
+
+	/**
+	 * Difunde un mensaje originado en este nodo. El identificador ya debe estar marcado como visto.
+	 */
+	public void broadcast(Frame frame) {
+		forward(null, frame);
+	}
+
+	/**
+	 * Procesa un mensaje a "*" recibido de un vecino.
+	 * @return True si el mensaje es nuevo y hay que entregarlo, False si es un duplicado
+	 */
+	public boolean onMessage(Connection from, Frame frame) {
+		if(!seenMessages.markSeen(frame.getMessageId())) {
+			// Ya llegó por otro camino: este enlace sobra en el árbol
+			boolean prune;
+			synchronized (this) {
+				++duplicates;
+				prune = !flood && !from.isLegacyPeer() && !recentlyGrafted(from) && eager.remove(from);
+				if(prune) {
+					lazy.add(from);
+					++prunes;
+					channels.treeChanged();
+				}
+			}
+			if(prune) {
+				from.sendControl(Frame.FrameType.PRUNE, null);
+			}
+			return false;
+		}
+		synchronized (this) {
+			Missing pending = missing.remove(frame.getMessageId());
+			if(pending != null && pending.timeout != null) {
+				pending.timeout.cancel();
+			}
+			// Quien envía el mensaje completo forma parte del árbol
+			if(lazy.remove(from)) {
+				eager.add(from);
+				channels.treeChanged();
+			}
+		}
+		forward(from, frame);
+		return true;
+	}
+
+	/**
+	 * Envía el mensaje completo a los vecinos eager y lo anuncia a los lazy.
+	 * @param from Vecino del que llegó, al que no se devuelve; null si es propio
+	 */
+	private void forward(Connection from, Frame frame) {
+		List<Connection> eagerTargets;
+		// Los fragmentos solo van por el árbol: guardarlos para los GRAFT ocuparía demasiada memoria,
+		// y si se pierde uno la transferencia caduca en el destino
+		boolean chunk = frame.getFrameType() == Frame.FrameType.CHUNK;
+		String channel = frame.getChannel();
+		synchronized (this) {
+			if(!chunk) {
+				recent.put(frame.getMessageId(), frame);
+				if(recent.size() > maxRecent) {
+					recent.remove(recent.keySet().iterator().next());
+				}
+			}
+			eagerTargets = new ArrayList<>(eager.size());
+			for(Connection connection: eager) {
+				if(connection == from) {
+					continue;
+				}
+				if(channel == null || channels.wants(connection, channel)) {
+					eagerTargets.add(connection);
+				} else {
+					++filtered;
+				}
+			}
+			for(Connection connection: lazy) {
+				if(connection == from || chunk) {
+					continue;
+				}
+				// De un mensaje de canal solo se avisa a los suscriptores: un nodo intermedio no sabe si
+				// el mensaje no le llega por una pérdida o porque su interés está del lado del que vino,
+				// y con un GRAFT metería en el árbol una rama sin interés
+				if(channel == null || channels.subscribed(connection, channel)) {
+					pendingIHave.computeIfAbsent(connection, k -> new ArrayList<>()).add(frame.getMessageId());
+				} else {
+					++filtered;
+				}
+			}
+			if(!pendingIHave.isEmpty() && !flushScheduled) {
+				flushScheduled = true;
+				timer.schedule(this::flushIHave, lazyMillis);
+			}
+			eagerSent += eagerTargets.size();
+		}
+		for(Connection connection: eagerTargets) {
+			connection.sendFrame(frame);
+		}
+	}
+
+	private void flushIHave() {
+		Map<Connection, List<Long>> batches;
+		synchronized (this) {
+			flushScheduled = false;
+			batches = new HashMap<>(pendingIHave);
+			pendingIHave.clear();
+			lazySent += batches.size();
+		}
+		for(Map.Entry<Connection, List<Long>> batch: batches.entrySet()) {
+			batch.getKey().sendControl(Frame.FrameType.IHAVE, encodeIds(batch.getValue()));
+		}
+	}
+
+	//Metodos de reparacion
+
+	/**
+	 * Procesa un IHAVE: por cada mensaje desconocido se espera graftMillis a que llegue por el árbol.
+	 */
+	public void onIHave(Connection from, String payload) {
+		List<Long> ids = decodeIds(payload);
+		synchronized (this) {
+			for(long id: ids) {
+				if(seenMessages.contains(id)) {
+					continue;
+				}
+				Missing pending = missing.computeIfAbsent(id, k -> new Missing());
+				pending.announcers.add(from);
+				if(pending.timeout == null) {
+					pending.timeout = timer.schedule(() -> graft(id), graftMillis);
+				}
+			}
+		}
+	}
+
+	/**
+	 * El mensaje no ha llegado a tiempo: se pide al primero que lo anunció, que vuelve a eager.
+	 * Si tampoco llega, se prueba con el siguiente.
+	 */
+	private void graft(long id) {
+		Connection announcer;
+		synchronized (this) {
+			Missing pending = missing.get(id);
+			if(pending == null || seenMessages.contains(id)) {
+				missing.remove(id);
+				return;
+			}
+			announcer = pending.announcers.remove(0);
+			while(!announcer.isOk() && !pending.announcers.isEmpty()) {
+				announcer = pending.announcers.remove(0);
+			}
+			if(pending.announcers.isEmpty()) {
+				missing.remove(id);
+			} else {
+				pending.timeout = timer.schedule(() -> graft(id), graftMillis);
+			}
+			lazy.remove(announcer);
+			graftedAt.put(announcer, System.currentTimeMillis());
+			if(eager.add(announcer)) {
+				channels.treeChanged();
+			}
+			++grafts;
+		}
+		announcer.sendControl(Frame.FrameType.GRAFT, Long.toHexString(id));
+	}
+
+	/**
+	 * Procesa un GRAFT: el vecino vuelve a eager y se le reenvían los mensajes pedidos que aún se guardan.
+	 */
+	public void onGraft(Connection from, String payload) {
+		List<Frame> frames = new ArrayList<>();
+		synchronized (this) {
+			lazy.remove(from);
+			graftedAt.put(from, System.currentTimeMillis());
+			if(eager.add(from)) {
+				channels.treeChanged();
+			}
+			for(long id: decodeIds(payload)) {
+				Frame frame = recent.get(id);
+				if(frame != null) {
+					frames.add(frame);
+				}
+			}
+		}
+		for(Frame frame: frames) {
+			from.sendFrame(frame);
+		}
+	}
+
+	/**
+	 * Informa si el enlace con un vecino se ha injertado, en cualquiera de los dos sentidos, hace menos de dos graftMillis.
+	 */
+	private boolean recentlyGrafted(Connection connection) {
+		Long since = graftedAt.get(connection);
+		if(since == null) {
+			return false;
+		}
+		if(System.currentTimeMillis() - since < 2 * graftMillis) {
+			return true;
+		}
+		graftedAt.remove(connection);
+		return false;
+	}
+
+	/**
+	 * Procesa un PRUNE: el vecino ya recibe los mensajes por otro camino y pasa a lazy.
+	 */
+	public synchronized void onPrune(Connection from) {
+		if(!flood && eager.remove(from)) {
+			lazy.add(from);
+			channels.treeChanged();
+		}
+	}
+
+	//Metodos de codificacion
+
+	private static String encodeIds(List<Long> ids) {
+		StringBuilder payload = new StringBuilder();
+		for(long id: ids) {
+			if(payload.length() > 0) {
+				payload.append(',');
+			}
+			payload.append(Long.toHexString(id));
+		}
+		return payload.toString();
+	}
+
+	private static List<Long> decodeIds(String payload) {
+		List<Long> ids = new ArrayList<>();
+		if(payload == null || payload.isEmpty()) {
+			return ids;
+		}
+		for(String id: payload.split(",")) {
+			try {
+				ids.add(Long.parseUnsignedLong(id, 16));
+			} catch (NumberFormatException ignored) {}
+		}
+		return ids;
+	}
+
+	//Contadores
+
+	/**
+	 * Copias completas enviadas a vecinos eager.
+	 */
+	public synchronized long getEagerSent() {
+		return eagerSent;
+	}
+
+	/**
+	 * Marcos IHAVE enviados.
+	 */
+	public synchronized long getLazySent() {
+		return lazySent;
+	}
+
+	public synchronized long getGrafts() {
+		return grafts;
+	}
+
+	public synchronized long getPrunes() {
+		return prunes;
+	}
+
+	/**
+	 * Envíos y anuncios de mensajes de canal ahorrados por no haber interés a través del vecino.
+	 */
+	public synchronized long getFiltered() {
+		return filtered;
+	}
+
+	/**
+	 * Copias de difusiones que llegaron por un segundo camino y se descartaron.
+	 */
+	public synchronized long getDuplicates() {
+		return duplicates;
+	}
+
+	/**
+	 * Informa si un vecino es eager, es decir, si es una rama del árbol en este nodo.
+	 */
+	public synchronized boolean isEager(Connection connection) {
+		return eager.contains(connection);
+	}
+
+	public synchronized int getEagerCount() {
+		return eager.size();
+	}
+
+	public synchronized int getLazyCount() {
+		return lazy.size();
+	}
+}
@@ -0,0 +1,333 @@
+package controller;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import connections.Connection;
+import connections.ConnectionListener;
+import connections.TimerWheel;
+import view.Frame;
+
+/**
+ * Suscripciones del nodo a canales e interés de los vecinos, con filtros de Bloom atenuados.
+ * Cada nodo anuncia a cada vecino, en marcos INTEREST, DEPTH filtros: el nivel 0 con sus propias suscripciones
+ * y el nivel i con los canales que interesan a i saltos por debajo de él en el árbol de difusión, que es la unión
+ * de los niveles i - 1 recibidos de sus vecinos eager salvo el destinatario (horizonte dividido, como las rutas).
+ * Los mensajes de canal viajan por el árbol y solo se envían a un vecino si alguno de sus niveles contiene el canal,
+ * así cada difusión sigue únicamente las ramas que llevan a algún suscriptor y el tráfico crece con el interés
+ * y no con el total. Contar solo las ramas del árbol es lo que hace que "por debajo" tenga sentido: en la malla
+ * completa casi todo el interés llegaría por cualquier vecino. Cada cambio del árbol provoca un anuncio,
+ * y como el interés no pasa de DEPTH saltos, lo que quede de un árbol anterior desaparece en DEPTH anuncios.
+ * Los peers sin soporte de canales no reciben anuncios ni marcos de canal.
+ */
+public class ChannelTable implements ConnectionListener {
+
+	/**
+	 * Saltos a los que llega el interés por un canal.
+	 */
+	public static final int DEPTH = 8;
+
+	/**
+	 * Longitud máxima del nombre de un canal. En UTF-8 siempre cabe en la cabecera del marco.
+	 */
+	public static final int MAX_CHANNEL_CHARS = 64;
+
+	/**
+	 * Últimos filtros recibidos de un vecino, por nivel, y su unión.
+	 */
+	private static final class Advert {
+		private final BloomFilter[] levels;
+		private final BloomFilter any;
+		private final long receivedAt;
+
+		private Advert(BloomFilter[] levels, long receivedAt) {
+			this.levels = levels;
+			this.any = new BloomFilter();
+			for(BloomFilter level: levels) {
+				any.addAll(level);
+			}
+			this.receivedAt = receivedAt;
+		}
+	}
+
+	private final long advertMillis;
+	private final long triggeredMillis;
+	private final Set<String> subscriptions;
+	private final Set<Connection> neighbours;
+	private final Map<Connection, Advert> adverts;
+	private final Map<Connection, String> lastSent;
+	private volatile Map<Connection, BloomFilter> interest;
+	private volatile Map<Connection, BloomFilter> direct;
+	private final AtomicBoolean triggeredScheduled;
+	private BroadcastTree tree;
+	private TimerWheel timer;
+	private volatile TimerWheel.Timeout periodic;
+	private volatile boolean runStateChannels;
+
+	/**
+	 * @param advertMillis Periodo de los anuncios completos
+	 * @param triggeredMillis Retardo con el que se agrupan los anuncios provocados por un cambio
+	 */
+	public ChannelTable(long advertMillis, long triggeredMillis) {
+		this.advertMillis = advertMillis;
+		this.triggeredMillis = triggeredMillis;
+		this.subscriptions = new HashSet<>();
+		this.neighbours = new HashSet<>();
+		this.adverts = new HashMap<>();
+		this.lastSent = new HashMap<>();
+		this.interest = Map.of();
+		this.direct = Map.of();
+		this.triggeredScheduled = new AtomicBoolean();
+	}
+
+	/**
+	 * @param tree Árbol de difusión del nodo, cuyas ramas son las que se anuncian
+	 */
+	public void start(TimerWheel timer, BroadcastTree tree) {
+		this.timer = timer;
+		this.tree = tree;
+		runStateChannels = true;
+		periodic = timer.schedule(this::periodicAdvert, advertMillis);
+	}
+
+	public void stop() {
+		runStateChannels = false;
+		TimerWheel.Timeout periodic = this.periodic;
+		if(periodic != null) {
+			periodic.cancel();
+		}
+	}
+
+	//Metodos de suscripcion
+
+	/**
+	 * Comprueba si un nombre de canal es válido: entre 1 y MAX_CHANNEL_CHARS caracteres y sin caracteres de control.
+	 */
+	public static boolean isValidChannel(String channel) {
+		if(channel == null || channel.isEmpty() || channel.length() > MAX_CHANNEL_CHARS) {
+			return false;
+		}
+		for(int i = 0; i < channel.length(); i++) {
+			if(Character.isISOControl(channel.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Suscribe el nodo a un canal. Los vecinos se enteran en el siguiente anuncio provocado.
+	 * @return True si no estaba suscrito
+	 * @throws IllegalArgumentException Si el nombre no es válido
+	 */
+	public boolean subscribe(String channel) {
+		if(!isValidChannel(channel)) {
+			throw new IllegalArgumentException("Invalid channel name");
+		}
+		synchronized (this) {
+			if(!subscriptions.add(channel)) {
+				return false;
+			}
+			scheduleTriggered();
+			return true;
+		}
+	}
+
+	/**
+	 * Da de baja el nodo de un canal.
+	 * @return True si estaba suscrito
+	 */
+	public synchronized boolean unsubscribe(String channel) {
+		if(!subscriptions.remove(channel)) {
+			return false;
+		}
+		scheduleTriggered();
+		return true;
+	}
+
+	public synchronized boolean isSubscribed(String channel) {
+		return subscriptions.contains(channel);
+	}
+
+	/**
+	 * Devuelve los canales a los que está suscrito el nodo, ordenados.
+	 */
+	public synchronized List<String> getSubscriptions() {
+		return new ArrayList<>(new TreeSet<>(subscriptions));
+	}
+
+	//Metodos de consulta
+
+	/**
+	 * Informa si hay que enviar a un vecino un marco de un canal: si lo entiende y hay interés a través de él.
+	 * Puede dar falsos positivos, nunca falsos negativos salvo que el suscriptor esté a más de DEPTH saltos.
+	 */
+	public boolean wants(Connection connection, String channel) {
+		if(!connection.supportsChannels()) {
+			return false;
+		}
+		BloomFilter filter = interest.get(connection);
+		return filter != null && filter.mightContain(channel);
+	}
+
+	/**
+	 * Informa si un vecino que entiende los canales está suscrito él mismo a un canal, según el nivel 0 de su anuncio.
+	 */
+	public boolean subscribed(Connection connection, String channel) {
+		if(!connection.supportsChannels()) {
+			return false;
+		}
+		BloomFilter filter = direct.get(connection);
+		return filter != null && filter.mightContain(channel);
+	}
+
+	//Metodos de eventos
+
+	@Override
+	public synchronized void connected(Connection connection) {
+		neighbours.add(connection);
+		scheduleTriggered();
+	}
+
+	@Override
+	public synchronized void disconnected(Connection connection) {
+		neighbours.remove(connection);
+		lastSent.remove(connection);
+		if(adverts.remove(connection) != null) {
+			recompute();
+			scheduleTriggered();
+		}
+	}
+
+	/**
+	 * Procesa un anuncio INTEREST de un vecino. Sustituye al anterior de ese vecino.
+	 * @param payload Filtros de cada nivel en Base64, separados por comas; un nivel vacío no lleva texto
+	 */
+	public void onAdvert(Connection from, String payload) {
+		String[] texts = payload == null || payload.isEmpty() ? new String[0] : payload.split(",", -1);
+		BloomFilter[] levels = new BloomFilter[Math.min(texts.length, DEPTH)];
+		try {
+			for(int i = 0; i < levels.length; ++i) {
+				levels[i] = BloomFilter.decode(texts[i]);
+			}
+		} catch (IllegalArgumentException e) {
+			return;
+		}
+		synchronized (this) {
+			if(!neighbours.contains(from)) {
+				return;
+			}
+			Advert old = adverts.put(from, new Advert(levels, System.currentTimeMillis()));
+			// Si cambia lo que ofrece este vecino cambia lo que se anuncia a los demás
+			if(old == null || !Arrays.equals(old.levels, levels)) {
+				recompute();
+				scheduleTriggered();
+			}
+		}
+	}
+
+	//Metodos de anuncio
+
+	/**
+	 * Publica la unión de los niveles de cada vecino y su nivel 0, que es lo único que miran los envíos.
+	 */
+	private void recompute() {
+		Map<Connection, BloomFilter> newInterest = new HashMap<>();
+		Map<Connection, BloomFilter> newDirect = new HashMap<>();
+		for(Map.Entry<Connection, Advert> entry: adverts.entrySet()) {
+			BloomFilter[] levels = entry.getValue().levels;
+			newInterest.put(entry.getKey(), entry.getValue().any);
+			newDirect.put(entry.getKey(), levels.length > 0 ? levels[0] : new BloomFilter());
+		}
+		interest = Map.copyOf(newInterest);
+		direct = Map.copyOf(newDirect);
+	}
+
+	/**
+	 * Avisa de que el árbol de difusión ha cambiado. No toma el bloqueo de la tabla:
+	 * se llama con el del árbol tomado, y los anuncios toman los dos en el orden contrario.
+	 */
+	void treeChanged() {
+		scheduleTriggered();
+	}
+
+	private void scheduleTriggered() {
+		if(runStateChannels && triggeredScheduled.compareAndSet(false, true)) {
+			timer.schedule(() -> {
+				triggeredScheduled.set(false);
+				advertiseAll(false);
+			}, triggeredMillis);
+		}
+	}
+
+	private void periodicAdvert() {
+		if(!runStateChannels) {
+			return;
+		}
+		long staleBefore = System.currentTimeMillis() - 3 * advertMillis;
+		synchronized (this) {
+			// Un vecino que deja de anunciar pierde el interés que ofrecía
+			if(adverts.values().removeIf(advert -> advert.receivedAt < staleBefore)) {
+				recompute();
+			}
+		}
+		advertiseAll(true);
+		periodic = timer.schedule(this::periodicAdvert, advertMillis);
+	}
+
+	/**
+	 * Envía a cada vecino sus filtros: el interés de las ramas del árbol, sin la que lleva a él.
+	 * Los mensajes se preparan con la tabla bloqueada y se envían fuera del bloqueo.
+	 * @param always True para reenviar también los anuncios que no han cambiado, que caducan si no se refrescan
+	 */
+	private void advertiseAll(boolean always) {
+		Map<Connection, String> payloads = new HashMap<>();
+		synchronized (this) {
+			BloomFilter own = new BloomFilter();
+			for(String channel: subscriptions) {
+				own.add(channel);
+			}
+			for(Connection neighbour: neighbours) {
+				if(!neighbour.supportsChannels()) {
+					continue;
+				}
+				String payload = encodeFor(neighbour, own);
+				if(always || !payload.equals(lastSent.get(neighbour))) {
+					lastSent.put(neighbour, payload);
+					payloads.put(neighbour, payload);
+				}
+			}
+		}
+		for(Map.Entry<Connection, String> payload: payloads.entrySet()) {
+			payload.getKey().sendControl(Frame.FrameType.INTEREST, payload.getValue());
+		}
+	}
+
+	private String encodeFor(Connection neighbour, BloomFilter own) {
+		String[] levels = new String[DEPTH];
+		levels[0] = own.encode();
+		int used = levels[0].isEmpty() ? 0 : 1;
+		for(int level = 1; level < DEPTH; ++level) {
+			BloomFilter filter = new BloomFilter();
+			for(Map.Entry<Connection, Advert> entry: adverts.entrySet()) {
+				BloomFilter[] theirs = entry.getValue().levels;
+				if(entry.getKey() != neighbour && level - 1 < theirs.length && tree.isEager(entry.getKey())) {
+					filter.addAll(theirs[level - 1]);
+				}
+			}
+			levels[level] = filter.encode();
+			if(!levels[level].isEmpty()) {
+				used = level + 1;
+			}
+		}
+		// Los niveles vacíos del final no se envían
+		return String.join(",", Arrays.copyOf(levels, used));
+	}
+}
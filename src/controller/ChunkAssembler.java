@@ -0,0 +1,317 @@
+package controller;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import connections.Ipv4Address;
+import connections.TimerWheel;
+import view.Frame;
+
+/**
+ * Fragmentación y reensamblado de los mensajes grandes.
+ * Un mensaje de más de chunkSize caracteres sale en varios marcos CHUNK, cada uno con su propio
+ * identificador (así la detección de duplicados, las rutas y el árbol de difusión los tratan como
+ * mensajes normales) y una cabecera "transferencia:índice/total:" delante del texto.
+ * La transferencia es el identificador del primer fragmento.
+ * Los relays reenvían los fragmentos sin mirarlos; solo el destino los junta. Los fragmentos se guardan
+ * según llegan, en cualquier orden, y el mensaje se monta una sola vez cuando están todos.
+ * La memoria está acotada: cada mensaje por maxMessageChars y el conjunto de transferencias a medio
+ * reensamblar por reassemblyBufferChars, que cuenta el texto guardado y también la tabla de fragmentos
+ * de cada transferencia; para hacer sitio se abandonan las más antiguas, y un fragmento que no cabría
+ * ni con el búfer vacío se descarta junto con su transferencia.
+ * Las transferencias que dejan de recibir fragmentos durante chunkTimeoutMillis se abandonan.
+ */
+public class ChunkAssembler {
+
+	/**
+	 * Número máximo de fragmentos de un mensaje, para acotar la tabla de cada transferencia.
+	 */
+	public static final int MAX_CHUNKS = 1 << 16;
+
+	// Transferencias unicast completadas que se recuerdan para volver a confirmarlas si se reenvían
+	private static final int MAX_COMPLETED = 1000;
+
+	// Lo que se cuenta por cada casilla de la tabla de fragmentos, en caracteres: una referencia de 8 bytes
+	private static final int SLOT_CHARS = 4;
+
+	/**
+	 * Fragmentos recibidos de un mensaje.
+	 */
+	private static final class Transfer {
+		private final String sourceIp;
+		private final int sourceAddress;
+		private final boolean unicast;
+		private final String channel;
+		private final String[] parts;
+		private int received;
+		// Caracteres recibidos y memoria que se cuenta en el búfer: los caracteres más la tabla
+		private long chars;
+		private long bufferedChars;
+		private long lastChunkAt;
+
+		private Transfer(Frame frame, int total) {
+			this.sourceIp = frame.getSourceIP();
+			this.sourceAddress = frame.getSourceAddress();
+			this.unicast = frame.getTargetAddress() != Ipv4Address.BROADCAST;
+			this.channel = frame.getChannel();
+			this.parts = new String[total];
+			this.bufferedChars = (long) SLOT_CHARS * total;
+		}
+	}
+
+	private final MyP2P myP2P;
+	private final NodeConfig config;
+	private final LinkedHashMap<Long, Transfer> transfers;
+	private final LinkedHashMap<Long, Boolean> completedTransfers;
+	private long bufferedChars;
+	private TimerWheel timer;
+	private volatile TimerWheel.Timeout sweep;
+	private volatile boolean runStateAssembler;
+
+	//Contadores
+	private long completed;
+	private long abandoned;
+
+	public ChunkAssembler(MyP2P myP2P) {
+		this.myP2P = myP2P;
+		this.config = myP2P.getConfig();
+		this.transfers = new LinkedHashMap<>();
+		this.completedTransfers = new LinkedHashMap<>(16, 0.75f, false) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+				return size() > MAX_COMPLETED;
+			}
+		};
+	}
+
+	public void start(TimerWheel timer) {
+		this.timer = timer;
+		runStateAssembler = true;
+		sweep = timer.schedule(this::sweep, config.getChunkTimeoutMillis() / 2);
+	}
+
+	public void stop() {
+		runStateAssembler = false;
+		TimerWheel.Timeout sweep = this.sweep;
+		if(sweep != null) {
+			sweep.cancel();
+		}
+	}
+
+	//Metodos de fragmentacion
+
+	/**
+	 * Parte un mensaje en trozos de como mucho chunkSize caracteres, sin separar nunca
+	 * los dos caracteres de un par sustituto.
+	 * @return Los trozos en orden, o uno solo si el mensaje cabe entero
+	 */
+	public static List<String> split(String message, int chunkSize) {
+		List<String> parts = new ArrayList<>();
+		int start = 0;
+		while(start < message.length()) {
+			int end = Math.min(message.length(), start + chunkSize);
+			if(end < message.length() && end - start > 1 && Character.isHighSurrogate(message.charAt(end - 1))) {
+				--end;
+			}
+			parts.add(message.substring(start, end));
+			start = end;
+		}
+		return parts;
+	}
+
+	/**
+	 * Antepone a un trozo la cabecera del fragmento.
+	 * @param transferId Identificador del primer fragmento del mensaje
+	 */
+	public static String encode(long transferId, int index, int total, String part) {
+		return Long.toHexString(transferId) + ':' + index + '/' + total + ':' + part;
+	}
+
+	//Metodos de reensamblado
+
+	/**
+	 * Procesa un fragmento dirigido a este nodo. Cuando llega el último se entrega el mensaje completo.
+	 */
+	public void onChunk(Frame frame) {
+		String payload = frame.getPayload();
+		int colon = payload == null ? -1 : payload.indexOf(':');
+		int slash = colon < 0 ? -1 : payload.indexOf('/', colon);
+		int dataStart = slash < 0 ? -1 : payload.indexOf(':', slash);
+		if(dataStart < 0) {
+			return;
+		}
+		long transferId;
+		int index;
+		int total;
+		try {
+			transferId = Long.parseUnsignedLong(payload, 0, colon, 16);
+			index = Integer.parseInt(payload, colon + 1, slash, 10);
+			total = Integer.parseInt(payload, slash + 1, dataStart, 10);
+		} catch (NumberFormatException e) {
+			return;
+		}
+		if(total < 1 || total > MAX_CHUNKS || index < 0 || index >= total) {
+			return;
+		}
+		String part = payload.substring(dataStart + 1);
+		boolean acknowledge = false;
+		int sourceAddress = 0;
+
+		String message = null;
+		String sourceIp = null;
+		String channel = null;
+		synchronized (this) {
+			Transfer transfer = transfers.get(transferId);
+			if(transfer != null && (transfer.parts.length != total || transfer.parts[index] != null)) {
+				return;
+			}
+			String sender = transfer == null ? frame.getSourceIP() : transfer.sourceIp;
+			// Lo que ocupará la transferencia con este fragmento, tabla incluida si es nueva
+			long needed = (transfer == null ? (long) SLOT_CHARS * total : transfer.bufferedChars) + part.length();
+			if((transfer == null ? 0 : transfer.chars) + part.length() > config.getMaxMessageChars()) {
+				myP2P.getEventLog().warning("chunked_message_dropped", "peer", sender, "reason", "too_long");
+				drop(transferId, transfer);
+				return;
+			}
+			if(needed > config.getReassemblyBufferChars()) {
+				myP2P.getEventLog().warning("chunked_message_dropped", "peer", sender, "reason", "reassembly_buffer");
+				drop(transferId, transfer);
+				return;
+			}
+			// Se hace sitio abandonando las transferencias más antiguas; la propia ya cuenta en el búfer
+			long growth = needed - (transfer == null ? 0 : transfer.bufferedChars);
+			Iterator<Map.Entry<Long, Transfer>> oldest = transfers.entrySet().iterator();
+			while(bufferedChars + growth > config.getReassemblyBufferChars()) {
+				Map.Entry<Long, Transfer> victim = oldest.next();
+				if(victim.getKey() != transferId) {
+					oldest.remove();
+					bufferedChars -= victim.getValue().bufferedChars;
+					++abandoned;
+				}
+			}
+			if(transfer == null) {
+				transfer = new Transfer(frame, total);
+				transfers.put(transferId, transfer);
+				bufferedChars += transfer.bufferedChars;
+			}
+			transfer.parts[index] = part;
+			transfer.chars += part.length();
+			transfer.bufferedChars += part.length();
+			transfer.lastChunkAt = System.currentTimeMillis();
+			bufferedChars += part.length();
+			if(++transfer.received == total) {
+				transfers.remove(transferId);
+				bufferedChars -= transfer.bufferedChars;
+				++completed;
+				StringBuilder builder = new StringBuilder((int) transfer.chars);
+				for(String chunk: transfer.parts) {
+					builder.append(chunk);
+				}
+				message = builder.toString();
+				sourceIp = transfer.sourceIp;
+				channel = transfer.channel;
+				if(transfer.unicast) {
+					completedTransfers.put(transferId, Boolean.TRUE);
+					acknowledge = true;
+					sourceAddress = transfer.sourceAddress;
+				}
+			}
+		}
+		if(message != null) {
+			myP2P.pushMessage(sourceIp, transferId, channel, message);
+			if(acknowledge) {
+				myP2P.getStoreAndForward().acknowledge(sourceAddress, transferId);
+			}
+		}
+	}
+
+	/**
+	 * Comprueba si un fragmento repetido pertenece a una transferencia unicast ya entregada.
+	 * @return El identificador de la transferencia, o 0 si no se ha completado
+	 */
+	public synchronized long completedTransfer(Frame frame) {
+		String payload = frame.getPayload();
+		int colon = payload == null ? -1 : payload.indexOf(':');
+		if(colon <= 0) {
+			return 0;
+		}
+		try {
+			long transferId = Long.parseUnsignedLong(payload, 0, colon, 16);
+			return completedTransfers.containsKey(transferId) ? transferId : 0;
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Descarta un fragmento que no se puede guardar y, con él, su transferencia, que ya no se podría completar.
+	 * @param transfer La transferencia, o null si el fragmento era el primero que llegaba
+	 */
+	private void drop(long transferId, Transfer transfer) {
+		if(transfer != null) {
+			transfers.remove(transferId);
+			bufferedChars -= transfer.bufferedChars;
+		}
+		++abandoned;
+	}
+
+	/**
+	 * Barrido periódico: abandona las transferencias que han dejado de recibir fragmentos.
+	 */
+	private void sweep() {
+		if(!runStateAssembler) {
+			return;
+		}
+		long expiredBefore = System.currentTimeMillis() - config.getChunkTimeoutMillis();
+		synchronized (this) {
+			Iterator<Transfer> iterator = transfers.values().iterator();
+			while(iterator.hasNext()) {
+				Transfer transfer = iterator.next();
+				if(transfer.lastChunkAt < expiredBefore) {
+					myP2P.getEventLog().warning("chunked_message_expired", "peer", transfer.sourceIp,
+							"received", transfer.received, "total", transfer.parts.length);
+					iterator.remove();
+					bufferedChars -= transfer.bufferedChars;
+					++abandoned;
+				}
+			}
+		}
+		sweep = timer.schedule(this::sweep, config.getChunkTimeoutMillis() / 2);
+	}
+
+	//Contadores
+
+	/**
+	 * Mensajes fragmentados entregados completos.
+	 */
+	public synchronized long getCompleted() {
+		return completed;
+	}
+
+	/**
+	 * Transferencias abandonadas por caducar, por ser demasiado largas o por falta de memoria.
+	 */
+	public synchronized long getAbandoned() {
+		return abandoned;
+	}
+
+	/**
+	 * Transferencias a medio reensamblar.
+	 */
+	public synchronized int getPending() {
+		return transfers.size();
+	}
+
+	/**
+	 * Memoria ocupada por las transferencias a medio reensamblar, en caracteres: el texto guardado
+	 * y las tablas de fragmentos.
+	 */
+	public synchronized long getBufferedChars() {
+		return bufferedChars;
+	}
+}
@@ -0,0 +1,348 @@
+package controller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import connections.Connection;
+import connections.ConnectionStatus;
+
+/**
+ * API HTTP local para controlar un nodo sin vista. Solo escucha en la interfaz de loopback.
+ * POST /send?to=ip envía el cuerpo de la petición a un peer, o a todos con to=*; con channel=nombre, a un canal.
+ * GET /channels lista los canales suscritos; POST y DELETE /channels?name=nombre suscriben y dan de baja.
+ * GET /subscribe abre un flujo text/event-stream con un evento por mensaje recibido.
+ * GET /peers y GET /status devuelven en JSON los peers conocidos y el estado del nodo.
+ * Cada suscriptor ocupa un hilo mientras está conectado, así que se admiten como mucho MAX_SUBSCRIBERS;
+ * los mensajes les llegan por una cola acotada y, si un suscriptor no lee, se descartan los que no caben
+ * sin frenar la entrega del nodo.
+ */
+public class ControlServer {
+
+	/**
+	 * Suscriptores simultáneos a /subscribe.
+	 */
+	public static final int MAX_SUBSCRIBERS = 8;
+
+	// Mensajes que pueden esperar a un suscriptor lento antes de descartarse
+	private static final int SUBSCRIBER_QUEUE = 1024;
+	// Cada cuánto se envía un comentario a un suscriptor sin mensajes, para notar que se ha ido
+	private static final long KEEPALIVE_MILLIS = 15000;
+
+	/**
+	 * Suscriptor de /subscribe: encola los mensajes recibidos hasta que su hilo los escribe.
+	 */
+	private static final class Subscriber implements MessageListener {
+		private final BlockingQueue<String> events = new ArrayBlockingQueue<>(SUBSCRIBER_QUEUE);
+		private final LongAdder dropped = new LongAdder();
+
+		@Override
+		public void messageReceived(String sourceIp, long messageId, String message) {
+			offer("{\"from\":" + quote(sourceIp) + ",\"id\":\"" + Long.toHexString(messageId) + "\",\"message\":" + quote(message) + "}");
+		}
+
+		@Override
+		public void channelMessageReceived(String channel, String sourceIp, long messageId, String message) {
+			offer("{\"from\":" + quote(sourceIp) + ",\"channel\":" + quote(channel) + ",\"id\":\"" + Long.toHexString(messageId) + "\",\"message\":" + quote(message) + "}");
+		}
+
+		private void offer(String event) {
+			if(!events.offer(event)) {
+				dropped.increment();
+			}
+		}
+	}
+
+	private final MyP2P myP2P;
+	private final int port;
+	private final Semaphore subscribers;
+	private final long startedAt;
+	private HttpServer server;
+	private ExecutorService executor;
+
+	/**
+	 * @param myP2P Nodo a controlar
+	 * @param port Puerto local en el que escuchar
+	 */
+	public ControlServer(MyP2P myP2P, int port) {
+		this.myP2P = myP2P;
+		this.port = port;
+		this.subscribers = new Semaphore(MAX_SUBSCRIBERS);
+		this.startedAt = System.currentTimeMillis();
+	}
+
+	public void start() throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/send", this::send);
+		server.createContext("/subscribe", this::subscribe);
+		server.createContext("/channels", this::channels);
+		server.createContext("/peers", this::peers);
+		server.createContext("/status", this::status);
+		// Un hilo por suscriptor más dos para las peticiones cortas
+		AtomicInteger threads = new AtomicInteger();
+		executor = Executors.newFixedThreadPool(MAX_SUBSCRIBERS + 2, task -> {
+			Thread thread = new Thread(task, "control-api-" + threads.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		});
+		server.setExecutor(executor);
+		server.start();
+		myP2P.getEventLog().info("control_listening", "url", "http://" + server.getAddress().getHostString() + ":" + getPort());
+	}
+
+	public void stop() {
+		if(server != null) {
+			server.stop(0);
+			executor.shutdownNow();
+			server = null;
+		}
+	}
+
+	/**
+	 * Devuelve el puerto en el que escucha, útil si se arrancó en el puerto 0.
+	 */
+	public int getPort() {
+		return server == null ? port : server.getAddress().getPort();
+	}
+
+	//Metodos de la API
+
+	private void send(HttpExchange exchange) throws IOException {
+		try (exchange) {
+			if(!"POST".equals(exchange.getRequestMethod())) {
+				respond(exchange, 405, "{\"error\":\"use POST\"}");
+				return;
+			}
+			String to = queryParameter(exchange, "to");
+			String channel = queryParameter(exchange, "channel");
+			if(channel != null ? to != null || !ChannelTable.isValidChannel(channel) : to == null || !(to.equals("*") || MyP2P.isValidIp(to))) {
+				respond(exchange, 400, "{\"error\":\"use to=* or an IPv4 address, or channel=a valid channel name\"}");
+				return;
+			}
+			// El cuerpo no puede pasar del tamaño máximo de un mensaje: cada carácter ocupa como mucho 3 bytes en UTF-8
+			long maxBytes = 3L * myP2P.getConfig().getMaxMessageChars();
+			byte[] body;
+			try (InputStream in = exchange.getRequestBody()) {
+				body = in.readNBytes((int) Math.min(Integer.MAX_VALUE - 8, maxBytes + 1));
+			}
+			String message = new String(body, StandardCharsets.UTF_8);
+			if(message.isEmpty() || body.length > maxBytes || message.length() > myP2P.getConfig().getMaxMessageChars()) {
+				respond(exchange, 400, "{\"error\":\"the message must be between 1 and " + myP2P.getConfig().getMaxMessageChars() + " characters\"}");
+				return;
+			}
+			if(channel != null) {
+				myP2P.sendToChannel(channel, message);
+				respond(exchange, 202, "{\"channel\":" + quote(channel) + ",\"chars\":" + message.length() + "}");
+			} else {
+				myP2P.sendMessage(to, message);
+				respond(exchange, 202, "{\"to\":" + quote(to) + ",\"chars\":" + message.length() + "}");
+			}
+		}
+	}
+
+	private void subscribe(HttpExchange exchange) throws IOException {
+		try (exchange) {
+			if(!"GET".equals(exchange.getRequestMethod())) {
+				respond(exchange, 405, "{\"error\":\"use GET\"}");
+				return;
+			}
+			if(!subscribers.tryAcquire()) {
+				respond(exchange, 503, "{\"error\":\"too many subscribers\"}");
+				return;
+			}
+			Subscriber subscriber = new Subscriber();
+			myP2P.addMessageListener(subscriber);
+			try {
+				exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+				exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+				exchange.sendResponseHeaders(200, 0);
+				OutputStream out = exchange.getResponseBody();
+				long reported = 0;
+				while(!Thread.currentThread().isInterrupted()) {
+					String event = subscriber.events.poll(KEEPALIVE_MILLIS, TimeUnit.MILLISECONDS);
+					StringBuilder chunk = new StringBuilder();
+					long dropped = subscriber.dropped.sum();
+					if(dropped > reported) {
+						chunk.append("event: dropped\ndata: ").append(dropped - reported).append("\n\n");
+						reported = dropped;
+					}
+					if(event != null) {
+						chunk.append("data: ").append(event).append("\n\n");
+						// Lo que ya espera en la cola sale en la misma escritura
+						while(chunk.length() < 64 * 1024 && (event = subscriber.events.poll()) != null) {
+							chunk.append("data: ").append(event).append("\n\n");
+						}
+					} else if(chunk.length() == 0) {
+						chunk.append(": keepalive\n\n");
+					}
+					// Si el cliente se ha ido, la escritura falla y se sale
+					out.write(chunk.toString().getBytes(StandardCharsets.UTF_8));
+					out.flush();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (IOException ignored) {
+				// El suscriptor ha cerrado la conexión
+			} finally {
+				myP2P.removeMessageListener(subscriber);
+				subscribers.release();
+			}
+		}
+	}
+
+	private void channels(HttpExchange exchange) throws IOException {
+		try (exchange) {
+			ChannelTable channels = myP2P.getChannelTable();
+			String method = exchange.getRequestMethod();
+			if(!method.equals("GET")) {
+				String name = queryParameter(exchange, "name");
+				if(!ChannelTable.isValidChannel(name)) {
+					respond(exchange, 400, "{\"error\":\"name must be a valid channel name\"}");
+					return;
+				}
+				if(method.equals("POST")) {
+					channels.subscribe(name);
+				} else if(method.equals("DELETE")) {
+					channels.unsubscribe(name);
+				} else {
+					respond(exchange, 405, "{\"error\":\"use GET, POST or DELETE\"}");
+					return;
+				}
+			}
+			StringBuilder json = new StringBuilder("[");
+			for(String channel: channels.getSubscriptions()) {
+				if(json.length() > 1) {
+					json.append(',');
+				}
+				json.append(quote(channel));
+			}
+			respond(exchange, 200, json.append(']').toString());
+		}
+	}
+
+	private void peers(HttpExchange exchange) throws IOException {
+		try (exchange) {
+			if(!"GET".equals(exchange.getRequestMethod())) {
+				respond(exchange, 405, "{\"error\":\"use GET\"}");
+				return;
+			}
+			StringBuilder json = new StringBuilder("[");
+			for(Connection connection: myP2P.getPeersList()) {
+				if(json.length() > 1) {
+					json.append(',');
+				}
+				ConnectionStatus status = connection.getHealthStatus();
+				long rtt = connection.getSmoothedRttNanos();
+				json.append("{\"ip\":").append(quote(connection.getClientIp()))
+						.append(",\"connected\":").append(connection.isOk())
+						.append(",\"status\":").append(status == null ? "null" : quote(status.name()))
+						.append(",\"legacy\":").append(connection.isLegacyPeer())
+						.append(",\"rttMillis\":").append(rtt < 0 ? "null" : String.valueOf(rtt / 1e6))
+						.append(",\"queueDepth\":").append(connection.getQueueDepth())
+						.append('}');
+			}
+			json.append(']');
+			respond(exchange, 200, json.toString());
+		}
+	}
+
+	private void status(HttpExchange exchange) throws IOException {
+		try (exchange) {
+			if(!"GET".equals(exchange.getRequestMethod())) {
+				respond(exchange, 405, "{\"error\":\"use GET\"}");
+				return;
+			}
+			int connected = 0;
+			for(Connection connection: myP2P.getPeersList()) {
+				if(connection.isOk()) {
+					++connected;
+				}
+			}
+			String json = "{\"transport\":" + quote(myP2P.getConfig().getTransportMode().name())
+					+ ",\"tls\":" + (myP2P.getTlsContext() != null)
+					+ ",\"uptimeMillis\":" + (System.currentTimeMillis() - startedAt)
+					+ ",\"peers\":" + myP2P.getPeers().size()
+					+ ",\"connected\":" + connected
+					+ ",\"routes\":" + myP2P.getRoutingTable().getRoutes().size()
+					+ ",\"outboxPending\":" + myP2P.getStoreAndForward().getPending()
+					+ ",\"historySize\":" + myP2P.getHistorySync().getHistorySize()
+					+ ",\"seenCacheSize\":" + myP2P.getSeenMessages().size()
+					+ ",\"seenCacheHits\":" + myP2P.getSeenMessages().getHits()
+					+ ",\"seenCacheEvictions\":" + myP2P.getSeenMessages().getEvictions()
+					+ ",\"channels\":" + myP2P.getChannelTable().getSubscriptions().size()
+					+ ",\"channelFramesFiltered\":" + myP2P.getBroadcastTree().getFiltered()
+					+ ",\"subscribers\":" + (MAX_SUBSCRIBERS - subscribers.availablePermits())
+					+ (myP2P.getTlsContext() == null ? "" : ",\"tlsHandshakes\":" + myP2P.getTlsContext().getHandshakes()
+							+ ",\"tlsResumed\":" + myP2P.getTlsContext().getResumed()
+							+ ",\"tlsFailures\":" + myP2P.getTlsContext().getFailures())
+					+ ",\"heapUsedBytes\":" + (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory())
+					+ "}";
+			respond(exchange, 200, json);
+		}
+	}
+
+	//Metodos auxiliares
+
+	private static void respond(HttpExchange exchange, int code, String json) throws IOException {
+		byte[] body = json.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(code, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private static String queryParameter(HttpExchange exchange, String name) {
+		String query = exchange.getRequestURI().getRawQuery();
+		if(query == null) {
+			return null;
+		}
+		for(String pair: query.split("&")) {
+			int equals = pair.indexOf('=');
+			if(equals > 0 && pair.substring(0, equals).equals(name)) {
+				return URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Cadena JSON entre comillas, con los caracteres de control escapados.
+	 */
+	static String quote(String text) {
+		StringBuilder quoted = new StringBuilder(text.length() + 2).append('"');
+		for(int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+				case '"' -> quoted.append("\\\"");
+				case '\\' -> quoted.append("\\\\");
+				case '\n' -> quoted.append("\\n");
+				case '\r' -> quoted.append("\\r");
+				case '\t' -> quoted.append("\\t");
+				default -> {
+					if(c < 0x20) {
+						quoted.append(String.format("\\u%04x", (int) c));
+					} else {
+						quoted.append(c);
+					}
+				}
+			}
+		}
+		return quoted.append('"').toString();
+	}
+}
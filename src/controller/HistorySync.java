@@ -0,0 +1,313 @@
+package controller;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import connections.Connection;
+import connections.ConnectionListener;
+import view.Frame;
+
+/**
+ * Puesta al día de los mensajes a "*" al reconectar (anti-entropía).
+ * Cada nodo guarda los últimos historySize mensajes difundidos, agrupados por nodo de origen y ordenados
+ * por número de secuencia, y de cada origen las secuencias que ha visto: el prefijo contiguo desde la
+ * primera y, por encima, los huecos que le faltan hasta la más alta.
+ * Al conectar con un vecino ambos se envían un SYNC con ese resumen; cada uno contesta enviando
+ * directamente los mensajes que el otro no tiene: los que caen en sus huecos y los posteriores a su
+ * secuencia más alta. El coste es proporcional a los mensajes perdidos y no al historial.
+ * No todas las secuencias de un origen son difusiones (los mensajes directos y los fragmentos también
+ * las gastan), así que hay huecos que nadie puede llenar: de cada origen se recuerdan como mucho
+ * MAX_GAPS, y al pasar de ahí se da por perdido el más antiguo. Los identificadores de origen cambian
+ * en cada arranque, así que solo se recuerdan los MAX_ORIGINS orígenes vistos más recientemente. Los mensajes llegan como difusiones
+ * normales, así que el árbol los reparte después al resto de la zona que se quedó aislada.
+ * Los fragmentos no se guardan: un mensaje grande perdido no se recupera.
+ * Los mensajes de canal solo se envían a vecinos que entienden los canales; el árbol los filtra después.
+ */
+public class HistorySync implements ConnectionListener {
+
+	/**
+	 * Número máximo de orígenes que se recuerdan y, por tanto, que se anuncian en un SYNC.
+	 */
+	static final int MAX_ORIGINS = 1024;
+
+	/**
+	 * Número máximo de huecos que se recuerdan de cada origen.
+	 */
+	static final int MAX_GAPS = 16;
+
+	/**
+	 * Secuencias vistas de un origen: todas hasta prefix y, por encima, los tramos
+	 * [inicio, fin] recibidos, ordenados. Entre ellos quedan los huecos.
+	 */
+	static final class Marks {
+		private int prefix;
+		private final TreeMap<Integer, Integer> ranges = new TreeMap<>();
+
+		void add(int sequence) {
+			if(sequence <= prefix) {
+				return;
+			}
+			int start = sequence;
+			int end = sequence;
+			Map.Entry<Integer, Integer> below = ranges.floorEntry(sequence);
+			if(below != null && below.getValue() >= sequence - 1) {
+				if(below.getValue() >= sequence) {
+					return;
+				}
+				start = below.getKey();
+			}
+			Integer above = ranges.get(sequence + 1);
+			if(above != null) {
+				ranges.remove(sequence + 1);
+				end = above;
+			}
+			ranges.put(start, end);
+			// El primer tramo se une al prefijo si ya no queda hueco entre ellos,
+			// o si hay demasiados huecos y el más antiguo se da por perdido
+			while(!ranges.isEmpty() && (ranges.firstKey() == prefix + 1 || ranges.size() > MAX_GAPS)) {
+				prefix = ranges.pollFirstEntry().getValue();
+			}
+		}
+
+		int getPrefix() {
+			return prefix;
+		}
+
+		/**
+		 * @return La secuencia más alta vista
+		 */
+		int getHighest() {
+			return ranges.isEmpty() ? prefix : ranges.lastEntry().getValue();
+		}
+
+		/**
+		 * Escribe el resumen "prefijo[:más alta:inicio-fin...]" en hexadecimal, con los huecos
+		 * entre el prefijo y la secuencia más alta.
+		 */
+		void appendTo(StringBuilder payload) {
+			payload.append(Integer.toHexString(prefix));
+			if(ranges.isEmpty()) {
+				return;
+			}
+			payload.append(':').append(Integer.toHexString(getHighest()));
+			int gap = prefix + 1;
+			for(Map.Entry<Integer, Integer> range: ranges.entrySet()) {
+				payload.append(':').append(Integer.toHexString(gap)).append('-').append(Integer.toHexString(range.getKey() - 1));
+				gap = range.getValue() + 1;
+			}
+		}
+	}
+
+	private final int historySize;
+	private final int maxMessages;
+	private final Map<Integer, TreeMap<Integer, Frame>> history;
+	private final ArrayDeque<Long> order;
+	private final Map<Integer, Marks> marks;
+
+	//Contadores
+	private long sent;
+	private long syncs;
+
+	/**
+	 * @param historySize Mensajes difundidos que se guardan para los vecinos que reconectan
+	 * @param maxMessages Mensajes que como mucho se envían en respuesta a un SYNC
+	 */
+	public HistorySync(int historySize, int maxMessages) {
+		this.historySize = historySize;
+		this.maxMessages = maxMessages;
+		this.history = new HashMap<>();
+		this.order = new ArrayDeque<>();
+		// En orden de acceso: al pasar de MAX_ORIGINS se olvida el origen visto hace más tiempo
+		this.marks = new LinkedHashMap<>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, Marks> eldest) {
+				return size() > MAX_ORIGINS;
+			}
+		};
+	}
+
+	//Metodos del historial
+
+	/**
+	 * Guarda un mensaje difundido, propio o recibido por primera vez.
+	 */
+	public synchronized void record(Frame frame) {
+		if(frame.getMessageId() == 0 || historySize <= 0) {
+			return;
+		}
+		int origin = frame.getOriginId();
+		int sequence = frame.getSequence();
+		history.computeIfAbsent(origin, k -> new TreeMap<>()).put(sequence, frame);
+		order.add(frame.getMessageId());
+		marks.computeIfAbsent(origin, k -> new Marks()).add(sequence);
+		while(order.size() > historySize) {
+			long oldest = order.poll();
+			TreeMap<Integer, Frame> messages = history.get((int) (oldest >>> 32));
+			if(messages != null) {
+				messages.remove((int) oldest);
+				if(messages.isEmpty()) {
+					history.remove((int) (oldest >>> 32));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Recupera las secuencias de los mensajes guardados en el registro al arrancar, para que
+	 * los vecinos no vuelvan a enviar lo que ya se recibió antes de reiniciar. Solo cuentan las que
+	 * están en el registro: los huecos entre ellas se siguen pidiendo.
+	 */
+	public synchronized void seed(List<StoredMessage> messages) {
+		for(StoredMessage message: messages) {
+			long messageId = message.getMessageId();
+			if(messageId != 0) {
+				marks.computeIfAbsent((int) (messageId >>> 32), k -> new Marks()).add((int) messageId);
+			}
+		}
+	}
+
+	/**
+	 * Resume el historial: cada origen con su resumen de secuencias, en hexadecimal.
+	 */
+	synchronized String summary() {
+		StringBuilder payload = new StringBuilder();
+		for(Map.Entry<Integer, Marks> mark: marks.entrySet()) {
+			if(payload.length() > 0) {
+				payload.append(',');
+			}
+			payload.append(Integer.toHexString(mark.getKey())).append(':');
+			mark.getValue().appendTo(payload);
+		}
+		return payload.toString();
+	}
+
+	//Metodos de eventos
+
+	/**
+	 * El resumen sale en cuanto arranca el enlace con el vecino.
+	 */
+	@Override
+	public void linkStarted(Connection connection) {
+		if(!connection.isLegacyPeer()) {
+			connection.sendControl(Frame.FrameType.SYNC, summary());
+		}
+	}
+
+	@Override
+	public void disconnected(Connection connection) {}
+
+	/**
+	 * Procesa el SYNC de un vecino: le envía, en orden y de una vez, los mensajes guardados
+	 * que le faltan. Los orígenes que no conoce se le envían enteros.
+	 * @param payload Lista separada por comas de "origen:prefijo[:más alta:inicio-fin...]";
+	 * los nodos anteriores solo envían "origen:secuencia", que equivale a un prefijo sin huecos
+	 */
+	public void onSync(Connection from, String payload) {
+		List<Frame> missing = missing(payload, from.supportsChannels());
+		for(Frame frame: missing) {
+			from.sendFrame(frame);
+		}
+	}
+
+	/**
+	 * Mensajes guardados que faltan a un vecino según su resumen, como mucho maxMessages.
+	 */
+	synchronized List<Frame> missing(String payload, boolean supportsChannels) {
+		Map<Integer, List<int[]>> theirs = parse(payload);
+		List<Frame> missing = new ArrayList<>();
+		for(Map.Entry<Integer, TreeMap<Integer, Frame>> origin: history.entrySet()) {
+			List<int[]> wanted = theirs.get(origin.getKey());
+			if(wanted == null) {
+				addAll(missing, origin.getValue().values(), supportsChannels);
+				continue;
+			}
+			for(int[] range: wanted) {
+				if(range[0] > range[1]) {
+					continue;
+				}
+				Map<Integer, Frame> frames = range[1] == Integer.MAX_VALUE
+						? origin.getValue().tailMap(range[0], true)
+						: origin.getValue().subMap(range[0], true, range[1], true);
+				addAll(missing, frames.values(), supportsChannels);
+			}
+		}
+		++syncs;
+		sent += missing.size();
+		return missing;
+	}
+
+	private void addAll(List<Frame> missing, Iterable<Frame> frames, boolean supportsChannels) {
+		for(Frame frame: frames) {
+			if(missing.size() >= maxMessages) {
+				return;
+			}
+			if(frame.getChannel() != null && !supportsChannels) {
+				continue;
+			}
+			missing.add(frame);
+		}
+	}
+
+	/**
+	 * Lee el resumen de un vecino como los tramos [inicio, fin] de secuencias que le faltan de cada origen:
+	 * sus huecos y lo posterior a su secuencia más alta. Las entradas mal formadas se ignoran, de modo
+	 * que ese origen se envía entero.
+	 */
+	private static Map<Integer, List<int[]>> parse(String payload) {
+		Map<Integer, List<int[]>> theirs = new HashMap<>();
+		if(payload == null || payload.isEmpty()) {
+			return theirs;
+		}
+		for(String entry: payload.split(",")) {
+			String[] fields = entry.split(":");
+			if(fields.length < 2) {
+				continue;
+			}
+			try {
+				int origin = Integer.parseUnsignedInt(fields[0], 16);
+				int prefix = Integer.parseUnsignedInt(fields[1], 16);
+				int highest = fields.length > 2 ? Integer.parseUnsignedInt(fields[2], 16) : prefix;
+				List<int[]> wanted = new ArrayList<>();
+				for(int i = 3; i < fields.length; ++i) {
+					int dash = fields[i].indexOf('-');
+					wanted.add(new int[]{Integer.parseUnsignedInt(fields[i], 0, dash, 16), Integer.parseUnsignedInt(fields[i], dash + 1, fields[i].length(), 16)});
+				}
+				if(highest < Integer.MAX_VALUE) {
+					wanted.add(new int[]{highest + 1, Integer.MAX_VALUE});
+				}
+				theirs.put(origin, wanted);
+			} catch (NumberFormatException | IndexOutOfBoundsException ignored) {}
+		}
+		return theirs;
+	}
+
+	//Contadores
+
+	/**
+	 * Mensajes enviados a vecinos que se estaban poniendo al día.
+	 */
+	public synchronized long getSent() {
+		return sent;
+	}
+
+	/**
+	 * SYNC recibidos y contestados.
+	 */
+	public synchronized long getSyncs() {
+		return syncs;
+	}
+
+	/**
+	 * Mensajes difundidos guardados en el historial.
+	 */
+	public synchronized int getHistorySize() {
+		return order.size();
+	}
+}
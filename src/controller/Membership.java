@@ -0,0 +1,212 @@
+package controller;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import connections.Connection;
+import connections.Ipv4Address;
+import connections.TimerWheel;
+import view.Frame;
+
+/**
+ * Descubrimiento de peers por gossip.
+ * Cada ronda se elige un vecino conectado al azar y se le envía (push) una muestra acotada
+ * de los peers conocidos; el vecino contesta (pull) con una muestra suya. Con este intercambio
+ * push-pull un peer nuevo queda conocido por toda la malla en O(log N) rondas.
+ * Cada nodo mantiene una vista parcial: como mucho activeViewSize peers a los que intenta
+ * conectar (los que están en el registro) y una vista pasiva de direcciones de reserva,
+ * de la que se promociona un peer cuando falta alguno en la vista activa.
+ */
+public class Membership {
+
+	private final MyP2P myP2P;
+	private final NodeConfig config;
+	private final Set<String> seeds;
+	private final List<String> passive;
+	private final Set<String> passiveSet;
+	private final Map<String, Long> promotedAt;
+	private TimerWheel timer;
+	private volatile TimerWheel.Timeout round;
+	private volatile boolean runStateMembership;
+
+	/**
+	 * @param myP2P Nodo al que pertenece la vista
+	 * @param seeds Peers de arranque, que nunca salen de la vista activa
+	 */
+	public Membership(MyP2P myP2P, Set<String> seeds) {
+		this.myP2P = myP2P;
+		this.config = myP2P.getConfig();
+		this.seeds = Set.copyOf(seeds);
+		this.passive = new ArrayList<>();
+		this.passiveSet = new HashSet<>();
+		this.promotedAt = new HashMap<>();
+	}
+
+	public void start(TimerWheel timer) {
+		this.timer = timer;
+		runStateMembership = true;
+		round = timer.schedule(this::round, config.getGossipIntervalMillis());
+	}
+
+	public void stop() {
+		runStateMembership = false;
+		TimerWheel.Timeout round = this.round;
+		if(round != null) {
+			round.cancel();
+		}
+	}
+
+	//Metodos de gossip
+
+	/**
+	 * Ronda periódica: push a un vecino al azar y mantenimiento de la vista activa.
+	 */
+	private void round() {
+		if(!runStateMembership) {
+			return;
+		}
+		List<Connection> connected = connectedPeers();
+		if(!connected.isEmpty()) {
+			Connection target = connected.get(ThreadLocalRandom.current().nextInt(connected.size()));
+			target.sendControl(Frame.FrameType.GOSSIP, "P " + sample(target.getClientIp()));
+		}
+		maintainActiveView();
+		round = timer.schedule(this::round, config.getGossipIntervalMillis());
+	}
+
+	/**
+	 * Procesa un marco GOSSIP de un vecino: añade las direcciones nuevas a la vista pasiva
+	 * y, si era un push, le contesta con una muestra propia.
+	 * @param from Conexión del vecino
+	 * @param payload "P" (push) o "R" (respuesta), un espacio y la lista de ips separada por comas
+	 */
+	public void onGossip(Connection from, String payload) {
+		if(payload == null || payload.length() < 2) {
+			return;
+		}
+		// La respuesta se prepara antes de mezclar, para no devolverle sus propias direcciones
+		String reply = payload.charAt(0) == 'P' ? "R " + sample(from.getClientIp()) : null;
+		Set<Integer> localAddresses = new HashSet<>();
+		for(Connection connection: connectedPeers()) {
+			localAddresses.add(connection.getLocalAddress());
+		}
+		synchronized (this) {
+			for(String ip: payload.substring(2).split(",")) {
+				if(Ipv4Address.isValid(ip) && !localAddresses.contains(Ipv4Address.parse(ip))
+						&& myP2P.getPeers().get(ip) == null) {
+					addPassive(ip);
+				}
+			}
+		}
+		if(reply != null) {
+			from.sendControl(Frame.FrameType.GOSSIP, reply);
+		}
+		maintainActiveView();
+	}
+
+	/**
+	 * Devuelve una muestra aleatoria de como mucho gossipSampleSize peers conocidos,
+	 * primero de la vista activa y después de la pasiva.
+	 * @param exclude Peer al que va la muestra, que no se incluye
+	 */
+	private String sample(String exclude) {
+		List<String> candidates = new ArrayList<>();
+		for(Connection connection: myP2P.getPeersList()) {
+			if(connection.isOk() && !connection.getClientIp().equals(exclude)) {
+				candidates.add(connection.getClientIp());
+			}
+		}
+		synchronized (this) {
+			candidates.addAll(passive);
+		}
+		candidates.remove(exclude);
+		// Fisher-Yates parcial: solo se barajan las posiciones que se envían
+		int size = Math.min(config.getGossipSampleSize(), candidates.size());
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		for(int i = 0; i < size; ++i) {
+			int j = i + random.nextInt(candidates.size() - i);
+			String swap = candidates.get(i);
+			candidates.set(i, candidates.get(j));
+			candidates.set(j, swap);
+		}
+		return String.join(",", candidates.subList(0, size));
+	}
+
+	//Metodos de la vista parcial
+
+	/**
+	 * Saca de la vista activa los peers promocionados que no han llegado a conectar
+	 * y promociona peers de la vista pasiva hasta llenar activeViewSize.
+	 * Los peers de arranque nunca salen de la vista activa.
+	 */
+	private void maintainActiveView() {
+		long now = System.currentTimeMillis();
+		List<String> promoted = new ArrayList<>();
+		synchronized (this) {
+			for(Connection connection: myP2P.getPeersList()) {
+				String ip = connection.getClientIp();
+				Long since = promotedAt.get(ip);
+				if(connection.isOk()) {
+					promotedAt.remove(ip);
+				} else if(!seeds.contains(ip) && now - Math.max(since == null ? 0 : since, connection.getTimeReceivedMessage()) > config.getPeerEvictMillis()) {
+					// Caído desde hace tiempo: vuelve a la reserva y deja sitio a otro
+					myP2P.getPeers().remove(ip);
+					promotedAt.remove(ip);
+					addPassive(ip);
+				}
+			}
+			while(myP2P.getPeers().size() + promoted.size() < config.getActiveViewSize() && !passive.isEmpty()) {
+				String ip = passive.remove(ThreadLocalRandom.current().nextInt(passive.size()));
+				passiveSet.remove(ip);
+				if(myP2P.getPeers().get(ip) == null) {
+					promotedAt.put(ip, now);
+					promoted.add(ip);
+				}
+			}
+		}
+		// El servicio de reconexión se encarga de conectar con los peers añadidos al registro
+		for(String ip: promoted) {
+			myP2P.addPeer(ip);
+		}
+	}
+
+	/**
+	 * Añade una dirección a la vista pasiva. Si está llena se sustituye una al azar,
+	 * para que la reserva no se quede con las direcciones más antiguas.
+	 */
+	private void addPassive(String ip) {
+		if(passiveSet.contains(ip)) {
+			return;
+		}
+		if(passive.size() >= config.getPassiveViewSize()) {
+			int victim = ThreadLocalRandom.current().nextInt(passive.size());
+			passiveSet.remove(passive.get(victim));
+			passive.set(victim, ip);
+		} else {
+			passive.add(ip);
+		}
+		passiveSet.add(ip);
+	}
+
+	private List<Connection> connectedPeers() {
+		List<Connection> connected = new ArrayList<>();
+		for(Connection connection: myP2P.getPeersList()) {
+			if(connection.isOk() && !connection.isLegacyPeer()) {
+				connected.add(connection);
+			}
+		}
+		return connected;
+	}
+
+	/**
+	 * Devuelve una copia de la vista pasiva.
+	 */
+	public synchronized List<String> getPassiveView() {
+		return List.copyOf(passive);
+	}
+}
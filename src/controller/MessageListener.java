@@ -0,0 +1,33 @@
+package controller;
+
+/**
+ * Recibe los mensajes entregados a este nodo, ya reensamblados si venían fragmentados.
+ * Es la única forma en la que el controlador avisa a quien lo usa: la vista, la API de control,
+ * simulaciones o pruebas de carga.
+ */
+public interface MessageListener {
+
+	/**
+	 * Se invoca en el hilo que entrega el mensaje (el de la conexión), así que debe volver rápido.
+	 * @param sourceIp IP del nodo que originó el mensaje
+	 * @param messageId Identificador del mensaje en la malla, 0 si no tiene
+	 * @param message Texto del mensaje
+	 */
+	void messageReceived(String sourceIp, long messageId, String message);
+
+	/**
+	 * Mensaje recibido en un canal al que está suscrito este nodo. Por defecto se trata como cualquier otro.
+	 * @param channel Canal del mensaje
+	 */
+	default void channelMessageReceived(String channel, String sourceIp, long messageId, String message) {
+		messageReceived(sourceIp, messageId, message);
+	}
+
+	/**
+	 * Mensaje enviado por este nodo. Solo se invoca al repetir el registro persistente con MyP2P.replay.
+	 * @param targetIp Destino del mensaje, "*" si fue una difusión
+	 * @param messageId Identificador del mensaje en la malla, 0 si no tiene
+	 * @param message Texto del mensaje
+	 */
+	default void messageSent(String targetIp, long messageId, String message) {}
+}
@@ -0,0 +1,532 @@
+package controller;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import connections.Ipv4Address;
+
+/**
+ * Registro persistente de los mensajes enviados y recibidos, solo de añadir.
+ * Los mensajes se escriben en segmentos de como mucho segmentBytes bytes; al llenarse uno se abre el
+ * siguiente. Cada registro es binario: longitud, marca de tiempo, sentido, peer, identificador,
+ * el texto en UTF-8 y un CRC32. Junto a cada segmento hay un índice proyectado en memoria con la marca
+ * de tiempo, el peer y la posición de cada registro, así que recuperar los últimos N mensajes (de todos
+ * o de un peer) solo lee del disco esos N registros.
+ * Al arrancar se comprueba el final del último segmento: lo que quedó a medio escribir se trunca y los
+ * registros completos que no llegaron al índice se indexan.
+ * En segundo plano se borran los segmentos más antiguos que superan la retención (por tamaño total o por
+ * antigüedad) y el más antiguo de los que quedan se reescribe sin sus registros caducados.
+ */
+public class MessageStore {
+
+	private static final int INDEX_MAGIC = 0x50325049;
+	private static final int INDEX_HEADER = 16;
+	private static final int INDEX_ENTRY = 16;
+	// Marca de tiempo, sentido, peer e identificador
+	private static final int RECORD_HEADER = 8 + 1 + 4 + 8;
+	// Tamaño medio de registro previsto al dimensionar el índice; si se llena antes, el segmento rota
+	private static final int BYTES_PER_INDEX_ENTRY = 64;
+
+	/**
+	 * Fichero de registros y su índice.
+	 */
+	private static final class Segment {
+		private final long number;
+		private final Path log;
+		private final Path index;
+		private FileChannel channel;
+		private MappedByteBuffer entries;
+		private long size;
+		private int count;
+		private long firstTimestamp;
+		private long lastTimestamp;
+
+		private Segment(Path directory, long number, String suffix) {
+			this.number = number;
+			this.log = directory.resolve(String.format("%020d.log", number) + suffix);
+			this.index = directory.resolve(String.format("%020d.idx", number) + suffix);
+		}
+	}
+
+	private final MyP2P myP2P;
+	private final Path directory;
+	private final int segmentBytes;
+	private final long retentionBytes;
+	private final long retentionMillis;
+	private final List<Segment> segments;
+	// Las compactaciones no se solapan: una rotación durante una compactación programa la siguiente
+	private final Object compactionLock = new Object();
+	private Segment active;
+	private boolean compactionScheduled;
+	private boolean failed;
+
+	/**
+	 * @param myP2P Nodo en cuyo ejecutor se hace la compactación
+	 * @param directory Directorio de los segmentos; se crea si no existe
+	 */
+	public MessageStore(MyP2P myP2P, Path directory) {
+		NodeConfig config = myP2P.getConfig();
+		this.myP2P = myP2P;
+		this.directory = directory;
+		this.segmentBytes = config.getSegmentBytes();
+		this.retentionBytes = config.getRetentionBytes();
+		this.retentionMillis = config.getRetentionMillis();
+		this.segments = new ArrayList<>();
+	}
+
+	//Metodos de apertura y cierre
+
+	/**
+	 * Carga los segmentos existentes, repara el último y lo deja abierto para seguir escribiendo.
+	 */
+	public synchronized void open() throws IOException {
+		Files.createDirectories(directory);
+		List<Path> logs = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.log")) {
+			for(Path file: files) {
+				logs.add(file);
+			}
+		}
+		logs.sort(null);
+		for(Path log: logs) {
+			String name = log.getFileName().toString();
+			try {
+				Segment segment = new Segment(directory, Long.parseLong(name.substring(0, name.length() - 4)), "");
+				if(Files.exists(segment.index)) {
+					segments.add(segment);
+				}
+			} catch (NumberFormatException ignored) {}
+		}
+		for(Segment segment: segments) {
+			segment.size = Files.size(segment.log);
+			ByteBuffer index = readIndex(segment);
+			segment.count = indexedCount(index);
+			if(segment.count > 0) {
+				segment.firstTimestamp = index.getLong(INDEX_HEADER);
+				segment.lastTimestamp = index.getLong(INDEX_HEADER + (segment.count - 1) * INDEX_ENTRY);
+			}
+		}
+		if(segments.isEmpty()) {
+			active = create(0);
+		} else {
+			active = segments.get(segments.size() - 1);
+			openWritable(active);
+			recover(active);
+		}
+		scheduleCompaction();
+	}
+
+	public synchronized void close() {
+		if(active != null) {
+			seal(active);
+			active = null;
+		}
+	}
+
+	private Segment create(long number) throws IOException {
+		Segment segment = new Segment(directory, number, "");
+		openWritable(segment);
+		segments.add(segment);
+		return segment;
+	}
+
+	private void openWritable(Segment segment) throws IOException {
+		segment.channel = FileChannel.open(segment.log, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ);
+		segment.channel.position(segment.channel.size());
+		segment.size = segment.channel.size();
+		int capacity = Math.max(1, segmentBytes / BYTES_PER_INDEX_ENTRY);
+		try (FileChannel index = FileChannel.open(segment.index, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+			segment.entries = index.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER + (long) capacity * INDEX_ENTRY);
+		}
+		if(segment.entries.getInt(0) != INDEX_MAGIC) {
+			segment.entries.putInt(0, INDEX_MAGIC);
+			segment.entries.putInt(4, 0);
+		}
+		segment.count = indexedCount(segment.entries);
+	}
+
+	private void seal(Segment segment) {
+		try {
+			segment.entries.force();
+			segment.channel.close();
+		} catch (IOException e) {
+			myP2P.getEventLog().warning("store_seal_failed", "segment", segment.log.getFileName(), "error", e);
+		}
+		segment.entries = null;
+		segment.channel = null;
+	}
+
+	/**
+	 * Revisa los registros posteriores al último indexado: indexa los completos
+	 * y trunca el segmento en el primero dañado o a medio escribir.
+	 */
+	private void recover(Segment segment) throws IOException {
+		long position = 0;
+		if(segment.count > 0) {
+			position = segment.entries.getInt(INDEX_HEADER + (segment.count - 1) * INDEX_ENTRY + 12);
+			position += recordLength(segment.channel, position);
+		}
+		int recovered = 0;
+		while(position < segment.size) {
+			int length = recordLength(segment.channel, position);
+			StoredMessage message = length < 0 || position + length > segment.size ? null : read(segment.channel, position);
+			if(message == null || segment.count >= indexCapacity(segment)) {
+				myP2P.getEventLog().warning("store_truncated", "segment", segment.log.getFileName(), "position", position);
+				segment.channel.truncate(position);
+				segment.size = position;
+				break;
+			}
+			addEntry(segment, message.getTimestamp(), message.getPeerAddress(), (int) position);
+			position += length;
+			++recovered;
+		}
+		if(recovered > 0) {
+			myP2P.getEventLog().info("store_recovered", "segment", segment.log.getFileName(), "messages", recovered);
+		}
+	}
+
+	//Metodos de escritura
+
+	/**
+	 * Añade un mensaje al registro. Los errores de disco se informan una vez y el registro queda desactivado,
+	 * sin afectar al chat.
+	 * @param outgoing True si lo envía este nodo
+	 * @param peerAddress Peer de origen, o destino si se envía, empaquetado
+	 * @param messageId Identificador del mensaje, 0 si no tiene
+	 * @param text Texto del mensaje
+	 */
+	public synchronized void append(boolean outgoing, int peerAddress, long messageId, String text) {
+		if(failed || active == null) {
+			return;
+		}
+		long timestamp = System.currentTimeMillis();
+		byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer record = ByteBuffer.allocate(4 + RECORD_HEADER + payload.length + 4);
+		record.putInt(RECORD_HEADER + payload.length);
+		record.putLong(timestamp);
+		record.put((byte) (outgoing ? 1 : 0));
+		record.putInt(peerAddress);
+		record.putLong(messageId);
+		record.put(payload);
+		CRC32 crc = new CRC32();
+		crc.update(record.array(), 4, RECORD_HEADER + payload.length);
+		record.putInt((int) crc.getValue());
+		record.flip();
+		try {
+			if(active.count > 0 && (active.size + record.remaining() > segmentBytes || active.count >= indexCapacity(active))) {
+				roll();
+			}
+			long position = active.size;
+			while(record.hasRemaining()) {
+				active.channel.write(record);
+			}
+			active.size += record.limit();
+			// El índice se escribe después del registro: una entrada siempre apunta a un registro completo
+			addEntry(active, timestamp, peerAddress, (int) position);
+		} catch (IOException e) {
+			failed = true;
+			myP2P.getEventLog().warning("store_disabled", "error", e);
+		}
+	}
+
+	private static void addEntry(Segment segment, long timestamp, int peerAddress, int position) {
+		int offset = INDEX_HEADER + segment.count * INDEX_ENTRY;
+		segment.entries.putLong(offset, timestamp);
+		segment.entries.putInt(offset + 8, peerAddress);
+		segment.entries.putInt(offset + 12, position);
+		if(segment.count == 0) {
+			segment.firstTimestamp = timestamp;
+		}
+		segment.lastTimestamp = timestamp;
+		segment.entries.putInt(4, ++segment.count);
+	}
+
+	private static int indexCapacity(Segment segment) {
+		return (segment.entries.capacity() - INDEX_HEADER) / INDEX_ENTRY;
+	}
+
+	private void roll() throws IOException {
+		seal(active);
+		active = create(active.number + 1);
+		scheduleCompaction();
+	}
+
+	//Metodos de consulta
+
+	/**
+	 * Devuelve los últimos mensajes, del más antiguo al más reciente.
+	 * @param limit Número máximo de mensajes
+	 */
+	public List<StoredMessage> last(int limit) {
+		return query(Long.MIN_VALUE, false, 0, limit);
+	}
+
+	/**
+	 * Devuelve los últimos mensajes intercambiados con un peer, del más antiguo al más reciente.
+	 * @param ip IP del peer, o "*" para las difusiones enviadas
+	 * @param limit Número máximo de mensajes
+	 */
+	public List<StoredMessage> last(String ip, int limit) {
+		return query(Long.MIN_VALUE, true, Ipv4Address.parse(ip), limit);
+	}
+
+	/**
+	 * Devuelve los mensajes guardados desde un momento dado, como mucho los limit más recientes,
+	 * del más antiguo al más reciente.
+	 * @param timestamp Marca de tiempo en milisegundos
+	 */
+	public List<StoredMessage> since(long timestamp, int limit) {
+		return query(timestamp, false, 0, limit);
+	}
+
+	/**
+	 * Recorre los índices del segmento más reciente al más antiguo y solo lee los registros elegidos.
+	 */
+	private synchronized List<StoredMessage> query(long since, boolean filterPeer, int peerAddress, int limit) {
+		ArrayDeque<StoredMessage> result = new ArrayDeque<>();
+		try {
+			for(int s = segments.size() - 1; s >= 0 && result.size() < limit; --s) {
+				Segment segment = segments.get(s);
+				if(segment.count == 0) {
+					continue;
+				}
+				if(segment.lastTimestamp < since) {
+					break;
+				}
+				ByteBuffer index = segment.entries != null ? segment.entries : readIndex(segment);
+				FileChannel channel = segment.channel != null ? segment.channel : FileChannel.open(segment.log, StandardOpenOption.READ);
+				try {
+					for(int i = segment.count - 1; i >= 0 && result.size() < limit; --i) {
+						int offset = INDEX_HEADER + i * INDEX_ENTRY;
+						if(index.getLong(offset) < since) {
+							return List.copyOf(result);
+						}
+						if(filterPeer && index.getInt(offset + 8) != peerAddress) {
+							continue;
+						}
+						StoredMessage message = read(channel, index.getInt(offset + 12));
+						if(message != null) {
+							result.addFirst(message);
+						}
+					}
+				} finally {
+					if(channel != segment.channel) {
+						channel.close();
+					}
+				}
+			}
+		} catch (IOException e) {
+			myP2P.getEventLog().warning("store_read_failed", "error", e);
+		}
+		return List.copyOf(result);
+	}
+
+	/**
+	 * @return Entradas de un índice leído de disco, sin contar las que no llegaron a escribirse
+	 * si el fichero quedó vacío o cortado
+	 */
+	private static int indexedCount(ByteBuffer index) {
+		if(index.capacity() < INDEX_HEADER || index.getInt(0) != INDEX_MAGIC) {
+			return 0;
+		}
+		return Math.max(0, Math.min(index.getInt(4), (index.capacity() - INDEX_HEADER) / INDEX_ENTRY));
+	}
+
+	private static ByteBuffer readIndex(Segment segment) throws IOException {
+		try (FileChannel index = FileChannel.open(segment.index, StandardOpenOption.READ)) {
+			return index.map(FileChannel.MapMode.READ_ONLY, 0, index.size());
+		}
+	}
+
+	/**
+	 * @return Longitud total del registro en la posición dada, o -1 si no se puede leer
+	 */
+	private static int recordLength(FileChannel channel, long position) throws IOException {
+		ByteBuffer length = ByteBuffer.allocate(4);
+		while(length.hasRemaining()) {
+			if(channel.read(length, position + length.position()) < 0) {
+				return -1;
+			}
+		}
+		int body = length.getInt(0);
+		return body < RECORD_HEADER ? -1 : 4 + body + 4;
+	}
+
+	/**
+	 * Lee y comprueba el registro de una posición.
+	 * @return El mensaje, o null si el registro está incompleto o dañado
+	 */
+	private static StoredMessage read(FileChannel channel, long position) throws IOException {
+		int length = recordLength(channel, position);
+		if(length < 0) {
+			return null;
+		}
+		ByteBuffer record = ByteBuffer.allocate(length - 4);
+		while(record.hasRemaining()) {
+			if(channel.read(record, position + 4 + record.position()) < 0) {
+				return null;
+			}
+		}
+		record.flip();
+		int body = length - 8;
+		CRC32 crc = new CRC32();
+		crc.update(record.array(), 0, body);
+		if((int) crc.getValue() != record.getInt(body)) {
+			return null;
+		}
+		long timestamp = record.getLong();
+		boolean outgoing = record.get() != 0;
+		int peerAddress = record.getInt();
+		long messageId = record.getLong();
+		String text = new String(record.array(), RECORD_HEADER, body - RECORD_HEADER, StandardCharsets.UTF_8);
+		return new StoredMessage(timestamp, outgoing, peerAddress, messageId, text);
+	}
+
+	//Metodos de retencion y compactacion
+
+	private synchronized void scheduleCompaction() {
+		if(!compactionScheduled) {
+			compactionScheduled = true;
+			myP2P.submit(this::compact);
+		}
+	}
+
+	/**
+	 * Aplica la retención a los segmentos cerrados, del más antiguo al más reciente:
+	 * borra los que están enteros fuera de ella y reescribe el primero que solo lo está en parte.
+	 * El segmento activo nunca se toca.
+	 */
+	private void compact() {
+		synchronized (compactionLock) {
+			long cutoff = System.currentTimeMillis() - retentionMillis;
+			List<Segment> sealed;
+			long total = 0;
+			synchronized (this) {
+				compactionScheduled = false;
+				sealed = new ArrayList<>(segments);
+				sealed.remove(active);
+				for(Segment segment: segments) {
+					total += segment.size;
+				}
+			}
+			for(Segment segment: sealed) {
+				if(total > retentionBytes || segment.count == 0 || segment.lastTimestamp < cutoff) {
+					synchronized (this) {
+						segments.remove(segment);
+					}
+					total -= segment.size;
+					deleteQuietly(segment.log);
+					deleteQuietly(segment.index);
+					continue;
+				}
+				if(segment.firstTimestamp < cutoff) {
+					rewrite(segment, cutoff);
+				}
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Reescribe un segmento cerrado sin los registros anteriores a cutoff. Se escribe aparte
+	 * y se sustituye al final con el registro bloqueado, así las consultas nunca ven un segmento a medias.
+	 */
+	private void rewrite(Segment segment, long cutoff) {
+		Segment compacted = new Segment(directory, segment.number, ".compact");
+		try {
+			deleteQuietly(compacted.log);
+			deleteQuietly(compacted.index);
+			openWritable(compacted);
+			ByteBuffer index = readIndex(segment);
+			int damaged = 0;
+			try (FileChannel channel = FileChannel.open(segment.log, StandardOpenOption.READ)) {
+				for(int i = 0; i < segment.count; ++i) {
+					int offset = INDEX_HEADER + i * INDEX_ENTRY;
+					long timestamp = index.getLong(offset);
+					if(timestamp < cutoff) {
+						continue;
+					}
+					int position = index.getInt(offset + 12);
+					int length = recordLength(channel, position);
+					ByteBuffer record = length < 0 ? null : ByteBuffer.allocate(length);
+					while(record != null && record.hasRemaining()) {
+						if(channel.read(record, position + record.position()) < 0) {
+							record = null;
+						}
+					}
+					if(record == null) {
+						// Registro dañado o cortado: las consultas ya lo saltan, la compactación lo descarta
+						++damaged;
+						continue;
+					}
+					record.flip();
+					long newPosition = compacted.size;
+					while(record.hasRemaining()) {
+						compacted.channel.write(record);
+					}
+					compacted.size += length;
+					addEntry(compacted, timestamp, index.getInt(offset + 8), (int) newPosition);
+				}
+			}
+			if(damaged > 0) {
+				myP2P.getEventLog().warning("store_damaged_records", "segment", segment.log.getFileName(), "dropped", damaged);
+			}
+			seal(compacted);
+			synchronized (this) {
+				Files.move(compacted.log, segment.log, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				Files.move(compacted.index, segment.index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				segment.size = compacted.size;
+				segment.count = compacted.count;
+				segment.firstTimestamp = compacted.firstTimestamp;
+				segment.lastTimestamp = compacted.lastTimestamp;
+			}
+		} catch (IOException e) {
+			myP2P.getEventLog().warning("store_compaction_failed", "segment", segment.log.getFileName(), "error", e);
+			if(compacted.channel != null) {
+				seal(compacted);
+			}
+			deleteQuietly(compacted.log);
+			deleteQuietly(compacted.index);
+		}
+	}
+
+	private void deleteQuietly(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			myP2P.getEventLog().warning("store_delete_failed", "file", file, "error", e);
+		}
+	}
+
+	//Contadores
+
+	/**
+	 * Número de segmentos en disco, incluido el activo.
+	 */
+	public synchronized int getSegmentCount() {
+		return segments.size();
+	}
+
+	/**
+	 * Bytes ocupados por los registros de todos los segmentos.
+	 */
+	public synchronized long getSizeBytes() {
+		long total = 0;
+		for(Segment segment: segments) {
+			total += segment.size;
+		}
+		return total;
+	}
+}
@@ -1,15 +1,38 @@
 package controller;
 
+import java.io.IOException;
 import java.net.Socket;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
-import java.util.regex.Pattern;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import connections.ClientConnector;
 import connections.Connection;
-import connections.ServerConnector;
+import connections.Ipv4Address;
+import connections.ConnectionEvents;
+import connections.ConnectionListener;
+import connections.Link;
+import connections.MemoryTransport;
+import connections.NioTransport;
+import connections.OutboundQueue;
+import connections.SocketTransport;
+import connections.TlsContext;
+import connections.TimerWheel;
+import connections.Transport;
+import connections.TransportMode;
+import metrics.EventLog;
+import metrics.MetricsExporter;
+import metrics.MetricsRegistry;
 import view.Frame;
-import view.View;
 
 /**
  * La clase MyP2P es un controlador de red para una aplicación de comunicación punto a punto.
@@ -18,61 +41,490 @@ import view.View;
  */
 public class MyP2P {
 
-	private ArrayList<Connection> connectionList;
-	private ServerConnector serverConnector;
+	private final PeerRegistry peers;
+	private final ConnectionEvents connectionEvents;
+	private Transport transport;
+	private TlsContext tls;
 	private ClientConnector clientConnector;
-	private View view;
+	private final NodeConfig config;
+	private final ExecutorService executor;
+	private final TimerWheel timer;
+	private final RoutingTable routingTable;
+	private final Membership membership;
+	private final BroadcastTree broadcastTree;
+	private final ChannelTable channelTable;
+	private final SeenMessageCache seenMessages;
+	private final ChunkAssembler chunkAssembler;
+	private final MessageStore messageStore;
+	private final StoreAndForward storeAndForward;
+	private final HistorySync historySync;
+	private final MetricsRegistry metrics;
+	private final EventLog eventLog;
+	private MetricsExporter metricsExporter;
+	private ControlServer controlServer;
+	private final List<MessageListener> messageListeners;
+	private final int originId;
+	private final AtomicInteger sequence;
 
 
 	//Constructor
 	public MyP2P(ArrayList<String> ipList) {
-		connectionList = new ArrayList<>();
+		this(ipList, new NodeConfig());
+	}
+
+	/**
+	 * Crea el nodo y arranca su transporte.
+	 * @param ipList Peers de arranque
+	 * @throws IllegalArgumentException Si la configuración no es válida
+	 * @throws IllegalStateException Si el transporte no puede arrancar, por ejemplo porque el puerto
+	 * está ocupado o el almacén de TLS no se puede leer; el nodo queda parado
+	 */
+	public MyP2P(ArrayList<String> ipList, NodeConfig config) {
+		this.config = config;
+		if(config.getTransportMode() == TransportMode.MEMORY && (config.getMemoryNetwork() == null || config.getBindAddress() == null)) {
+			throw new IllegalArgumentException("The MEMORY transport needs a memory network and a bind address");
+		}
+		if(config.getTlsKeyStore() != null && (config.getTransportMode() == TransportMode.NIO || config.getTransportMode() == TransportMode.MEMORY)) {
+			throw new IllegalArgumentException("TLS is only supported by the THREAD and VIRTUAL transports");
+		}
+		if(config.getTransportMode() == TransportMode.VIRTUAL && Runtime.version().feature() < 21) {
+			throw new IllegalArgumentException("The VIRTUAL transport needs JDK 21 or later, this JVM is " + Runtime.version());
+		}
+		messageListeners = new CopyOnWriteArrayList<>();
+		// Antes que cualquier conexión: cada una registra sus métricas al crearse
+		metrics = new MetricsRegistry();
+		eventLog = new EventLog(config.getEventsPerSecond());
+		peers = new PeerRegistry();
+		connectionEvents = new ConnectionEvents();
+		executor = newExecutor(config.getTransportMode());
+		// Un solo temporizador para los chequeos de salud de todas las conexiones
+		timer = new TimerWheel(50, 512);
+		timer.start(this);
+		routingTable = new RoutingTable(5000, 200);
+		addConnectionListener(routingTable);
+		routingTable.start(timer);
+		seenMessages = new SeenMessageCache(10000, 60000);
+		channelTable = new ChannelTable(5000, 200);
+		for(String channel: config.getChannels()) {
+			channelTable.subscribe(channel);
+		}
+		addConnectionListener(channelTable);
+		broadcastTree = new BroadcastTree(seenMessages, channelTable, 1000, 100, 500, config.getBroadcastMode() == BroadcastMode.FLOOD);
+		addConnectionListener(broadcastTree);
+		broadcastTree.start(timer);
+		channelTable.start(timer, broadcastTree);
+		chunkAssembler = new ChunkAssembler(this);
+		chunkAssembler.start(timer);
+		// Identificador de origen aleatorio en cada arranque para no repetir identificadores de mensaje
+		originId = new SecureRandom().nextInt();
+		sequence = new AtomicInteger();
+		// Los peers de la lista solo sirven de arranque: el resto se descubre por gossip
+		HashSet<String> seeds = new HashSet<>();
+		for (String ip: ipList) {
+			if (ip != null && isValidIp(ip)) {
+				seeds.add(ip);
+			}
+		}
+		membership = new Membership(this, seeds);
+		messageStore = openMessageStore();
+		storeAndForward = new StoreAndForward(this, config.getStoreDirectory() == null ? null : Path.of(config.getStoreDirectory(), "outbox"), 50);
+		addConnectionListener(storeAndForward);
+		storeAndForward.start(timer);
+		historySync = new HistorySync(config.getSyncHistorySize(), config.getSyncMaxMessages());
+		if(messageStore != null) {
+			historySync.seed(messageStore.last(config.getSyncHistorySize()));
+		}
+		addConnectionListener(historySync);
 
 		try {
 			// Afegir ip de peers a la llista
-			int serverPort = 1234;
-			for (int i = 0; i < ipList.size(); i++) {
-				String ip = ipList.get(i);
-				if (ip != null && isValidIp(ip)) {
-					addEmptyConnection(ip);
+			int serverPort = config.getServerPort();
+			for (String ip: seeds) {
+				addEmptyConnection(ip);
+			}
+
+			// Transporte elegido al arrancar: un hilo por conexión o bucles de selector
+			if(config.getTransportMode() == TransportMode.MEMORY) {
+				transport = new MemoryTransport(this, config.getMemoryNetwork(), config.getBindAddress());
+			} else if(config.getTransportMode() == TransportMode.NIO) {
+				transport = new NioTransport(this, serverPort, config.getBindAddress());
+			} else {
+				if(config.getTlsKeyStore() != null) {
+					tls = new TlsContext(config.getTlsKeyStore(), config.getTlsKeyStorePassword().toCharArray(),
+							config.getTlsTrustStore(), config.getTlsTrustStorePassword().toCharArray(), metrics);
 				}
+				transport = new SocketTransport(this, serverPort, config.getBindAddress(), tls);
 			}
+			transport.start();
+			clientConnector = new ClientConnector(this, transport);
+			membership.start(timer);
+			registerMetrics();
+			startControlServer();
+
+		} catch (IOException | GeneralSecurityException | RuntimeException e) {
+			// Sin transporte el nodo no sirve: se para lo que ya estaba en marcha y decide quien lo crea
+			stop();
+			throw new IllegalStateException("The node could not start: " + e.getMessage(), e);
+		}
 
-			serverConnector = new ServerConnector(this, serverPort);
-			clientConnector = new ClientConnector(this, serverPort);
+	}
+
+	//Metodos de gestion de hilos
 
-		}catch (Exception e) {
-			e.printStackTrace();
-			System.exit(-1);
+	/**
+	 * Crea el ejecutor en el que corren todos los bucles del nodo: conexiones,
+	 * chequeos de salud, servidor, reconexión y bucles de selector.
+	 * En modo VIRTUAL cada tarea corre en un hilo virtual; el constructor ya ha comprobado que la JVM
+	 * los soporta, así que no se recurre en silencio a hilos de plataforma.
+	 * Se llega a ellos por reflexión porque el código se compila para Java 17.
+	 */
+	private static ExecutorService newExecutor(TransportMode transportMode) {
+		if(transportMode == TransportMode.VIRTUAL) {
+			try {
+				return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalStateException("Virtual threads not available in this JVM", e);
+			}
 		}
+		return Executors.newCachedThreadPool();
+	}
+
+	/**
+	 * Lanza un bucle en el ejecutor del nodo.
+	 * Cancelar el Future devuelto interrumpe el hilo que ejecuta el bucle.
+	 * @param task Bucle a ejecutar
+	 * @return El Future con el que detener el bucle
+	 */
+	public Future<?> submit(Runnable task) {
+		return executor.submit(task);
+	}
 
+	/**
+	 * Devuelve el servicio de reconexión, con sus métricas de tiempo de reconexión.
+	 */
+	public ClientConnector getClientConnector() {
+		return clientConnector;
+	}
+
+	/**
+	 * Devuelve el árbol de difusión de los mensajes a "*".
+	 */
+	public BroadcastTree getBroadcastTree() {
+		return broadcastTree;
+	}
+
+	/**
+	 * Devuelve las suscripciones a canales del nodo y el interés de sus vecinos.
+	 */
+	public ChannelTable getChannelTable() {
+		return channelTable;
+	}
+
+	/**
+	 * Abre el registro persistente de mensajes. Si no se puede abrir el nodo funciona sin él.
+	 * @return El registro, o null si está desactivado
+	 */
+	private MessageStore openMessageStore() {
+		if(config.getStoreDirectory() == null) {
+			return null;
+		}
+		MessageStore store = new MessageStore(this, Path.of(config.getStoreDirectory()));
+		try {
+			store.open();
+			return store;
+		} catch (IOException e) {
+			eventLog.warning("store_unavailable", "directory", config.getStoreDirectory(), "error", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Devuelve el registro persistente de mensajes.
+	 * @return El registro, o null si está desactivado
+	 */
+	public MessageStore getMessageStore() {
+		return messageStore;
+	}
+
+	/**
+	 * Devuelve los buzones de los mensajes pendientes de confirmar.
+	 */
+	public StoreAndForward getStoreAndForward() {
+		return storeAndForward;
+	}
+
+	/**
+	 * Devuelve el registro de métricas del nodo.
+	 */
+	public MetricsRegistry getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Devuelve el log de eventos con límite de frecuencia.
+	 */
+	public EventLog getEventLog() {
+		return eventLog;
+	}
+
+	/**
+	 * Registra las métricas globales del nodo y, si está configurado, arranca el servidor del que
+	 * Prometheus las lee. Las de cada peer las registra su conexión y se borran al olvidarlo.
+	 */
+	private void registerMetrics() {
+		peers.addListener(new PeerRegistry.Listener() {
+			@Override
+			public void peerAdded(Connection connection) {}
+
+			@Override
+			public void peerRemoved(Connection connection) {
+				metrics.remove("peer", connection.getClientIp());
+			}
+		});
+		metrics.gauge("p2p_peers", "Known peers", peers::size);
+		metrics.gauge("p2p_peers_connected", "Peers with an open link", () -> peers.snapshot().stream().filter(Connection::isOk).count());
+		metrics.counter("p2p_seen_cache_hits_total", "Duplicate messages dropped by the seen-message cache", seenMessages::getHits);
+		metrics.counter("p2p_seen_cache_misses_total", "Messages seen for the first time", seenMessages::getMisses);
+		metrics.counter("p2p_seen_cache_evictions_total", "Message ids evicted from the seen-message cache by age or size", seenMessages::getEvictions);
+		metrics.gauge("p2p_seen_cache_size", "Message ids remembered by the seen-message cache", seenMessages::size);
+		metrics.gauge("p2p_routes", "Destinations in the routing table", () -> routingTable.getRoutes().size());
+		metrics.gauge("p2p_outbox_pending", "Unicast messages waiting for an acknowledgement", storeAndForward::getPending);
+		metrics.counter("p2p_outbox_retransmitted_total", "Messages sent from the outboxes", storeAndForward::getRetransmitted);
+		metrics.counter("p2p_outbox_dropped_total", "Messages dropped from the outboxes unacknowledged", storeAndForward::getDropped);
+		metrics.gauge("p2p_reassembly_pending", "Chunked messages being reassembled", chunkAssembler::getPending);
+		metrics.gauge("p2p_reassembly_buffered_chars", "Characters buffered by the chunk reassembler", chunkAssembler::getBufferedChars);
+		metrics.counter("p2p_reassembly_abandoned_total", "Chunked messages dropped before completing", chunkAssembler::getAbandoned);
+		metrics.counter("p2p_history_sync_sent_total", "Broadcasts sent to peers catching up after a reconnect", historySync::getSent);
+		metrics.counter("p2p_history_syncs_total", "SYNC summaries answered", historySync::getSyncs);
+		metrics.counter("p2p_tree_duplicates_total", "Broadcast copies dropped because they already arrived over another link", broadcastTree::getDuplicates);
+		metrics.counter("p2p_tree_grafts_total", "Links grafted into the broadcast tree", broadcastTree::getGrafts);
+		metrics.counter("p2p_tree_prunes_total", "Links pruned from the broadcast tree", broadcastTree::getPrunes);
+		metrics.counter("p2p_channel_filtered_total", "Channel frames not sent to neighbours without interest", broadcastTree::getFiltered);
+		metrics.gauge("p2p_channels_subscribed", "Channels this node is subscribed to", () -> channelTable.getSubscriptions().size());
+		if(messageStore != null) {
+			metrics.gauge("p2p_store_bytes", "Size of the message log on disk", messageStore::getSizeBytes);
+		}
+		if(config.getMetricsPort() >= 0) {
+			metricsExporter = new MetricsExporter(metrics, config.getMetricsPort());
+			try {
+				metricsExporter.start();
+				eventLog.info("metrics_listening", "port", metricsExporter.getPort());
+			} catch (IOException e) {
+				eventLog.warning("metrics_unavailable", "port", config.getMetricsPort(), "error", e);
+				metricsExporter = null;
+			}
+		}
+	}
+
+	/**
+	 * Abre la API HTTP de control si está configurada. Si el puerto no está libre el nodo sigue sin ella.
+	 */
+	private void startControlServer() {
+		if(config.getControlPort() < 0) {
+			return;
+		}
+		controlServer = new ControlServer(this, config.getControlPort());
+		try {
+			controlServer.start();
+		} catch (IOException e) {
+			eventLog.warning("control_unavailable", "port", config.getControlPort(), "error", e);
+			controlServer = null;
+		}
+	}
+
+	/**
+	 * Devuelve el contexto TLS de los enlaces, con los contadores de handshakes.
+	 * @return El contexto, o null si los enlaces no van cifrados
+	 */
+	public TlsContext getTlsContext() {
+		return tls;
+	}
+
+	/**
+	 * Devuelve la API HTTP de control.
+	 * @return La API, o null si no está abierta
+	 */
+	public ControlServer getControlServer() {
+		return controlServer;
+	}
+
+	/**
+	 * Devuelve el historial con el que se pone al día a los vecinos que reconectan.
+	 */
+	public HistorySync getHistorySync() {
+		return historySync;
+	}
+
+	/**
+	 * Devuelve el reensamblador de los mensajes fragmentados.
+	 */
+	public ChunkAssembler getChunkAssembler() {
+		return chunkAssembler;
+	}
+
+	/**
+	 * Devuelve el servicio de descubrimiento de peers.
+	 */
+	public Membership getMembership() {
+		return membership;
 	}
 
-	//Metodos de gestion de vista
-	
 	/**
-	 * Este método se utiliza para agregar una vista a la aplicación.
-	 * La vista es un objeto MainFrame que representa la interfaz gráfica de la aplicación.
-	 * El método agrega la vista a la propiedad view de la clase y
-	 * agrega todas las conexiones conocidas a la vista.
-	 * @param view Vista a añadir
+	 * Devuelve la tabla de rutas del nodo, para consultarla en tiempo de ejecución.
 	 */
-	public void setView(View view) {
-		this.view = view;
-		for(Connection c: connectionList) {
-			view.addConnection(c.getClientIp());
+	public RoutingTable getRoutingTable() {
+		return routingTable;
+	}
+
+	/**
+	 * Devuelve el temporizador compartido del nodo.
+	 */
+	public TimerWheel getTimer() {
+		return timer;
+	}
+
+	/**
+	 * Devuelve los parámetros con los que arrancó el nodo.
+	 */
+	public NodeConfig getConfig() {
+		return config;
+	}
+
+	/**
+	 * Crea la cola de salida de un nuevo enlace con la capacidad y la política configuradas.
+	 */
+	public OutboundQueue newOutboundQueue() {
+		return new OutboundQueue(config.getOutboundCapacity(), config.getBackpressurePolicy(), config.getChunkQueueCapacity());
+	}
+
+	//Metodos de gestion de oyentes
+
+	/**
+	 * Repite a un listener los últimos mensajes del registro persistente, enviados y recibidos,
+	 * por ejemplo para que una vista recién abierta muestre la conversación anterior.
+	 */
+	public void replay(MessageListener listener) {
+		if(messageStore == null || config.getReplayCount() <= 0) {
+			return;
+		}
+		long start = System.nanoTime();
+		List<StoredMessage> messages = messageStore.last(config.getReplayCount());
+		for(StoredMessage message: messages) {
+			if(message.isOutgoing()) {
+				listener.messageSent(message.getPeerIp(), message.getMessageId(), message.getText());
+			} else {
+				listener.messageReceived(message.getPeerIp(), message.getMessageId(), message.getText());
+			}
 		}
+		eventLog.fine("replayed", "messages", messages.size(), "us", (System.nanoTime() - start) / 1000);
+	}
+
+	//Metodos de eventos de conexion
+
+	/**
+	 * Suscribe un listener a los eventos de conexión, desconexión y salud de todos los peers.
+	 */
+	public void addConnectionListener(ConnectionListener listener) {
+		connectionEvents.addListener(listener);
+	}
+
+	public void removeConnectionListener(ConnectionListener listener) {
+		connectionEvents.removeListener(listener);
+	}
+
+	/**
+	 * Devuelve el repartidor de eventos que usan las conexiones del nodo.
+	 */
+	public ConnectionEvents getConnectionEvents() {
+		return connectionEvents;
 	}
 
 	/**
-	 * Este método se utiliza para mostrar un mensaje recibido en la vista de la aplicación.
+	 * Este método se utiliza para entregar un mensaje recibido a la aplicación.
 	 * El método recibe la dirección IP del remitente y el mensaje,
-	 * y agrega el mensaje a la vista correspondiente.
+	 * y lo pasa a los listeners de mensajes.
 	 * @param message Mensaje recibido a través del socket.
 	 */
 	public void pushMessage(String ip, String message) {
-		if(view != null) {
-			view.pushMessage(ip, message);
+		pushMessage(ip, 0, message);
+	}
+
+	/**
+	 * Guarda un mensaje recibido en el registro persistente y avisa a los listeners de mensajes.
+	 * @param messageId Identificador del mensaje en la malla, 0 si no tiene
+	 */
+	public void pushMessage(String ip, long messageId, String message) {
+		pushMessage(ip, messageId, null, message);
+	}
+
+	/**
+	 * Guarda un mensaje recibido en el registro persistente y avisa a los listeners de mensajes.
+	 * @param channel Canal del mensaje, null si no va a un canal
+	 */
+	public void pushMessage(String ip, long messageId, String channel, String message) {
+		if(messageStore != null) {
+			messageStore.append(false, Ipv4Address.parse(ip), messageId, message);
+		}
+		for(MessageListener listener: messageListeners) {
+			if(channel == null) {
+				listener.messageReceived(ip, messageId, message);
+			} else {
+				listener.channelMessageReceived(channel, ip, messageId, message);
+			}
+		}
+	}
+
+	/**
+	 * Suscribe un listener a los mensajes entregados a este nodo.
+	 */
+	public void addMessageListener(MessageListener listener) {
+		messageListeners.add(listener);
+	}
+
+	public void removeMessageListener(MessageListener listener) {
+		messageListeners.remove(listener);
+	}
+
+	/**
+	 * Entrega un marco dirigido a este nodo: los mensajes van a los listeners, los fragmentos al reensamblador
+	 * y los ACK a los buzones. Los mensajes unicast se confirman al origen.
+	 * @param frame Marco MESSAGE, CHUNK o ACK recibido
+	 */
+	public void deliver(Frame frame) {
+		// Los relays de un canal lo reenvían sin entregarlo ni reensamblarlo
+		boolean subscribed = frame.getChannel() == null || channelTable.isSubscribed(frame.getChannel());
+		switch (frame.getFrameType()) {
+			case CHUNK -> {
+				if(subscribed) {
+					chunkAssembler.onChunk(frame);
+				}
+			}
+			case ACK -> storeAndForward.onAck(frame);
+			default -> {
+				if(subscribed) {
+					pushMessage(frame.getSourceIP(), frame.getMessageId(), frame.getChannel(), frame.getPayload());
+				}
+				if(frame.getTargetAddress() != Ipv4Address.BROADCAST) {
+					storeAndForward.acknowledge(frame.getSourceAddress(), frame.getMessageId());
+				} else {
+					historySync.record(frame);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Procesa la copia repetida de un marco dirigido a este nodo. Si es el reenvío de un mensaje
+	 * ya entregado es que el ACK se perdió: se vuelve a confirmar.
+	 */
+	public void deliverDuplicate(Frame frame) {
+		if(frame.getFrameType() == Frame.FrameType.MESSAGE) {
+			storeAndForward.acknowledge(frame.getSourceAddress(), frame.getMessageId());
+		} else if(frame.getFrameType() == Frame.FrameType.CHUNK) {
+			long transferId = chunkAssembler.completedTransfer(frame);
+			if(transferId != 0) {
+				storeAndForward.acknowledge(frame.getSourceAddress(), transferId);
+			}
 		}
 	}
 
@@ -80,22 +532,24 @@ public class MyP2P {
 
 	/**
 	 * Este método se utiliza para crear una nueva conexión de red para la dirección IP dada.
-	 * Si la conexión ya existe, se devuelve su índice en la lista de conexiones.
-	 * De lo contrario, se crea una nueva conexión y se agrega a la lista de conexiones.
+	 * Si la conexión ya existe, se devuelve la registrada.
+	 * De lo contrario, se crea una nueva conexión y se agrega al registro de peers,
+	 * que avisa a sus listeners (la vista entre ellos).
 	 * @param ip IP de la conexión que se desea establecer.
-	 * @return el índice en la lista de conexiones de la conexión con la ip dada.
+	 * @return la conexión con la ip dada.
 	 */
-	private int addEmptyConnection(String ip) {
-		int index = getConnectionIndex(ip);
-		if(index == -1) {
-			Connection connection = new Connection(this, ip);
-			connectionList.add(connection);
-			index = connectionList.size() - 1;
-			if(view != null) {
-				view.addConnection(ip);
-			}
+	private Connection addEmptyConnection(String ip) {
+		return peers.getOrCreate(ip, (newIp) -> new Connection(this, newIp));
+	}
+
+	/**
+	 * Añade un peer descubierto al registro. El servicio de reconexión intentará conectar con él.
+	 * @param ip IP del peer
+	 */
+	public void addPeer(String ip) {
+		if(isValidIp(ip)) {
+			addEmptyConnection(ip);
 		}
-		return index;
 	}
 
 	/**
@@ -107,34 +561,31 @@ public class MyP2P {
 	 * @param socket Socket establecido con la nueva conexión.
 	 */
 	public void addConnection(Socket socket) {
-		int index = addEmptyConnection(socket.getInetAddress().getHostAddress());
-		connectionList.get(index).setSocket(socket);
+		addEmptyConnection(socket.getInetAddress().getHostAddress()).setSocket(socket);
+	}
+
+	/**
+	 * Este método se utiliza para asociar un enlace ya negociado por el transporte
+	 * a la conexión de su peer, creándola si no era conocida.
+	 * @param link Enlace establecido con la nueva conexión.
+	 */
+	public void addConnection(Link link) {
+		addEmptyConnection(link.getRemoteIp()).attach(link);
 	}
 
 	/**
 	 * Este método se utiliza para obtener una lista de todas las conexiones de red conocidas.
-	 * @return Retorna una lista de peers.
+	 * @return Retorna una instantánea inmutable de los peers.
 	 */
 	public List<Connection> getPeersList() {
-		return connectionList;
+		return peers.snapshot();
 	}
 
 	/**
-	 *  Este método se utiliza para obtener el índice de la conexión de red correspondiente a la dirección IP dada.
-	 *  Si no se encuentra ninguna conexión, el método devuelve -1.
-	 * @param ip .
-	 * @return index.
+	 * Devuelve el registro de peers, para suscribirse a sus altas y bajas.
 	 */
-	private int getConnectionIndex(String ip) {
-		int index = -1;
-		for(int i=0; i<connectionList.size(); ++i) {
-			Connection connection = connectionList.get(i);
-			if(connection.getClientIp() != null && connection.getClientIp().equals(ip)) {
-				index = i;
-				break;
-			}
-		}
-		return index;
+	public PeerRegistry getPeers() {
+		return peers;
 	}
 
 	/**
@@ -144,32 +595,61 @@ public class MyP2P {
 	 * @param ip IP de la conexión que se quiere comprobar.
 	 */
 	public boolean getConnectionStatus(String ip) {
-		boolean status = false;
-		int index = getConnectionIndex(ip);
-		if(index >= 0) {
-			status = connectionList.get(index).isOk();
-		}
-		return status;
+		Connection connection = peers.get(ip);
+		return connection != null && connection.isOk();
+	}
+
+	//Metodos de deteccion de duplicados
+
+	/**
+	 * Genera el identificador del siguiente mensaje originado en este nodo.
+	 */
+	private long nextMessageId() {
+		return nextMessageIds(1);
+	}
+
+	/**
+	 * Reserva identificadores consecutivos para un mensaje de varios marcos.
+	 * @return El primero de los identificadores
+	 */
+	private long nextMessageIds(int count) {
+		int first = sequence.addAndGet(count) - count + 1;
+		return ((long) originId << 32) | (first & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Registra un marco recibido en la caché de mensajes vistos.
+	 * Los marcos sin identificador (de peers antiguos) siempre se consideran nuevos.
+	 * @param frame Marco recibido
+	 * @return True si el marco es nuevo, False si es un duplicado que se debe descartar
+	 */
+	public boolean markSeen(Frame frame) {
+		return frame.getMessageId() == 0 || seenMessages.markSeen(frame.getMessageId());
+	}
+
+	/**
+	 * Devuelve la caché de mensajes vistos, con sus contadores de aciertos y expulsiones.
+	 */
+	public SeenMessageCache getSeenMessages() {
+		return seenMessages;
 	}
 
 	//Metodos de envio y reenvio de mensajes
 
 	/**
 	 * Este método se utiliza para reenviar un paquete a la dirección IP de destino correspondiente.
-	 * Si la dirección IP es de un par conocido, se envía el paquete directamente a ese par.
-	 * De lo contrario, el método hace un flood enviando el paquete a todas
-	 * las direcciones IP conocidas, excepto a la dirección IP del par que envió el paquete.
-	 * @param bannedIp Ip a la que no se debe de retransmitir
-	 *                 Para multichat aun no sirve
-	 */
-	public void resend(String bannedIp, Frame frame) {
-		String destinatioIp = frame.getPayload();
-		int index = getConnectionIndex(destinatioIp);
-		if(index != -1) {
-			connectionList.get(index).sendFrame(frame);
+	 * Si la tabla de rutas conoce el destino, se envía el paquete solo al siguiente salto.
+	 * De lo contrario (las rutas aún no han convergido), el método hace un flood enviando el paquete
+	 * a todas las direcciones IP conocidas, excepto a la dirección IP del par que envió el paquete.
+	 * @param bannedAddress Dirección empaquetada del peer al que no se debe de retransmitir
+	 */
+	public void resend(int bannedAddress, Frame frame) {
+		Connection destination = routingTable.nextHop(frame.getTargetAddress());
+		if(destination != null && destination.isOk() && destination.getClientAddress() != bannedAddress) {
+			destination.sendFrame(frame);
 		} else {
-			for(Connection connection: connectionList) {
-				if(!connection.getClientIp().equals(bannedIp)) {
+			for(Connection connection: peers.snapshot()) {
+				if(connection.getClientAddress() != bannedAddress) {
 					connection.sendFrame(frame);
 				}
 			}
@@ -178,28 +658,196 @@ public class MyP2P {
 
 	/**
 	 * Este método se utiliza para enviar un mensaje a la dirección IP de destino correspondiente.
-	 * Si la dirección IP es conocida, el mensaje se envía directamente a ese par.
-	 * De lo contrario, el mensaje se envía por broadcast a todas las direcciones IP conocidas.
+	 * Si la dirección IP es conocida, el mensaje se envía directamente a ese par, y si hay ruta,
+	 * al siguiente salto. Los mensajes unicast quedan en el buzón del destino hasta que este los confirma:
+	 * si el destino no es alcanzable todavía, se le envían en cuanto lo sea.
+	 * Con "*" el mensaje se difunde a toda la malla por el árbol de difusión.
+	 * Los mensajes de más de chunkSize caracteres se fragmentan en otro hilo (ver sendChunked).
 	 * @param ip IP de la conexión a utilizar para mandar un mensaje.
 	 * @param message Mensaje que se desea enviar.
 	 */
 	public void sendMessage(String ip, String message) {
-		if(ip == null) {
-			for(Connection conn: connectionList) {
-				conn.send(message);
+		// Un mensaje fragmentado reserva un identificador por fragmento, para reenviarlo con los mismos
+		long messageId = nextMessageIds(chunkCount(message));
+		if(messageStore != null) {
+			messageStore.append(true, Ipv4Address.parse(ip), messageId, message);
+		}
+		if(Ipv4Address.isValid(ip)) {
+			boolean reachable = isReachable(ip);
+			storeAndForward.enqueue(ip, messageId, message, reachable);
+			if(!reachable) {
+				return;
 			}
+		}
+		transmit(ip, message, messageId);
+	}
+
+	/**
+	 * Difunde un mensaje a un canal: solo lo reciben los nodos suscritos y solo viaja por los enlaces
+	 * que llevan a alguno. Este nodo no tiene por qué estar suscrito. No pasa por los buzones.
+	 * @param channel Nombre del canal, ver ChannelTable.isValidChannel
+	 * @throws IllegalArgumentException Si el nombre no es válido
+	 */
+	public void sendToChannel(String channel, String message) {
+		if(!ChannelTable.isValidChannel(channel)) {
+			throw new IllegalArgumentException("Invalid channel name");
+		}
+		long messageId = nextMessageIds(chunkCount(message));
+		if(messageStore != null) {
+			messageStore.append(true, Ipv4Address.BROADCAST, messageId, message);
+		}
+		if(chunkCount(message) > 1) {
+			submit(() -> sendChunked("*", channel, message, config.getChunkSize(), messageId));
+			return;
+		}
+		seenMessages.markSeen(messageId);
+		Frame frame = newBroadcast(Frame.FrameType.MESSAGE, channel, message, messageId);
+		historySync.record(frame);
+		broadcastTree.broadcast(frame);
+	}
+
+	/**
+	 * Envía un mensaje ya registrado, sin pasar por el buzón. Lo usa también el buzón para los reenvíos.
+	 * @param messageId Identificador del mensaje, o del primer fragmento si se fragmenta
+	 */
+	void transmit(String ip, String message, long messageId) {
+		if(chunkCount(message) > 1) {
+			submit(() -> sendChunked(ip, null, message, config.getChunkSize(), messageId));
+			return;
+		}
+		// Los ecos de nuestro propio mensaje se descartan como duplicados
+		seenMessages.markSeen(messageId);
+		if(Ipv4Address.isValid(ip)) {
+			sendUnicast(ip, Frame.FrameType.MESSAGE, message, messageId);
+		} else {
+			Frame frame = newBroadcast(Frame.FrameType.MESSAGE, null, message, messageId);
+			historySync.record(frame);
+			broadcastTree.broadcast(frame);
+		}
+	}
+
+	/**
+	 * Envía un ACK con los identificadores confirmados al origen de los mensajes.
+	 * @param payload Identificadores en hexadecimal separados por comas
+	 */
+	void sendAck(String ip, String payload) {
+		long messageId = nextMessageId();
+		seenMessages.markSeen(messageId);
+		sendUnicast(ip, Frame.FrameType.ACK, payload, messageId);
+	}
+
+	/**
+	 * Envía un marco a una ip por el vecino directo o el siguiente salto. Si no hay ninguno
+	 * (las rutas aún no han convergido) se hace flood a todos los vecinos para que lo reenvíen.
+	 */
+	private void sendUnicast(String ip, Frame.FrameType frameType, String payload, long messageId) {
+		Connection destination = nextHopTo(ip);
+		if(destination != null) {
+			destination.send(ip, frameType, payload, messageId);
 		} else {
-			int index = getConnectionIndex(ip);
-			if(index != -1) {
-				connectionList.get(index).send(message);
+			for(Connection conn: peers.snapshot()) {
+				conn.send(ip, frameType, payload, messageId);
+			}
+		}
+	}
+
+	/**
+	 * Envía un mensaje grande fragmentado. Cada fragmento sigue el mismo camino que un mensaje normal,
+	 * pero va al carril de fragmentos de la cola de salida: el escritor intercala uno en cada lote,
+	 * así que el chat sigue saliendo mientras dura la transferencia. Cuando el carril está lleno este hilo
+	 * espera, de modo que en memoria solo hay unos pocos fragmentos por enlace además del mensaje original.
+	 * Los peers antiguos no conocen CHUNK: si el mensaje sale por uno de ellos se le envía entero,
+	 * salvo que vaya a un canal, que no conocen tampoco.
+	 * @param channel Canal de la difusión, null si no va a un canal
+	 * @param transferId Identificador del primer fragmento, que identifica al mensaje. Los siguientes
+	 *                   fragmentos usan los identificadores consecutivos, reservados al registrar el mensaje
+	 */
+	private void sendChunked(String ip, String channel, String message, int chunkSize, long transferId) {
+		boolean broadcast = !Ipv4Address.isValid(ip);
+		Connection destination = broadcast ? null : nextHopTo(ip);
+		seenMessages.markSeen(transferId);
+		if(destination != null && destination.isLegacyPeer()) {
+			destination.send(ip, message, transferId);
+			return;
+		}
+		List<String> parts = ChunkAssembler.split(message, chunkSize);
+		for(int i = 0; i < parts.size(); ++i) {
+			long messageId = (transferId & 0xFFFFFFFF00000000L) | ((transferId + i) & 0xFFFFFFFFL);
+			seenMessages.markSeen(messageId);
+			String payload = ChunkAssembler.encode(transferId, i, parts.size(), parts.get(i));
+			if(broadcast) {
+				broadcastTree.broadcast(newBroadcast(Frame.FrameType.CHUNK, channel, payload, messageId));
 			} else {
-				for(Connection conn: connectionList) {
-					conn.send(message);
+				sendUnicast(ip, Frame.FrameType.CHUNK, payload, messageId);
+			}
+		}
+		if(broadcast && channel == null) {
+			for(Connection conn: peers.snapshot()) {
+				if(conn.isOk() && conn.isLegacyPeer()) {
+					long messageId = nextMessageId();
+					seenMessages.markSeen(messageId);
+					conn.sendFrame(newBroadcast(Frame.FrameType.MESSAGE, null, message, messageId));
 				}
 			}
 		}
 	}
 
+	/**
+	 * Número de fragmentos que como mucho ocupa un mensaje: cada fragmento lleva al menos
+	 * chunkSize - 1 caracteres, porque nunca se parte un par sustituto.
+	 * @return 1 si el mensaje no se fragmenta
+	 */
+	private int chunkCount(String message) {
+		int chunkSize = config.getChunkSize();
+		if(chunkSize <= 1 || message.length() <= chunkSize) {
+			return 1;
+		}
+		return (message.length() + chunkSize - 2) / (chunkSize - 1);
+	}
+
+	/**
+	 * Devuelve la conexión abierta por la que sale un mensaje hacia una ip: el propio peer si es vecino,
+	 * o el siguiente salto de la tabla de rutas.
+	 * @return La conexión, o null si no es vecino ni hay ruta (o la ip es "*")
+	 */
+	private Connection nextHopTo(String ip) {
+		Connection destination = peers.get(ip);
+		if((destination == null || !destination.isOk()) && Ipv4Address.isValid(ip)) {
+			destination = routingTable.nextHop(Ipv4Address.parse(ip));
+		}
+		return destination != null && destination.isOk() ? destination : null;
+	}
+
+	/**
+	 * Informa si hay un vecino abierto o una ruta hacia una ip.
+	 */
+	public boolean isReachable(String ip) {
+		return nextHopTo(ip) != null;
+	}
+
+	/**
+	 * Crea el marco de un mensaje a "*". Se envía el mismo objeto a todos los vecinos.
+	 * Como origen va la ip local del primer enlace abierto: los nodos tienen una sola ip en la malla.
+	 * @param frameType MESSAGE, o CHUNK para un fragmento
+	 * @param channel Canal de la difusión, null si va a todos
+	 */
+	private Frame newBroadcast(Frame.FrameType frameType, String channel, String message, long messageId) {
+		int localAddress = Ipv4Address.ANY;
+		for(Connection connection: peers.snapshot()) {
+			if(connection.isOk()) {
+				localAddress = connection.getLocalAddress();
+				break;
+			}
+		}
+		Frame frame = new Frame();
+		frame.setFrameType(frameType);
+		frame.setHeader(Connection.MESSAGE_TTL, localAddress, Ipv4Address.BROADCAST);
+		frame.setPayload(message);
+		frame.setMessageId(messageId);
+		frame.setChannel(channel);
+		return frame;
+	}
+
 	//Metodos de parada y salida
 
 	/**
@@ -208,32 +856,59 @@ public class MyP2P {
 	 *  Finalmente, el método detiene la ejecución del programa.
 	 */
 	public void stopAndQuit() {
-		// Detiene el servidor
-		serverConnector.stopServerConnection();
+		stop();
+		System.exit(0);
+	}
+
+	/**
+	 * Detiene el nodo sin salir del programa: servidor, reconexión, conexiones, servicios y ejecutor.
+	 * Permite parar un nodo entre varios de la misma JVM, por ejemplo en una simulación.
+	 */
+	public void stop() {
+		// Primero la API de control, para no aceptar envíos mientras se para el nodo
+		if(controlServer != null) {
+			controlServer.stop();
+		}
+		// Detiene el servidor. Si el arranque falló puede no haber transporte ni reconexión
+		if(transport != null) {
+			transport.stop();
+		}
 		// Detiene el reconectar
-		clientConnector.stopClientConnection();
-		for(Connection connection: connectionList) {
+		if(clientConnector != null) {
+			clientConnector.stopClientConnection();
+		}
+		for(Connection connection: peers.snapshot()) {
 			connection.stopConnection();
 		}
+		membership.stop();
+		channelTable.stop();
+		storeAndForward.stop();
+		chunkAssembler.stop();
+		if(messageStore != null) {
+			messageStore.close();
+		}
+		routingTable.stop();
+		if(metricsExporter != null) {
+			metricsExporter.stop();
+		}
+		timer.stop();
+		// Interrumpe los bucles que sigan vivos y les da medio segundo para terminar
+		executor.shutdownNow();
 		try {
-			Thread.sleep(500);
+			executor.awaitTermination(500, TimeUnit.MILLISECONDS);
 		} catch (InterruptedException e) {
-			e.printStackTrace();
+			Thread.currentThread().interrupt();
 		}
-		System.exit(0);
 	}
 
 	//Otros metodos
 
 	/**
-	 * Establece si una IP dada por una cadena es válida.
+	 * Establece si una IP dada por una cadena es válida. Ver Ipv4Address.isValid.
 	 * @param ip String con una ip.
 	 */
 	public static boolean isValidIp(String ip) {
-		String IPV4_PATTERN =
-				"^(([0-9]|[1-9][0-9]|1[0-9][0-9]|2[0-4][0-9]|25[0-5])(\\.(?!$)|$)){4}$";
-		Pattern pattern = Pattern.compile(IPV4_PATTERN);
-		return pattern.matcher(ip).matches();
+		return Ipv4Address.isValid(ip);
 	}
 	
 }
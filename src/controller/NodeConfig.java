@@ -0,0 +1,587 @@
+package controller;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import connections.BackpressurePolicy;
+import connections.HealthPolicy;
+import connections.MemoryNetwork;
+import connections.TransportMode;
+
+/**
+ * Parámetros de arranque de un nodo. Se rellenan antes de crear MyP2P.
+ * Los valores por defecto reproducen el comportamiento original salvo en la cola de salida: antes cada
+ * envío escribía en el socket desde el hilo que enviaba, y ahora se encola y, si la cola se llena,
+ * se descarta el mensaje más antiguo (DROP_OLDEST; los marcos de control nunca se descartan).
+ */
+public class NodeConfig {
+
+	private TransportMode transportMode = TransportMode.THREAD;
+	private int serverPort = 1234;
+	private String bindAddress;
+	private MemoryNetwork memoryNetwork;
+	private int outboundCapacity = 1024;
+	private BackpressurePolicy backpressurePolicy = BackpressurePolicy.DROP_OLDEST;
+	private HealthPolicy healthPolicy = new HealthPolicy(1000, 500, 1);
+	private final Map<String, HealthPolicy> peerHealthPolicies = new ConcurrentHashMap<>();
+	private int connectTimeoutMillis = 2000;
+	private long reconnectBaseMillis = 500;
+	private long reconnectMaxMillis = 30000;
+	private int maxConnectsInFlight = 16;
+	private long gossipIntervalMillis = 1000;
+	private int gossipSampleSize = 8;
+	private int activeViewSize = 6;
+	private int passiveViewSize = 64;
+	private long peerEvictMillis = 30000;
+	private BroadcastMode broadcastMode = BroadcastMode.TREE;
+	private int compressionThreshold = 256;
+	private int chunkSize = 32 * 1024;
+	private int chunkQueueCapacity = 32;
+	private int maxMessageChars = 16 * 1024 * 1024;
+	private long reassemblyBufferChars = 64L * 1024 * 1024;
+	private long chunkTimeoutMillis = 60000;
+	private String storeDirectory = "messages";
+	private int segmentBytes = 4 * 1024 * 1024;
+	private long retentionBytes = 256L * 1024 * 1024;
+	private long retentionMillis = 30L * 24 * 60 * 60 * 1000;
+	private int replayCount = 200;
+	private int outboxMaxMessages = 1000;
+	private long outboxMaxChars = 4L * 1024 * 1024;
+	private long outboxMaxAgeMillis = 24L * 60 * 60 * 1000;
+	private long outboxRetryMillis = 10000;
+	private int outboxBatchSize = 64;
+	private int syncHistorySize = 5000;
+	private int syncMaxMessages = 2000;
+	private int metricsPort = -1;
+	private int eventsPerSecond = 10;
+	private int controlPort = -1;
+	private List<String> channels = List.of();
+	private String tlsKeyStore;
+	private String tlsKeyStorePassword = "";
+	private String tlsTrustStore;
+	private String tlsTrustStorePassword = "";
+
+	public TransportMode getTransportMode() {
+		return transportMode;
+	}
+
+	public NodeConfig setTransportMode(TransportMode transportMode) {
+		this.transportMode = transportMode;
+		return this;
+	}
+
+	public int getServerPort() {
+		return serverPort;
+	}
+
+	public NodeConfig setServerPort(int serverPort) {
+		this.serverPort = serverPort;
+		return this;
+	}
+
+	/**
+	 * Dirección propia del nodo, o null para escuchar en todas las interfaces.
+	 * Con sockets, el servidor solo escucha en ella y las conexiones salientes salen desde ella:
+	 * así varios nodos comparten máquina y puerto, cada uno en su dirección de loopback (127.0.0.2, 127.0.0.3...).
+	 * Con el transporte MEMORY es la dirección virtual del nodo y es obligatoria.
+	 */
+	public String getBindAddress() {
+		return bindAddress;
+	}
+
+	public NodeConfig setBindAddress(String bindAddress) {
+		this.bindAddress = bindAddress;
+		return this;
+	}
+
+	/**
+	 * Red a la que se une el nodo con el transporte MEMORY.
+	 */
+	public MemoryNetwork getMemoryNetwork() {
+		return memoryNetwork;
+	}
+
+	public NodeConfig setMemoryNetwork(MemoryNetwork memoryNetwork) {
+		this.memoryNetwork = memoryNetwork;
+		return this;
+	}
+
+	/**
+	 * Número máximo de marcos pendientes en la cola de salida de cada conexión.
+	 */
+	public int getOutboundCapacity() {
+		return outboundCapacity;
+	}
+
+	public NodeConfig setOutboundCapacity(int outboundCapacity) {
+		this.outboundCapacity = outboundCapacity;
+		return this;
+	}
+
+	/**
+	 * Qué hacer cuando la cola de salida de una conexión se llena de mensajes. Por defecto DROP_OLDEST.
+	 * Solo se aplica a MESSAGE: los fragmentos y los marcos de control tienen sus propios carriles.
+	 */
+	public BackpressurePolicy getBackpressurePolicy() {
+		return backpressurePolicy;
+	}
+
+	public NodeConfig setBackpressurePolicy(BackpressurePolicy backpressurePolicy) {
+		this.backpressurePolicy = backpressurePolicy;
+		return this;
+	}
+
+	/**
+	 * Tiempo máximo para establecer la conexión TCP con un peer.
+	 */
+	public int getConnectTimeoutMillis() {
+		return connectTimeoutMillis;
+	}
+
+	public NodeConfig setConnectTimeoutMillis(int connectTimeoutMillis) {
+		this.connectTimeoutMillis = connectTimeoutMillis;
+		return this;
+	}
+
+	/**
+	 * Espera antes del primer reintento de reconexión; se dobla con cada intento fallido.
+	 */
+	public long getReconnectBaseMillis() {
+		return reconnectBaseMillis;
+	}
+
+	public NodeConfig setReconnectBaseMillis(long reconnectBaseMillis) {
+		this.reconnectBaseMillis = reconnectBaseMillis;
+		return this;
+	}
+
+	/**
+	 * Espera máxima entre dos intentos de reconexión al mismo peer.
+	 */
+	public long getReconnectMaxMillis() {
+		return reconnectMaxMillis;
+	}
+
+	public NodeConfig setReconnectMaxMillis(long reconnectMaxMillis) {
+		this.reconnectMaxMillis = reconnectMaxMillis;
+		return this;
+	}
+
+	/**
+	 * Número máximo de intentos de conexión simultáneos.
+	 */
+	public int getMaxConnectsInFlight() {
+		return maxConnectsInFlight;
+	}
+
+	public NodeConfig setMaxConnectsInFlight(int maxConnectsInFlight) {
+		this.maxConnectsInFlight = maxConnectsInFlight;
+		return this;
+	}
+
+	/**
+	 * Periodo de las rondas de gossip.
+	 */
+	public long getGossipIntervalMillis() {
+		return gossipIntervalMillis;
+	}
+
+	public NodeConfig setGossipIntervalMillis(long gossipIntervalMillis) {
+		this.gossipIntervalMillis = gossipIntervalMillis;
+		return this;
+	}
+
+	/**
+	 * Número máximo de peers que se envían en cada marco GOSSIP.
+	 */
+	public int getGossipSampleSize() {
+		return gossipSampleSize;
+	}
+
+	public NodeConfig setGossipSampleSize(int gossipSampleSize) {
+		this.gossipSampleSize = gossipSampleSize;
+		return this;
+	}
+
+	/**
+	 * Número de peers a los que el nodo intenta estar conectado (fan-out).
+	 */
+	public int getActiveViewSize() {
+		return activeViewSize;
+	}
+
+	public NodeConfig setActiveViewSize(int activeViewSize) {
+		this.activeViewSize = activeViewSize;
+		return this;
+	}
+
+	/**
+	 * Número máximo de direcciones de reserva que se guardan.
+	 */
+	public int getPassiveViewSize() {
+		return passiveViewSize;
+	}
+
+	public NodeConfig setPassiveViewSize(int passiveViewSize) {
+		this.passiveViewSize = passiveViewSize;
+		return this;
+	}
+
+	/**
+	 * Tiempo sin conexión tras el que un peer descubierto vuelve a la vista pasiva.
+	 */
+	public long getPeerEvictMillis() {
+		return peerEvictMillis;
+	}
+
+	public NodeConfig setPeerEvictMillis(long peerEvictMillis) {
+		this.peerEvictMillis = peerEvictMillis;
+		return this;
+	}
+
+	/**
+	 * Cómo se difunden los mensajes a "*" y a los canales. FLOOD sirve de referencia en las simulaciones.
+	 */
+	public BroadcastMode getBroadcastMode() {
+		return broadcastMode;
+	}
+
+	public NodeConfig setBroadcastMode(BroadcastMode broadcastMode) {
+		this.broadcastMode = broadcastMode;
+		return this;
+	}
+
+	/**
+	 * Tamaño mínimo en bytes de un payload para comprimirlo; negativo para no comprimir nunca.
+	 * Solo se comprime con los peers que lo negocian en el saludo.
+	 */
+	public int getCompressionThreshold() {
+		return compressionThreshold;
+	}
+
+	public NodeConfig setCompressionThreshold(int compressionThreshold) {
+		this.compressionThreshold = compressionThreshold;
+		return this;
+	}
+
+	/**
+	 * Caracteres de cada fragmento; los mensajes más largos se envían fragmentados.
+	 * 0 o negativo para enviarlos siempre enteros.
+	 */
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	public NodeConfig setChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+		return this;
+	}
+
+	/**
+	 * Número máximo de fragmentos pendientes en la cola de salida de cada conexión.
+	 */
+	public int getChunkQueueCapacity() {
+		return chunkQueueCapacity;
+	}
+
+	public NodeConfig setChunkQueueCapacity(int chunkQueueCapacity) {
+		this.chunkQueueCapacity = chunkQueueCapacity;
+		return this;
+	}
+
+	/**
+	 * Longitud máxima en caracteres de un mensaje fragmentado que se acepta reensamblar.
+	 */
+	public int getMaxMessageChars() {
+		return maxMessageChars;
+	}
+
+	public NodeConfig setMaxMessageChars(int maxMessageChars) {
+		this.maxMessageChars = maxMessageChars;
+		return this;
+	}
+
+	/**
+	 * Caracteres que pueden ocupar entre todas las transferencias a medio reensamblar.
+	 */
+	public long getReassemblyBufferChars() {
+		return reassemblyBufferChars;
+	}
+
+	public NodeConfig setReassemblyBufferChars(long reassemblyBufferChars) {
+		this.reassemblyBufferChars = reassemblyBufferChars;
+		return this;
+	}
+
+	/**
+	 * Tiempo sin recibir fragmentos tras el que se abandona una transferencia incompleta.
+	 */
+	public long getChunkTimeoutMillis() {
+		return chunkTimeoutMillis;
+	}
+
+	public NodeConfig setChunkTimeoutMillis(long chunkTimeoutMillis) {
+		this.chunkTimeoutMillis = chunkTimeoutMillis;
+		return this;
+	}
+
+	/**
+	 * Directorio del registro persistente de mensajes; null para no guardarlos.
+	 */
+	public String getStoreDirectory() {
+		return storeDirectory;
+	}
+
+	public NodeConfig setStoreDirectory(String storeDirectory) {
+		this.storeDirectory = storeDirectory;
+		return this;
+	}
+
+	/**
+	 * Tamaño en bytes a partir del cual el registro abre un segmento nuevo.
+	 */
+	public int getSegmentBytes() {
+		return segmentBytes;
+	}
+
+	public NodeConfig setSegmentBytes(int segmentBytes) {
+		this.segmentBytes = segmentBytes;
+		return this;
+	}
+
+	/**
+	 * Bytes que puede ocupar el registro; por encima se borran los segmentos más antiguos.
+	 */
+	public long getRetentionBytes() {
+		return retentionBytes;
+	}
+
+	public NodeConfig setRetentionBytes(long retentionBytes) {
+		this.retentionBytes = retentionBytes;
+		return this;
+	}
+
+	/**
+	 * Antigüedad máxima de los mensajes del registro.
+	 */
+	public long getRetentionMillis() {
+		return retentionMillis;
+	}
+
+	public NodeConfig setRetentionMillis(long retentionMillis) {
+		this.retentionMillis = retentionMillis;
+		return this;
+	}
+
+	/**
+	 * Número de mensajes del registro que se muestran en la vista al arrancar.
+	 */
+	public int getReplayCount() {
+		return replayCount;
+	}
+
+	public NodeConfig setReplayCount(int replayCount) {
+		this.replayCount = replayCount;
+		return this;
+	}
+
+	/**
+	 * Número máximo de mensajes sin confirmar en el buzón de cada destino.
+	 */
+	public int getOutboxMaxMessages() {
+		return outboxMaxMessages;
+	}
+
+	public NodeConfig setOutboxMaxMessages(int outboxMaxMessages) {
+		this.outboxMaxMessages = outboxMaxMessages;
+		return this;
+	}
+
+	/**
+	 * Caracteres que pueden ocupar los mensajes sin confirmar de cada destino.
+	 */
+	public long getOutboxMaxChars() {
+		return outboxMaxChars;
+	}
+
+	public NodeConfig setOutboxMaxChars(long outboxMaxChars) {
+		this.outboxMaxChars = outboxMaxChars;
+		return this;
+	}
+
+	/**
+	 * Tiempo tras el que un mensaje sin confirmar se descarta del buzón.
+	 */
+	public long getOutboxMaxAgeMillis() {
+		return outboxMaxAgeMillis;
+	}
+
+	public NodeConfig setOutboxMaxAgeMillis(long outboxMaxAgeMillis) {
+		this.outboxMaxAgeMillis = outboxMaxAgeMillis;
+		return this;
+	}
+
+	/**
+	 * Espera por una confirmación antes de reenviar un mensaje, y periodo de los reintentos.
+	 */
+	public long getOutboxRetryMillis() {
+		return outboxRetryMillis;
+	}
+
+	public NodeConfig setOutboxRetryMillis(long outboxRetryMillis) {
+		this.outboxRetryMillis = outboxRetryMillis;
+		return this;
+	}
+
+	/**
+	 * Mensajes del buzón que se envían en cada lote al reconectar.
+	 */
+	public int getOutboxBatchSize() {
+		return outboxBatchSize;
+	}
+
+	public NodeConfig setOutboxBatchSize(int outboxBatchSize) {
+		this.outboxBatchSize = outboxBatchSize;
+		return this;
+	}
+
+	/**
+	 * Mensajes a "*" que se guardan en memoria para poner al día a los vecinos que reconectan.
+	 */
+	public int getSyncHistorySize() {
+		return syncHistorySize;
+	}
+
+	public NodeConfig setSyncHistorySize(int syncHistorySize) {
+		this.syncHistorySize = syncHistorySize;
+		return this;
+	}
+
+	/**
+	 * Mensajes que como mucho se envían a un vecino al ponerlo al día.
+	 */
+	public int getSyncMaxMessages() {
+		return syncMaxMessages;
+	}
+
+	public NodeConfig setSyncMaxMessages(int syncMaxMessages) {
+		this.syncMaxMessages = syncMaxMessages;
+		return this;
+	}
+
+	/**
+	 * Puerto local en el que se exportan las métricas para Prometheus, o -1 para no exportarlas.
+	 */
+	public int getMetricsPort() {
+		return metricsPort;
+	}
+
+	public NodeConfig setMetricsPort(int metricsPort) {
+		this.metricsPort = metricsPort;
+		return this;
+	}
+
+	/**
+	 * Eventos de cada tipo que se escriben como mucho por segundo en el log.
+	 */
+	public int getEventsPerSecond() {
+		return eventsPerSecond;
+	}
+
+	public NodeConfig setEventsPerSecond(int eventsPerSecond) {
+		this.eventsPerSecond = eventsPerSecond;
+		return this;
+	}
+
+	/**
+	 * Puerto local de la API HTTP de control (enviar, suscribirse, consultar peers), o -1 para no abrirla.
+	 */
+	public int getControlPort() {
+		return controlPort;
+	}
+
+	public NodeConfig setControlPort(int controlPort) {
+		this.controlPort = controlPort;
+		return this;
+	}
+
+	/**
+	 * Canales a los que se suscribe el nodo al arrancar.
+	 */
+	public List<String> getChannels() {
+		return channels;
+	}
+
+	public NodeConfig setChannels(List<String> channels) {
+		this.channels = List.copyOf(channels);
+		return this;
+	}
+
+	/**
+	 * Almacén (PKCS12 o JKS) con el certificado y la clave del nodo, o null para enlaces sin cifrar.
+	 * Todos los nodos de la malla deben tener TLS activado o desactivado a la vez.
+	 */
+	public String getTlsKeyStore() {
+		return tlsKeyStore;
+	}
+
+	public NodeConfig setTlsKeyStore(String tlsKeyStore) {
+		this.tlsKeyStore = tlsKeyStore;
+		return this;
+	}
+
+	public String getTlsKeyStorePassword() {
+		return tlsKeyStorePassword;
+	}
+
+	public NodeConfig setTlsKeyStorePassword(String tlsKeyStorePassword) {
+		this.tlsKeyStorePassword = tlsKeyStorePassword;
+		return this;
+	}
+
+	/**
+	 * Almacén con los certificados de los peers o de la CA de la malla, o null para confiar en los del almacén de claves.
+	 */
+	public String getTlsTrustStore() {
+		return tlsTrustStore;
+	}
+
+	public NodeConfig setTlsTrustStore(String tlsTrustStore) {
+		this.tlsTrustStore = tlsTrustStore;
+		return this;
+	}
+
+	public String getTlsTrustStorePassword() {
+		return tlsTrustStorePassword;
+	}
+
+	public NodeConfig setTlsTrustStorePassword(String tlsTrustStorePassword) {
+		this.tlsTrustStorePassword = tlsTrustStorePassword;
+		return this;
+	}
+
+	/**
+	 * Devuelve la política de salud de un peer: la suya propia si se le asignó una, o la general.
+	 * @param ip IP del peer
+	 */
+	public HealthPolicy getHealthPolicy(String ip) {
+		return peerHealthPolicies.getOrDefault(ip, healthPolicy);
+	}
+
+	/**
+	 * Cambia la política de salud general, la que usan los peers sin política propia.
+	 */
+	public NodeConfig setHealthPolicy(HealthPolicy healthPolicy) {
+		this.healthPolicy = healthPolicy;
+		return this;
+	}
+
+	/**
+	 * Asigna una política de salud propia a un peer. Se aplica a partir de su siguiente conexión.
+	 */
+	public NodeConfig setHealthPolicy(String ip, HealthPolicy healthPolicy) {
+		peerHealthPolicies.put(ip, healthPolicy);
+		return this;
+	}
+}
@@ -0,0 +1,272 @@
+package controller;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import metrics.EventLog;
+
+/**
+ * Buzón de salida de un destino: los mensajes enviados a ese peer que aún no ha confirmado.
+ * Si tiene fichero, cada alta y cada baja se añaden a un diario binario, así el buzón sobrevive
+ * a un reinicio. Al cargar se reconstruye el buzón a partir del diario y este se reescribe solo
+ * con los mensajes vivos; también se reescribe cuando las bajas acumuladas superan a los vivos.
+ */
+class Outbox {
+
+	private static final byte ADD = 1;
+	private static final byte REMOVE = 2;
+
+	/**
+	 * Mensaje pendiente de confirmación.
+	 */
+	static final class Entry {
+		final long id;
+		final long timestamp;
+		final String text;
+		private long lastSentAt;
+
+		private Entry(long id, long timestamp, String text) {
+			this.id = id;
+			this.timestamp = timestamp;
+			this.text = text;
+		}
+	}
+
+	private final String ip;
+	private final Path file;
+	private final LinkedHashMap<Long, Entry> entries;
+	private final EventLog eventLog;
+	private FileChannel journal;
+	private long chars;
+	private int removedInJournal;
+
+	/**
+	 * @param ip Destino de los mensajes
+	 * @param file Diario del buzón, o null para guardarlo solo en memoria
+	 * @param eventLog Registro de eventos del nodo, para los errores del diario
+	 */
+	Outbox(String ip, Path file, EventLog eventLog) {
+		this.ip = ip;
+		this.file = file;
+		this.entries = new LinkedHashMap<>();
+		this.eventLog = eventLog;
+	}
+
+	String getIp() {
+		return ip;
+	}
+
+	//Metodos del diario
+
+	/**
+	 * Reconstruye el buzón a partir del diario, si existe, y lo deja abierto para seguir añadiendo.
+	 * Un registro final a medio escribir se descarta.
+	 */
+	synchronized void load() throws IOException {
+		if(file == null) {
+			return;
+		}
+		if(Files.exists(file)) {
+			try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+				ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(Integer.MAX_VALUE, in.size()));
+				while(buffer.hasRemaining() && in.read(buffer) >= 0) {}
+				buffer.flip();
+				try {
+					while(buffer.hasRemaining()) {
+						byte type = buffer.get();
+						long id = buffer.getLong();
+						if(type == ADD) {
+							long timestamp = buffer.getLong();
+							int length = buffer.getInt();
+							if(length < 0 || length > buffer.remaining()) {
+								throw new EOFException();
+							}
+							String text = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+							buffer.position(buffer.position() + length);
+							put(new Entry(id, timestamp, text));
+						} else if(type == REMOVE) {
+							Entry entry = entries.remove(id);
+							if(entry != null) {
+								chars -= entry.text.length();
+							}
+						} else {
+							throw new EOFException();
+						}
+					}
+				} catch (EOFException | java.nio.BufferUnderflowException e) {
+					eventLog.warning("outbox_torn_tail", "file", file.getFileName());
+				}
+			}
+		}
+		rewrite();
+	}
+
+	/**
+	 * Reescribe el diario con los mensajes vivos. Se escribe aparte y se sustituye de una vez.
+	 */
+	private void rewrite() throws IOException {
+		if(journal != null) {
+			journal.close();
+		}
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			for(Entry entry: entries.values()) {
+				write(out, addRecord(entry));
+			}
+		}
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		journal = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		removedInJournal = 0;
+	}
+
+	private static ByteBuffer addRecord(Entry entry) {
+		byte[] text = entry.text.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer record = ByteBuffer.allocate(1 + 8 + 8 + 4 + text.length);
+		record.put(ADD).putLong(entry.id).putLong(entry.timestamp).putInt(text.length).put(text);
+		return record.flip();
+	}
+
+	private static void write(FileChannel channel, ByteBuffer record) throws IOException {
+		while(record.hasRemaining()) {
+			channel.write(record);
+		}
+	}
+
+	private void journalRemove(long id) {
+		if(journal == null) {
+			return;
+		}
+		try {
+			write(journal, ByteBuffer.allocate(1 + 8).put(REMOVE).putLong(id).flip());
+			if(++removedInJournal > entries.size() + 64) {
+				rewrite();
+			}
+		} catch (IOException e) {
+			eventLog.warning("outbox_write_failed", "file", file.getFileName(), "error", e);
+		}
+	}
+
+	synchronized void close() {
+		if(journal != null) {
+			try {
+				journal.close();
+			} catch (IOException e) {
+				eventLog.warning("outbox_close_failed", "file", file.getFileName(), "error", e);
+			}
+			journal = null;
+		}
+	}
+
+	//Metodos del buzon
+
+	private void put(Entry entry) {
+		if(entries.putIfAbsent(entry.id, entry) == null) {
+			chars += entry.text.length();
+		}
+	}
+
+	/**
+	 * Añade un mensaje. Si el buzón supera sus límites se descartan los más antiguos.
+	 * @param sent True si el mensaje ya ha salido hacia el destino
+	 * @return Número de mensajes descartados para hacer sitio
+	 */
+	synchronized int add(long id, String text, boolean sent, int maxMessages, long maxChars) {
+		Entry entry = new Entry(id, System.currentTimeMillis(), text);
+		entry.lastSentAt = sent ? entry.timestamp : 0;
+		put(entry);
+		if(journal != null) {
+			try {
+				write(journal, addRecord(entry));
+			} catch (IOException e) {
+				eventLog.warning("outbox_write_failed", "file", file.getFileName(), "error", e);
+			}
+		}
+		int dropped = 0;
+		while(entries.size() > 1 && (entries.size() > maxMessages || chars > maxChars)) {
+			remove(entries.keySet().iterator().next());
+			++dropped;
+		}
+		return dropped;
+	}
+
+	/**
+	 * Quita un mensaje confirmado.
+	 * @return True si estaba en el buzón
+	 */
+	synchronized boolean remove(long id) {
+		Entry entry = entries.remove(id);
+		if(entry == null) {
+			return false;
+		}
+		chars -= entry.text.length();
+		journalRemove(id);
+		return true;
+	}
+
+	/**
+	 * Quita los mensajes guardados antes de un momento dado.
+	 * @return Número de mensajes quitados
+	 */
+	synchronized int expire(long before) {
+		int expired = 0;
+		Iterator<Entry> iterator = entries.values().iterator();
+		while(iterator.hasNext()) {
+			Entry entry = iterator.next();
+			if(entry.timestamp >= before) {
+				break;
+			}
+			iterator.remove();
+			chars -= entry.text.length();
+			journalRemove(entry.id);
+			++expired;
+		}
+		return expired;
+	}
+
+	/**
+	 * Elige, en orden, los mensajes que toca enviar: los que nunca han salido o salieron hace más de retryMillis.
+	 * Los elegidos quedan marcados como enviados ahora.
+	 * @param max Número máximo de mensajes del lote
+	 */
+	synchronized List<Entry> due(long now, long retryMillis, int max) {
+		List<Entry> batch = new ArrayList<>();
+		for(Entry entry: entries.values()) {
+			if(batch.size() >= max) {
+				break;
+			}
+			if(now - entry.lastSentAt >= retryMillis) {
+				entry.lastSentAt = now;
+				batch.add(entry);
+			}
+		}
+		return batch;
+	}
+
+	synchronized boolean hasDue(long now, long retryMillis) {
+		for(Entry entry: entries.values()) {
+			if(now - entry.lastSentAt >= retryMillis) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	synchronized int size() {
+		return entries.size();
+	}
+
+	synchronized boolean isEmpty() {
+		return entries.isEmpty();
+	}
+}
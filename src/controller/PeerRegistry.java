@@ -0,0 +1,113 @@
+package controller;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+import connections.Connection;
+
+/**
+ * Registro de peers conocidos, indexado por dirección.
+ * Las búsquedas son O(1) sobre un ConcurrentHashMap y los recorridos (broadcast, reenvío,
+ * reconexión) trabajan sobre una instantánea inmutable que se reconstruye solo cuando
+ * cambia el conjunto de peers, así que pueden hacerse desde cualquier hilo sin bloqueos
+ * y sin riesgo de ConcurrentModificationException.
+ */
+public class PeerRegistry {
+
+	/**
+	 * Recibe los cambios del registro. Se invoca con el registro bloqueado,
+	 * así que debe volver rápido y no modificar el registro.
+	 */
+	public interface Listener {
+		void peerAdded(Connection connection);
+
+		default void peerRemoved(Connection connection) {}
+	}
+
+	private final ConcurrentHashMap<String, Connection> peers;
+	private final CopyOnWriteArrayList<Listener> listeners;
+	private volatile List<Connection> snapshot;
+
+	public PeerRegistry() {
+		peers = new ConcurrentHashMap<>();
+		listeners = new CopyOnWriteArrayList<>();
+		snapshot = List.of();
+	}
+
+	/**
+	 * Busca la conexión de un peer.
+	 * @param ip Dirección del peer
+	 * @return La conexión, o null si el peer no es conocido
+	 */
+	public Connection get(String ip) {
+		return ip == null ? null : peers.get(ip);
+	}
+
+	/**
+	 * Devuelve la conexión de un peer, creándola si no era conocido.
+	 * @param ip Dirección del peer
+	 * @param factory Crea la conexión cuando el peer es nuevo
+	 * @return La conexión del peer
+	 */
+	public Connection getOrCreate(String ip, Function<String, Connection> factory) {
+		Connection connection = peers.get(ip);
+		if(connection != null) {
+			return connection;
+		}
+		synchronized (this) {
+			connection = peers.get(ip);
+			if(connection == null) {
+				connection = factory.apply(ip);
+				peers.put(ip, connection);
+				snapshot = List.copyOf(peers.values());
+				for(Listener listener: listeners) {
+					listener.peerAdded(connection);
+				}
+			}
+			return connection;
+		}
+	}
+
+	/**
+	 * Olvida un peer.
+	 * @param ip Dirección del peer
+	 * @return La conexión eliminada, o null si el peer no era conocido
+	 */
+	public synchronized Connection remove(String ip) {
+		Connection connection = peers.remove(ip);
+		if(connection != null) {
+			snapshot = List.copyOf(peers.values());
+			for(Listener listener: listeners) {
+				listener.peerRemoved(connection);
+			}
+		}
+		return connection;
+	}
+
+	/**
+	 * Devuelve una instantánea inmutable de todas las conexiones conocidas.
+	 */
+	public List<Connection> snapshot() {
+		return snapshot;
+	}
+
+	public int size() {
+		return peers.size();
+	}
+
+	/**
+	 * Registra un listener y le notifica los peers ya conocidos, sin perder ni duplicar altas concurrentes.
+	 */
+	public synchronized void addListener(Listener listener) {
+		for(Connection connection: snapshot) {
+			listener.peerAdded(connection);
+		}
+		listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+}
@@ -0,0 +1,313 @@
+package controller;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import connections.Connection;
+import connections.ConnectionListener;
+import connections.Ipv4Address;
+import connections.TimerWheel;
+import view.Frame;
+
+/**
+ * Tabla de rutas por vector de distancias.
+ * Cada vecino anuncia periódicamente, en marcos ROUTE, los destinos que alcanza y a cuántos saltos;
+ * la tabla se queda con el mejor siguiente salto para cada destino. Los vecinos directos están a un salto.
+ * Los anuncios aplican horizonte dividido: a un vecino no se le anuncian las rutas que pasan por él.
+ * Las consultas por marco trabajan sobre una instantánea inmutable ordenada por dirección,
+ * con búsqueda binaria y sin crear objetos; solo los cambios de rutas toman el bloqueo.
+ */
+public class RoutingTable implements ConnectionListener {
+
+	/**
+	 * Saltos a partir de los cuales un destino se considera inalcanzable.
+	 */
+	public static final int INFINITY = 16;
+
+	/**
+	 * Ruta hacia un destino.
+	 */
+	public static final class Route {
+		private final int destination;
+		private final Connection nextHop;
+		private final int hops;
+
+		private Route(int destination, Connection nextHop, int hops) {
+			this.destination = destination;
+			this.nextHop = nextHop;
+			this.hops = hops;
+		}
+
+		public String getDestination() {
+			return Ipv4Address.toString(destination);
+		}
+
+		public Connection getNextHop() {
+			return nextHop;
+		}
+
+		public int getHops() {
+			return hops;
+		}
+
+		@Override
+		public String toString() {
+			return getDestination() + " via " + nextHop.getClientIp() + " (" + hops + " hops)";
+		}
+	}
+
+	/**
+	 * Último vector de distancias recibido de un vecino.
+	 */
+	private static final class Advert {
+		private final int[] destinations;
+		private final int[] hops;
+		private final long receivedAt;
+
+		private Advert(int[] destinations, int[] hops, long receivedAt) {
+			this.destinations = destinations;
+			this.hops = hops;
+			this.receivedAt = receivedAt;
+		}
+	}
+
+	/**
+	 * Destinos ordenados y sus rutas, publicados juntos para que las consultas vean siempre un par coherente.
+	 */
+	private static final class Snapshot {
+		private final int[] destinations;
+		private final Route[] routes;
+
+		private Snapshot(int[] destinations, Route[] routes) {
+			this.destinations = destinations;
+			this.routes = routes;
+		}
+	}
+
+	private final long advertMillis;
+	private final long triggeredMillis;
+	private final Set<Connection> neighbours;
+	private final Map<Connection, Advert> adverts;
+	private final Set<Integer> localAddresses;
+	private volatile Snapshot snapshot;
+	private boolean triggeredScheduled;
+	private TimerWheel timer;
+	private volatile TimerWheel.Timeout periodic;
+	private volatile boolean runStateRouting;
+
+	/**
+	 * @param advertMillis Periodo de los anuncios completos
+	 * @param triggeredMillis Retardo con el que se agrupan los anuncios provocados por un cambio
+	 */
+	public RoutingTable(long advertMillis, long triggeredMillis) {
+		this.advertMillis = advertMillis;
+		this.triggeredMillis = triggeredMillis;
+		this.neighbours = new HashSet<>();
+		this.adverts = new HashMap<>();
+		this.localAddresses = new HashSet<>();
+		this.snapshot = new Snapshot(new int[0], new Route[0]);
+	}
+
+	public void start(TimerWheel timer) {
+		this.timer = timer;
+		runStateRouting = true;
+		periodic = timer.schedule(this::periodicAdvert, advertMillis);
+	}
+
+	public void stop() {
+		runStateRouting = false;
+		TimerWheel.Timeout periodic = this.periodic;
+		if(periodic != null) {
+			periodic.cancel();
+		}
+	}
+
+	//Metodos de consulta
+
+	/**
+	 * Devuelve el siguiente salto hacia un destino.
+	 * @param destination Dirección empaquetada del destino
+	 * @return La conexión del vecino por el que ir, o null si no hay ruta
+	 */
+	public Connection nextHop(int destination) {
+		Snapshot snapshot = this.snapshot;
+		int index = Arrays.binarySearch(snapshot.destinations, destination);
+		return index < 0 ? null : snapshot.routes[index].nextHop;
+	}
+
+	/**
+	 * Devuelve una copia de las rutas actuales, ordenadas por destino.
+	 */
+	public List<Route> getRoutes() {
+		return List.of(snapshot.routes);
+	}
+
+	//Metodos de eventos
+
+	@Override
+	public void connected(Connection connection) {
+		synchronized (this) {
+			neighbours.add(connection);
+			localAddresses.add(connection.getLocalAddress());
+			recompute();
+		}
+	}
+
+	@Override
+	public void disconnected(Connection connection) {
+		synchronized (this) {
+			neighbours.remove(connection);
+			adverts.remove(connection);
+			recompute();
+		}
+	}
+
+	/**
+	 * Procesa un anuncio ROUTE recibido de un vecino. Sustituye al anterior de ese vecino:
+	 * los destinos que ya no aparecen quedan retirados.
+	 * @param from Conexión del vecino que lo envía
+	 * @param payload Lista "ip saltos" separada por comas
+	 */
+	public void onAdvert(Connection from, String payload) {
+		List<String> entries = payload == null || payload.isEmpty() ? List.of() : List.of(payload.split(","));
+		int[] destinations = new int[entries.size()];
+		int[] hops = new int[entries.size()];
+		int count = 0;
+		for(String entry: entries) {
+			int space = entry.indexOf(' ');
+			if(space < 0 || !Ipv4Address.isValid(entry.substring(0, space))) {
+				continue;
+			}
+			try {
+				hops[count] = Integer.parseInt(entry.substring(space + 1));
+			} catch (NumberFormatException e) {
+				continue;
+			}
+			destinations[count++] = Ipv4Address.parse(entry.substring(0, space));
+		}
+		synchronized (this) {
+			if(!neighbours.contains(from)) {
+				return;
+			}
+			adverts.put(from, new Advert(Arrays.copyOf(destinations, count), Arrays.copyOf(hops, count), System.currentTimeMillis()));
+			recompute();
+		}
+	}
+
+	//Metodos de calculo
+
+	/**
+	 * Recalcula la tabla a partir de los vecinos y sus últimos anuncios (Bellman-Ford).
+	 * Ante empate se conserva el siguiente salto actual para que las rutas no oscilen.
+	 * Si alguna ruta cambia se programa un anuncio provocado.
+	 */
+	private void recompute() {
+		Map<Integer, Route> current = new HashMap<>();
+		Route[] routes = snapshot.routes;
+		for(Route route: routes) {
+			current.put(route.destination, route);
+		}
+		TreeMap<Integer, Route> best = new TreeMap<>();
+		for(Connection neighbour: neighbours) {
+			best.put(neighbour.getClientAddress(), new Route(neighbour.getClientAddress(), neighbour, 1));
+		}
+		for(Map.Entry<Connection, Advert> entry: adverts.entrySet()) {
+			Connection neighbour = entry.getKey();
+			Advert advert = entry.getValue();
+			for(int i = 0; i < advert.destinations.length; ++i) {
+				int destination = advert.destinations[i];
+				int hops = advert.hops[i] + 1;
+				if(hops >= INFINITY || localAddresses.contains(destination)) {
+					continue;
+				}
+				Route known = best.get(destination);
+				if(known == null || hops < known.hops || (hops == known.hops && isCurrent(current, destination, neighbour))) {
+					best.put(destination, new Route(destination, neighbour, hops));
+				}
+			}
+		}
+
+		int[] newDestinations = new int[best.size()];
+		Route[] newRoutes = new Route[best.size()];
+		boolean changed = best.size() != routes.length;
+		int i = 0;
+		for(Route route: best.values()) {
+			Route old = current.get(route.destination);
+			if(old == null || old.nextHop != route.nextHop || old.hops != route.hops) {
+				changed = true;
+			}
+			newRoutes[i] = route;
+			newDestinations[i++] = route.destination;
+		}
+		if(changed) {
+			// Arrays.binarySearch necesita orden con signo, TreeMap ya lo da
+			snapshot = new Snapshot(newDestinations, newRoutes);
+			scheduleTriggered();
+		}
+	}
+
+	private static boolean isCurrent(Map<Integer, Route> current, int destination, Connection neighbour) {
+		Route route = current.get(destination);
+		return route != null && route.nextHop == neighbour;
+	}
+
+	//Metodos de anuncio
+
+	private void scheduleTriggered() {
+		if(!triggeredScheduled && runStateRouting) {
+			triggeredScheduled = true;
+			timer.schedule(() -> {
+				synchronized (this) {
+					triggeredScheduled = false;
+				}
+				advertiseAll();
+			}, triggeredMillis);
+		}
+	}
+
+	private void periodicAdvert() {
+		if(!runStateRouting) {
+			return;
+		}
+		long staleBefore = System.currentTimeMillis() - 3 * advertMillis;
+		synchronized (this) {
+			// Un vecino que deja de anunciar pierde las rutas que ofrecía
+			if(adverts.values().removeIf(advert -> advert.receivedAt < staleBefore)) {
+				recompute();
+			}
+		}
+		advertiseAll();
+		periodic = timer.schedule(this::periodicAdvert, advertMillis);
+	}
+
+	/**
+	 * Envía a cada vecino el vector de distancias actual, sin las rutas que pasan por él.
+	 * Los mensajes se preparan con la tabla bloqueada y se envían fuera del bloqueo.
+	 */
+	private void advertiseAll() {
+		List<Connection> targets;
+		synchronized (this) {
+			targets = new ArrayList<>(neighbours);
+		}
+		Route[] routes = snapshot.routes;
+		for(Connection neighbour: targets) {
+			StringBuilder payload = new StringBuilder();
+			for(Route route: routes) {
+				if(route.nextHop == neighbour) {
+					continue;
+				}
+				if(payload.length() > 0) {
+					payload.append(',');
+				}
+				payload.append(Ipv4Address.toString(route.destination)).append(' ').append(route.hops);
+			}
+			neighbour.sendControl(Frame.FrameType.ROUTE, payload.toString());
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package controller;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caché acotada de identificadores de mensaje ya vistos.
+ * Sirve para descartar los mensajes que llegan duplicados por otro camino de la malla
+ * antes de entregarlos a la vista o de volver a reenviarlos.
+ * Las entradas caducan pasado un tiempo y, si la caché se llena, se expulsan las más antiguas.
+ */
+public class SeenMessageCache {
+
+	private final int maxEntries;
+	private final long expireMillis;
+	private final LinkedHashMap<Long, Long> seen;
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * @param maxEntries Número máximo de identificadores recordados
+	 * @param expireMillis Tiempo en milisegundos que se recuerda cada identificador
+	 */
+	public SeenMessageCache(int maxEntries, long expireMillis) {
+		this.maxEntries = maxEntries;
+		this.expireMillis = expireMillis;
+		this.seen = new LinkedHashMap<>();
+	}
+
+	/**
+	 * Registra un identificador de mensaje.
+	 * @param messageId Identificador del mensaje
+	 * @return True si es la primera vez que se ve, False si es un duplicado
+	 */
+	public synchronized boolean markSeen(long messageId) {
+		long now = System.currentTimeMillis();
+		evictExpired(now);
+		if(seen.containsKey(messageId)) {
+			++hits;
+			return false;
+		}
+		++misses;
+		seen.put(messageId, now);
+		if(seen.size() > maxEntries) {
+			Iterator<Long> eldest = seen.keySet().iterator();
+			eldest.next();
+			eldest.remove();
+			++evictions;
+		}
+		return true;
+	}
+
+	/**
+	 * Informa si un identificador ya se ha visto, sin registrarlo ni contarlo.
+	 */
+	public synchronized boolean contains(long messageId) {
+		evictExpired(System.currentTimeMillis());
+		return seen.containsKey(messageId);
+	}
+
+	private void evictExpired(long now) {
+		Iterator<Map.Entry<Long, Long>> it = seen.entrySet().iterator();
+		while(it.hasNext() && now - it.next().getValue() > expireMillis) {
+			it.remove();
+			++evictions;
+		}
+	}
+
+	//Contadores
+
+	/**
+	 * Número de duplicados descartados.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Número de mensajes vistos por primera vez.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Número de identificadores expulsados por caducidad o por falta de espacio.
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Número de identificadores recordados en este momento.
+	 */
+	public synchronized int size() {
+		return seen.size();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "SeenMessageCache[size=" + seen.size() + "/" + maxEntries + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + "]";
+	}
+}
@@ -0,0 +1,304 @@
+package controller;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import connections.Connection;
+import connections.ConnectionListener;
+import connections.Ipv4Address;
+import connections.TimerWheel;
+import view.Frame;
+
+/**
+ * Entrega con almacenamiento de los mensajes a un peer concreto.
+ * Cada mensaje unicast entra en el buzón de su destino y se queda ahí hasta que el destino lo confirma
+ * con un marco ACK. Mientras el destino no es alcanzable el mensaje espera; en cuanto se establece
+ * la conexión con él (la abra el servicio de reconexión o la acepte el servidor) se le envía el buzón
+ * por lotes de outboxBatchSize. Lo que no se confirma en outboxRetryMillis se reenvía, con el mismo
+ * identificador para que el destino descarte las copias. Los buzones tienen límite de mensajes,
+ * de tamaño y de antigüedad, y se guardan en disco junto al registro de mensajes.
+ * Los ACK se agrupan: cada destino confirma como mucho una vez cada ackDelayMillis todo lo recibido.
+ */
+public class StoreAndForward implements ConnectionListener {
+
+	private final MyP2P myP2P;
+	private final NodeConfig config;
+	private final Path directory;
+	private final ConcurrentHashMap<String, Outbox> outboxes;
+	private final Map<Integer, Set<Long>> pendingAcks;
+	private final long ackDelayMillis;
+	private boolean ackFlushScheduled;
+	private TimerWheel timer;
+	private volatile TimerWheel.Timeout retry;
+	private volatile boolean runStateOutbox;
+
+	//Contadores
+	private long acked;
+	private long retransmitted;
+	private long dropped;
+
+	/**
+	 * @param myP2P Nodo al que pertenecen los buzones
+	 * @param directory Directorio de los diarios de los buzones, o null para guardarlos solo en memoria
+	 * @param ackDelayMillis Retardo con el que se agrupan los ACK
+	 */
+	public StoreAndForward(MyP2P myP2P, Path directory, long ackDelayMillis) {
+		this.myP2P = myP2P;
+		this.config = myP2P.getConfig();
+		this.directory = directory;
+		this.ackDelayMillis = ackDelayMillis;
+		this.outboxes = new ConcurrentHashMap<>();
+		this.pendingAcks = new HashMap<>();
+	}
+
+	/**
+	 * Carga los buzones guardados y arranca los reintentos periódicos.
+	 */
+	public void start(TimerWheel timer) {
+		this.timer = timer;
+		if(directory != null) {
+			try {
+				Files.createDirectories(directory);
+				try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.out")) {
+					for(Path file: files) {
+						String name = file.getFileName().toString();
+						outbox(name.substring(0, name.length() - 4));
+					}
+				}
+			} catch (IOException e) {
+				myP2P.getEventLog().warning("outbox_load_failed", "directory", directory, "error", e);
+			}
+		}
+		runStateOutbox = true;
+		retry = timer.schedule(this::retry, config.getOutboxRetryMillis());
+	}
+
+	public void stop() {
+		runStateOutbox = false;
+		TimerWheel.Timeout retry = this.retry;
+		if(retry != null) {
+			retry.cancel();
+		}
+		for(Outbox outbox: outboxes.values()) {
+			outbox.close();
+		}
+	}
+
+	private Outbox outbox(String ip) {
+		return outboxes.computeIfAbsent(ip, k -> {
+			Outbox outbox = new Outbox(k, directory == null ? null : directory.resolve(k + ".out"), myP2P.getEventLog());
+			try {
+				outbox.load();
+			} catch (IOException e) {
+				myP2P.getEventLog().warning("outbox_memory_only", "peer", k, "error", e);
+			}
+			return outbox;
+		});
+	}
+
+	//Metodos de envio
+
+	/**
+	 * Guarda un mensaje en el buzón de su destino hasta que lo confirme.
+	 * Lo que se envía directamente a un peer antiguo no se guarda: nunca lo confirmaría,
+	 * y como no descarta duplicados el reintento se lo entregaría otra vez.
+	 * @param ip Destino del mensaje
+	 * @param messageId Identificador con el que se envía y se reenvía
+	 * @param sent True si ya se ha enviado; si no, sale en el siguiente vaciado del buzón
+	 */
+	public void enqueue(String ip, long messageId, String message, boolean sent) {
+		if(sent && isLegacyPeer(ip)) {
+			return;
+		}
+		int lost = outbox(ip).add(messageId, message, sent, config.getOutboxMaxMessages(), config.getOutboxMaxChars());
+		if(lost > 0) {
+			synchronized (this) {
+				dropped += lost;
+			}
+			myP2P.getEventLog().warning("outbox_full", "peer", ip, "dropped", lost);
+		}
+	}
+
+	/**
+	 * Envía un lote del buzón de un destino, si es alcanzable. Si quedan más mensajes pendientes
+	 * se programa el siguiente lote, así un buzón largo no acapara el ejecutor ni la cola de salida.
+	 */
+	private void flush(String ip) {
+		Outbox outbox = outboxes.get(ip);
+		if(outbox == null || !runStateOutbox || !myP2P.isReachable(ip)) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		List<Outbox.Entry> batch = outbox.due(now, config.getOutboxRetryMillis(), config.getOutboxBatchSize());
+		for(Outbox.Entry entry: batch) {
+			myP2P.transmit(ip, entry.text, entry.id);
+		}
+		synchronized (this) {
+			retransmitted += batch.size();
+		}
+		// Los peers antiguos no confirman: lo que sale directamente hacia ellos se da por entregado
+		if(isLegacyPeer(ip)) {
+			for(Outbox.Entry entry: batch) {
+				outbox.remove(entry.id);
+			}
+		}
+		if(outbox.hasDue(now, config.getOutboxRetryMillis())) {
+			timer.schedule(() -> myP2P.submit(() -> flush(ip)), 100);
+		}
+	}
+
+	/**
+	 * Informa si el destino es un vecino antiguo con el enlace abierto.
+	 */
+	private boolean isLegacyPeer(String ip) {
+		Connection direct = myP2P.getPeers().get(ip);
+		return direct != null && direct.isOk() && direct.isLegacyPeer();
+	}
+
+	/**
+	 * Reintento periódico: caduca los mensajes demasiado antiguos y vacía los buzones de los destinos alcanzables.
+	 */
+	private void retry() {
+		if(!runStateOutbox) {
+			return;
+		}
+		long expiredBefore = System.currentTimeMillis() - config.getOutboxMaxAgeMillis();
+		for(Outbox outbox: outboxes.values()) {
+			int expired = outbox.expire(expiredBefore);
+			if(expired > 0) {
+				synchronized (this) {
+					dropped += expired;
+				}
+				myP2P.getEventLog().warning("outbox_expired", "peer", outbox.getIp(), "expired", expired);
+			}
+			if(!outbox.isEmpty()) {
+				myP2P.submit(() -> flush(outbox.getIp()));
+			}
+		}
+		retry = timer.schedule(this::retry, config.getOutboxRetryMillis());
+	}
+
+	//Metodos de eventos
+
+	/**
+	 * En cuanto arranca el enlace con un peer se le envía su buzón. Los destinos a los que se llega
+	 * a través de él esperan al siguiente reintento, cuando la tabla de rutas ya los conoce.
+	 */
+	@Override
+	public void linkStarted(Connection connection) {
+		if(outboxes.containsKey(connection.getClientIp())) {
+			myP2P.submit(() -> flush(connection.getClientIp()));
+		}
+	}
+
+	@Override
+	public void disconnected(Connection connection) {}
+
+	//Metodos de confirmacion
+
+	/**
+	 * Apunta la confirmación de un mensaje recibido. Se envía agrupada con las demás del mismo origen.
+	 * @param sourceAddress Origen del mensaje, empaquetado
+	 */
+	public void acknowledge(int sourceAddress, long messageId) {
+		if(messageId == 0 || sourceAddress == Ipv4Address.ANY || sourceAddress == Ipv4Address.BROADCAST) {
+			return;
+		}
+		synchronized (this) {
+			pendingAcks.computeIfAbsent(sourceAddress, k -> new LinkedHashSet<>()).add(messageId);
+			if(!ackFlushScheduled) {
+				ackFlushScheduled = true;
+				timer.schedule(() -> myP2P.submit(this::flushAcks), ackDelayMillis);
+			}
+		}
+	}
+
+	private void flushAcks() {
+		Map<Integer, Set<Long>> batches;
+		synchronized (this) {
+			ackFlushScheduled = false;
+			batches = new HashMap<>(pendingAcks);
+			pendingAcks.clear();
+		}
+		for(Map.Entry<Integer, Set<Long>> batch: batches.entrySet()) {
+			StringBuilder payload = new StringBuilder();
+			for(long id: batch.getValue()) {
+				if(payload.length() > 0) {
+					payload.append(',');
+				}
+				payload.append(Long.toHexString(id));
+			}
+			myP2P.sendAck(Ipv4Address.toString(batch.getKey()), payload.toString());
+		}
+	}
+
+	/**
+	 * Procesa un ACK dirigido a este nodo: los mensajes confirmados salen del buzón de quien lo envía.
+	 */
+	public void onAck(Frame frame) {
+		Outbox outbox = outboxes.get(frame.getSourceIP());
+		String payload = frame.getPayload();
+		if(outbox == null || payload == null || payload.isEmpty()) {
+			return;
+		}
+		int removed = 0;
+		for(String id: payload.split(",")) {
+			try {
+				if(outbox.remove(Long.parseUnsignedLong(id, 16))) {
+					++removed;
+				}
+			} catch (NumberFormatException ignored) {}
+		}
+		synchronized (this) {
+			acked += removed;
+		}
+	}
+
+	//Contadores
+
+	/**
+	 * Mensajes pendientes de confirmar en todos los buzones.
+	 */
+	public int getPending() {
+		int pending = 0;
+		for(Outbox outbox: outboxes.values()) {
+			pending += outbox.size();
+		}
+		return pending;
+	}
+
+	/**
+	 * Mensajes pendientes de confirmar por un destino.
+	 */
+	public int getPending(String ip) {
+		Outbox outbox = outboxes.get(ip);
+		return outbox == null ? 0 : outbox.size();
+	}
+
+	public synchronized long getAcked() {
+		return acked;
+	}
+
+	/**
+	 * Mensajes enviados desde los buzones: los que esperaban al destino y los reenvíos.
+	 */
+	public synchronized long getRetransmitted() {
+		return retransmitted;
+	}
+
+	/**
+	 * Mensajes descartados sin confirmar por llenarse el buzón o por antigüedad.
+	 */
+	public synchronized long getDropped() {
+		return dropped;
+	}
+}
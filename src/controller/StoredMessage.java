@@ -0,0 +1,64 @@
+package controller;
+
+import connections.Ipv4Address;
+
+/**
+ * Mensaje guardado en el registro persistente.
+ */
+public class StoredMessage {
+
+	private final long timestamp;
+	private final boolean outgoing;
+	private final int peerAddress;
+	private final long messageId;
+	private final String text;
+
+	public StoredMessage(long timestamp, boolean outgoing, int peerAddress, long messageId, String text) {
+		this.timestamp = timestamp;
+		this.outgoing = outgoing;
+		this.peerAddress = peerAddress;
+		this.messageId = messageId;
+		this.text = text;
+	}
+
+	/**
+	 * Momento en que se recibió o se envió, en milisegundos.
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * True si el mensaje lo envió este nodo, False si se recibió.
+	 */
+	public boolean isOutgoing() {
+		return outgoing;
+	}
+
+	/**
+	 * Peer de origen si se recibió, o destino ("*" para difusión) si se envió.
+	 */
+	public String getPeerIp() {
+		return Ipv4Address.toString(peerAddress);
+	}
+
+	public int getPeerAddress() {
+		return peerAddress;
+	}
+
+	/**
+	 * Identificador del mensaje en la malla, 0 si no lo tenía.
+	 */
+	public long getMessageId() {
+		return messageId;
+	}
+
+	public String getText() {
+		return text;
+	}
+
+	@Override
+	public String toString() {
+		return (outgoing ? "to " : "from ") + getPeerIp() + " at " + timestamp + ": " + text;
+	}
+}
@@ -0,0 +1,23 @@
+package main;
+
+import controller.MyP2P;
+
+import java.util.Properties;
+
+/**
+ * Punto de entrada sin interfaz gráfica, para nodos que solo retransmiten tráfico en un servidor.
+ * Lee la misma configuración que Main y no carga Swing, así que arranca rápido y cabe en un heap pequeño,
+ * por ejemplo: java -Xmx32m -XX:TieredStopAtLevel=1 -cp out main.Daemon
+ * Se controla con la API HTTP local (control_port) y se para con SIGTERM o Ctrl+C.
+ */
+public class Daemon {
+
+	public static void main(String[] args) {
+		long start = System.nanoTime();
+		Properties properties = Main.loadProperties();
+		MyP2P myP2P = Main.startNode(properties);
+		Runtime.getRuntime().addShutdownHook(new Thread(myP2P::stop, "daemon-shutdown"));
+		System.out.println("Daemon: Node started in " + (System.nanoTime() - start) / 1_000_000 + " ms"
+				+ (myP2P.getControlServer() == null ? "" : ", control API on port " + myP2P.getControlServer().getPort()));
+	}
+}
@@ -1,21 +1,98 @@
 package main;
 
+import connections.TransportMode;
 import controller.MyP2P;
+import controller.NodeConfig;
 import view.View;
 
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
 
 public class Main {
 
 	public static void main(String[] args) {
-		//Lista de ips
-		ArrayList<String> ipList = new ArrayList<>();
-		ipList.add("192.168.0.25");
+		Properties properties = loadProperties();
 
 		//Inicializacion de programa
-		MyP2P myP2P = new MyP2P(ipList);
-		View view = new View();
+		MyP2P myP2P = startNode(properties);
+		View view = new View(Integer.parseInt(properties.getProperty("scrollback_lines", String.valueOf(View.DEFAULT_SCROLLBACK_LINES)).trim()));
 		view.setController(myP2P);
-		myP2P.setView(view);
+	}
+
+	/**
+	 * Arranca el nodo con la configuración. Si no puede arrancar (configuración inválida, puerto ocupado,
+	 * almacén de TLS ilegible) no hay nada que hacer: se explica el motivo y se sale.
+	 */
+	static MyP2P startNode(Properties properties) {
+		try {
+			return new MyP2P(bootstrapPeers(properties), nodeConfig(properties));
+		} catch (IllegalArgumentException | IllegalStateException e) {
+			System.err.println("Main: " + e.getMessage());
+			System.exit(1);
+			return null;
+		}
+	}
+
+	/**
+	 * Lee la configuración del fichero indicado en -Dconfig, por defecto configuration.properties.
+	 * Si no se puede leer se usan los valores por defecto.
+	 */
+	static Properties loadProperties() {
+		Properties properties = new Properties();
+		try (FileInputStream in = new FileInputStream(System.getProperty("config", "configuration.properties"))) {
+			properties.load(in);
+		} catch (IOException e) {
+			System.err.println("Main: No se ha podido leer la configuración, se usan los valores por defecto");
+		}
+		return properties;
+	}
+
+	/**
+	 * Lista de ips de arranque (ip_ul, separadas por comas): el resto de peers se descubre por gossip.
+	 */
+	static ArrayList<String> bootstrapPeers(Properties properties) {
+		ArrayList<String> ipList = new ArrayList<>();
+		for(String ip: properties.getProperty("ip_ul", "").split(",")) {
+			if(!ip.isBlank()) {
+				ipList.add(ip.trim());
+			}
+		}
+		return ipList;
+	}
+
+	/**
+	 * Canales a los que suscribirse al arrancar (channels, separados por comas).
+	 */
+	static List<String> channels(Properties properties) {
+		List<String> channels = new ArrayList<>();
+		for(String channel: properties.getProperty("channels", "").split(",")) {
+			if(!channel.isBlank()) {
+				channels.add(channel.trim());
+			}
+		}
+		return channels;
+	}
+
+	/**
+	 * Parámetros del nodo a partir de la configuración.
+	 * Transporte: -Dtransport=nio para usar bucles de selector en lugar de un hilo por conexión.
+	 * Con tls_keystore los enlaces van cifrados con TLS, que solo admite los transportes thread y virtual.
+	 */
+	static NodeConfig nodeConfig(Properties properties) {
+		return new NodeConfig()
+				.setServerPort(Integer.parseInt(properties.getProperty("server_port", "1234").trim()))
+				.setBindAddress(properties.getProperty("bind_address") == null ? null : properties.getProperty("bind_address").trim())
+				.setTransportMode(TransportMode.valueOf(System.getProperty("transport", "thread").toUpperCase()))
+				.setStoreDirectory(properties.getProperty("store_dir", "messages").trim())
+				.setMetricsPort(Integer.parseInt(properties.getProperty("metrics_port", "-1").trim()))
+				.setControlPort(Integer.parseInt(properties.getProperty("control_port", "-1").trim()))
+				.setChannels(channels(properties))
+				.setTlsKeyStore(properties.getProperty("tls_keystore") == null ? null : properties.getProperty("tls_keystore").trim())
+				.setTlsKeyStorePassword(properties.getProperty("tls_keystore_password", ""))
+				.setTlsTrustStore(properties.getProperty("tls_truststore") == null ? null : properties.getProperty("tls_truststore").trim())
+				.setTlsTrustStorePassword(properties.getProperty("tls_truststore_password", ""));
 	}
 }
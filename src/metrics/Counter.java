@@ -0,0 +1,24 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contador monótono. Usa un LongAdder, repartido en celdas, para que muchos hilos
+ * lo incrementen a la vez sin competir por la misma línea de caché.
+ */
+public final class Counter {
+
+	private final LongAdder adder = new LongAdder();
+
+	public void increment() {
+		adder.increment();
+	}
+
+	public void add(long amount) {
+		adder.add(amount);
+	}
+
+	public long get() {
+		return adder.sum();
+	}
+}
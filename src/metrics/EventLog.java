@@ -0,0 +1,91 @@
+package metrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Eventos estructurados con límite de frecuencia, para los avisos de los caminos calientes.
+ * Cada evento es una línea "event=nombre clave=valor ..." en java.util.logging.
+ * De cada tipo de evento se escriben como mucho maxPerSecond por segundo; el resto solo se cuentan
+ * y el siguiente que se escribe lleva "suppressed=n". Así un peer que falla en bucle no satura la consola
+ * ni hace esperar a las conexiones que escriben en ella.
+ */
+public class EventLog {
+
+	private static final Logger LOGGER = Logger.getLogger("p2p.events");
+	private static final long WINDOW_NANOS = 1_000_000_000L;
+
+	/**
+	 * Ventana de un tipo de evento. Se accede con el propio objeto bloqueado.
+	 */
+	private static final class Window {
+		private long start;
+		private int emitted;
+		private long suppressed;
+	}
+
+	private final int maxPerSecond;
+	private final ConcurrentHashMap<String, Window> windows;
+
+	/**
+	 * @param maxPerSecond Eventos de cada tipo que se escriben como mucho por segundo
+	 */
+	public EventLog(int maxPerSecond) {
+		this.maxPerSecond = maxPerSecond;
+		this.windows = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Escribe un evento, si su tipo no ha superado el límite en el último segundo.
+	 * Los argumentos solo se formatean si el evento se escribe.
+	 * @param level Nivel de java.util.logging
+	 * @param event Tipo del evento
+	 * @param keyValues Pares clave, valor
+	 */
+	public void event(Level level, String event, Object... keyValues) {
+		if(!LOGGER.isLoggable(level)) {
+			return;
+		}
+		Window window = windows.computeIfAbsent(event, k -> new Window());
+		long suppressed;
+		synchronized (window) {
+			long now = System.nanoTime();
+			if(now - window.start >= WINDOW_NANOS) {
+				window.start = now;
+				window.emitted = 0;
+			}
+			if(window.emitted >= maxPerSecond) {
+				++window.suppressed;
+				return;
+			}
+			++window.emitted;
+			suppressed = window.suppressed;
+			window.suppressed = 0;
+		}
+		StringBuilder line = new StringBuilder("event=").append(event);
+		for(int i = 0; i + 1 < keyValues.length; i += 2) {
+			line.append(' ').append(keyValues[i]).append('=').append(keyValues[i + 1]);
+		}
+		if(suppressed > 0) {
+			line.append(" suppressed=").append(suppressed);
+		}
+		LOGGER.log(level, line.toString());
+	}
+
+	public void info(String event, Object... keyValues) {
+		event(Level.INFO, event, keyValues);
+	}
+
+	public void warning(String event, Object... keyValues) {
+		event(Level.WARNING, event, keyValues);
+	}
+
+	/**
+	 * Eventos de depuración (pings, cambios de estado). Con la configuración por defecto de
+	 * java.util.logging no se escriben y no cuestan más que la comprobación del nivel.
+	 */
+	public void fine(String event, Object... keyValues) {
+		event(Level.FINE, event, keyValues);
+	}
+}
@@ -0,0 +1,76 @@
+package metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Servidor HTTP local del que Prometheus lee las métricas, en GET /metrics.
+ * Solo escucha en la interfaz de loopback y atiende las peticiones en un único hilo propio,
+ * así una lectura nunca quita tiempo a los hilos de las conexiones.
+ */
+public class MetricsExporter {
+
+	private final MetricsRegistry registry;
+	private final int port;
+	private HttpServer server;
+	private ExecutorService executor;
+
+	/**
+	 * @param registry Métricas a exportar
+	 * @param port Puerto local en el que escuchar
+	 */
+	public MetricsExporter(MetricsRegistry registry, int port) {
+		this.registry = registry;
+		this.port = port;
+	}
+
+	public void start() throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/metrics", this::handle);
+		executor = Executors.newSingleThreadExecutor(task -> {
+			Thread thread = new Thread(task, "metrics-exporter");
+			thread.setDaemon(true);
+			return thread;
+		});
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	public void stop() {
+		if(server != null) {
+			server.stop(0);
+			executor.shutdownNow();
+			server = null;
+		}
+	}
+
+	/**
+	 * Devuelve el puerto en el que escucha, útil si se arrancó en el puerto 0.
+	 */
+	public int getPort() {
+		return server == null ? port : server.getAddress().getPort();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try (exchange) {
+			if(!"GET".equals(exchange.getRequestMethod())) {
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+			byte[] body = registry.toPrometheus().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		}
+	}
+}
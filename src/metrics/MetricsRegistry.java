@@ -0,0 +1,170 @@
+package metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Registro de las métricas del nodo.
+ * Cada métrica tiene un nombre, una ayuda y unas etiquetas (pares nombre, valor, por ejemplo "peer", ip).
+ * Las series se crean una vez y quien las actualiza guarda la referencia: registrar un valor nunca
+ * pasa por el registro ni bloquea. Los valores que ya se cuentan en otro sitio (los LinkStats,
+ * las colas) se leen con un LongSupplier solo al exportar.
+ * Se exporta en el formato de texto de Prometheus; los histogramas, como resumen con percentiles.
+ */
+public class MetricsRegistry {
+
+	private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+	private enum Type {
+		COUNTER,
+		GAUGE,
+		SUMMARY
+	}
+
+	/**
+	 * Métrica con todas sus series, una por combinación de etiquetas.
+	 */
+	private static final class Family {
+		private final String name;
+		private final String help;
+		private final Type type;
+		private final double scale;
+		private final Map<String, Object> series = new ConcurrentSkipListMap<>();
+
+		private Family(String name, String help, Type type, double scale) {
+			this.name = name;
+			this.help = help;
+			this.type = type;
+			this.scale = scale;
+		}
+	}
+
+	private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+	//Metodos de registro
+
+	/**
+	 * Devuelve el contador con ese nombre y etiquetas, creándolo si no existe.
+	 * @param labels Pares nombre, valor
+	 */
+	public Counter counter(String name, String help, String... labels) {
+		return (Counter) family(name, help, Type.COUNTER, 1).series.computeIfAbsent(labels(labels), k -> new Counter());
+	}
+
+	/**
+	 * Devuelve el histograma con ese nombre y etiquetas, creándolo si no existe.
+	 * @param scale Factor con el que se pasan los valores registrados a la unidad exportada (1e-9 de nanosegundos a segundos)
+	 * @param labels Pares nombre, valor
+	 */
+	public Histogram histogram(String name, String help, double scale, String... labels) {
+		return (Histogram) family(name, help, Type.SUMMARY, scale).series.computeIfAbsent(labels(labels), k -> new Histogram());
+	}
+
+	/**
+	 * Registra un contador cuyo valor se lee de otro sitio al exportar.
+	 * @param labels Pares nombre, valor
+	 */
+	public void counter(String name, String help, LongSupplier value, String... labels) {
+		family(name, help, Type.COUNTER, 1).series.put(labels(labels), value);
+	}
+
+	/**
+	 * Registra un valor instantáneo (profundidad de una cola, número de peers) que se lee al exportar.
+	 * @param labels Pares nombre, valor
+	 */
+	public void gauge(String name, String help, LongSupplier value, String... labels) {
+		family(name, help, Type.GAUGE, 1).series.put(labels(labels), value);
+	}
+
+	/**
+	 * Elimina todas las series que llevan una etiqueta, por ejemplo las de un peer olvidado.
+	 */
+	public void remove(String label, String value) {
+		String pair = label + "=\"" + escape(value) + "\"";
+		for(Family family: families.values()) {
+			family.series.keySet().removeIf(key -> key.equals(pair) || key.startsWith(pair + ",") || key.contains("," + pair));
+		}
+	}
+
+	private Family family(String name, String help, Type type, double scale) {
+		Family family = families.computeIfAbsent(name, k -> new Family(name, help, type, scale));
+		if(family.type != type) {
+			throw new IllegalArgumentException("Metric " + name + " already registered as " + family.type);
+		}
+		return family;
+	}
+
+	private static String labels(String... labels) {
+		if(labels.length % 2 != 0) {
+			throw new IllegalArgumentException("Labels must be name, value pairs");
+		}
+		StringBuilder key = new StringBuilder();
+		for(int i = 0; i < labels.length; i += 2) {
+			if(key.length() > 0) {
+				key.append(',');
+			}
+			key.append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+		}
+		return key.toString();
+	}
+
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	//Metodos de exportacion
+
+	/**
+	 * Escribe todas las métricas en el formato de texto de Prometheus (versión 0.0.4).
+	 */
+	public void writePrometheus(StringBuilder out) {
+		for(Family family: families.values()) {
+			if(family.series.isEmpty()) {
+				continue;
+			}
+			out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+			out.append("# TYPE ").append(family.name).append(' ').append(family.type.name().toLowerCase()).append('\n');
+			for(Map.Entry<String, Object> series: family.series.entrySet()) {
+				String labels = series.getKey();
+				Object metric = series.getValue();
+				if(metric instanceof Counter counter) {
+					sample(out, family.name, labels, counter.get());
+				} else if(metric instanceof LongSupplier supplier) {
+					sample(out, family.name, labels, supplier.getAsLong());
+				} else if(metric instanceof Histogram histogram) {
+					for(double quantile: QUANTILES) {
+						String quantileLabel = "quantile=\"" + quantile + "\"";
+						sample(out, family.name, labels.isEmpty() ? quantileLabel : labels + "," + quantileLabel, histogram.quantile(quantile) * family.scale);
+					}
+					sample(out, family.name + "_sum", labels, histogram.getSum() * family.scale);
+					sample(out, family.name + "_count", labels, histogram.getCount());
+				}
+			}
+		}
+	}
+
+	private static void sample(StringBuilder out, String name, String labels, double value) {
+		out.append(name);
+		if(!labels.isEmpty()) {
+			out.append('{').append(labels).append('}');
+		}
+		out.append(' ');
+		if(value == Math.rint(value) && Math.abs(value) < 1e15) {
+			out.append((long) value);
+		} else {
+			out.append(value);
+		}
+		out.append('\n');
+	}
+
+	/**
+	 * Devuelve todas las métricas en el formato de texto de Prometheus.
+	 */
+	public String toPrometheus() {
+		StringBuilder out = new StringBuilder();
+		writePrometheus(out);
+		return out.toString();
+	}
+}
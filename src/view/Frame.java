@@ -1,13 +1,35 @@
 package view;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 
+import connections.Ipv4Address;
+
 public class Frame implements Serializable {
 
+	private static final long serialVersionUID = -7395625743062799920L;
+
 	public enum FrameType {
 		PING,
 		PING_ACK,
-		MESSAGE
+		MESSAGE,
+		// Anuncio de rutas entre vecinos. Los peers antiguos no lo conocen: no se les envía
+		ROUTE,
+		// Muestra de peers conocidos para el descubrimiento por gossip
+		GOSSIP,
+		// Difusión en árbol (Plumtree): anuncio de mensajes, petición de un mensaje y poda de un enlace
+		IHAVE,
+		GRAFT,
+		PRUNE,
+		// Fragmento de un mensaje grande. Los relays lo reenvían sin reensamblar
+		CHUNK,
+		// Confirmación de entrega de mensajes unicast. Viaja hasta el origen como un mensaje más
+		ACK,
+		// Resumen de los mensajes a "*" vistos, por origen, que se intercambia al conectar para ponerse al día
+		SYNC,
+		// Filtros de Bloom con los canales que interesan a través del vecino que lo envía
+		INTEREST
 	}
 
 	protected FrameType frameType;
@@ -15,11 +37,31 @@ public class Frame implements Serializable {
 	private String sourceIp;
 	private String targetIp;
 	private String payload;
+	private long messageId;
+	// Canal de una difusión, null si va a todos. No se serializa: los peers antiguos no reciben marcos de canal
+	private transient String channel;
+	// Direcciones empaquetadas. No se serializan: los peers antiguos solo conocen las cadenas
+	private transient int sourceAddress;
+	private transient int targetAddress;
+	private transient boolean addressesParsed;
 
 	public final void setHeader(Integer timeToLive, String sourceIp, String targetIp) {
 		this.timeToLive = timeToLive;
 		this.sourceIp = sourceIp;
 		this.targetIp = targetIp;
+		this.addressesParsed = false;
+	}
+
+	/**
+	 * Cabecera con las direcciones ya empaquetadas. Las cadenas solo se generan si alguien las pide.
+	 */
+	public final void setHeader(int timeToLive, int sourceAddress, int targetAddress) {
+		this.timeToLive = timeToLive;
+		this.sourceIp = null;
+		this.targetIp = null;
+		this.sourceAddress = sourceAddress;
+		this.targetAddress = targetAddress;
+		this.addressesParsed = true;
 	}
 
 	public final void setPayload(String payload) {
@@ -30,26 +72,100 @@ public class Frame implements Serializable {
 		return payload;
 	}
 
+	/**
+	 * Identificador único del mensaje: los 32 bits altos identifican al nodo de origen
+	 * y los 32 bajos son su número de secuencia. 0 si el marco no lleva identificador.
+	 */
+	public final void setMessageId(long messageId) {
+		this.messageId = messageId;
+	}
+
+	public final long getMessageId() {
+		return messageId;
+	}
+
+	/**
+	 * Canal al que va una difusión: solo la reciben los nodos suscritos y los que llevan hacia ellos.
+	 * @param channel Nombre del canal, o null para una difusión a todos
+	 */
+	public final void setChannel(String channel) {
+		this.channel = channel;
+	}
+
+	public final String getChannel() {
+		return channel;
+	}
+
+	public final int getOriginId() {
+		return (int) (messageId >>> 32);
+	}
+
+	public final int getSequence() {
+		return (int) messageId;
+	}
+
+	/**
+	 * Consume un salto del marco.
+	 * @return True si el marco ha agotado sus saltos y no se debe reenviar
+	 */
 	public final boolean decrementTTL() {
-		if(this.timeToLive > 0)
+		if(this.timeToLive == null || this.timeToLive <= 1) {
+			this.timeToLive = 0;
 			return true;
-		else
-			--this.timeToLive;
+		}
+		--this.timeToLive;
 		return false;
 	}
 
+	public final int getTimeToLive() {
+		return this.timeToLive == null ? 0 : this.timeToLive;
+	}
+
 	public final FrameType getFrameType() {
 		return this.frameType;
 	}
 
 	public final String getSourceIP() {
+		if(this.sourceIp == null && this.addressesParsed) {
+			this.sourceIp = Ipv4Address.toString(this.sourceAddress);
+		}
 		return this.sourceIp;
 	}
 
 	public final String getTargetIP() {
+		if(this.targetIp == null && this.addressesParsed) {
+			this.targetIp = Ipv4Address.toString(this.targetAddress);
+		}
 		return this.targetIp;
 	}
 
+	public final int getSourceAddress() {
+		parseAddresses();
+		return this.sourceAddress;
+	}
+
+	public final int getTargetAddress() {
+		parseAddresses();
+		return this.targetAddress;
+	}
+
+	private void parseAddresses() {
+		if(!this.addressesParsed) {
+			this.sourceAddress = Ipv4Address.parse(this.sourceIp);
+			this.targetAddress = Ipv4Address.parse(this.targetIp);
+			this.addressesParsed = true;
+		}
+	}
+
+	/**
+	 * Genera las cadenas de las direcciones antes de serializar, para los peers antiguos.
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		getSourceIP();
+		getTargetIP();
+		out.defaultWriteObject();
+	}
+
 	public void setFrameType(FrameType frameType) {
 		this.frameType = frameType;
 	}
@@ -0,0 +1,70 @@
+package view;
+
+import java.util.List;
+
+import javax.swing.AbstractListModel;
+
+/**
+ * Historial del chat con un número máximo de líneas, guardado en un buffer circular.
+ * Al llenarse, cada línea nueva sustituye a la más antigua, así que la memoria no crece
+ * con la duración de la sesión. Solo se usa desde el EDT.
+ */
+public class ScrollbackModel extends AbstractListModel<String> {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String[] lines;
+	private int head;
+	private int size;
+
+	/**
+	 * @param capacity Número máximo de líneas que se conservan
+	 */
+	public ScrollbackModel(int capacity) {
+		this.lines = new String[Math.max(1, capacity)];
+	}
+
+	@Override
+	public int getSize() {
+		return size;
+	}
+
+	@Override
+	public String getElementAt(int index) {
+		return lines[(head + index) % lines.length];
+	}
+
+	/**
+	 * Número máximo de líneas que se conservan.
+	 */
+	public int getCapacity() {
+		return lines.length;
+	}
+
+	/**
+	 * Añade un lote de líneas al final, descartando las más antiguas si no caben.
+	 * Se notifica un solo evento de borrado y uno de inserción por lote.
+	 */
+	public void addAll(List<String> batch) {
+		// Del lote solo pueden quedar las últimas capacity líneas
+		int from = Math.max(0, batch.size() - lines.length);
+		int added = batch.size() - from;
+		if(added == 0) {
+			return;
+		}
+		int overflow = Math.max(0, size + added - lines.length);
+		if(overflow > 0) {
+			for(int i = 0; i < overflow; ++i) {
+				lines[(head + i) % lines.length] = null;
+			}
+			head = (head + overflow) % lines.length;
+			size -= overflow;
+			fireIntervalRemoved(this, 0, overflow - 1);
+		}
+		for(int i = from; i < batch.size(); ++i) {
+			lines[(head + size) % lines.length] = batch.get(i);
+			++size;
+		}
+		fireIntervalAdded(this, size - added, size - 1);
+	}
+}
@@ -1,7 +1,12 @@
 package view;
 
 
+import connections.Connection;
+import connections.ConnectionListener;
+import connections.ConnectionStatus;
+import controller.MessageListener;
 import controller.MyP2P;
+import controller.PeerRegistry;
 
 import javax.swing.*;
 import javax.swing.table.DefaultTableCellRenderer;
@@ -9,54 +14,234 @@ import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableColumn;
 import java.awt.*;
 import java.awt.event.*;
-
-public class View extends JFrame implements WindowListener {
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class View extends JFrame implements WindowListener, ConnectionListener, MessageListener {
+
+	/**
+	 * Líneas del historial del chat por defecto.
+	 */
+	public static final int DEFAULT_SCROLLBACK_LINES = 10000;
+	// Cadencia a la que se pintan los mensajes recibidos, unas 30 veces por segundo
+	private static final int REFRESH_MILLIS = 33;
+	// Las líneas más largas se recortan: el historial no es sitio para leer un volcado entero
+	private static final int MAX_LINE_CHARS = 2000;
 
 	private final JTable connections;
-	private JTextArea chat;
+	private JList<String> chat;
+	private final ScrollbackModel scrollback;
 	private final JTextField inputMessage;
 	private JButton sendButton;
 	private MyP2P controller;
-	private boolean validConnectionsInTable = false;
 
-	private boolean runState;
+	// Cambios pendientes de pintar, que llegan desde los hilos de red. Las altas y bajas de peers
+	// van en orden en la misma cola; una baja lleva el estado a null
+	private final Queue<String[]> pendingRows = new ConcurrentLinkedQueue<>();
+	private final ConcurrentHashMap<String, String> pendingStates = new ConcurrentHashMap<>();
+	private final AtomicBoolean updateScheduled = new AtomicBoolean();
+	// Líneas del chat pendientes de pintar. Nunca hay más de las que caben en el historial
+	private final Queue<String> pendingLines = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger pendingCount = new AtomicInteger();
+	private final Timer refreshTimer;
+	// Estado de la tabla, solo se toca desde el EDT
+	private final Map<String, Integer> rows = new HashMap<>();
+	private final Set<String> connectedPeers = new HashSet<>();
+	// Ancho de la línea más larga pintada en el chat
+	private int chatWidth;
+	// Los envíos salen de un hilo propio, en orden: con la política BLOCK una cola de salida llena
+	// dejaría esperando al EDT y congelaría la ventana
+	private final ExecutorService sender = Executors.newSingleThreadExecutor(task -> {
+		Thread thread = new Thread(task, "view-sender");
+		thread.setDaemon(true);
+		return thread;
+	});
 
 	public View() {
+		this(DEFAULT_SCROLLBACK_LINES);
+	}
+
+	/**
+	 * @param scrollbackLines Número máximo de líneas que conserva el historial del chat
+	 */
+	public View(int scrollbackLines) {
+		scrollback = new ScrollbackModel(scrollbackLines);
 		setTitle("Chat");
 		setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 		setPreferredSize(new Dimension(800, 600));
 		addWindowListener(this);
 		connections = new JTable(new DefaultTableModel(new String[]{"IP","STATE"}, 0));
-		runState = true;
 		inputMessage = new JTextField();
 		sendButton = new JButton();
 		initializeComponents();
+		// Sin peers conectados no se puede enviar
+		sendButton.setEnabled(false);
+		inputMessage.setEnabled(false);
 		pack();
 		setLocationRelativeTo(null);
 		setVisible(true);
+		// Los mensajes se pintan por lotes a ritmo de fotogramas, no uno a uno según llegan
+		refreshTimer = new Timer(REFRESH_MILLIS, e -> drainChat());
+		refreshTimer.setCoalesce(true);
+		refreshTimer.start();
 	}
 
-	public void addConnection(String ip) {
-		DefaultTableModel model = (DefaultTableModel) connections.getModel();
-		Object[] rowData = {ip, ""};
-		model.addRow(rowData);
+	/**
+	 * Añade un peer a la tabla. Puede llamarse desde cualquier hilo: la fila se pinta en el EDT.
+	 * @param ip IP del peer
+	 * @param connected Estado del peer en el momento de darlo de alta
+	 */
+	public void addConnection(String ip, boolean connected) {
+		pendingRows.add(new String[]{ip, connected ? "CONNECTED" : "DISCONNECTED"});
+		scheduleUpdate();
+	}
+
+	/**
+	 * Quita un peer de la tabla. Puede llamarse desde cualquier hilo: la fila se borra en el EDT.
+	 * @param ip IP del peer
+	 */
+	public void removeConnection(String ip) {
+		pendingRows.add(new String[]{ip, null});
+		scheduleUpdate();
 	}
 
+	/**
+	 * Asocia la vista a un nodo: muestra los últimos mensajes del registro y se suscribe
+	 * a sus mensajes, a sus eventos de conexión y a los peers que vaya conociendo.
+	 */
 	public void setController(MyP2P controller) {
 		this.controller = controller;
-		new Thread(this::pullConnection).start();
+		controller.replay(this);
+		controller.addMessageListener(this);
+		controller.addConnectionListener(this);
+		controller.getPeers().addListener(new PeerRegistry.Listener() {
+			@Override
+			public void peerAdded(Connection connection) {
+				addConnection(connection.getClientIp(), connection.isOk());
+			}
+
+			@Override
+			public void peerRemoved(Connection connection) {
+				removeConnection(connection.getClientIp());
+			}
+		});
+	}
+
+	//Eventos de conexion
+
+	@Override
+	public void connected(Connection connection) {
+		pendingStates.put(connection.getClientIp(), "CONNECTED");
+		scheduleUpdate();
+	}
+
+	@Override
+	public void disconnected(Connection connection) {
+		pendingStates.put(connection.getClientIp(), "DISCONNECTED");
+		scheduleUpdate();
+	}
+
+	@Override
+	public void statusChanged(Connection connection, ConnectionStatus status) {
+		if(connection.isOk()) {
+			pendingStates.put(connection.getClientIp(), status == ConnectionStatus.AWAITING ? "AWAITING" : "CONNECTED");
+			scheduleUpdate();
+		}
+	}
+
+	/**
+	 * Programa en el EDT la aplicación de los cambios pendientes, si no estaba ya programada.
+	 * Todos los cambios que lleguen hasta entonces se pintan en el mismo lote.
+	 */
+	private void scheduleUpdate() {
+		if(updateScheduled.compareAndSet(false, true)) {
+			SwingUtilities.invokeLater(this::applyUpdates);
+		}
+	}
+
+	private void applyUpdates() {
+		updateScheduled.set(false);
+		DefaultTableModel model = (DefaultTableModel) connections.getModel();
+		String[] row;
+		while((row = pendingRows.poll()) != null) {
+			if(row[1] == null) {
+				removeRow(model, row[0]);
+			} else if(!rows.containsKey(row[0])) {
+				// Si un evento de estado ya creó la fila, su estado es más reciente que el del alta
+				addRow(model, row[0], row[1]);
+			}
+		}
+		for(String ip: pendingStates.keySet()) {
+			String state = pendingStates.remove(ip);
+			if(state != null) {
+				Integer index = rows.get(ip);
+				if(index == null) {
+					// Un evento que llega tras la baja del peer no vuelve a darlo de alta
+					if(controller == null || controller.getPeers().get(ip) != null) {
+						addRow(model, ip, state);
+					}
+				} else {
+					model.setValueAt(state, index, 1);
+					trackState(ip, state);
+				}
+			}
+		}
+		boolean validConnections = !connectedPeers.isEmpty();
+		if(sendButton.isEnabled() != validConnections) {
+			sendButton.setEnabled(validConnections);
+			inputMessage.setEnabled(validConnections);
+		}
+	}
+
+	private void addRow(DefaultTableModel model, String ip, String state) {
+		model.addRow(new Object[]{ip, state});
+		rows.put(ip, model.getRowCount() - 1);
+		trackState(ip, state);
+	}
+
+	private void removeRow(DefaultTableModel model, String ip) {
+		Integer index = rows.remove(ip);
+		if(index == null) {
+			return;
+		}
+		model.removeRow(index);
+		connectedPeers.remove(ip);
+		// Las filas de debajo suben una posición
+		rows.replaceAll((peer, position) -> position > index ? position - 1 : position);
+	}
+
+	private void trackState(String ip, String state) {
+		if(state.equals("DISCONNECTED")) {
+			connectedPeers.remove(ip);
+		} else {
+			connectedPeers.add(ip);
+		}
 	}
 
 	private void initializeComponents() {
 		JPanel mainPanel = new JPanel(new GridBagLayout());
 		GridBagConstraints c = new GridBagConstraints();
 
-		// Area para recibir mensajes
-		chat = new JTextArea();
-		chat.setLineWrap(true);
+		// Area para recibir mensajes. Con celdas de tamaño fijo la lista solo pinta
+		// las líneas visibles, así que el coste no depende de la longitud del historial.
+		// El ancho sigue a la línea más larga que se ha pintado y las que no caben se leen
+		// con la barra horizontal
+		chat = new JList<>(scrollback);
+		chat.setFixedCellHeight(chat.getFontMetrics(chat.getFont()).getHeight() + 2);
+		chat.setFixedCellWidth(chatWidth);
 		JScrollPane scrollChat = new JScrollPane(chat);
-		scrollChat.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
-		chat.setEditable(false);
+		scrollChat.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
 		c.gridx = 0;
 		c.gridy = 0;
 		c.weightx = 0.5;
@@ -164,8 +349,12 @@ public class View extends JFrame implements WindowListener {
 				String state = (String) value;
 				if (state.equals("CONNECTED")) {
 					setBackground(Color.GREEN);
+				} else if (state.equals("AWAITING")) {
+					setBackground(Color.ORANGE);
 				} else if (state.equals("DISCONNECTED")) {
 					setBackground(Color.RED);
+				} else {
+					setBackground(table.getBackground());
 				}
 
 				return this;
@@ -174,12 +363,99 @@ public class View extends JFrame implements WindowListener {
 	}
 
 	private void sendMessage(String message) {
-		chat.append("MESSAGE: " + message + "\n");
-		controller.sendMessage("*", message);
+		appendChat("MESSAGE: ", message);
+		sender.execute(() -> controller.sendMessage("*", message));
+	}
+
+	//Eventos de mensajes
+
+	@Override
+	public void messageReceived(String sourceIp, long messageId, String message) {
+		pushMessage(sourceIp, message);
 	}
 
+	@Override
+	public void channelMessageReceived(String channel, String sourceIp, long messageId, String message) {
+		appendChat("FROM ("+sourceIp+") #"+channel+" : ", message);
+	}
+
+	@Override
+	public void messageSent(String targetIp, long messageId, String message) {
+		pushOwnMessage(message);
+	}
+
+	/**
+	 * Añade un mensaje recibido al chat. Puede llamarse desde cualquier hilo:
+	 * solo encola sus líneas, que el temporizador pinta en el EDT.
+	 * @param ip IP del peer que lo envía
+	 * @param message Mensaje recibido
+	 */
 	public void pushMessage(String ip, String message) {
-		chat.append("FROM ("+ip+") : " + message + "\n");
+		appendChat("FROM ("+ip+") : ", message);
+	}
+
+	/**
+	 * Añade al chat un mensaje enviado por este nodo, como los del registro al arrancar.
+	 * Puede llamarse desde cualquier hilo.
+	 * @param message Mensaje enviado
+	 */
+	public void pushOwnMessage(String message) {
+		appendChat("MESSAGE: ", message);
+	}
+
+	/**
+	 * Parte un mensaje en líneas y las encola. Si el EDT se retrasa y la cola supera
+	 * el tamaño del historial se descartan las más antiguas, que no llegarían a verse.
+	 */
+	private void appendChat(String prefix, String message) {
+		String indent = " ".repeat(prefix.length());
+		int start = 0;
+		boolean first = true;
+		while(start <= message.length()) {
+			int end = message.indexOf('\n', start);
+			if(end < 0) {
+				end = message.length();
+			}
+			String line = end - start > MAX_LINE_CHARS
+					? message.substring(start, start + MAX_LINE_CHARS) + "\u2026"
+					: message.substring(start, end);
+			pendingLines.add((first ? prefix : indent) + line);
+			if(pendingCount.incrementAndGet() > scrollback.getCapacity() && pendingLines.poll() != null) {
+				pendingCount.decrementAndGet();
+			}
+			first = false;
+			start = end + 1;
+		}
+	}
+
+	/**
+	 * Pinta en el EDT las líneas pendientes en un solo lote. Si la vista estaba al final
+	 * del historial se desplaza para seguir mostrando lo último.
+	 */
+	private void drainChat() {
+		if(pendingLines.isEmpty()) {
+			return;
+		}
+		List<String> batch = new ArrayList<>();
+		FontMetrics metrics = chat.getFontMetrics(chat.getFont());
+		int width = chatWidth;
+		String line;
+		while((line = pendingLines.poll()) != null) {
+			pendingCount.decrementAndGet();
+			batch.add(line);
+			width = Math.max(width, metrics.stringWidth(line));
+		}
+		if(width > chatWidth) {
+			// Solo se mide lo que llega: con el ancho fijo la lista nunca recorre el historial
+			chatWidth = width;
+			chat.setFixedCellWidth(chatWidth + 8);
+		}
+		int last = scrollback.getSize() - 1;
+		boolean atBottom = last < 0 || chat.getLastVisibleIndex() >= last;
+		scrollback.addAll(batch);
+		if(atBottom && scrollback.getSize() > 0) {
+			chat.ensureIndexIsVisible(scrollback.getSize() - 1);
+		}
 	}
 
 	@Override
@@ -187,8 +463,8 @@ public class View extends JFrame implements WindowListener {
 
 	@Override
 	public void windowClosing(WindowEvent e) {
-		runState = false;
 		setVisible(false);
+		refreshTimer.stop();
 		controller.stopAndQuit();
 	}
 
@@ -206,32 +482,4 @@ public class View extends JFrame implements WindowListener {
 
 	@Override
 	public void windowDeactivated(WindowEvent e) {}
-
-	private void pullConnection() {
-		DefaultTableModel tm = (DefaultTableModel) connections.getModel();
-		while (runState) {
-			boolean validConnections = false;
-
-			for (int i = 0; i < tm.getRowCount(); ++i) {
-				String ip = (String) tm.getValueAt(i, 0);
-				if (MyP2P.isValidIp(ip)) {
-					boolean isConnected = controller.getConnectionStatus(ip);
-					validConnections |= isConnected;
-					tm.setValueAt(isConnected ? "CONNECTED" : "DISCONNECTED", i, 1);
-				} else {
-					tm.setValueAt("", i, 1);
-				}
-			}
-
-			validConnectionsInTable = validConnections;
-			sendButton.setEnabled(validConnectionsInTable);
-			inputMessage.setEnabled(validConnectionsInTable);
-
-			try {
-				Thread.sleep(500);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			}
-		}
-	}
 }
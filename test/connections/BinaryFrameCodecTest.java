@@ -0,0 +1,120 @@
+package connections;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import view.Frame;
+
+class BinaryFrameCodecTest {
+
+	private static Frame frame(Frame.FrameType type, String payload) {
+		Frame frame = new Frame();
+		frame.setFrameType(type);
+		frame.setHeader(7, Ipv4Address.parse("10.0.0.1"), Ipv4Address.parse("10.0.0.2"));
+		frame.setPayload(payload);
+		return frame;
+	}
+
+	/**
+	 * Decodifica lo que devuelve encode, quitando el prefijo de longitud.
+	 */
+	private static Frame roundTrip(Frame frame) throws Exception {
+		byte[] bytes = BinaryFrameCodec.encode(frame);
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		assertEquals(bytes.length - Integer.BYTES, buffer.getInt());
+		return BinaryFrameCodec.decode(buffer.slice());
+	}
+
+	private static void assertSameFrame(Frame expected, Frame actual) {
+		assertEquals(expected.getFrameType(), actual.getFrameType());
+		assertEquals(expected.getTimeToLive(), actual.getTimeToLive());
+		assertEquals(expected.getSourceAddress(), actual.getSourceAddress());
+		assertEquals(expected.getTargetAddress(), actual.getTargetAddress());
+		assertEquals(expected.getMessageId(), actual.getMessageId());
+		assertEquals(expected.getChannel(), actual.getChannel());
+		assertEquals(expected.getPayload(), actual.getPayload());
+	}
+
+	@Test
+	void roundTripsEveryField() throws Exception {
+		Frame message = frame(Frame.FrameType.MESSAGE, "hola, ñandú 😀");
+		message.setMessageId(0x8000_0000_1234_5678L);
+		message.setChannel("room-1");
+		Frame decoded = roundTrip(message);
+		assertSameFrame(message, decoded);
+		assertEquals("10.0.0.1", decoded.getSourceIP());
+		assertEquals("10.0.0.2", decoded.getTargetIP());
+	}
+
+	@Test
+	void roundTripsFramesWithoutOptionalFields() throws Exception {
+		for(Frame.FrameType type: Frame.FrameType.values()) {
+			Frame frame = frame(type, null);
+			Frame decoded = roundTrip(frame);
+			assertSameFrame(frame, decoded);
+			assertNull(decoded.getChannel());
+		}
+	}
+
+	@Test
+	void roundTripsBroadcastTarget() throws Exception {
+		Frame frame = frame(Frame.FrameType.MESSAGE, "");
+		frame.setHeader(1, Ipv4Address.parse("10.0.0.1"), Ipv4Address.BROADCAST);
+		Frame decoded = roundTrip(frame);
+		assertEquals("*", decoded.getTargetIP());
+		assertEquals("", decoded.getPayload());
+	}
+
+	@Test
+	void roundTripsCompressedPayloads() throws Exception {
+		// Cada extremo tiene su propio estado de compresión, que se mantiene entre marcos del enlace
+		PayloadCompression sender = BinaryFrameCodec.newCompression(BinaryFrameCodec.VERSION, 256, new LinkStats());
+		PayloadCompression receiver = BinaryFrameCodec.newCompression(BinaryFrameCodec.VERSION, 256, new LinkStats());
+		char[] text = new char[64 * 1024];
+		for(int round = 0; round < 3; ++round) {
+			Arrays.fill(text, (char) ('a' + round));
+			Frame frame = frame(Frame.FrameType.MESSAGE, new String(text));
+			frame.setMessageId(42 + round);
+			byte[] bytes = BinaryFrameCodec.encode(frame, sender, null);
+			assertTrue(bytes.length < text.length / 10, "payload was not compressed: " + bytes.length + " bytes");
+			ByteBuffer buffer = ByteBuffer.wrap(bytes, Integer.BYTES, bytes.length - Integer.BYTES).slice();
+			assertSameFrame(frame, BinaryFrameCodec.decode(buffer, receiver, null));
+		}
+	}
+
+	@Test
+	void rejectsCorruptFrames() {
+		byte[] bytes = BinaryFrameCodec.encode(frame(Frame.FrameType.MESSAGE, "x"));
+		ByteBuffer truncated = ByteBuffer.wrap(bytes, Integer.BYTES, 5).slice();
+		assertThrows(StreamCorruptedException.class, () -> BinaryFrameCodec.decode(truncated));
+		byte[] unknownType = bytes.clone();
+		unknownType[Integer.BYTES] = (byte) 0xFF;
+		assertThrows(StreamCorruptedException.class, () -> BinaryFrameCodec.decode(ByteBuffer.wrap(unknownType, Integer.BYTES, unknownType.length - Integer.BYTES).slice()));
+	}
+
+	@Test
+	void rejectsLongChannelNames() {
+		Frame frame = frame(Frame.FrameType.MESSAGE, "x");
+		char[] channel = new char[BinaryFrameCodec.MAX_CHANNEL_BYTES + 1];
+		Arrays.fill(channel, 'c');
+		frame.setChannel(new String(channel));
+		assertThrows(IllegalArgumentException.class, () -> BinaryFrameCodec.encode(frame));
+	}
+
+	@Test
+	void encodesSmallFramesCompactly() {
+		byte[] expectedHeader = {(byte) Frame.FrameType.PING.ordinal()};
+		byte[] bytes = BinaryFrameCodec.encode(frame(Frame.FrameType.PING, null));
+		assertArrayEquals(expectedHeader, Arrays.copyOfRange(bytes, Integer.BYTES, Integer.BYTES + 1));
+		assertTrue(bytes.length <= 16, bytes.length + " bytes");
+	}
+}
@@ -0,0 +1,69 @@
+package connections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.InetAddress;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+class Ipv4AddressTest {
+
+	// La expresión regular que usaba MyP2P.isValidIp antes de Ipv4Address
+	private static final Pattern IPV4_PATTERN =
+			Pattern.compile("^(([0-9]|[1-9][0-9]|1[0-9][0-9]|2[0-4][0-9]|25[0-5])(\\.(?!$)|$)){4}$");
+
+	@Test
+	void acceptsDottedQuads() {
+		assertTrue(Ipv4Address.isValid("0.0.0.0"));
+		assertTrue(Ipv4Address.isValid("10.0.3.17"));
+		assertTrue(Ipv4Address.isValid("255.255.255.255"));
+	}
+
+	@Test
+	void rejectsMalformedAddresses() {
+		for(String ip: new String[]{null, "", "*", "1.2.3", "1.2.3.4.5", "256.0.0.1", "01.2.3.4", "1..2.3", "1.2.3.", ".1.2.3",
+				"1.2.3.4 ", "a.b.c.d", "1.2.3.1000", "-1.2.3.4"}) {
+			assertFalse(Ipv4Address.isValid(ip), String.valueOf(ip));
+		}
+	}
+
+	@Test
+	void agreesWithTheOldRegex() {
+		Random random = new Random(7);
+		String alphabet = "0123456789.";
+		for(int i = 0; i < 200_000; ++i) {
+			StringBuilder ip = new StringBuilder();
+			int length = 1 + random.nextInt(16);
+			for(int k = 0; k < length; ++k) {
+				ip.append(alphabet.charAt(random.nextInt(alphabet.length())));
+			}
+			String candidate = ip.toString();
+			assertEquals(IPV4_PATTERN.matcher(candidate).matches(), Ipv4Address.isValid(candidate), candidate);
+		}
+	}
+
+	@Test
+	void parseAndToStringRoundTrip() {
+		assertEquals(0x0A000311, Ipv4Address.parse("10.0.3.17"));
+		assertEquals("10.0.3.17", Ipv4Address.toString(0x0A000311));
+		assertEquals("192.168.255.1", Ipv4Address.toString(Ipv4Address.parse("192.168.255.1")));
+	}
+
+	@Test
+	void broadcastAndInvalidAddresses() {
+		assertEquals(Ipv4Address.BROADCAST, Ipv4Address.parse("*"));
+		assertEquals(Ipv4Address.BROADCAST, Ipv4Address.parse(null));
+		assertEquals("*", Ipv4Address.toString(Ipv4Address.BROADCAST));
+		assertEquals(Ipv4Address.ANY, Ipv4Address.parse("not an ip"));
+	}
+
+	@Test
+	void packsSocketAddresses() throws Exception {
+		assertEquals(Ipv4Address.parse("127.0.0.1"), Ipv4Address.of(InetAddress.getByName("127.0.0.1")));
+		assertEquals(Ipv4Address.ANY, Ipv4Address.of(InetAddress.getByName("::1")));
+	}
+}
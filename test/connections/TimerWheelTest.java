@@ -0,0 +1,121 @@
+package connections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import controller.MyP2P;
+import controller.NodeConfig;
+
+class TimerWheelTest {
+
+	private static MemoryNetwork network;
+	private static MyP2P node;
+	private TimerWheel wheel;
+
+	@BeforeAll
+	static void startNode() {
+		// El nodo solo pone el ejecutor en el que corre la rueda
+		network = new MemoryNetwork();
+		node = new MyP2P(new ArrayList<>(), new NodeConfig()
+				.setTransportMode(TransportMode.MEMORY)
+				.setMemoryNetwork(network)
+				.setBindAddress("10.0.0.1")
+				.setStoreDirectory(null));
+	}
+
+	@AfterAll
+	static void stopNode() {
+		node.stop();
+		network.shutdown();
+	}
+
+	@BeforeEach
+	void startWheel() {
+		// 8 casillas de 10 ms: cualquier retardo de más de 80 ms da más de una vuelta
+		wheel = new TimerWheel(10, 8);
+		wheel.start(node);
+	}
+
+	@AfterEach
+	void stopWheel() {
+		wheel.stop();
+	}
+
+	@Test
+	void runsTasksInDeadlineOrder() throws InterruptedException {
+		List<Long> fired = new ArrayList<>();
+		CountDownLatch done = new CountDownLatch(4);
+		for(long delay: new long[]{250, 30, 120, 0}) {
+			wheel.schedule(() -> {
+				synchronized (fired) {
+					fired.add(delay);
+				}
+				done.countDown();
+			}, delay);
+		}
+		assertTrue(done.await(2, TimeUnit.SECONDS));
+		assertEquals(List.of(0L, 30L, 120L, 250L), fired);
+	}
+
+	@Test
+	void doesNotFireEarly() throws InterruptedException {
+		long start = System.nanoTime();
+		long[] elapsedMillis = {-1};
+		CountDownLatch done = new CountDownLatch(1);
+		// Más de dos vueltas de la rueda
+		wheel.schedule(() -> {
+			elapsedMillis[0] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			done.countDown();
+		}, 200);
+		assertTrue(done.await(2, TimeUnit.SECONDS));
+		assertTrue(elapsedMillis[0] >= 200 - 10, elapsedMillis[0] + " ms");
+	}
+
+	@Test
+	void cancelledTasksDoNotRun() throws InterruptedException {
+		AtomicBoolean cancelledRan = new AtomicBoolean();
+		CountDownLatch done = new CountDownLatch(1);
+		TimerWheel.Timeout timeout = wheel.schedule(() -> cancelledRan.set(true), 50);
+		wheel.schedule(done::countDown, 150);
+		timeout.cancel();
+		assertTrue(timeout.isCancelled());
+		assertTrue(done.await(2, TimeUnit.SECONDS));
+		assertFalse(cancelledRan.get());
+	}
+
+	@Test
+	void tasksRunOnTheWheelThreadAndMayReschedule() throws InterruptedException {
+		AtomicBoolean onWheel = new AtomicBoolean();
+		CountDownLatch done = new CountDownLatch(1);
+		wheel.schedule(() -> {
+			onWheel.set(TimerWheel.isWheelThread());
+			wheel.schedule(done::countDown, 20);
+		}, 10);
+		assertTrue(done.await(2, TimeUnit.SECONDS));
+		assertTrue(onWheel.get());
+		assertFalse(TimerWheel.isWheelThread());
+	}
+
+	@Test
+	void aFailingTaskDoesNotStopTheWheel() throws InterruptedException {
+		CountDownLatch done = new CountDownLatch(1);
+		wheel.schedule(() -> {
+			throw new IllegalStateException("expected by the test");
+		}, 10);
+		wheel.schedule(done::countDown, 40);
+		assertTrue(done.await(2, TimeUnit.SECONDS));
+	}
+}
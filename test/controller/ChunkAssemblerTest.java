@@ -0,0 +1,150 @@
+package controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import connections.Ipv4Address;
+import connections.MemoryNetwork;
+import connections.TransportMode;
+import view.Frame;
+
+class ChunkAssemblerTest {
+
+	private static final String SOURCE = "10.0.0.2";
+
+	private MemoryNetwork network;
+	private MyP2P node;
+	private final List<String> delivered = new ArrayList<>();
+
+	private ChunkAssembler start(NodeConfig config) {
+		network = new MemoryNetwork();
+		node = new MyP2P(new ArrayList<>(), config
+				.setTransportMode(TransportMode.MEMORY)
+				.setMemoryNetwork(network)
+				.setBindAddress("10.0.0.1")
+				.setStoreDirectory(null));
+		node.addMessageListener((sourceIp, messageId, message) -> {
+			synchronized (delivered) {
+				delivered.add(message);
+			}
+		});
+		return node.getChunkAssembler();
+	}
+
+	@AfterEach
+	void stop() {
+		if(node != null) {
+			node.stop();
+			network.shutdown();
+		}
+	}
+
+	private static Frame chunk(long transferId, int index, int total, String part) {
+		Frame frame = new Frame();
+		frame.setFrameType(Frame.FrameType.CHUNK);
+		frame.setHeader(8, Ipv4Address.parse(SOURCE), Ipv4Address.BROADCAST);
+		frame.setMessageId(transferId + index);
+		frame.setPayload(ChunkAssembler.encode(transferId, index, total, part));
+		return frame;
+	}
+
+	@Test
+	void splitsWithoutBreakingSurrogatePairs() {
+		assertEquals(List.of("abc", "de"), ChunkAssembler.split("abcde", 3));
+		assertEquals(List.of("a", "😀", "b"), ChunkAssembler.split("a😀b", 2));
+		assertEquals(List.of(), ChunkAssembler.split("", 3));
+	}
+
+	@Test
+	void reassemblesChunksInAnyOrder() {
+		ChunkAssembler assembler = start(new NodeConfig());
+		List<String> parts = ChunkAssembler.split("the quick brown fox jumps over the lazy dog", 5);
+		long transferId = 0x1000;
+		for(int i = parts.size() - 1; i >= 0; --i) {
+			assembler.onChunk(chunk(transferId, i, parts.size(), parts.get(i)));
+		}
+		assertEquals(List.of("the quick brown fox jumps over the lazy dog"), delivered);
+		assertEquals(1, assembler.getCompleted());
+		assertEquals(0, assembler.getPending());
+		assertEquals(0, assembler.getBufferedChars());
+	}
+
+	@Test
+	void ignoresRepeatedAndMalformedChunks() {
+		ChunkAssembler assembler = start(new NodeConfig());
+		assembler.onChunk(chunk(0x2000, 0, 2, "ab"));
+		long buffered = assembler.getBufferedChars();
+		assembler.onChunk(chunk(0x2000, 0, 2, "ab"));
+		assembler.onChunk(chunk(0x2000, 5, 2, "zz"));
+		Frame malformed = chunk(0x2000, 1, 2, "cd");
+		malformed.setPayload("2000:x/2:cd");
+		assembler.onChunk(malformed);
+		assertEquals(buffered, assembler.getBufferedChars());
+		assembler.onChunk(chunk(0x2000, 1, 2, "cd"));
+		assertEquals(List.of("abcd"), delivered);
+	}
+
+	@Test
+	void dropsMessagesLongerThanTheLimit() {
+		ChunkAssembler assembler = start(new NodeConfig().setMaxMessageChars(10));
+		assembler.onChunk(chunk(0x3000, 0, 3, "123456"));
+		assembler.onChunk(chunk(0x3000, 1, 3, "789012"));
+		assertEquals(1, assembler.getAbandoned());
+		assertEquals(0, assembler.getPending());
+		assertTrue(delivered.isEmpty());
+	}
+
+	@Test
+	void abandonsTheOldestTransferWhenTheBufferIsFull() {
+		ChunkAssembler assembler = start(new NodeConfig().setReassemblyBufferChars(100));
+		assembler.onChunk(chunk(0x4000, 0, 2, "a".repeat(60)));
+		assembler.onChunk(chunk(0x5000, 0, 2, "b".repeat(60)));
+		assertEquals(1, assembler.getAbandoned());
+		assertEquals(1, assembler.getPending());
+		assembler.onChunk(chunk(0x5000, 1, 2, "c"));
+		assertEquals(List.of("b".repeat(60) + "c"), delivered);
+	}
+
+	@Test
+	void countsTheChunkTableInTheBudget() {
+		ChunkAssembler assembler = start(new NodeConfig().setReassemblyBufferChars(1000));
+		// Un solo carácter, pero anuncia el máximo de fragmentos: su tabla no cabe en el búfer
+		assembler.onChunk(chunk(0x6000, 0, ChunkAssembler.MAX_CHUNKS, "x"));
+		assertEquals(0, assembler.getPending());
+		assertEquals(0, assembler.getBufferedChars());
+		assertEquals(1, assembler.getAbandoned());
+		assembler.onChunk(chunk(0x7000, 0, 2, "ab"));
+		assertTrue(assembler.getBufferedChars() > 2, "the table of the transfer is not counted");
+	}
+
+	@Test
+	void dropsATransferThatOutgrowsTheBufferOnItsOwn() {
+		ChunkAssembler assembler = start(new NodeConfig().setReassemblyBufferChars(100));
+		assembler.onChunk(chunk(0x8000, 0, 3, "a".repeat(40)));
+		assembler.onChunk(chunk(0x8000, 1, 3, "b".repeat(40)));
+		assembler.onChunk(chunk(0x8000, 2, 3, "c".repeat(40)));
+		assertEquals(0, assembler.getPending());
+		assertEquals(0, assembler.getBufferedChars());
+		assertEquals(1, assembler.getAbandoned());
+		assertTrue(delivered.isEmpty());
+	}
+
+	@Test
+	void neverGoesOverTheBudget() {
+		ChunkAssembler assembler = start(new NodeConfig().setReassemblyBufferChars(200));
+		for(int transfer = 0; transfer < 20; ++transfer) {
+			for(int index = 0; index < 3; ++index) {
+				assembler.onChunk(chunk(0x10000L * (transfer + 1), index, 4, "z".repeat(10 + transfer)));
+				assertTrue(assembler.getBufferedChars() <= 200, assembler.getBufferedChars() + " chars buffered");
+			}
+		}
+		assertTrue(assembler.getAbandoned() > 0);
+		assertTrue(delivered.isEmpty());
+	}
+}
@@ -0,0 +1,184 @@
+package controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import connections.Ipv4Address;
+import connections.MemoryNetwork;
+import connections.TransportMode;
+import view.Frame;
+
+class HistorySyncTest {
+
+	private static final int ORIGIN = 0x1234;
+
+	private final MemoryNetwork network = new MemoryNetwork();
+	private final List<MyP2P> nodes = new ArrayList<>();
+	private final List<String> delivered = new ArrayList<>();
+
+	private MyP2P start(String address, String seed) {
+		ArrayList<String> seeds = new ArrayList<>();
+		if(seed != null) {
+			seeds.add(seed);
+		}
+		MyP2P node = new MyP2P(seeds, new NodeConfig()
+				.setTransportMode(TransportMode.MEMORY)
+				.setMemoryNetwork(network)
+				.setBindAddress(address)
+				.setStoreDirectory(null));
+		nodes.add(node);
+		return node;
+	}
+
+	@AfterEach
+	void stop() {
+		for(MyP2P node: nodes) {
+			node.stop();
+		}
+		network.shutdown();
+	}
+
+	private List<String> awaitDelivered(int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while(System.currentTimeMillis() < deadline) {
+			synchronized (delivered) {
+				if(delivered.size() >= count) {
+					break;
+				}
+			}
+			Thread.sleep(20);
+		}
+		synchronized (delivered) {
+			return List.copyOf(delivered);
+		}
+	}
+
+	@Test
+	void catchesUpAPeerThatConnectsLate() throws InterruptedException {
+		MyP2P early = start("10.0.0.1", null);
+		early.sendMessage("*", "first");
+		early.sendMessage("*", "second");
+
+		MyP2P late = start("10.0.0.2", "10.0.0.1");
+		late.addMessageListener((sourceIp, messageId, message) -> {
+			synchronized (delivered) {
+				delivered.add(message);
+			}
+		});
+		assertEquals(List.of("first", "second"), awaitDelivered(2));
+		assertEquals(1, early.getHistorySync().getSyncs());
+	}
+
+	private static Frame broadcast(int origin, int sequence) {
+		Frame frame = new Frame();
+		frame.setFrameType(Frame.FrameType.MESSAGE);
+		frame.setHeader(8, Ipv4Address.parse("10.0.0.9"), Ipv4Address.BROADCAST);
+		frame.setMessageId((long) origin << 32 | sequence);
+		frame.setPayload("m" + sequence);
+		return frame;
+	}
+
+	private static HistorySync received(int origin, int... sequences) {
+		HistorySync sync = new HistorySync(100, 100);
+		for(int sequence: sequences) {
+			sync.record(broadcast(origin, sequence));
+		}
+		return sync;
+	}
+
+	private static List<Integer> sequences(List<Frame> frames) {
+		List<Integer> sequences = new ArrayList<>();
+		for(Frame frame: frames) {
+			sequences.add(frame.getSequence());
+		}
+		return sequences;
+	}
+
+	@Test
+	void summarisesThePrefixAndTheGaps() {
+		HistorySync.Marks marks = new HistorySync.Marks();
+		for(int sequence: new int[]{1, 2, 5, 6, 9}) {
+			marks.add(sequence);
+		}
+		StringBuilder summary = new StringBuilder();
+		marks.appendTo(summary);
+		assertEquals("2:9:3-4:7-8", summary.toString());
+
+		marks.add(4);
+		marks.add(3);
+		marks.add(8);
+		summary.setLength(0);
+		marks.appendTo(summary);
+		assertEquals("6:9:7-7", summary.toString());
+
+		marks.add(7);
+		assertEquals(9, marks.getPrefix());
+		assertEquals(9, marks.getHighest());
+	}
+
+	@Test
+	void sendsWhatFallsInTheGapsAndAfterTheHighest() {
+		HistorySync responder = received(ORIGIN, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+		HistorySync requester = received(ORIGIN, 1, 2, 5, 6, 8);
+		assertEquals(List.of(3, 4, 7, 9, 10), sequences(responder.missing(requester.summary(), true)));
+		// Un nodo anterior solo envía su secuencia más alta
+		assertEquals(List.of(9, 10), sequences(responder.missing(Integer.toHexString(ORIGIN) + ":8", true)));
+		// Un origen que el vecino no conoce se le envía entero
+		assertEquals(10, responder.missing("", true).size());
+	}
+
+	@Test
+	void seedKeepsTheGapsOfTheLog() {
+		HistorySync responder = received(ORIGIN, 1, 2, 3, 4, 5);
+		HistorySync restarted = new HistorySync(100, 100);
+		long base = (long) ORIGIN << 32;
+		restarted.seed(List.of(
+				new StoredMessage(0, false, 0, base | 1, "m1"),
+				new StoredMessage(0, false, 0, base | 2, "m2"),
+				new StoredMessage(0, false, 0, base | 5, "m5")));
+		assertEquals(List.of(3, 4), sequences(responder.missing(restarted.summary(), true)));
+	}
+
+	@Test
+	void givesUpTheOldestGapsPastTheLimit() {
+		HistorySync.Marks marks = new HistorySync.Marks();
+		int highest = 2 * (HistorySync.MAX_GAPS + 4) + 1;
+		for(int sequence = 1; sequence <= highest; sequence += 2) {
+			marks.add(sequence);
+		}
+		StringBuilder summary = new StringBuilder();
+		marks.appendTo(summary);
+		assertEquals(HistorySync.MAX_GAPS, summary.toString().split(":").length - 2);
+		assertEquals(highest, marks.getHighest());
+		assertTrue(marks.getPrefix() > 0);
+	}
+
+	@Test
+	void forgetsTheOriginSeenLongestAgo() {
+		HistorySync sync = new HistorySync(2 * HistorySync.MAX_ORIGINS, 100);
+		for(int origin = 1; origin <= HistorySync.MAX_ORIGINS; ++origin) {
+			sync.record(broadcast(origin, 1));
+		}
+		sync.record(broadcast(1, 2));
+		sync.record(broadcast(HistorySync.MAX_ORIGINS + 1, 1));
+
+		Set<String> origins = new HashSet<>();
+		for(String entry: sync.summary().split(",")) {
+			origins.add(entry.substring(0, entry.indexOf(':')));
+		}
+		assertEquals(HistorySync.MAX_ORIGINS, origins.size());
+		assertTrue(origins.contains("1"));
+		assertTrue(origins.contains(Integer.toHexString(HistorySync.MAX_ORIGINS + 1)));
+		// El segundo origen es el que lleva más tiempo sin mensajes
+		assertFalse(origins.contains("2"));
+	}
+}
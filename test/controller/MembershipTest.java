@@ -0,0 +1,122 @@
+package controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import connections.Connection;
+import connections.MemoryNetwork;
+import connections.TransportMode;
+
+/**
+ * Convergencia del gossip en una malla de 200 nodos unidos por una MemoryNetwork.
+ * Cada nodo solo conoce de arranque al anterior (una línea, el peor caso para descubrir peers):
+ * el gossip tiene que llenar la vista activa de todos con peers que no eran de arranque.
+ */
+class MembershipTest {
+
+	private static final int NODES = 200;
+	private static final int ACTIVE_VIEW = 6;
+	private static final long TIMEOUT_MILLIS = 60_000;
+
+	private final MemoryNetwork network = new MemoryNetwork(200, 100, 0);
+	private final List<MyP2P> nodes = new ArrayList<>();
+
+	private static String address(int node) {
+		return "10.1." + (node / 250) + "." + (node % 250 + 1);
+	}
+
+	@AfterEach
+	void stop() throws InterruptedException {
+		ExecutorService stopper = Executors.newFixedThreadPool(16);
+		for(MyP2P node: nodes) {
+			stopper.execute(node::stop);
+		}
+		stopper.shutdown();
+		stopper.awaitTermination(30, TimeUnit.SECONDS);
+		network.shutdown();
+	}
+
+	@Test
+	void fillsEveryActiveViewFromALine() throws InterruptedException {
+		for(int i = 0; i < NODES; ++i) {
+			ArrayList<String> seeds = new ArrayList<>();
+			if(i > 0) {
+				seeds.add(address(i - 1));
+			}
+			nodes.add(new MyP2P(seeds, new NodeConfig()
+					.setTransportMode(TransportMode.MEMORY)
+					.setMemoryNetwork(network)
+					.setBindAddress(address(i))
+					.setStoreDirectory(null)
+					.setGossipIntervalMillis(100)
+					.setActiveViewSize(ACTIVE_VIEW)));
+		}
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		int converged = 0;
+		while(System.currentTimeMillis() < deadline) {
+			converged = 0;
+			for(MyP2P node: nodes) {
+				if(connected(node).size() >= ACTIVE_VIEW) {
+					++converged;
+				}
+			}
+			if(converged == NODES) {
+				break;
+			}
+			Thread.sleep(200);
+		}
+		assertEquals(NODES, converged, "nodes with a full active view");
+
+		// Todos los enlaces juntos forman una malla conexa
+		Map<String, Set<String>> links = new HashMap<>();
+		for(int i = 0; i < NODES; ++i) {
+			for(String peer: connected(nodes.get(i))) {
+				links.computeIfAbsent(address(i), k -> new HashSet<>()).add(peer);
+				links.computeIfAbsent(peer, k -> new HashSet<>()).add(address(i));
+			}
+		}
+		Set<String> reached = new HashSet<>();
+		Queue<String> pending = new ArrayDeque<>(List.of(address(0)));
+		while(!pending.isEmpty()) {
+			String ip = pending.poll();
+			if(reached.add(ip)) {
+				pending.addAll(links.getOrDefault(ip, Set.of()));
+			}
+		}
+		assertEquals(NODES, reached.size(), "nodes reachable from the first one");
+
+		// Cada nodo ha descubierto peers más allá de sus vecinos en la línea
+		for(int i = 0; i < NODES; ++i) {
+			Set<String> discovered = new HashSet<>(connected(nodes.get(i)));
+			discovered.addAll(nodes.get(i).getMembership().getPassiveView());
+			discovered.remove(address(i - 1 < 0 ? 1 : i - 1));
+			discovered.remove(address(i + 1 < NODES ? i + 1 : i - 1));
+			assertTrue(discovered.size() >= ACTIVE_VIEW - 2, address(i) + " only knows " + discovered);
+		}
+	}
+
+	private static List<String> connected(MyP2P node) {
+		List<String> peers = new ArrayList<>();
+		for(Connection connection: node.getPeersList()) {
+			if(connection.isOk()) {
+				peers.add(connection.getClientIp());
+			}
+		}
+		return peers;
+	}
+}
@@ -0,0 +1,98 @@
+package controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import connections.Ipv4Address;
+import connections.MemoryNetwork;
+import connections.TransportMode;
+
+class MessageStoreTest {
+
+	private static final int PEER = Ipv4Address.parse("10.0.0.2");
+
+	@TempDir
+	Path directory;
+
+	private MemoryNetwork network;
+	private MyP2P node;
+
+	@BeforeEach
+	void start() {
+		network = new MemoryNetwork();
+		node = new MyP2P(new ArrayList<>(), new NodeConfig()
+				.setTransportMode(TransportMode.MEMORY)
+				.setMemoryNetwork(network)
+				.setBindAddress("10.0.0.1")
+				.setStoreDirectory(null));
+	}
+
+	@AfterEach
+	void stop() {
+		node.stop();
+		network.shutdown();
+	}
+
+	private static List<String> texts(List<StoredMessage> messages) {
+		List<String> texts = new ArrayList<>();
+		for(StoredMessage message: messages) {
+			texts.add(message.getText());
+		}
+		return texts;
+	}
+
+	@Test
+	void rebuildsAnEmptyIndex() throws IOException {
+		MessageStore store = new MessageStore(node, directory);
+		store.open();
+		store.append(false, PEER, 1, "one");
+		store.append(true, PEER, 2, "two");
+		store.close();
+		Files.write(directory.resolve(String.format("%020d.idx", 0)), new byte[0]);
+
+		MessageStore reopened = new MessageStore(node, directory);
+		reopened.open();
+		assertEquals(List.of("one", "two"), texts(reopened.last(10)));
+		reopened.close();
+	}
+
+	@Test
+	void compactionDropsTruncatedRecords() throws IOException, InterruptedException {
+		// Dos registros por segmento
+		node.getConfig().setSegmentBytes(128);
+		MessageStore store = new MessageStore(node, directory);
+		store.open();
+		store.append(false, PEER, 1, "old-------");
+		Thread.sleep(400);
+		store.append(false, PEER, 2, "cut-------");
+		store.append(false, PEER, 3, "new-------");
+		store.close();
+		// El segundo registro del primer segmento se queda a medias
+		try (FileChannel log = FileChannel.open(directory.resolve(String.format("%020d.log", 0)), StandardOpenOption.WRITE)) {
+			log.truncate(log.size() - 10);
+		}
+
+		// Al abrir se compacta el primer segmento, que solo está en parte fuera de la retención
+		node.getConfig().setRetentionMillis(300);
+		MessageStore compacted = new MessageStore(node, directory);
+		compacted.open();
+		long deadline = System.currentTimeMillis() + 5000;
+		while(compacted.last(10).size() > 1 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		assertEquals(List.of("new-------"), texts(compacted.last(10)));
+		compacted.close();
+	}
+}
@@ -0,0 +1,48 @@
+package controller;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import connections.TransportMode;
+
+class MyP2PTest {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void throwsWhenTheTlsKeyStoreCannotBeRead() {
+		NodeConfig config = new NodeConfig()
+				.setServerPort(0)
+				.setBindAddress("127.0.0.1")
+				.setStoreDirectory(null)
+				.setTlsKeyStore(directory.resolve("missing.p12").toString());
+		assertThrows(IllegalStateException.class, () -> new MyP2P(new ArrayList<>(), config));
+	}
+
+	@ParameterizedTest
+	@EnumSource(value = TransportMode.class, names = {"THREAD", "VIRTUAL", "NIO"})
+	void throwsWhenThePortIsTaken(TransportMode mode) throws IOException {
+		// Los hilos virtuales necesitan Java 21
+		assumeTrue(mode != TransportMode.VIRTUAL || Runtime.version().feature() >= 21);
+		try (ServerSocket taken = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+			NodeConfig config = new NodeConfig()
+					.setTransportMode(mode)
+					.setServerPort(taken.getLocalPort())
+					.setBindAddress("127.0.0.1")
+					.setStoreDirectory(null);
+			assertThrows(IllegalStateException.class, () -> new MyP2P(new ArrayList<>(), config));
+		}
+	}
+}
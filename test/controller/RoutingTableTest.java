@@ -0,0 +1,118 @@
+package controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import connections.Connection;
+import connections.Ipv4Address;
+import connections.MemoryNetwork;
+import connections.TransportMode;
+
+class RoutingTableTest {
+
+	private static MemoryNetwork network;
+	private static MyP2P node;
+	private RoutingTable table;
+	private Connection a;
+	private Connection b;
+
+	@BeforeAll
+	static void startNode() {
+		// Solo para crear las conexiones; la tabla de la prueba no se arranca y no envía anuncios
+		network = new MemoryNetwork();
+		node = new MyP2P(new ArrayList<>(), new NodeConfig()
+				.setTransportMode(TransportMode.MEMORY)
+				.setMemoryNetwork(network)
+				.setBindAddress("10.0.0.1")
+				.setStoreDirectory(null));
+	}
+
+	@AfterAll
+	static void stopNode() {
+		node.stop();
+		network.shutdown();
+	}
+
+	@BeforeEach
+	void connectNeighbours() {
+		table = new RoutingTable(60_000, 60_000);
+		a = new Connection(node, "10.0.0.2");
+		b = new Connection(node, "10.0.0.3");
+		table.connected(a);
+		table.connected(b);
+	}
+
+	private static int address(String ip) {
+		return Ipv4Address.parse(ip);
+	}
+
+	@Test
+	void neighboursAreOneHopAway() {
+		assertSame(a, table.nextHop(address("10.0.0.2")));
+		assertSame(b, table.nextHop(address("10.0.0.3")));
+		assertNull(table.nextHop(address("10.0.0.9")));
+		assertEquals(2, table.getRoutes().size());
+		assertEquals(1, table.getRoutes().get(0).getHops());
+	}
+
+	@Test
+	void picksTheShortestAdvertisedPath() {
+		table.onAdvert(a, "10.0.0.9 3,10.0.0.8 1");
+		table.onAdvert(b, "10.0.0.9 1");
+		assertSame(b, table.nextHop(address("10.0.0.9")));
+		assertSame(a, table.nextHop(address("10.0.0.8")));
+		RoutingTable.Route route = table.getRoutes().stream().filter(r -> r.getDestination().equals("10.0.0.9")).findFirst().orElseThrow();
+		assertEquals(2, route.getHops());
+	}
+
+	@Test
+	void keepsTheCurrentNextHopOnATie() {
+		table.onAdvert(a, "10.0.0.9 2");
+		table.onAdvert(b, "10.0.0.9 2");
+		assertSame(a, table.nextHop(address("10.0.0.9")));
+		table.onAdvert(a, "10.0.0.9 2");
+		assertSame(a, table.nextHop(address("10.0.0.9")));
+	}
+
+	@Test
+	void aNewAdvertWithdrawsMissingDestinations() {
+		table.onAdvert(a, "10.0.0.9 1");
+		table.onAdvert(a, "");
+		assertNull(table.nextHop(address("10.0.0.9")));
+	}
+
+	@Test
+	void ignoresUnreachableAndMalformedEntries() {
+		table.onAdvert(a, "10.0.0.9 " + (RoutingTable.INFINITY - 1) + ",not-an-ip 1,10.0.0.7 x,10.0.0.6 2");
+		assertNull(table.nextHop(address("10.0.0.9")));
+		assertNull(table.nextHop(address("10.0.0.7")));
+		assertSame(a, table.nextHop(address("10.0.0.6")));
+	}
+
+	@Test
+	void disconnectingANeighbourDropsItsRoutes() {
+		table.onAdvert(a, "10.0.0.9 1");
+		table.disconnected(a);
+		assertNull(table.nextHop(address("10.0.0.2")));
+		assertNull(table.nextHop(address("10.0.0.9")));
+		// Los anuncios de quien ya no es vecino se ignoran
+		table.onAdvert(a, "10.0.0.9 1");
+		assertNull(table.nextHop(address("10.0.0.9")));
+	}
+
+	@Test
+	void lookupsAcrossTheSignBit() {
+		table.onAdvert(a, "200.0.0.1 1,10.0.0.9 1,127.0.0.5 1");
+		assertSame(a, table.nextHop(address("200.0.0.1")));
+		assertSame(a, table.nextHop(address("10.0.0.9")));
+		assertSame(a, table.nextHop(address("127.0.0.5")));
+	}
+}
@@ -0,0 +1,59 @@
+package controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class SeenMessageCacheTest {
+
+	@Test
+	void detectsDuplicates() {
+		SeenMessageCache cache = new SeenMessageCache(100, 60_000);
+		assertTrue(cache.markSeen(1));
+		assertTrue(cache.markSeen(2));
+		assertFalse(cache.markSeen(1));
+		assertTrue(cache.contains(2));
+		assertFalse(cache.contains(3));
+		assertEquals(1, cache.getHits());
+		assertEquals(2, cache.getMisses());
+		assertEquals(2, cache.size());
+	}
+
+	@Test
+	void containsDoesNotRecordOrCount() {
+		SeenMessageCache cache = new SeenMessageCache(100, 60_000);
+		assertFalse(cache.contains(7));
+		assertTrue(cache.markSeen(7));
+		assertEquals(0, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	void evictsTheOldestWhenFull() {
+		SeenMessageCache cache = new SeenMessageCache(3, 60_000);
+		for(long id = 1; id <= 5; ++id) {
+			assertTrue(cache.markSeen(id));
+		}
+		assertEquals(3, cache.size());
+		assertEquals(2, cache.getEvictions());
+		assertFalse(cache.contains(1));
+		assertFalse(cache.contains(2));
+		assertTrue(cache.contains(5));
+		// Un identificador expulsado vuelve a contar como nuevo
+		assertTrue(cache.markSeen(1));
+	}
+
+	@Test
+	void forgetsExpiredIds() throws InterruptedException {
+		SeenMessageCache cache = new SeenMessageCache(100, 20);
+		cache.markSeen(1);
+		cache.markSeen(2);
+		Thread.sleep(60);
+		assertTrue(cache.markSeen(1));
+		assertFalse(cache.contains(2));
+		assertEquals(1, cache.size());
+		assertEquals(2, cache.getEvictions());
+	}
+}
@@ -0,0 +1,132 @@
+package controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import connections.MemoryNetwork;
+import connections.TransportMode;
+import view.Frame;
+
+class StoreAndForwardTest {
+
+	private static final String SENDER = "10.0.0.1";
+	private static final String RECIPIENT = "10.0.0.2";
+
+	private final MemoryNetwork network = new MemoryNetwork();
+	private final List<MyP2P> nodes = new ArrayList<>();
+	private final List<String> delivered = new ArrayList<>();
+
+	private MyP2P start(String address, String seed) {
+		ArrayList<String> seeds = new ArrayList<>();
+		if(seed != null) {
+			seeds.add(seed);
+		}
+		MyP2P node = new MyP2P(seeds, new NodeConfig()
+				.setTransportMode(TransportMode.MEMORY)
+				.setMemoryNetwork(network)
+				.setBindAddress(address)
+				.setStoreDirectory(null)
+				.setReconnectBaseMillis(100)
+				.setReconnectMaxMillis(200));
+		nodes.add(node);
+		return node;
+	}
+
+	@AfterEach
+	void stop() {
+		for(MyP2P node: nodes) {
+			node.stop();
+		}
+		network.shutdown();
+	}
+
+	@Test
+	void flushesTheOutboxAsSoonAsTheLinkStarts() throws InterruptedException {
+		MyP2P sender = start(SENDER, RECIPIENT);
+		sender.sendMessage(RECIPIENT, "while you were away");
+		assertEquals(1, sender.getStoreAndForward().getPending());
+
+		MyP2P recipient = start(RECIPIENT, null);
+		recipient.addMessageListener((sourceIp, messageId, message) -> {
+			synchronized (delivered) {
+				delivered.add(message);
+			}
+		});
+		// Mucho antes del reintento periódico del buzón
+		long deadline = System.currentTimeMillis() + sender.getConfig().getOutboxRetryMillis() / 2;
+		while(System.currentTimeMillis() < deadline) {
+			synchronized (delivered) {
+				if(!delivered.isEmpty()) {
+					break;
+				}
+			}
+			Thread.sleep(20);
+		}
+		synchronized (delivered) {
+			assertEquals(List.of("while you were away"), delivered);
+		}
+	}
+
+	/**
+	 * Peer antiguo: solo habla serialización Java y apunta cada mensaje que recibe.
+	 */
+	private void legacyPeer(ServerSocket server) {
+		while(!server.isClosed()) {
+			try (Socket socket = server.accept()) {
+				ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+				out.flush();
+				ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
+				while(true) {
+					Frame frame = (Frame) in.readObject();
+					if(frame.getFrameType() == Frame.FrameType.MESSAGE) {
+						synchronized (delivered) {
+							delivered.add(frame.getPayload());
+						}
+					}
+				}
+			} catch (IOException | ClassNotFoundException ignored) {
+				// El nodo cierra el primer socket al descubrir que el peer es antiguo
+			}
+		}
+	}
+
+	@Test
+	void deliversOnceToALegacyPeer() throws IOException, InterruptedException {
+		try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"))) {
+			Thread peer = new Thread(() -> legacyPeer(server));
+			peer.setDaemon(true);
+			peer.start();
+			MyP2P sender = new MyP2P(new ArrayList<>(List.of("127.0.0.1")), new NodeConfig()
+					.setTransportMode(TransportMode.THREAD)
+					.setServerPort(server.getLocalPort())
+					.setBindAddress("127.0.0.2")
+					.setStoreDirectory(null)
+					.setReconnectBaseMillis(100)
+					.setReconnectMaxMillis(200)
+					.setOutboxRetryMillis(200));
+			nodes.add(sender);
+			long deadline = System.currentTimeMillis() + 5000;
+			while(!sender.isReachable("127.0.0.1") && System.currentTimeMillis() < deadline) {
+				Thread.sleep(20);
+			}
+			sender.sendMessage("127.0.0.1", "hello, old friend");
+			assertEquals(0, sender.getStoreAndForward().getPending());
+			// Varios reintentos periódicos del buzón
+			Thread.sleep(5 * sender.getConfig().getOutboxRetryMillis());
+			synchronized (delivered) {
+				assertEquals(List.of("hello, old friend"), delivered);
+			}
+		}
+	}
+}